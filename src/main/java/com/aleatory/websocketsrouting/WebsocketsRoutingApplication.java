@@ -7,12 +7,15 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.context.annotation.ImportRuntimeHints;
 import org.springframework.context.event.EventListener;
 import org.springframework.web.socket.messaging.SessionSubscribeEvent;
 
 import com.aleatory.common.app.RestartableApplication;
+import com.aleatory.websocketsrouting.config.NativeRuntimeHints;
 
 @SpringBootApplication
+@ImportRuntimeHints(NativeRuntimeHints.class)
 public class WebsocketsRoutingApplication extends RestartableApplication {
     private static final Logger logger = LoggerFactory.getLogger(WebsocketsRoutingApplication.class);
 
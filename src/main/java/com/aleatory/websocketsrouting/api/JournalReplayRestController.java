@@ -0,0 +1,57 @@
+package com.aleatory.websocketsrouting.api;
+
+import java.time.Instant;
+import java.util.Set;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.format.annotation.DateTimeFormat.ISO;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.DeleteMapping;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.ResponseBody;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.server.ResponseStatusException;
+
+import com.aleatory.websocketsrouting.journal.JournalReplayer;
+
+@RestController
+@ConditionalOnProperty(value = "journal.replay.enabled", havingValue = "true")
+public class JournalReplayRestController {
+    @Autowired
+    private JournalReplayer journalReplayer;
+
+    /**
+     * Replays the journal from..to (ISO instants) to the given destinations (all
+     * if none), at speed times the recorded pace; 0 for as fast as possible.
+     */
+    @PostMapping("/journal/replay")
+    @ResponseBody
+    public JournalReplayer.Status startReplay(@RequestParam @DateTimeFormat(iso = ISO.DATE_TIME) Instant from,
+            @RequestParam @DateTimeFormat(iso = ISO.DATE_TIME) Instant to, @RequestParam(defaultValue = "1") double speed,
+            @RequestParam(required = false) Set<String> destinations) {
+        try {
+            return journalReplayer.start(from, to, speed, destinations != null ? destinations : Set.of());
+        } catch (IllegalArgumentException e) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, e.getMessage());
+        } catch (IllegalStateException e) {
+            throw new ResponseStatusException(HttpStatus.CONFLICT, e.getMessage());
+        }
+    }
+
+    @GetMapping("/journal/replay")
+    @ResponseBody
+    public JournalReplayer.Status getReplayStatus() {
+        return journalReplayer.getStatus();
+    }
+
+    @DeleteMapping("/journal/replay")
+    @ResponseBody
+    public JournalReplayer.Status stopReplay() {
+        journalReplayer.stop();
+        return journalReplayer.getStatus();
+    }
+}
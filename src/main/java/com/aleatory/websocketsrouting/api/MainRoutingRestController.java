@@ -1,27 +1,48 @@
 package com.aleatory.websocketsrouting.api;
 
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.Map;
+
 import org.fattails.domain.Stock;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.format.annotation.DateTimeFormat.ISO;
 import org.springframework.http.HttpStatus;
 import org.springframework.web.bind.annotation.CrossOrigin;
 import org.springframework.web.bind.annotation.ExceptionHandler;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.ResponseBody;
 import org.springframework.web.bind.annotation.ResponseStatus;
 import org.springframework.web.bind.annotation.RestController;
 import org.springframework.web.client.RestTemplate;
+import org.springframework.web.server.ResponseStatusException;
 
 import com.aleatory.common.domain.CondorPosition;
 import com.aleatory.common.domain.OptionPosition;
 import com.aleatory.websocketsrouting.WebsocketsRoutingApplication;
+import com.aleatory.websocketsrouting.backend.messaging.UpstreamSequenceTracker;
+import com.aleatory.websocketsrouting.config.RedisMetrics;
+import com.aleatory.websocketsrouting.dao.SPXHistoryDao;
+import com.aleatory.websocketsrouting.delta.DeltaEncoder;
+import com.aleatory.websocketsrouting.domain.BackfillResult;
+import com.aleatory.websocketsrouting.domain.CloseHistory;
 import com.aleatory.websocketsrouting.domain.ClosePrice;
 import com.aleatory.websocketsrouting.exceptions.CouldNotConnectToPortfolioException;
+import com.aleatory.websocketsrouting.limits.SessionLimits;
+import com.aleatory.websocketsrouting.offheap.OffHeapStore;
 import com.aleatory.websocketsrouting.provider.HistoricalSPXPriceProvider;
+import com.aleatory.websocketsrouting.provider.SPXCloseBackfill;
+import com.aleatory.websocketsrouting.replay.TopicReplay;
+import com.aleatory.websocketsrouting.startup.StartupTimer;
 
 import jakarta.servlet.http.HttpServletRequest;
 
@@ -38,6 +59,36 @@ public class MainRoutingRestController {
     @Autowired
     private RestTemplate restTemplate;
 
+    @Autowired
+    private HistoricalSPXPriceProvider historicalSPXPriceProvider;
+
+    @Autowired
+    private SPXHistoryDao spxHistoryDao;
+
+    @Autowired
+    private SPXCloseBackfill spxCloseBackfill;
+
+    @Autowired
+    private RedisMetrics redisMetrics;
+
+    @Autowired
+    private TopicReplay topicReplay;
+
+    @Autowired
+    private UpstreamSequenceTracker upstreamSequences;
+
+    @Autowired(required = false)
+    private OffHeapStore offHeapStore;
+
+    @Autowired
+    private StartupTimer startupTimer;
+
+    @Autowired
+    private SessionLimits sessionLimits;
+
+    @Autowired(required = false)
+    private DeltaEncoder deltaEncoder;
+
     @GetMapping("/trading-halt-override")
     @CrossOrigin(origins = { "http://localhost:3000", "http://localhost:3030", "http://192.168.68.55:3000" }, allowCredentials = "true")
     @ResponseBody
@@ -106,19 +157,115 @@ public class MainRoutingRestController {
     public void restart() {
         WebsocketsRoutingApplication.restart(WebsocketsRoutingApplication.class);
     }
-    
-    @Autowired
-    private HistoricalSPXPriceProvider historicalSPXPriceProvider;
-    
+
     /**
      * Used when we missed the close for one reason or another and want to scrape the website for it again.
      */
     @PostMapping("/todays-close")
     @CrossOrigin(origins = { "http://localhost:3000", "http://192.168.68.51:3030" }, allowCredentials = "true")
     @ResponseBody
-    public ClosePrice fetchTodaysClose() {
-        ClosePrice closePrice = historicalSPXPriceProvider.fetchTodaysClose();
+    public ClosePrice fetchTodaysClose(@RequestParam(defaultValue = "SPX") String symbol) {
+        ClosePrice closePrice = historicalSPXPriceProvider.fetchTodaysClose(symbol.toUpperCase());
         return closePrice;
     }
 
+    /**
+     * Closes (SPX unless symbol is given) and daily percent moves for charting,
+     * straight from memory. Defaults to the last year.
+     */
+    @GetMapping("/spx-closes")
+    @CrossOrigin(origins = { "https://condors.aleatorysw.com:8443", "http://localhost:3000", "http://localhost:3030", "http://192.168.68.55:3000",
+            "http://192.168.68.55:3030" }, allowCredentials = "true")
+    @ResponseBody
+    public CloseHistory getSPXCloses(@RequestParam(defaultValue = "SPX") String symbol, @RequestParam(required = false) @DateTimeFormat(iso = ISO.DATE) LocalDate from,
+            @RequestParam(required = false) @DateTimeFormat(iso = ISO.DATE) LocalDate to) {
+        LocalDate toDate = to != null ? to : LocalDate.now();
+        LocalDate fromDate = from != null ? from : toDate.minusYears(1);
+        if (fromDate.isAfter(toDate)) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "from must not be after to");
+        }
+        return spxHistoryDao.fetchCloseHistory(symbol.toUpperCase(), fromDate, toDate);
+    }
+
+    /**
+     * Loads historical closes from CSV or saved-HTML archives on this server's
+     * disk (a file or a directory of them, relative to
+     * <code>closes.backfill.root</code>). Dates we already have are left alone.
+     */
+    @PostMapping("/spx-closes/backfill")
+    @CrossOrigin(origins = { "http://localhost:3000", "http://192.168.68.51:3030" }, allowCredentials = "true")
+    @ResponseBody
+    public BackfillResult backfillSPXCloses(@RequestParam(defaultValue = "SPX") String symbol, @RequestParam String location) throws IOException {
+        Path path = spxCloseBackfill.resolve(location);
+        if (path == null) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Archives must be under closes.backfill.root: " + location);
+        }
+        if (!Files.exists(path)) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "No such archive file or directory: " + location);
+        }
+        return spxCloseBackfill.backfill(symbol.toUpperCase(), path);
+    }
+
+    /**
+     * Redis connection, command and pipeline latencies since startup.
+     */
+    @GetMapping("/redis-metrics")
+    @ResponseBody
+    public Map<String, RedisMetrics.Stats> getRedisMetrics() {
+        return redisMetrics.snapshot();
+    }
+
+    /**
+     * Replays served to browsers, and gaps in the backends' sequence numbers.
+     */
+    @GetMapping("/sequence-stats")
+    @ResponseBody
+    public Map<String, Object> getSequenceStats() {
+        return Map.of("replay", topicReplay.getStats(), "upstream", upstreamSequences.snapshot());
+    }
+
+    /**
+     * Bytes reserved, allocated and used by the off-heap cache, by block size.
+     */
+    @GetMapping("/offheap-stats")
+    @ResponseBody
+    public OffHeapStore.Stats getOffHeapStats() {
+        if (offHeapStore == null) {
+            throw new ResponseStatusException(HttpStatus.NOT_FOUND, "The off-heap cache is off (offheap.enabled)");
+        }
+        return offHeapStore.getStats();
+    }
+
+    /**
+     * How long the last start took: to ready, to the first subscriber and to the
+     * first routed message (millis since the JVM started).
+     */
+    @GetMapping("/startup-stats")
+    @ResponseBody
+    public Map<String, Object> getStartupStats() {
+        return startupTimer.getStats();
+    }
+
+    /**
+     * Live /condors sessions and subscriptions, and how many we've turned away or
+     * closed for being idle.
+     */
+    @GetMapping("/session-stats")
+    @ResponseBody
+    public Map<String, Long> getSessionStats() {
+        return sessionLimits.getStats();
+    }
+
+    /**
+     * Delta keyframes and patches sent, and how much smaller they came out.
+     */
+    @GetMapping("/delta-stats")
+    @ResponseBody
+    public Map<String, Long> getDeltaStats() {
+        if (deltaEncoder == null) {
+            throw new ResponseStatusException(HttpStatus.NOT_FOUND, "Delta mode is off (delta.enabled)");
+        }
+        return deltaEncoder.getStats();
+    }
+
 }
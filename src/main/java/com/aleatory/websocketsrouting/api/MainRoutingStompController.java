@@ -6,40 +6,99 @@ import java.time.LocalDateTime;
 import java.time.LocalTime;
 import java.time.ZoneId;
 import java.time.temporal.ChronoUnit;
+import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.event.EventListener;
+import org.springframework.dao.DataAccessException;
+import org.springframework.data.redis.core.RedisOperations;
 import org.springframework.data.redis.core.RedisTemplate;
-import org.springframework.messaging.core.MessageSendingOperations;
+import org.springframework.data.redis.core.SessionCallback;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
 import org.springframework.scheduling.TaskScheduler;
 import org.springframework.stereotype.Service;
 import org.springframework.web.socket.messaging.SessionSubscribeEvent;
 
 import com.aleatory.common.util.TradingDays;
+import com.aleatory.websocketsrouting.delta.DeltaEncoder;
 import com.aleatory.websocketsrouting.events.SendMessageToFrontendEvent;
+import com.aleatory.websocketsrouting.replay.TopicReplay;
+import com.aleatory.websocketsrouting.snapshot.LastValueSnapshot;
 
 import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
 
 @Service
 public class MainRoutingStompController {
-    @SuppressWarnings("unused")
     private static final Logger logger = LoggerFactory.getLogger(MainRoutingStompController.class);
     
     private static final String REDIS_KEY = "CONDORS:LAST.MESSAGES";
 
     @Autowired
-    protected MessageSendingOperations<String> messagingTemplate;
+    protected TopicReplay topicReplay;
     
     @Autowired
     protected RedisTemplate<String, Object> redisTemplate;
+
+    // Last values kept locally across restarts, ahead of Redis
+    @Autowired(required = false)
+    protected LastValueSnapshot lastValueSnapshot;
+    
+    // Keyframes for subscriptions that asked for deltas
+    @Autowired(required = false)
+    protected DeltaEncoder deltaEncoder;
     
     @Autowired
     @Qualifier("messagingScheduler")
     protected TaskScheduler scheduler;
+
+    @Value("${redis.write.flush.millis:50}")
+    private long flushMillis;
+
+    // Last message per destination not yet written to Redis; only the latest matters
+    private final Map<String, Object> pendingLastMessages = new ConcurrentHashMap<>();
+
+    @PostConstruct
+    private void scheduleLastMessageFlush() {
+        scheduler.scheduleWithFixedDelay(this::flushLastMessages, Duration.ofMillis(flushMillis));
+    }
+
+    /**
+     * Writes the pending last messages in one pipeline. Anything that arrives
+     * meanwhile (or that we fail to write) waits for the next flush.
+     */
+    void flushLastMessages() {
+        if (pendingLastMessages.isEmpty()) {
+            return;
+        }
+        Map<String, Object> batch = new HashMap<>(pendingLastMessages);
+        try {
+            redisTemplate.executePipelined(new SessionCallback<Object>() {
+                @Override
+                @SuppressWarnings("unchecked")
+                public <K, V> Object execute(RedisOperations<K, V> operations) throws DataAccessException {
+                    RedisOperations<String, Object> ops = (RedisOperations<String, Object>) operations;
+                    batch.forEach((destination, payload) -> ops.opsForHash().put(REDIS_KEY, destination, payload));
+                    return null;
+                }
+            });
+        } catch (RuntimeException e) {
+            logger.warn("Could not write {} last messages to Redis; will retry: {}", batch.size(), e.getMessage());
+            return;
+        }
+        batch.forEach(pendingLastMessages::remove);
+    }
+
+    @PreDestroy
+    private void flushOnShutdown() {
+        flushLastMessages();
+    }
     
     @PostConstruct
     private void scheduleCacheClear() {
@@ -64,8 +123,10 @@ public class MainRoutingStompController {
 
     @EventListener
     private void sendToFrontEnd(SendMessageToFrontendEvent event) {
-        messagingTemplate.convertAndSend(event.getDestination(), event.getPayload());
-        redisTemplate.opsForHash().put(REDIS_KEY, event.getDestination(), event.getPayload());
+        topicReplay.publish(event.getDestination(), event.getPayload());
+        if (event.getPayload() != null && !event.isWarmup()) {
+            pendingLastMessages.put(event.getDestination(), event.getPayload());
+        }
     }
 
     @EventListener
@@ -76,11 +137,33 @@ public class MainRoutingStompController {
             return;
         }
         String destination = destHeader.substring(1, destHeader.length()-1);
-        Object message = redisTemplate.opsForHash().get(REDIS_KEY, destination);
+        String sessionId = SimpMessageHeaderAccessor.getSessionId(event.getMessage().getHeaders());
+        String subscriptionId = SimpMessageHeaderAccessor.getSubscriptionId(event.getMessage().getHeaders());
+        // Coming back after a blip: just what was missed, if we still have it
+        String lastSeq = SimpMessageHeaderAccessor.wrap(event.getMessage()).getFirstNativeHeader(TopicReplay.LAST_SEQ_HEADER);
+        String epoch = SimpMessageHeaderAccessor.wrap(event.getMessage()).getFirstNativeHeader(TopicReplay.SEQ_EPOCH_HEADER);
+        // Deltas are numbered on their own; a delta subscriber just gets a keyframe
+        String delta = SimpMessageHeaderAccessor.wrap(event.getMessage()).getFirstNativeHeader(DeltaEncoder.DELTA_HEADER);
+        if (deltaEncoder != null && deltaEncoder.isDeltaSubscription(destination, delta)) {
+            if (deltaEncoder.sendKeyframe(sessionId, subscriptionId, destination)) {
+                return;
+            }
+        } else if (lastSeq != null && topicReplay.replay(sessionId, subscriptionId, destination, lastSeq, epoch)) {
+            return;
+        } else if (topicReplay.sendLatest(sessionId, subscriptionId, destination)) {
+            return;
+        }
+        Object message = pendingLastMessages.get(destination);
+        if (message == null && lastValueSnapshot != null) {
+            message = lastValueSnapshot.get(destination);
+        }
+        if (message == null) {
+            message = redisTemplate.opsForHash().get(REDIS_KEY, destination);
+        }
         if (message == null) {
             return;
         }
-        messagingTemplate.convertAndSend(destination, message);
+        topicReplay.sendTo(sessionId, subscriptionId, destination, message);
     }
 
 }
@@ -0,0 +1,81 @@
+package com.aleatory.websocketsrouting.backend.messaging;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import com.aleatory.websocketsrouting.events.SendMessageToFrontendEvent;
+
+/**
+ * Watches the sequence numbers backends put on their messages (the
+ * <code>seq</code> STOMP header) and counts the gaps, so we know when we've
+ * lost something upstream rather than finding out from a browser.
+ *
+ * Any transport can take part: it puts the number on the
+ * {@link SendMessageToFrontendEvent} it publishes, and we pick it up from
+ * there. Today only the websockets transport gets one from its backends.
+ * Redis pub/sub (plain and sharded) and shm carry nothing but topic and
+ * payload, and redis-streams can't lose entries (they stay pending until
+ * acked), so those have nothing to check.
+ */
+@Component
+public class UpstreamSequenceTracker {
+    private static final Logger logger = LoggerFactory.getLogger(UpstreamSequenceTracker.class);
+    public static final String SEQ_HEADER = "seq";
+
+    /**
+     * @param last     last number seen
+     * @param gaps     times one or more numbers were skipped
+     * @param missed   numbers skipped in all
+     * @param restarts times the numbers went backwards (the backend restarted, or
+     *                 sent something twice)
+     */
+    public record Stats(long last, long gaps, long missed, long restarts) {
+    }
+
+    private static final class Stream {
+        long last, gaps, missed, restarts;
+    }
+
+    private final Map<String, Stream> streams = new ConcurrentHashMap<>();
+
+    @EventListener
+    void received(SendMessageToFrontendEvent event) {
+        if (event.getUpstreamSeq() > 0) {
+            observe(event.getUpstream() + ":" + event.getDestination(), event.getUpstreamSeq());
+        }
+    }
+
+    /**
+     * @param stream where the numbers come from, e.g. server and topic
+     */
+    public void observe(String stream, long seq) {
+        Stream s = streams.computeIfAbsent(stream, k -> new Stream());
+        synchronized (s) {
+            if (s.last > 0 && seq > s.last + 1) {
+                s.gaps++;
+                s.missed += seq - s.last - 1;
+                logger.warn("Missed {} messages on {} (after {}, got {})", seq - s.last - 1, stream, s.last, seq);
+            } else if (s.last > 0 && seq <= s.last) {
+                s.restarts++;
+                logger.info("Sequence on {} went back from {} to {}", stream, s.last, seq);
+            }
+            s.last = seq;
+        }
+    }
+
+    public Map<String, Stats> snapshot() {
+        Map<String, Stats> snapshot = new TreeMap<>();
+        streams.forEach((stream, s) -> {
+            synchronized (s) {
+                snapshot.put(stream, new Stats(s.last, s.gaps, s.missed, s.restarts));
+            }
+        });
+        return snapshot;
+    }
+}
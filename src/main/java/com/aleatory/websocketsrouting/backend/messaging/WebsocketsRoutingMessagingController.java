@@ -1,5 +1,8 @@
 package com.aleatory.websocketsrouting.backend.messaging;
 
+import java.util.ArrayList;
+import java.util.List;
+
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -8,7 +11,9 @@ import org.springframework.stereotype.Service;
 
 import com.aleatory.common.domain.WireClose;
 import com.aleatory.common.messaging.PubSubMessagingOperations;
+import com.aleatory.websocketsrouting.domain.ClosePrice;
 import com.aleatory.websocketsrouting.events.SPXCloseReceivedEvent;
+import com.aleatory.websocketsrouting.events.SPXClosesReconciledEvent;
 
 /**
  * Sends messages to the backend services that depend on prices. Depending on
@@ -28,13 +33,47 @@ public class WebsocketsRoutingMessagingController {
     @Autowired
     private PubSubMessagingOperations messagingOperations;
 
+    /**
+     * Closes go out on /topic/prices.&lt;symbol&gt;.close, e.g.
+     * /topic/prices.spx.close as always, /topic/prices.ndx.close. A provisional
+     * close is a plain {@link WireClose} too, but on its own topic
+     * (/topic/prices.spx.close.provisional), so only a backend that asks for
+     * provisional closes gets one.
+     */
     @EventListener
     private void sendSPXClose(SPXCloseReceivedEvent event) {
         WireClose wireClose = new WireClose();
-        wireClose.setSymbol("SPX");
+        wireClose.setSymbol(event.getSymbol());
         wireClose.setForDay(event.getForDate());
         wireClose.setClose(event.getPrice());
-        logger.info("Sending SPX close of {} for day {}", wireClose.getClose(), wireClose.getForDay());
-        messagingOperations.publishMessage("/topic/prices.spx.close", wireClose);
+        logger.info("Sending {}{} close of {} for day {}", event.isProvisional() ? "provisional " : "", event.getSymbol(), wireClose.getClose(), wireClose.getForDay());
+        messagingOperations.publishMessage(closeTopic(event.getSymbol()) + (event.isProvisional() ? ".provisional" : ""), wireClose);
+    }
+
+    private static String closeTopic(String symbol) {
+        return "/topic/prices." + symbol.toLowerCase() + ".close";
+    }
+
+    /**
+     * Sends every corrected close from a reconciliation as one message (a list of
+     * {@link WireClose}s). Finalizations don't change the price, so they aren't
+     * sent. Nothing in the bundled frontend subscribes to the corrections topic,
+     * so these reach the backends only.
+     */
+    @EventListener
+    private void sendSPXCloseCorrections(SPXClosesReconciledEvent event) {
+        if (event.getCorrections().isEmpty()) {
+            return;
+        }
+        List<WireClose> wireCloses = new ArrayList<>();
+        for (ClosePrice closePrice : event.getCorrections()) {
+            WireClose wireClose = new WireClose();
+            wireClose.setSymbol(event.getSymbol());
+            wireClose.setForDay(closePrice.getCloseDate());
+            wireClose.setClose(closePrice.getPrice());
+            wireCloses.add(wireClose);
+        }
+        logger.info("Sending {} {} close corrections", wireCloses.size(), event.getSymbol());
+        messagingOperations.publishMessage(closeTopic(event.getSymbol()) + ".corrections", wireCloses);
     }
 }
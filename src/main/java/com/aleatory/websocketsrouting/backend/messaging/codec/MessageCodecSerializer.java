@@ -0,0 +1,168 @@
+package com.aleatory.websocketsrouting.backend.messaging.codec;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import org.springframework.data.redis.serializer.GenericJackson2JsonRedisSerializer;
+import org.springframework.data.redis.serializer.RedisSerializer;
+import org.springframework.data.redis.serializer.SerializationException;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Value serializer for what goes through Redis between the backends and us.
+ * Writes either plain Jackson JSON (<code>json</code>, what every peer has
+ * always understood) or CBOR (<code>cbor</code>), and deflates anything of
+ * <code>compressMinBytes</code> or more (0 = never).
+ *
+ * Anything but plain JSON goes in an envelope so the reader knows what it's
+ * got: a 0 byte (JSON never starts with one), the content type ('J' or 'C'), a
+ * flags byte (1 = deflated, followed by the inflated length as an int) and the
+ * body. Reads take either, plus bare self-describing CBOR, so peers can switch
+ * codecs one at a time. Type ids (<code>@class</code>) come along in both
+ * formats, since peers rebuild their domain objects from them; CBOR is
+ * jackson-dataformat-cbor's, configured like the JSON mapper.
+ */
+public class MessageCodecSerializer implements RedisSerializer<Object> {
+    static final byte ENVELOPE = 0;
+    static final byte JSON = 'J';
+    static final byte CBOR = 'C';
+    static final int DEFLATED = 1;
+    // Tag 55799, which a CBOR encoder may put first to say what it is
+    static final byte[] CBOR_SELF_DESCRIBE = { (byte) 0xD9, (byte) 0xD9, (byte) 0xF7 };
+
+    // No payload of ours is anywhere near this; anything claiming to be is garbage
+    private static final int MAX_INFLATED_BYTES = 64 * 1024 * 1024;
+
+    private final ObjectMapper cborMapper;
+    private final GenericJackson2JsonRedisSerializer json;
+    private final byte contentType;
+    private final int compressMinBytes;
+
+    /**
+     * @param mapper           the default-typing mapper peers use
+     * @param cborMapper       a CBORMapper configured the same way
+     * @param codec            json or cbor
+     * @param compressMinBytes deflate bodies this size or larger; 0 for never
+     */
+    public MessageCodecSerializer(ObjectMapper mapper, ObjectMapper cborMapper, String codec, int compressMinBytes) {
+        this.cborMapper = cborMapper;
+        this.json = new GenericJackson2JsonRedisSerializer(mapper);
+        this.contentType = switch (codec.toLowerCase()) {
+        case "json" -> JSON;
+        case "cbor" -> CBOR;
+        default -> throw new IllegalArgumentException("Unknown message codec " + codec + "; use json or cbor");
+        };
+        this.compressMinBytes = compressMinBytes;
+    }
+
+    @Override
+    public byte[] serialize(Object value) throws SerializationException {
+        byte[] body;
+        if (contentType == JSON) {
+            body = json.serialize(value);
+        } else if (value == null) {
+            return new byte[0];
+        } else {
+            try {
+                body = cborMapper.writeValueAsBytes(value);
+            } catch (JsonProcessingException e) {
+                throw new SerializationException("Could not write " + value.getClass().getName() + " as CBOR", e);
+            }
+        }
+        if (compressMinBytes > 0 && body.length >= compressMinBytes) {
+            byte[] deflated = deflate(body);
+            if (deflated.length + 7 < body.length) {
+                return ByteBuffer.allocate(7 + deflated.length).put(ENVELOPE).put(contentType).put((byte) DEFLATED).putInt(body.length).put(deflated).array();
+            }
+        }
+        if (contentType == JSON) {
+            return body;
+        }
+        return ByteBuffer.allocate(3 + body.length).put(ENVELOPE).put(contentType).put((byte) 0).put(body).array();
+    }
+
+    @Override
+    public Object deserialize(byte[] bytes) throws SerializationException {
+        if (bytes == null || bytes.length == 0) {
+            return null;
+        }
+        if (bytes[0] != ENVELOPE) {
+            return startsWith(bytes, CBOR_SELF_DESCRIBE) ? fromCbor(bytes) : json.deserialize(bytes);
+        }
+        if (bytes.length < 3) {
+            throw new SerializationException("Truncated message envelope (" + bytes.length + " bytes)");
+        }
+        byte type = bytes[1];
+        byte[] body = (bytes[2] & DEFLATED) != 0 ? inflate(bytes) : Arrays.copyOfRange(bytes, 3, bytes.length);
+        return switch (type) {
+        case JSON -> json.deserialize(body);
+        case CBOR -> fromCbor(body);
+        default -> throw new SerializationException("Unknown message content type " + (char) type);
+        };
+    }
+
+    private Object fromCbor(byte[] body) {
+        try {
+            return cborMapper.readValue(body, Object.class);
+        } catch (IOException e) {
+            throw new SerializationException("Could not read CBOR message", e);
+        }
+    }
+
+    private static byte[] deflate(byte[] body) {
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED, true);
+        try {
+            deflater.setInput(body);
+            deflater.finish();
+            byte[] out = new byte[body.length + 64];
+            int length = 0;
+            while (!deflater.finished() && length < out.length) {
+                length += deflater.deflate(out, length, out.length - length);
+            }
+            return Arrays.copyOf(out, length);
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private static byte[] inflate(byte[] bytes) {
+        if (bytes.length < 7) {
+            throw new SerializationException("Truncated deflated message (" + bytes.length + " bytes)");
+        }
+        int length = ByteBuffer.wrap(bytes, 3, 4).getInt();
+        if (length < 0 || length > MAX_INFLATED_BYTES) {
+            throw new SerializationException("Deflated message claims " + length + " bytes");
+        }
+        Inflater inflater = new Inflater(true);
+        try {
+            inflater.setInput(bytes, 7, bytes.length - 7);
+            byte[] out = new byte[length];
+            int read = 0;
+            while (read < length && !inflater.finished()) {
+                int n = inflater.inflate(out, read, length - read);
+                if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                read += n;
+            }
+            if (read != length) {
+                throw new SerializationException("Deflated message inflated to " + read + " bytes, expected " + length);
+            }
+            return out;
+        } catch (DataFormatException e) {
+            throw new SerializationException("Could not inflate message", e);
+        } finally {
+            inflater.end();
+        }
+    }
+
+    private static boolean startsWith(byte[] bytes, byte[] prefix) {
+        return bytes.length >= prefix.length && Arrays.equals(bytes, 0, prefix.length, prefix, 0, prefix.length);
+    }
+}
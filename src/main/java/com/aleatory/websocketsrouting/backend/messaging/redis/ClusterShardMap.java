@@ -0,0 +1,51 @@
+package com.aleatory.websocketsrouting.backend.messaging.redis;
+
+import java.util.List;
+
+import io.lettuce.core.RedisURI;
+import io.lettuce.core.cluster.RedisClusterClient;
+import io.lettuce.core.cluster.SlotHash;
+import io.lettuce.core.cluster.models.partitions.RedisClusterNode;
+
+/**
+ * Slot ownership as Lettuce sees the cluster, starting from the seed nodes.
+ * Channels hash to slots like keys do, hash tags and all.
+ */
+public class ClusterShardMap implements ShardMap {
+    private final RedisClusterClient client;
+
+    public ClusterShardMap(List<String> seedNodes, String username, String password, boolean ssl) {
+        this.client = RedisClusterClient.create(seedNodes.stream().map(node -> seedUri(node, username, password, ssl)).toList());
+    }
+
+    private static RedisURI seedUri(String node, String username, String password, boolean ssl) {
+        RedisURI uri = RedisURI.create("redis://" + node);
+        uri.setSsl(ssl);
+        if (password != null && !password.isEmpty()) {
+            if (username != null && !username.isEmpty()) {
+                uri.setUsername(username);
+            }
+            uri.setPassword(password.toCharArray());
+        }
+        return uri;
+    }
+
+    @Override
+    public String nodeFor(String channel) {
+        int slot = SlotHash.getSlot(channel);
+        RedisClusterNode node = client.getPartitions().getMasterBySlot(slot);
+        if (node == null) {
+            throw new IllegalStateException("No cluster node serves slot " + slot + " (channel " + channel + ")");
+        }
+        return node.getUri().getHost() + ":" + node.getUri().getPort();
+    }
+
+    @Override
+    public void refresh() {
+        client.refreshPartitions();
+    }
+
+    public void close() {
+        client.shutdown();
+    }
+}
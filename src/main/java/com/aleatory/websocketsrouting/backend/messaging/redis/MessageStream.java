@@ -0,0 +1,52 @@
+package com.aleatory.websocketsrouting.backend.messaging.redis;
+
+import java.time.Duration;
+import java.util.List;
+
+/**
+ * The few stream commands the redis-streams transport needs, so it can be run
+ * against something other than a real Redis in tests. Every entry carries a
+ * topic and a JSON payload.
+ */
+public interface MessageStream {
+
+    /**
+     * Read offset for entries that were delivered to this consumer but never
+     * acknowledged.
+     */
+    String PENDING = "0";
+
+    /**
+     * Read offset for entries never delivered to anyone in the group.
+     */
+    String NEW = ">";
+
+    record Entry(String id, String topic, String payload) {
+    }
+
+    /**
+     * Creates the consumer group (and the stream) if they don't exist. A new group
+     * starts at the end of the stream.
+     */
+    void createGroup(String group);
+
+    /**
+     * @return the id of the new entry
+     */
+    String add(String topic, String payload);
+
+    /**
+     * XREADGROUP.
+     *
+     * @param from  {@link #PENDING} or {@link #NEW}
+     * @param block how long to wait for new entries; null or zero doesn't wait
+     */
+    List<Entry> read(String group, String consumer, String from, int count, Duration block);
+
+    void acknowledge(String group, List<String> ids);
+
+    /**
+     * Trims the stream to about maxLength entries.
+     */
+    void trim(long maxLength);
+}
@@ -0,0 +1,80 @@
+package com.aleatory.websocketsrouting.backend.messaging.redis;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.springframework.core.NestedExceptionUtils;
+import org.springframework.dao.DataAccessException;
+import org.springframework.data.redis.connection.stream.Consumer;
+import org.springframework.data.redis.connection.stream.MapRecord;
+import org.springframework.data.redis.connection.stream.ReadOffset;
+import org.springframework.data.redis.connection.stream.StreamOffset;
+import org.springframework.data.redis.connection.stream.StreamReadOptions;
+import org.springframework.data.redis.core.StreamOperations;
+import org.springframework.data.redis.core.StringRedisTemplate;
+
+/**
+ * {@link MessageStream} on a Redis stream; entries have <code>topic</code> and
+ * <code>payload</code> fields.
+ */
+public class RedisMessageStream implements MessageStream {
+    private static final String TOPIC_FIELD = "topic";
+    private static final String PAYLOAD_FIELD = "payload";
+
+    private final StreamOperations<String, String, String> streamOperations;
+    private final String key;
+
+    public RedisMessageStream(StringRedisTemplate template, String key) {
+        this.streamOperations = template.opsForStream();
+        this.key = key;
+    }
+
+    @Override
+    public void createGroup(String group) {
+        try {
+            streamOperations.createGroup(key, ReadOffset.latest(), group);
+        } catch (DataAccessException e) {
+            String message = NestedExceptionUtils.getMostSpecificCause(e).getMessage();
+            if (message == null || !message.contains("BUSYGROUP")) {
+                throw e;
+            }
+        }
+    }
+
+    @Override
+    public String add(String topic, String payload) {
+        return streamOperations.add(key, Map.of(TOPIC_FIELD, topic, PAYLOAD_FIELD, payload)).getValue();
+    }
+
+    @Override
+    public List<Entry> read(String group, String consumer, String from, int count, Duration block) {
+        StreamReadOptions options = StreamReadOptions.empty().count(count);
+        if (block != null && !block.isZero()) {
+            options = options.block(block);
+        }
+        ReadOffset offset = NEW.equals(from) ? ReadOffset.lastConsumed() : ReadOffset.from(from);
+        List<MapRecord<String, String, String>> records = streamOperations.read(Consumer.from(group, consumer), options, StreamOffset.create(key, offset));
+        List<Entry> entries = new ArrayList<>();
+        if (records != null) {
+            for (MapRecord<String, String, String> record : records) {
+                // A pending entry that has since been trimmed comes back with no fields
+                entries.add(new Entry(record.getId().getValue(), record.getValue().get(TOPIC_FIELD), record.getValue().get(PAYLOAD_FIELD)));
+            }
+        }
+        return entries;
+    }
+
+    @Override
+    public void acknowledge(String group, List<String> ids) {
+        if (!ids.isEmpty()) {
+            streamOperations.acknowledge(key, group, ids.toArray(new String[0]));
+        }
+    }
+
+    @Override
+    public void trim(long maxLength) {
+        streamOperations.trim(key, maxLength, true);
+    }
+}
@@ -0,0 +1,213 @@
+package com.aleatory.websocketsrouting.backend.messaging.redis;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.net.ssl.SSLParameters;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.SSLSocketFactory;
+
+/**
+ * A plain RESP2 connection to one cluster node, for the two commands our Redis
+ * client doesn't know yet: SSUBSCRIBE (after which the connection only carries
+ * pushes) and SPUBLISH. Commands can be sent from any thread; replies are read
+ * by one.
+ *
+ * With a password we AUTH (as the user, if there is one) before anything else,
+ * and with ssl the socket is TLS, checked against the node's host name. With a
+ * read timeout, {@link #read()} throws {@link SocketTimeoutException} when
+ * nothing has arrived for that long, so a half-open connection can't block its
+ * reader for good; a timeout partway through a reply is reported as a plain
+ * IOException, since the connection can't be read past it.
+ */
+class ShardConnection implements Closeable {
+    /**
+     * An error reply, e.g. <code>MOVED 1234 10.0.0.2:6379</code>.
+     */
+    record Error(String message) {
+        boolean isMoved() {
+            return message.startsWith("MOVED ");
+        }
+    }
+
+    private final String node;
+    private final Socket socket;
+    private final InputStream in;
+    private final OutputStream out;
+
+    ShardConnection(String node, int connectTimeoutMillis) throws IOException {
+        this(node, connectTimeoutMillis, 0, null, null, false);
+    }
+
+    ShardConnection(String node, int connectTimeoutMillis, String username, String password, boolean ssl) throws IOException {
+        this(node, connectTimeoutMillis, 0, username, password, ssl);
+    }
+
+    /**
+     * @param readTimeoutMillis how long a read waits for anything to arrive; 0
+     *                          for ever
+     */
+    ShardConnection(String node, int connectTimeoutMillis, int readTimeoutMillis, String username, String password, boolean ssl) throws IOException {
+        this.node = node;
+        int colon = node.lastIndexOf(':');
+        String host = node.substring(0, colon);
+        int port = Integer.parseInt(node.substring(colon + 1));
+        Socket plain = new Socket();
+        plain.setTcpNoDelay(true);
+        plain.setKeepAlive(true);
+        plain.setSoTimeout(readTimeoutMillis);
+        plain.connect(new InetSocketAddress(host, port), connectTimeoutMillis);
+        try {
+            socket = ssl ? tls(plain, host, port) : plain;
+            in = new BufferedInputStream(socket.getInputStream(), 64 * 1024);
+            out = new BufferedOutputStream(socket.getOutputStream(), 8 * 1024);
+            if (password != null && !password.isEmpty()) {
+                auth(username, password);
+            }
+        } catch (IOException e) {
+            plain.close();
+            throw e;
+        }
+    }
+
+    private static Socket tls(Socket plain, String host, int port) throws IOException {
+        SSLSocket socket = (SSLSocket) ((SSLSocketFactory) SSLSocketFactory.getDefault()).createSocket(plain, host, port, true);
+        SSLParameters parameters = socket.getSSLParameters();
+        parameters.setEndpointIdentificationAlgorithm("HTTPS");
+        socket.setSSLParameters(parameters);
+        socket.startHandshake();
+        return socket;
+    }
+
+    private void auth(String username, String password) throws IOException {
+        byte[] secret = password.getBytes(StandardCharsets.UTF_8);
+        if (username != null && !username.isEmpty()) {
+            send("AUTH", username.getBytes(StandardCharsets.UTF_8), secret);
+        } else {
+            send("AUTH", secret);
+        }
+        if (read() instanceof Error error) {
+            throw new IOException("AUTH failed on " + node + ": " + error.message());
+        }
+    }
+
+    String getNode() {
+        return node;
+    }
+
+    void ssubscribe(String channel) throws IOException {
+        send("SSUBSCRIBE", channel.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * On a subscribed connection the reply is a <code>pong</code> push.
+     */
+    void ping() throws IOException {
+        send("PING");
+    }
+
+    /**
+     * @return the number of subscribers it reached, or the error (MOVED, say)
+     */
+    Object spublish(String channel, byte[] payload) throws IOException {
+        send("SPUBLISH", channel.getBytes(StandardCharsets.UTF_8), payload);
+        return read();
+    }
+
+    private synchronized void send(String command, byte[]... args) throws IOException {
+        out.write(('*' + Integer.toString(args.length + 1) + "\r\n").getBytes(StandardCharsets.US_ASCII));
+        writeBulk(command.getBytes(StandardCharsets.US_ASCII));
+        for (byte[] arg : args) {
+            writeBulk(arg);
+        }
+        out.flush();
+    }
+
+    private void writeBulk(byte[] bytes) throws IOException {
+        out.write(('$' + Integer.toString(bytes.length) + "\r\n").getBytes(StandardCharsets.US_ASCII));
+        out.write(bytes);
+        out.write('\r');
+        out.write('\n');
+    }
+
+    /**
+     * Blocks for the next reply or push: a Long, a byte[] (bulk), a String
+     * (simple), an {@link Error}, a List of those or null.
+     *
+     * @throws SocketTimeoutException if nothing arrived within the read timeout
+     */
+    Object read() throws IOException {
+        int type = in.read();
+        try {
+            return read(type);
+        } catch (SocketTimeoutException e) {
+            throw new IOException("Timed out partway through a reply from " + node, e);
+        }
+    }
+
+    private Object read(int type) throws IOException {
+        switch (type) {
+        case '+':
+            return line();
+        case '-':
+            return new Error(line());
+        case ':':
+            return Long.parseLong(line());
+        case '$': {
+            int length = Integer.parseInt(line());
+            if (length < 0) {
+                return null;
+            }
+            byte[] bytes = in.readNBytes(length);
+            if (bytes.length < length || in.read() != '\r' || in.read() != '\n') {
+                throw new EOFException("Connection to " + node + " closed mid-reply");
+            }
+            return bytes;
+        }
+        case '*': {
+            int count = Integer.parseInt(line());
+            if (count < 0) {
+                return null;
+            }
+            List<Object> elements = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                elements.add(read(in.read()));
+            }
+            return elements;
+        }
+        case -1:
+            throw new EOFException("Connection to " + node + " closed");
+        default:
+            throw new IOException("Unexpected RESP type '" + (char) type + "' from " + node);
+        }
+    }
+
+    private String line() throws IOException {
+        StringBuilder line = new StringBuilder();
+        int c;
+        while ((c = in.read()) != '\r') {
+            if (c == -1) {
+                throw new EOFException("Connection to " + node + " closed mid-reply");
+            }
+            line.append((char) c);
+        }
+        in.read();
+        return line.toString();
+    }
+
+    @Override
+    public void close() throws IOException {
+        socket.close();
+    }
+}
@@ -0,0 +1,15 @@
+package com.aleatory.websocketsrouting.backend.messaging.redis;
+
+/**
+ * Which Redis cluster node (<code>host:port</code>) owns the shard a sharded
+ * pub/sub channel hashes to.
+ */
+public interface ShardMap {
+
+    String nodeFor(String channel);
+
+    /**
+     * Re-reads the cluster topology, after a slot has moved.
+     */
+    void refresh();
+}
@@ -1,6 +1,5 @@
 package com.aleatory.websocketsrouting.backend.messaging.redis;
 
-import java.util.ArrayList;
 import java.util.List;
 
 import org.slf4j.Logger;
@@ -22,15 +21,11 @@ public class WebsocketsRoutingRedisMessaging extends RedisPubSubMessagingOperati
     private ApplicationEventPublisher applicationEventPublisher;
 
     // We don't resend these to the front end--they're purely backend topics
-    private List<String> excludedTopics = new ArrayList<>();
-
-    public WebsocketsRoutingRedisMessaging() {
-        excludedTopics.add("/topic/prices.current.condor.full");
-    }
+    public static final List<String> BACKEND_ONLY_TOPICS = List.of("/topic/prices.current.condor.full");
 
     @Override
     public void receiveMessages(String topic, Object payload) {
-        if (excludedTopics.contains(topic)) {
+        if (BACKEND_ONLY_TOPICS.contains(topic)) {
             return;
         }
         if (!handlers.containsKey(topic)) {
@@ -0,0 +1,409 @@
+package com.aleatory.websocketsrouting.backend.messaging.redis;
+
+import java.io.IOException;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.ScheduledFuture;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.data.redis.serializer.RedisSerializer;
+import org.springframework.data.redis.serializer.SerializationException;
+import org.springframework.scheduling.TaskScheduler;
+import org.springframework.stereotype.Service;
+
+import com.aleatory.common.messaging.PubSubMessagingOperations;
+import com.aleatory.websocketsrouting.events.SendMessageToFrontendEvent;
+
+/**
+ * Backend messaging over Redis Cluster sharded pub/sub
+ * (<code>backend.messaging.transport=redis-sharded</code>). Each channel lives
+ * on the shard its name hashes to, so ingress spreads over the cluster instead
+ * of going through one Redis core. We keep one subscriber connection per node,
+ * SSUBSCRIBEd to the channels it owns, each read on its own thread.
+ *
+ * Sharded pub/sub has no pattern subscriptions, so the channels are listed in
+ * <code>backend.messaging.sharded.channels</code> (more can be added at runtime
+ * with {@link #addChannel(String)}, SSUBSCRIBEd on the live connection). When a
+ * slot moves the node drops our subscription, or answers an SSUBSCRIBE with an
+ * error (MOVED, say); either way we re-read the topology and resubscribe on the
+ * new owner. A connection quiet for <code>backend.messaging.sharded.ping.millis</code>
+ * is PINGed, and one that doesn't answer within as long again is dropped and
+ * reconnected. Payloads are decoded with the same codec as the template's
+ * values.
+ */
+@Service
+@ConditionalOnProperty(value = "backend.messaging.transport", havingValue = "redis-sharded")
+public class WebsocketsRoutingRedisShardedMessaging implements PubSubMessagingOperations, SmartLifecycle {
+    private static final Logger logger = LoggerFactory.getLogger(WebsocketsRoutingRedisShardedMessaging.class);
+
+    @Autowired
+    private ApplicationEventPublisher applicationEventPublisher;
+
+    @Autowired
+    private ShardMap shardMap;
+
+    @Autowired
+    @Qualifier("messageCodecSerializer")
+    private RedisSerializer<Object> serializer;
+
+    @Autowired
+    @Qualifier("messagingScheduler")
+    private TaskScheduler scheduler;
+
+    @Value("${backend.messaging.sharded.channels:}")
+    private List<String> initialChannels;
+
+    @Value("${backend.messaging.sharded.resync.seconds:5}")
+    private int resyncSeconds;
+
+    @Value("${redis.connect.timeout.millis:2000}")
+    private int connectTimeoutMillis;
+
+    // Also the read timeout on every connection; 0 for neither
+    @Value("${backend.messaging.sharded.ping.millis:5000}")
+    private int pingMillis;
+
+    // AUTH on every node connection when there's a password; username for ACL users
+    @Value("${backend.messaging.sharded.username:}")
+    private String username;
+
+    @Value("${backend.messaging.sharded.password:}")
+    private String password;
+
+    @Value("${backend.messaging.sharded.ssl:false}")
+    private boolean ssl;
+
+    private final Set<String> channels = new CopyOnWriteArraySet<>();
+
+    // Node -> its subscriber; only touched in resync()
+    private final Map<String, Subscriber> subscribers = new HashMap<>();
+
+    // Node -> connection we SPUBLISH on
+    private final Map<String, ShardConnection> publishers = new ConcurrentHashMap<>();
+
+    private volatile boolean running;
+    private volatile boolean resyncNeeded;
+    private ScheduledFuture<?> resyncTask;
+
+    /**
+     * One node's subscriber connection and the thread reading it.
+     */
+    private final class Subscriber implements Runnable {
+        private final ShardConnection connection;
+        // What we've SSUBSCRIBEd to here and not been dropped from
+        private final Set<String> channels = ConcurrentHashMap.newKeySet();
+        // SSUBSCRIBEs not yet answered, in the order sent (and so answered)
+        private final Queue<String> pending = new ConcurrentLinkedQueue<>();
+        private final Thread thread;
+        private volatile boolean closed;
+
+        Subscriber(ShardConnection connection) {
+            this.connection = connection;
+            this.thread = new Thread(this, "redis-shard-" + connection.getNode());
+            this.thread.setDaemon(true);
+        }
+
+        void start(Set<String> initial) throws IOException {
+            for (String channel : initial) {
+                subscribe(channel);
+            }
+            thread.start();
+        }
+
+        /**
+         * SSUBSCRIBEs on the live connection; the reader sees the answer.
+         */
+        void subscribe(String channel) throws IOException {
+            channels.add(channel);
+            pending.add(channel);
+            connection.ssubscribe(channel);
+        }
+
+        boolean isAlive() {
+            return !closed && thread.isAlive();
+        }
+
+        @Override
+        public void run() {
+            boolean pinged = false;
+            try {
+                while (!closed) {
+                    Object reply;
+                    try {
+                        reply = connection.read();
+                    } catch (SocketTimeoutException e) {
+                        if (pinged) {
+                            throw new IOException("no answer to PING in " + pingMillis + " ms");
+                        }
+                        connection.ping();
+                        pinged = true;
+                        continue;
+                    }
+                    pinged = false;
+                    if (reply instanceof ShardConnection.Error error) {
+                        handleError(error);
+                    } else if (reply instanceof List<?> push && push.size() >= 2 && push.get(0) instanceof byte[] kind) {
+                        handlePush(new String(kind, StandardCharsets.US_ASCII), push.get(1) instanceof byte[] channel ? new String(channel, StandardCharsets.UTF_8) : "",
+                                push.size() > 2 ? push.get(2) : null);
+                    } else {
+                        logger.warn("Ignoring unexpected reply from {}: {}", connection.getNode(), reply);
+                    }
+                }
+            } catch (IOException e) {
+                if (!closed) {
+                    logger.warn("Lost subscriber connection to {}: {}", connection.getNode(), e.getMessage());
+                    closed = true;
+                    closeQuietly(connection);
+                    resyncNeeded = true;
+                }
+            }
+        }
+
+        private void handlePush(String kind, String channel, Object body) {
+            switch (kind) {
+            case "smessage" -> receiveMessage(channel, (byte[]) body);
+            case "ssubscribe" -> {
+                pending.remove(channel);
+                logger.debug("Subscribed to {} on {}", channel, connection.getNode());
+            }
+            case "sunsubscribe" -> {
+                // The slot moved (or was deleted); only ever on the server's initiative
+                logger.info("{} dropped our subscription to {}; will resubscribe on its new shard.", connection.getNode(), channel);
+                channels.remove(channel);
+                resyncNeeded = true;
+            }
+            case "pong" -> logger.trace("PONG from {}", connection.getNode());
+            default -> logger.debug("Ignoring {} push from {}", kind, connection.getNode());
+            }
+        }
+
+        /**
+         * Only an SSUBSCRIBE is answered with an error here, and answers come in
+         * order, so it's the oldest one still pending.
+         */
+        private void handleError(ShardConnection.Error error) {
+            String channel = pending.poll();
+            if (channel == null) {
+                logger.warn("Error from {}: {}; re-reading the cluster topology.", connection.getNode(), error.message());
+            } else {
+                channels.remove(channel);
+                logger.warn("Could not subscribe to {} on {}: {}; re-reading the cluster topology to resubscribe.", channel, connection.getNode(), error.message());
+            }
+            resyncNeeded = true;
+        }
+
+        void close() {
+            closed = true;
+            try {
+                connection.close();
+            } catch (IOException e) {
+                logger.debug("Error closing connection to {}", connection.getNode(), e);
+            }
+        }
+    }
+
+    @Override
+    public void start() {
+        channels.addAll(initialChannels);
+        running = true;
+        resync();
+        resyncTask = scheduler.scheduleWithFixedDelay(this::resyncIfNeeded, Duration.ofSeconds(resyncSeconds));
+    }
+
+    /**
+     * Subscribes to another channel (a new symbol's topic, say) on its shard.
+     */
+    public void addChannel(String channel) {
+        if (channels.add(channel)) {
+            resync();
+        }
+    }
+
+    private void resyncIfNeeded() {
+        if (resyncNeeded) {
+            resyncNeeded = false;
+            try {
+                shardMap.refresh();
+            } catch (RuntimeException e) {
+                logger.warn("Could not refresh the cluster topology; will retry: {}", e.getMessage());
+                resyncNeeded = true;
+                return;
+            }
+            resync();
+        }
+    }
+
+    /**
+     * Makes the subscriber connections match the channels and their current
+     * shards: a node gets an SSUBSCRIBE on its live connection for each channel
+     * it now owns that we aren't subscribed to there; a node whose connection
+     * died gets a fresh one; nodes that no longer own any of our channels are
+     * dropped. (Channels a node no longer owns are dropped by the node itself.)
+     */
+    synchronized void resync() {
+        if (!running) {
+            return;
+        }
+        Map<String, Set<String>> wanted = new TreeMap<>();
+        for (String channel : channels) {
+            String owner;
+            try {
+                owner = shardMap.nodeFor(channel);
+            } catch (IllegalStateException e) {
+                // Slot not served right now (failover, resharding); leave it for the next resync
+                logger.warn("{}; will retry.", e.getMessage());
+                resyncNeeded = true;
+                continue;
+            }
+            wanted.computeIfAbsent(owner, node -> new TreeSet<>()).add(channel);
+        }
+        subscribers.entrySet().removeIf(entry -> {
+            Subscriber subscriber = entry.getValue();
+            if (subscriber.isAlive() && wanted.containsKey(entry.getKey())) {
+                return false;
+            }
+            subscriber.close();
+            return true;
+        });
+        wanted.forEach((node, nodeChannels) -> {
+            Subscriber subscriber = subscribers.get(node);
+            try {
+                if (subscriber == null) {
+                    subscriber = new Subscriber(open(node));
+                    subscriber.start(nodeChannels);
+                    subscribers.put(node, subscriber);
+                    logger.info("Subscribed to {} channels on {}: {}", nodeChannels.size(), node, nodeChannels);
+                    return;
+                }
+                for (String channel : nodeChannels) {
+                    if (!subscriber.channels.contains(channel)) {
+                        subscriber.subscribe(channel);
+                        logger.info("Subscribed to {} on {}", channel, node);
+                    }
+                }
+            } catch (IOException e) {
+                logger.warn("Could not subscribe on {}; will retry: {}", node, e.getMessage());
+                if (subscriber != null) {
+                    subscriber.close();
+                    subscribers.remove(node, subscriber);
+                }
+                resyncNeeded = true;
+            }
+        });
+    }
+
+    void receiveMessage(String channel, byte[] body) {
+        if (WebsocketsRoutingRedisMessaging.BACKEND_ONLY_TOPICS.contains(channel)) {
+            return;
+        }
+        Object message;
+        try {
+            message = serializer.deserialize(body);
+        } catch (SerializationException e) {
+            logger.error("Could not read message on {}; dropped.", channel, e);
+            return;
+        }
+        applicationEventPublisher.publishEvent(new SendMessageToFrontendEvent(this, channel, message));
+    }
+
+    /**
+     * SPUBLISHes on the channel's shard, following one MOVED if the slot has just
+     * moved.
+     */
+    @Override
+    public void publishMessage(String topic, Object payload) {
+        byte[] body = serializer.serialize(payload);
+        for (int attempt = 0; attempt < 2; attempt++) {
+            String node = shardMap.nodeFor(topic);
+            ShardConnection connection = null;
+            try {
+                connection = publishers.computeIfAbsent(node, this::connect);
+                Object reply;
+                synchronized (connection) {
+                    reply = connection.spublish(topic, body);
+                }
+                if (!(reply instanceof ShardConnection.Error error)) {
+                    return;
+                }
+                if (!error.isMoved()) {
+                    logger.error("Could not publish to {} on {}: {}", topic, node, error.message());
+                    return;
+                }
+                shardMap.refresh();
+                resyncNeeded = true;
+            } catch (IOException | IllegalStateException e) {
+                logger.error("Could not publish to {} on {}: {}", topic, node, e.getMessage());
+                if (connection != null) {
+                    publishers.remove(node, connection);
+                    closeQuietly(connection);
+                }
+                return;
+            }
+        }
+        logger.error("Could not publish to {}; its slot keeps moving.", topic);
+    }
+
+    private ShardConnection open(String node) throws IOException {
+        return new ShardConnection(node, connectTimeoutMillis, pingMillis, username, password, ssl);
+    }
+
+    private ShardConnection connect(String node) {
+        try {
+            return open(node);
+        } catch (IOException e) {
+            throw new IllegalStateException("Could not connect to " + node + ": " + e.getMessage(), e);
+        }
+    }
+
+    private static void closeQuietly(ShardConnection connection) {
+        try {
+            connection.close();
+        } catch (IOException e) {
+            logger.debug("Error closing connection to {}", connection.getNode(), e);
+        }
+    }
+
+    @Override
+    public synchronized void stop() {
+        running = false;
+        if (resyncTask != null) {
+            resyncTask.cancel(false);
+        }
+        subscribers.values().forEach(Subscriber::close);
+        subscribers.clear();
+        publishers.values().forEach(WebsocketsRoutingRedisShardedMessaging::closeQuietly);
+        publishers.clear();
+    }
+
+    @Override
+    public boolean isRunning() {
+        return running;
+    }
+
+    /**
+     * @return node -> channels we're subscribed to there
+     */
+    synchronized Map<String, Set<String>> getSubscriptions() {
+        Map<String, Set<String>> subscriptions = new TreeMap<>();
+        subscribers.forEach((node, subscriber) -> subscriptions.put(node, new TreeSet<>(subscriber.channels)));
+        return subscriptions;
+    }
+}
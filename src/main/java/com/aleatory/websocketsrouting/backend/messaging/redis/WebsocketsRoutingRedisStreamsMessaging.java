@@ -0,0 +1,208 @@
+package com.aleatory.websocketsrouting.backend.messaging.redis;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.scheduling.TaskScheduler;
+import org.springframework.stereotype.Service;
+
+import com.aleatory.common.messaging.PubSubMessagingOperations;
+import com.aleatory.websocketsrouting.events.SendMessageToFrontendEvent;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.json.JsonMapper;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+
+/**
+ * Backend messaging over a Redis stream instead of pub/sub
+ * (<code>backend.messaging.transport=redis-streams</code>). The backends XADD
+ * to the stream and we read it with XREADGROUP in a consumer group, so Redis
+ * keeps our place: on a restart (nightly, or /restart) we first drain whatever
+ * was delivered but not acknowledged, then everything published while we were
+ * down, and only then let the web server start taking browsers. By then the
+ * last-message cache is current, so nobody subscribes to a stale price.
+ *
+ * Entries are read <code>backend.messaging.streams.batch.size</code> at a time
+ * and acknowledged a batch at a time; the reader blocks for up to
+ * <code>backend.messaging.streams.block.millis</code> waiting for more.
+ */
+@Service
+@ConditionalOnProperty(value = "backend.messaging.transport", havingValue = "redis-streams")
+public class WebsocketsRoutingRedisStreamsMessaging implements PubSubMessagingOperations, SmartLifecycle {
+    private static final Logger logger = LoggerFactory.getLogger(WebsocketsRoutingRedisStreamsMessaging.class);
+
+    @Autowired
+    private ApplicationEventPublisher applicationEventPublisher;
+
+    @Autowired
+    private MessageStream stream;
+
+    @Autowired
+    @Qualifier("messagingScheduler")
+    private TaskScheduler scheduler;
+
+    @Value("${backend.messaging.streams.group:websockets-routing}")
+    private String group;
+
+    @Value("${backend.messaging.streams.consumer:${HOSTNAME:websockets-routing}}")
+    private String consumer;
+
+    @Value("${backend.messaging.streams.batch.size:500}")
+    private int batchSize;
+
+    @Value("${backend.messaging.streams.block.millis:1000}")
+    private long blockMillis;
+
+    @Value("${backend.messaging.streams.catchup.timeout.seconds:30}")
+    private int catchUpTimeoutSeconds;
+
+    @Value("${backend.messaging.streams.maxlen:100000}")
+    private long maxLength;
+
+    private final ObjectMapper mapper = JsonMapper.builder().addModule(new JavaTimeModule()).build();
+
+    private volatile boolean running;
+    private Thread reader;
+
+    @Override
+    public void publishMessage(String topic, Object payload) {
+        try {
+            stream.add(topic, payload instanceof String json ? json : mapper.writeValueAsString(payload));
+        } catch (JsonProcessingException e) {
+            logger.error("Could not write message for {}; not sent.", topic, e);
+        }
+    }
+
+    /**
+     * Catches up before returning; we're in an earlier phase than the web server,
+     * so it doesn't start until we're done.
+     */
+    @Override
+    public void start() {
+        stream.createGroup(group);
+        long start = System.nanoTime();
+        long deadline = start + Duration.ofSeconds(catchUpTimeoutSeconds).toNanos();
+        int caughtUp = drain(MessageStream.PENDING, deadline) + drain(MessageStream.NEW, deadline);
+        logger.info("Caught up on {} backend messages as {}/{} in {} ms.", caughtUp, group, consumer, (System.nanoTime() - start) / 1_000_000);
+
+        running = true;
+        reader = new Thread(this::readMessages, "redis-streams-reader");
+        reader.setDaemon(true);
+        reader.start();
+        scheduler.scheduleWithFixedDelay(this::trim, Instant.now().plus(1, ChronoUnit.MINUTES), Duration.ofMinutes(1));
+    }
+
+    /**
+     * Reads without blocking until there's nothing left (or we run out of time).
+     *
+     * @return the number of entries read
+     */
+    private int drain(String from, long deadline) {
+        int count = 0;
+        while (System.nanoTime() < deadline) {
+            List<MessageStream.Entry> entries = stream.read(group, consumer, from, batchSize, null);
+            if (entries.isEmpty()) {
+                return count;
+            }
+            dispatch(entries);
+            count += entries.size();
+        }
+        logger.warn("Gave up catching up after {} seconds; the rest will be read live.", catchUpTimeoutSeconds);
+        return count;
+    }
+
+    private void readMessages() {
+        while (running) {
+            try {
+                dispatch(stream.read(group, consumer, MessageStream.NEW, batchSize, Duration.ofMillis(blockMillis)));
+            } catch (RuntimeException e) {
+                if (!running) {
+                    return;
+                }
+                logger.warn("Error reading backend messages; will retry: {}", e.getMessage());
+                try {
+                    Thread.sleep(1000);
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Hands each entry on and acknowledges the batch. If we die partway through,
+     * the batch is still pending and is read again on the next start.
+     */
+    void dispatch(List<MessageStream.Entry> entries) {
+        if (entries.isEmpty()) {
+            return;
+        }
+        List<String> ids = new ArrayList<>(entries.size());
+        for (MessageStream.Entry entry : entries) {
+            if (entry.topic() != null && entry.payload() != null) {
+                receiveMessage(entry.topic(), entry.payload());
+            }
+            ids.add(entry.id());
+        }
+        stream.acknowledge(group, ids);
+    }
+
+    void receiveMessage(String topic, String payload) {
+        if (WebsocketsRoutingRedisMessaging.BACKEND_ONLY_TOPICS.contains(topic)) {
+            return;
+        }
+        Object message;
+        try {
+            message = mapper.readValue(payload, Object.class);
+        } catch (JsonProcessingException e) {
+            logger.warn("Dropping unreadable message for {}: {}", topic, e.getMessage());
+            return;
+        }
+        applicationEventPublisher.publishEvent(new SendMessageToFrontendEvent(this, topic, message));
+    }
+
+    private void trim() {
+        try {
+            stream.trim(maxLength);
+        } catch (RuntimeException e) {
+            logger.warn("Could not trim backend message stream: {}", e.getMessage());
+        }
+    }
+
+    @Override
+    public void stop() {
+        running = false;
+        if (reader != null) {
+            try {
+                reader.join(blockMillis + 1000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    @Override
+    public boolean isRunning() {
+        return running;
+    }
+
+    /**
+     * Well before the web server (and the STOMP broker).
+     */
+    @Override
+    public int getPhase() {
+        return 0;
+    }
+}
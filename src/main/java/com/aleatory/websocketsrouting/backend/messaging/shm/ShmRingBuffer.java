@@ -0,0 +1,277 @@
+package com.aleatory.websocketsrouting.backend.messaging.shm;
+
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * A broadcast ring buffer in a memory-mapped file: one publisher per file,
+ * any number of readers (in any process on the box), and readers never hold
+ * the publisher up.
+ *
+ * Layout: a 128-byte header (magic, capacity, and the write position on its own
+ * cache line) followed by <code>capacity</code> bytes of records. A record is
+ * <code>[int length][int topic length][topic][payload]</code>, UTF-8, padded to
+ * 8 bytes; a record never wraps, a length of -1 means "skip to the start". The
+ * publisher writes a record and then publishes it by moving the write position
+ * (a release store). Readers copy records out up to the write position
+ * (an acquire load) and then check the publisher hasn't lapped them while they
+ * were reading, seqlock-style; a reader that falls more than half the buffer
+ * behind skips ahead and reports how much it lost.
+ *
+ * The write position is kept across restarts of the publisher, so readers
+ * attached to the file carry on.
+ */
+public class ShmRingBuffer {
+    private static final int MAGIC = 0x434E5247; // CNRG
+    private static final int MAGIC_OFFSET = 0;
+    private static final int CAPACITY_OFFSET = 8;
+    private static final int WRITE_POSITION_OFFSET = 64;
+    static final int HEADER_SIZE = 128;
+
+    private static final int RECORD_HEADER_SIZE = 8;
+    private static final int PADDING = -1;
+
+    private static final VarHandle LONGS = MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+
+    private final Path path;
+    private final MappedByteBuffer buffer;
+    private final int capacity;
+    private final int mask;
+    private final int maxRecordSize;
+
+    // Publisher side only
+    private long writePosition;
+
+    private ShmRingBuffer(Path path, MappedByteBuffer buffer, int capacity) {
+        this.path = path;
+        this.buffer = buffer;
+        this.capacity = capacity;
+        this.mask = capacity - 1;
+        this.maxRecordSize = capacity / 4;
+        this.writePosition = publishedPosition();
+    }
+
+    /**
+     * Maps the ring file at path, creating it if it doesn't exist.
+     *
+     * @param capacity the size of the record area for a new file; must be a power
+     *                 of two. An existing file keeps its own.
+     */
+    public static ShmRingBuffer open(Path path, int capacity) throws IOException {
+        if (Integer.bitCount(capacity) != 1) {
+            throw new IllegalArgumentException("Ring capacity must be a power of two: " + capacity);
+        }
+        Files.createDirectories(path.toAbsolutePath().getParent());
+        return map(path, capacity, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+    }
+
+    /**
+     * Maps an existing ring file, or returns null if its publisher hasn't set it
+     * up yet.
+     */
+    public static ShmRingBuffer attach(Path path) throws IOException {
+        if (Files.size(path) <= HEADER_SIZE) {
+            return null;
+        }
+        return map(path, 0, StandardOpenOption.READ, StandardOpenOption.WRITE);
+    }
+
+    private static ShmRingBuffer map(Path path, int capacity, StandardOpenOption... options) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, options)) {
+            boolean created = channel.size() == 0;
+            int size = created ? capacity : (int) channel.size() - HEADER_SIZE;
+            MappedByteBuffer buffer = channel.map(MapMode.READ_WRITE, 0, HEADER_SIZE + (long) size);
+            buffer.order(ByteOrder.LITTLE_ENDIAN);
+            if (created) {
+                buffer.putInt(CAPACITY_OFFSET, size);
+                buffer.putInt(MAGIC_OFFSET, MAGIC);
+            } else if (buffer.getInt(MAGIC_OFFSET) != MAGIC || buffer.getInt(CAPACITY_OFFSET) != size) {
+                throw new IOException(path + " is not a ring buffer file.");
+            }
+            return new ShmRingBuffer(path, buffer, size);
+        }
+    }
+
+    public Path getPath() {
+        return path;
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    long publishedPosition() {
+        return (long) LONGS.getAcquire(buffer, WRITE_POSITION_OFFSET);
+    }
+
+    /**
+     * Appends a record. Only one thread (in one process) may publish to a ring.
+     *
+     * @return false if the record is too big for the ring (over a quarter of it)
+     */
+    public synchronized boolean offer(String topic, String payload) {
+        byte[] topicBytes = topic.getBytes(StandardCharsets.UTF_8);
+        byte[] payloadBytes = payload.getBytes(StandardCharsets.UTF_8);
+        int length = RECORD_HEADER_SIZE + topicBytes.length + payloadBytes.length;
+        int size = align(length);
+        if (size > maxRecordSize) {
+            return false;
+        }
+        long position = writePosition;
+        int offset = (int) (position & mask);
+        if (offset + size > capacity) {
+            buffer.putInt(HEADER_SIZE + offset, PADDING);
+            position += capacity - offset;
+            offset = 0;
+        }
+        int at = HEADER_SIZE + offset;
+        buffer.putInt(at, length);
+        buffer.putInt(at + 4, topicBytes.length);
+        buffer.put(at + RECORD_HEADER_SIZE, topicBytes);
+        buffer.put(at + RECORD_HEADER_SIZE + topicBytes.length, payloadBytes);
+        writePosition = position + size;
+        LONGS.setRelease(buffer, WRITE_POSITION_OFFSET, writePosition);
+        return true;
+    }
+
+    private static int align(int length) {
+        return (length + 7) & ~7;
+    }
+
+    /**
+     * @return a reader starting at the current write position (only records
+     *         published from now on)
+     */
+    public Reader reader() {
+        return new Reader();
+    }
+
+    @FunctionalInterface
+    public interface RecordHandler {
+        void onRecord(String topic, String payload);
+    }
+
+    /**
+     * Reads records into a scratch buffer. Topics are matched against the ones
+     * already seen without decoding them, so the only thing allocated per record
+     * is the payload String. Not thread-safe; one reader per thread.
+     */
+    public final class Reader {
+        private long readPosition = publishedPosition();
+        private long lost;
+        private byte[] scratch = new byte[4096];
+        private final TopicCache topics = new TopicCache();
+
+        /**
+         * Hands up to limit published records to handler.
+         *
+         * @return the number of records handed over
+         */
+        public int poll(RecordHandler handler, int limit) {
+            long published = publishedPosition();
+            int count = 0;
+            while (count < limit && readPosition < published) {
+                if (published - readPosition > capacity / 2) {
+                    skipTo(published);
+                    return count;
+                }
+                int offset = (int) (readPosition & mask);
+                int at = HEADER_SIZE + offset;
+                int length = buffer.getInt(at);
+                if (length == PADDING) {
+                    readPosition += capacity - offset;
+                    continue;
+                }
+                if (length < RECORD_HEADER_SIZE || length > maxRecordSize) {
+                    // Torn read; the lap check sorts it out
+                    skipTo(publishedPosition());
+                    return count;
+                }
+                int topicLength = buffer.getInt(at + 4);
+                int payloadLength = length - RECORD_HEADER_SIZE - topicLength;
+                if (topicLength < 0 || payloadLength < 0) {
+                    skipTo(publishedPosition());
+                    return count;
+                }
+                int bodyLength = length - RECORD_HEADER_SIZE;
+                if (scratch.length < bodyLength) {
+                    scratch = new byte[Integer.highestOneBit(bodyLength) << 1];
+                }
+                buffer.get(at + RECORD_HEADER_SIZE, scratch, 0, bodyLength);
+                // Make sure what we just read wasn't being overwritten while we read it
+                VarHandle.loadLoadFence();
+                long now = (long) LONGS.getOpaque(buffer, WRITE_POSITION_OFFSET);
+                if (now - readPosition > capacity / 2) {
+                    skipTo(now);
+                    return count;
+                }
+                // Only now, so a torn topic never makes it into the cache
+                String topic = topics.lookup(scratch, topicLength);
+                readPosition += align(length);
+                handler.onRecord(topic, new String(scratch, topicLength, payloadLength, StandardCharsets.UTF_8));
+                count++;
+            }
+            return count;
+        }
+
+        private void skipTo(long position) {
+            lost += position - readPosition;
+            readPosition = position;
+        }
+
+        /**
+         * @return how many bytes of records this reader has skipped because it
+         *         fell behind
+         */
+        public long getLostBytes() {
+            return lost;
+        }
+
+        public Path getPath() {
+            return path;
+        }
+    }
+
+    /**
+     * Topics repeat endlessly, so each one is decoded once and after that matched
+     * byte for byte against the record we copied out.
+     */
+    private static final class TopicCache {
+        private byte[][] bytes = new byte[64][];
+        private String[] strings = new String[64];
+
+        String lookup(byte[] record, int length) {
+            int hash = 1;
+            for (int i = 0; i < length; i++) {
+                hash = 31 * hash + record[i];
+            }
+            int slot = hash & (bytes.length - 1);
+            for (int probe = 0; probe < bytes.length; probe++, slot = (slot + 1) & (bytes.length - 1)) {
+                byte[] cached = bytes[slot];
+                if (cached == null) {
+                    if (probe > bytes.length / 2) {
+                        // Full enough; a stream of novel topics shouldn't grow this forever
+                        return new String(record, 0, length, StandardCharsets.UTF_8);
+                    }
+                    bytes[slot] = Arrays.copyOf(record, length);
+                    strings[slot] = new String(record, 0, length, StandardCharsets.UTF_8);
+                    return strings[slot];
+                }
+                if (Arrays.equals(cached, 0, cached.length, record, 0, length)) {
+                    return strings[slot];
+                }
+            }
+            return new String(record, 0, length, StandardCharsets.UTF_8);
+        }
+    }
+}
@@ -0,0 +1,197 @@
+package com.aleatory.websocketsrouting.backend.messaging.shm;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.stereotype.Service;
+
+import com.aleatory.common.messaging.PubSubMessagingOperations;
+import com.aleatory.websocketsrouting.backend.messaging.redis.WebsocketsRoutingRedisMessaging;
+import com.aleatory.websocketsrouting.events.SendMessageToFrontendEvent;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.json.JsonMapper;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+
+import jakarta.annotation.PostConstruct;
+
+/**
+ * Backend messaging through shared memory, for when the backends run on the
+ * same box as us (<code>backend.messaging.transport=shm</code>). Every
+ * publisher, us included, has its own {@link ShmRingBuffer} file
+ * <code>&lt;name&gt;.ring</code> in <code>backend.messaging.shm.directory</code>
+ * (tmpfs, ideally). We publish to ours and read everybody else's on one thread,
+ * picking up new ring files as their publishers start.
+ *
+ * Payloads are JSON text and go to the front end as is, like the websockets
+ * transport. The reader either spins (<code>backend.messaging.shm.wait=spin</code>,
+ * lowest latency, burns a core) or parks for
+ * <code>backend.messaging.shm.park.micros</code> between empty polls
+ * (<code>park</code>, the default).
+ */
+@Service
+@ConditionalOnProperty(value = "backend.messaging.transport", havingValue = "shm")
+public class WebsocketsRoutingShmMessaging implements PubSubMessagingOperations, SmartLifecycle {
+    private static final Logger logger = LoggerFactory.getLogger(WebsocketsRoutingShmMessaging.class);
+
+    static final String RING_SUFFIX = ".ring";
+
+    private static final int BATCH_SIZE = 256;
+    private static final long RESCAN_NANOS = TimeUnit.SECONDS.toNanos(5);
+
+    @Autowired
+    private ApplicationEventPublisher applicationEventPublisher;
+
+    @Value("${backend.messaging.shm.directory:/dev/shm/condors}")
+    private Path directory;
+
+    @Value("${backend.messaging.shm.name:websockets-routing}")
+    private String name;
+
+    @Value("${backend.messaging.shm.capacity.mb:64}")
+    private int capacityMb;
+
+    @Value("${backend.messaging.shm.wait:park}")
+    private String waitStrategy;
+
+    @Value("${backend.messaging.shm.park.micros:50}")
+    private long parkMicros;
+
+    private final ObjectMapper mapper = JsonMapper.builder().addModule(new JavaTimeModule()).build();
+
+    private ShmRingBuffer ring;
+    private final List<ShmRingBuffer.Reader> readers = new CopyOnWriteArrayList<>();
+    private final Set<Path> attached = new HashSet<>();
+
+    private volatile boolean running;
+    private Thread readerThread;
+
+    @Override
+    public void publishMessage(String topic, Object payload) {
+        String json;
+        try {
+            json = payload instanceof String text ? text : mapper.writeValueAsString(payload);
+        } catch (JsonProcessingException e) {
+            logger.error("Could not write message for {}; not sent.", topic, e);
+            return;
+        }
+        if (!ring.offer(topic, json)) {
+            logger.error("Message for {} ({} chars) is too big for the ring; not sent.", topic, json.length());
+        }
+    }
+
+    @PostConstruct
+    void openRing() throws IOException {
+        ring = ShmRingBuffer.open(directory.resolve(name + RING_SUFFIX), Integer.highestOneBit(capacityMb) * 1024 * 1024);
+        logger.info("Publishing to {} ({} MB); reading other rings in {} ({} wait).", ring.getPath(), ring.getCapacity() / (1024 * 1024), directory, waitStrategy);
+    }
+
+    @Override
+    public void start() {
+        attachNewRings();
+        running = true;
+        readerThread = new Thread(this::readMessages, "shm-reader");
+        readerThread.setDaemon(true);
+        readerThread.start();
+    }
+
+    /**
+     * Attaches to any ring files we aren't reading yet (except our own).
+     */
+    void attachNewRings() {
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*" + RING_SUFFIX)) {
+            for (Path file : files) {
+                if (file.equals(ring.getPath()) || attached.contains(file)) {
+                    continue;
+                }
+                ShmRingBuffer other = ShmRingBuffer.attach(file);
+                if (other != null) {
+                    readers.add(other.reader());
+                    attached.add(file);
+                    logger.info("Reading backend messages from {}", file);
+                }
+            }
+        } catch (IOException e) {
+            logger.warn("Could not scan {} for ring buffers: {}", directory, e.getMessage());
+        }
+    }
+
+    private void readMessages() {
+        boolean spin = "spin".equalsIgnoreCase(waitStrategy);
+        long parkNanos = TimeUnit.MICROSECONDS.toNanos(parkMicros);
+        long nextScan = System.nanoTime() + RESCAN_NANOS;
+        while (running) {
+            int read = pollOnce();
+            // However busy the rings we have are, so a late starter isn't missed
+            if (System.nanoTime() - nextScan > 0) {
+                attachNewRings();
+                nextScan = System.nanoTime() + RESCAN_NANOS;
+            }
+            if (read == 0) {
+                if (spin) {
+                    Thread.onSpinWait();
+                } else {
+                    LockSupport.parkNanos(parkNanos);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the number of messages read across all rings
+     */
+    int pollOnce() {
+        int read = 0;
+        for (ShmRingBuffer.Reader reader : readers) {
+            long lostBefore = reader.getLostBytes();
+            try {
+                read += reader.poll(this::receiveMessage, BATCH_SIZE);
+            } catch (RuntimeException e) {
+                logger.error("Error handling message from {}", reader.getPath(), e);
+            }
+            if (reader.getLostBytes() != lostBefore) {
+                logger.warn("Fell behind on {}; skipped {} bytes of messages.", reader.getPath(), reader.getLostBytes() - lostBefore);
+            }
+        }
+        return read;
+    }
+
+    void receiveMessage(String topic, String payload) {
+        if (WebsocketsRoutingRedisMessaging.BACKEND_ONLY_TOPICS.contains(topic)) {
+            return;
+        }
+        applicationEventPublisher.publishEvent(new SendMessageToFrontendEvent(this, topic, payload));
+    }
+
+    @Override
+    public void stop() {
+        running = false;
+        if (readerThread != null) {
+            try {
+                readerThread.join(1000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    @Override
+    public boolean isRunning() {
+        return running;
+    }
+}
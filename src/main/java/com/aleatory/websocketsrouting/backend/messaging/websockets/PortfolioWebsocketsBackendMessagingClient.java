@@ -1,22 +1,34 @@
 package com.aleatory.websocketsrouting.backend.messaging.websockets;
 
 import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.event.EventListener;
+import org.springframework.messaging.simp.stomp.StompSession.Subscription;
 import org.springframework.web.socket.messaging.SessionSubscribeEvent;
 
-import com.aleatory.websocketsrouting.events.SendMessageToFrontendEvent;
+import com.aleatory.websocketsrouting.cluster.UpstreamSubscriptions;
+import com.aleatory.websocketsrouting.events.PortfolioTopicRequestedEvent;
 
 /**
  * For portfolio, we don't know the topics in advance, so we have to dynamically
- * subscribe to them as they come in.
+ * subscribe to them as they come in. In a router cluster the topic's owner
+ * subscribes instead (see PortfolioTopicOwnership).
  */
-public class PortfolioWebsocketsBackendMessagingClient extends WebsocketsBackendMessagingClient {
+public class PortfolioWebsocketsBackendMessagingClient extends WebsocketsBackendMessagingClient implements UpstreamSubscriptions {
     private static final Logger logger = LoggerFactory.getLogger(WebsocketsBackendMessagingClient.class);
     private static final String CONDORS_TICK_TOPIC_PREFIX = "/topic/prices.condor.portfolio.";
 
+    @Value("${router.cluster.enabled:false}")
+    private boolean clustered;
+
+    private final Map<String, Subscription> subscriptions = new ConcurrentHashMap<>();
+
     public PortfolioWebsocketsBackendMessagingClient() {
         super("portfolio", new String[0]);
     }
@@ -36,8 +48,41 @@ public class PortfolioWebsocketsBackendMessagingClient extends WebsocketsBackend
         if (!destination.startsWith(CONDORS_TICK_TOPIC_PREFIX)) {
             return;
         }
+        if (clustered) {
+            applicationEventPublisher.publishEvent(new PortfolioTopicRequestedEvent(this, destination));
+        } else {
+            subscribeUpstream(destination);
+        }
+    }
+
+    @Override
+    public synchronized void subscribeUpstream(String destination) {
+        if (handlers.containsKey(destination)) {
+            return;
+        }
         logger.info("Subscribing to portfolio topic {}", destination);
-        session.subscribe(destination, this);
-        handlers.put(destination, (payload) -> applicationEventPublisher.publishEvent(new SendMessageToFrontendEvent(this, destination, payload)));
+        subscriptions.put(destination, session.subscribe(destination, this));
+        handlers.put(destination, (payload) -> publish(destination, payload));
+    }
+
+    @Override
+    public synchronized void unsubscribeUpstream(String destination) {
+        handlers.remove(destination);
+        Subscription subscription = subscriptions.remove(destination);
+        if (subscription == null) {
+            return;
+        }
+        logger.info("Unsubscribing from portfolio topic {}", destination);
+        try {
+            subscription.unsubscribe();
+        } catch (RuntimeException e) {
+            // Session's gone; nothing left to unsubscribe from
+            logger.debug("Could not unsubscribe from {}: {}", destination, e.getMessage());
+        }
+    }
+
+    @Override
+    public synchronized Set<String> getUpstreamTopics() {
+        return new TreeSet<>(handlers.keySet());
     }
 }
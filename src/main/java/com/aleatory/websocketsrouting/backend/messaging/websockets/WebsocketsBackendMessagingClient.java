@@ -12,6 +12,7 @@ import org.springframework.messaging.simp.stomp.StompHeaders;
 import org.springframework.messaging.simp.stomp.StompSession;
 
 import com.aleatory.common.messaging.impl.websockets.WebsocketsPubSubMessagingOperations;
+import com.aleatory.websocketsrouting.backend.messaging.UpstreamSequenceTracker;
 import com.aleatory.websocketsrouting.events.SendMessageToFrontendEvent;
 
 public class WebsocketsBackendMessagingClient extends WebsocketsPubSubMessagingOperations {
@@ -20,11 +21,36 @@ public class WebsocketsBackendMessagingClient extends WebsocketsPubSubMessagingO
     @Autowired
     protected ApplicationEventPublisher applicationEventPublisher;
 
+    // The seq header of the frame being handled (0 if none); frames come in one at a time
+    private long frameSeq;
+
     public WebsocketsBackendMessagingClient(String serverName, String[] topics) {
         super(serverName, null);
         for (String topic : topics) {
-            handlers.put(topic, (payload) -> applicationEventPublisher.publishEvent(new SendMessageToFrontendEvent(this, topic, payload)));
+            handlers.put(topic, (payload) -> publish(topic, payload));
+        }
+    }
+
+    protected void publish(String topic, Object payload) {
+        applicationEventPublisher.publishEvent(new SendMessageToFrontendEvent(this, topic, payload, serverName, frameSeq));
+    }
+
+    /**
+     * Keeps the backend's sequence number, if it sent one, for the event the
+     * message goes out in.
+     */
+    @Override
+    public void handleFrame(StompHeaders headers, @Nullable Object payload) {
+        String seq = headers.getFirst(UpstreamSequenceTracker.SEQ_HEADER);
+        frameSeq = 0;
+        if (seq != null) {
+            try {
+                frameSeq = Long.parseLong(seq);
+            } catch (NumberFormatException e) {
+                logger.debug("Ignoring {} header {} from {} server", UpstreamSequenceTracker.SEQ_HEADER, seq, serverName);
+            }
         }
+        super.handleFrame(headers, payload);
     }
 
     @Override
@@ -0,0 +1,74 @@
+package com.aleatory.websocketsrouting.broker;
+
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.MessageHandler;
+import org.springframework.messaging.support.ChannelInterceptor;
+import org.springframework.messaging.support.InterceptableChannel;
+
+/**
+ * Writes messages for a session straight out to it, on the caller's thread,
+ * rather than handing them to the outbound channel's thread pool. So whatever
+ * the caller sends after one can't overtake it. The outbound channel's
+ * interceptors still see each of them.
+ */
+public class SessionWriter implements MessageChannel {
+    private static final Logger logger = LoggerFactory.getLogger(SessionWriter.class);
+
+    private final MessageHandler outbound;
+    // Only for its interceptors; we don't send through it
+    private final MessageChannel clientOutboundChannel;
+    private final List<ChannelInterceptor> outboundInterceptors;
+
+    public SessionWriter(MessageHandler outbound, MessageChannel clientOutboundChannel) {
+        this.outbound = outbound;
+        this.clientOutboundChannel = clientOutboundChannel;
+        this.outboundInterceptors = clientOutboundChannel instanceof InterceptableChannel interceptable ? List.copyOf(interceptable.getInterceptors()) : List.of();
+    }
+
+    @Override
+    public boolean send(Message<?> message, long timeout) {
+        write(message);
+        return true;
+    }
+
+    /**
+     * Through the outbound channel's interceptors (any of which can drop it),
+     * then out to the session. As in AbstractMessageChannel, afterSendCompletion
+     * goes, in reverse order, only to the interceptors whose preSend let the
+     * message through.
+     */
+    public void write(Message<?> message) {
+        int applied = 0;
+        try {
+            for (ChannelInterceptor interceptor : outboundInterceptors) {
+                Message<?> intercepted = interceptor.preSend(message, clientOutboundChannel);
+                if (intercepted == null) {
+                    afterSendCompletion(applied, message, false, null);
+                    return;
+                }
+                message = intercepted;
+                applied++;
+            }
+            outbound.handleMessage(message);
+        } catch (RuntimeException e) {
+            afterSendCompletion(applied, message, false, e);
+            throw e;
+        }
+        afterSendCompletion(applied, message, true, null);
+    }
+
+    private void afterSendCompletion(int applied, Message<?> message, boolean sent, Exception failure) {
+        for (int i = applied - 1; i >= 0; i--) {
+            try {
+                outboundInterceptors.get(i).afterSendCompletion(message, clientOutboundChannel, sent, failure);
+            } catch (RuntimeException e) {
+                logger.error("afterSendCompletion failed in {}", outboundInterceptors.get(i), e);
+            }
+        }
+    }
+}
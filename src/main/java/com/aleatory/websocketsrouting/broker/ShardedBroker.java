@@ -0,0 +1,363 @@
+package com.aleatory.websocketsrouting.broker;
+
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.MessageHandler;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessageType;
+import org.springframework.messaging.support.InterceptableChannel;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.stereotype.Component;
+import org.springframework.web.socket.WebSocketHandler;
+import org.springframework.web.socket.messaging.SessionDisconnectEvent;
+import org.springframework.web.socket.messaging.SessionSubscribeEvent;
+import org.springframework.web.socket.messaging.SessionUnsubscribeEvent;
+
+import com.aleatory.websocketsrouting.delta.DeltaEncoder;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+
+/**
+ * Broker for /topic destinations split over single-threaded shards
+ * (<code>broker.mode=sharded</code>). Each destination hashes to one shard, and
+ * that shard alone keeps its subscribers and writes its messages out. So a
+ * destination's messages reach every subscriber in the order they were sent,
+ * and different destinations go out on different cores. The shards' state
+ * is only ever touched by their own thread, so there are no locks.
+ *
+ * The simple broker still sees SUBSCRIBEs, but our messages no longer go
+ * through it (or the outbound channel's thread pool, which is where they got
+ * reordered). They go straight to the sessions, whose send buffers keep a slow
+ * browser from holding up a shard. The outbound channel's interceptors still
+ * see each of them, on the shard's thread. Anything not under /topic still goes
+ * to the broker channel.
+ *
+ * We remember which shards each session subscribed on, so an UNSUBSCRIBE or a
+ * disconnect only bothers those.
+ */
+@Component
+@ConditionalOnProperty(value = "broker.mode", havingValue = "sharded")
+public class ShardedBroker implements MessageChannel {
+    private static final Logger logger = LoggerFactory.getLogger(ShardedBroker.class);
+    static final String PREFIX = "/topic";
+    // How long stop() waits for all the shard threads together
+    static final long STOP_TIMEOUT_MILLIS = 1000;
+
+    @Autowired
+    @Qualifier("subProtocolWebSocketHandler")
+    private WebSocketHandler webSocketHandler;
+
+    @Autowired
+    @Qualifier("brokerChannel")
+    private MessageChannel brokerChannel;
+
+    // Only for its interceptors; we don't send through it
+    @Autowired
+    @Qualifier("clientOutboundChannel")
+    private InterceptableChannel clientOutboundChannel;
+
+    // Subscribe events carry the frame as the client sent it, before the encoder moved it (if delta.enabled)
+    @Autowired(required = false)
+    private DeltaEncoder deltaEncoder;
+
+    // 0 = one per core
+    @Value("${broker.shards:0}")
+    private int shardCount;
+
+    private SessionWriter sessionWriter;
+    private Shard[] shards;
+
+    // Session id -> the shards it has (or had) subscriptions on; dropped on disconnect
+    private final Map<String, Set<Shard>> sessionShards = new ConcurrentHashMap<>();
+
+    private record Subscriber(String sessionId, String subscriptionId) {
+    }
+
+    /**
+     * One thread, its queue of work, and the subscriptions of the destinations
+     * that hash to it.
+     */
+    private final class Shard implements Runnable {
+        private final Queue<Runnable> queue = new ConcurrentLinkedQueue<>();
+        private final Thread thread;
+        private volatile boolean waiting;
+        private volatile boolean busy;
+        private volatile boolean running = true;
+
+        // Destination -> its subscribers; session id -> subscription id -> destination
+        private final Map<String, Set<Subscriber>> subscribers = new HashMap<>();
+        private final Map<String, Map<String, String>> sessions = new HashMap<>();
+
+        Shard(int index) {
+            thread = new Thread(this, "broker-shard-" + index);
+            thread.setDaemon(true);
+        }
+
+        void submit(Runnable task) {
+            queue.offer(task);
+            if (waiting) {
+                LockSupport.unpark(thread);
+            }
+        }
+
+        @Override
+        public void run() {
+            while (running) {
+                Runnable task = queue.poll();
+                if (task == null) {
+                    waiting = true;
+                    // Re-check after saying we're waiting, so a submit in between isn't missed
+                    if (queue.isEmpty()) {
+                        LockSupport.park(this);
+                    }
+                    waiting = false;
+                    continue;
+                }
+                busy = true;
+                try {
+                    task.run();
+                } catch (RuntimeException e) {
+                    logger.error("Broker shard task failed", e);
+                } finally {
+                    busy = false;
+                }
+            }
+        }
+
+        void subscribe(String destination, String sessionId, String subscriptionId) {
+            subscribers.computeIfAbsent(destination, d -> new LinkedHashSet<>()).add(new Subscriber(sessionId, subscriptionId));
+            sessions.computeIfAbsent(sessionId, s -> new HashMap<>()).put(subscriptionId, destination);
+        }
+
+        void unsubscribe(String sessionId, String subscriptionId) {
+            Map<String, String> subscriptions = sessions.get(sessionId);
+            String destination = subscriptions == null ? null : subscriptions.remove(subscriptionId);
+            if (destination == null) {
+                return;
+            }
+            if (subscriptions.isEmpty()) {
+                sessions.remove(sessionId);
+            }
+            Set<Subscriber> destinationSubscribers = subscribers.get(destination);
+            destinationSubscribers.remove(new Subscriber(sessionId, subscriptionId));
+            if (destinationSubscribers.isEmpty()) {
+                subscribers.remove(destination);
+            }
+        }
+
+        void disconnect(String sessionId) {
+            Map<String, String> subscriptions = sessions.get(sessionId);
+            if (subscriptions != null) {
+                for (String subscriptionId : subscriptions.keySet().toArray(new String[0])) {
+                    unsubscribe(sessionId, subscriptionId);
+                }
+            }
+        }
+
+        boolean isIdle() {
+            return !busy && queue.isEmpty();
+        }
+
+        void deliver(Message<?> message, String destination) {
+            try {
+                sessionWriter.write(message);
+            } catch (RuntimeException e) {
+                logger.warn("Could not send {} to session {}: {}", destination, SimpMessageHeaderAccessor.getSessionId(message.getHeaders()), e.getMessage());
+            }
+        }
+
+        void dispatch(Message<?> message, String destination) {
+            Set<Subscriber> destinationSubscribers = subscribers.get(destination);
+            if (destinationSubscribers == null) {
+                return;
+            }
+            for (Subscriber subscriber : destinationSubscribers) {
+                SimpMessageHeaderAccessor headers = SimpMessageHeaderAccessor.create(SimpMessageType.MESSAGE);
+                headers.setSessionId(subscriber.sessionId());
+                headers.setSubscriptionId(subscriber.subscriptionId());
+                headers.copyHeadersIfAbsent(message.getHeaders());
+                headers.setLeaveMutable(true);
+                try {
+                    sessionWriter.write(MessageBuilder.createMessage(message.getPayload(), headers.getMessageHeaders()));
+                } catch (RuntimeException e) {
+                    logger.warn("Could not send {} to session {}: {}", destination, subscriber.sessionId(), e.getMessage());
+                }
+            }
+        }
+
+        int subscriptionCount() {
+            return sessions.values().stream().mapToInt(Map::size).sum();
+        }
+    }
+
+    @PostConstruct
+    void start() {
+        sessionWriter = new SessionWriter((MessageHandler) webSocketHandler, (MessageChannel) clientOutboundChannel);
+        int count = shardCount > 0 ? shardCount : Runtime.getRuntime().availableProcessors();
+        shards = new Shard[count];
+        for (int i = 0; i < count; i++) {
+            shards[i] = new Shard(i);
+            shards[i].thread.start();
+        }
+        logger.info("Broker sharded {} ways", count);
+    }
+
+    @PreDestroy
+    void stop() {
+        stop(STOP_TIMEOUT_MILLIS);
+    }
+
+    /**
+     * Stops the shards, waiting up to timeoutMillis for them all; whatever they
+     * hadn't got to yet is dropped.
+     *
+     * @return how many queued sends (and subscription changes) were dropped
+     */
+    int stop(long timeoutMillis) {
+        for (Shard shard : shards) {
+            shard.running = false;
+            LockSupport.unpark(shard.thread);
+        }
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        int dropped = 0, stuck = 0;
+        for (Shard shard : shards) {
+            try {
+                long left = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+                if (left > 0) {
+                    shard.thread.join(left);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            if (shard.thread.isAlive()) {
+                stuck++;
+            }
+            dropped += shard.queue.size();
+            shard.queue.clear();
+        }
+        if (stuck > 0) {
+            logger.warn("{} broker shards still busy after {} ms; leaving them", stuck, timeoutMillis);
+        }
+        if (dropped > 0) {
+            logger.warn("Broker stopped with {} queued sends dropped", dropped);
+        }
+        return dropped;
+    }
+
+    private Shard shardFor(String destination) {
+        return shards[shardIndexFor(destination)];
+    }
+
+    int shardIndexFor(String destination) {
+        return Math.floorMod(destination.hashCode(), shards.length);
+    }
+
+    /**
+     * Queues the message on its destination's shard. A message already addressed
+     * to one subscription (a replay, say) goes just to that session, but still
+     * in turn with the rest of the destination's messages.
+     */
+    @Override
+    public boolean send(Message<?> message, long timeout) {
+        String destination = SimpMessageHeaderAccessor.getDestination(message.getHeaders());
+        if (destination == null || !destination.startsWith(PREFIX)) {
+            return brokerChannel.send(message, timeout);
+        }
+        Shard shard = shardFor(destination);
+        if (SimpMessageHeaderAccessor.getSessionId(message.getHeaders()) != null && SimpMessageHeaderAccessor.getSubscriptionId(message.getHeaders()) != null) {
+            shard.submit(() -> shard.deliver(message, destination));
+        } else {
+            shard.submit(() -> shard.dispatch(message, destination));
+        }
+        return true;
+    }
+
+    /**
+     * Runs first, so the subscription is in place before anything (the last
+     * message, say) is sent to it from another subscribe listener. A delta
+     * subscription is filed under the delta destination it was moved to.
+     */
+    @EventListener
+    @Order(Ordered.HIGHEST_PRECEDENCE)
+    void subscribed(SessionSubscribeEvent event) {
+        SimpMessageHeaderAccessor headers = SimpMessageHeaderAccessor.wrap(event.getMessage());
+        String requested = headers.getDestination();
+        String sessionId = headers.getSessionId();
+        String subscriptionId = headers.getSubscriptionId();
+        if (requested == null || !requested.startsWith(PREFIX) || sessionId == null || subscriptionId == null) {
+            return;
+        }
+        boolean delta = deltaEncoder != null && deltaEncoder.isDeltaSubscription(requested, headers.getFirstNativeHeader(DeltaEncoder.DELTA_HEADER));
+        String destination = delta ? requested + DeltaEncoder.DELTA_SUFFIX : requested;
+        Shard shard = shardFor(destination);
+        sessionShards.computeIfAbsent(sessionId, s -> ConcurrentHashMap.newKeySet()).add(shard);
+        shard.submit(() -> shard.subscribe(destination, sessionId, subscriptionId));
+    }
+
+    @EventListener
+    void unsubscribed(SessionUnsubscribeEvent event) {
+        SimpMessageHeaderAccessor headers = SimpMessageHeaderAccessor.wrap(event.getMessage());
+        String sessionId = headers.getSessionId();
+        String subscriptionId = headers.getSubscriptionId();
+        // No destination on an UNSUBSCRIBE, so each shard the session is on checks
+        for (Shard shard : sessionShards.getOrDefault(sessionId, Set.of())) {
+            shard.submit(() -> shard.unsubscribe(sessionId, subscriptionId));
+        }
+    }
+
+    @EventListener
+    void disconnected(SessionDisconnectEvent event) {
+        String sessionId = event.getSessionId();
+        Set<Shard> sessionOn = sessionShards.remove(sessionId);
+        if (sessionOn == null) {
+            return;
+        }
+        for (Shard shard : sessionOn) {
+            shard.submit(() -> shard.disconnect(sessionId));
+        }
+    }
+
+    /**
+     * @return whether every shard has sent all it was given
+     */
+    public boolean isIdle() {
+        for (Shard shard : shards) {
+            if (!shard.isIdle()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public int getShardCount() {
+        return shards.length;
+    }
+
+    /**
+     * Asks the shard itself, once it's done with what's queued ahead.
+     */
+    int getSubscriptionCount(int shard) {
+        return CompletableFuture.supplyAsync(shards[shard]::subscriptionCount, shards[shard]::submit).join();
+    }
+}
@@ -0,0 +1,33 @@
+package com.aleatory.websocketsrouting.cluster;
+
+import java.util.Set;
+import java.util.function.Consumer;
+
+/**
+ * The state router nodes share when clustered: who's alive, which portfolio
+ * topics anybody wants, and a couple of broadcast channels.
+ */
+public interface ClusterStore {
+
+    /**
+     * Records that the node is alive as of <code>now</code> and forgets nodes not
+     * heard from since <code>expireBefore</code> (both epoch millis).
+     *
+     * @return every node still alive, this one included
+     */
+    Set<String> heartbeat(String nodeId, long now, long expireBefore);
+
+    /**
+     * Takes the node out straight away, so the others don't wait for it to time
+     * out.
+     */
+    void leave(String nodeId);
+
+    void addTopic(String topic);
+
+    Set<String> getTopics();
+
+    void publish(String channel, String message);
+
+    void subscribe(String channel, Consumer<String> listener);
+}
@@ -0,0 +1,64 @@
+package com.aleatory.websocketsrouting.cluster;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * Assigns keys (topics) to members (router nodes) by consistent hashing. Each
+ * member gets <code>virtualNodes</code> points on the ring and a key belongs to
+ * the first point at or after its hash, so adding or removing a member only
+ * moves the keys on its share of the ring. Every node builds the same ring from
+ * the same members, so they all agree on owners without talking about it.
+ */
+public class ConsistentHashRing {
+    private final Set<String> members;
+    private final NavigableMap<Long, String> points = new TreeMap<>();
+
+    public ConsistentHashRing(Collection<String> members, int virtualNodes) {
+        this.members = Collections.unmodifiableSet(new TreeSet<>(members));
+        for (String member : this.members) {
+            for (int i = 0; i < virtualNodes; i++) {
+                points.putIfAbsent(hash(member + "#" + i), member);
+            }
+        }
+    }
+
+    /**
+     * @return the member that owns the key, or null if there are no members
+     */
+    public String ownerOf(String key) {
+        if (points.isEmpty()) {
+            return null;
+        }
+        Map.Entry<Long, String> point = points.ceilingEntry(hash(key));
+        return (point != null ? point : points.firstEntry()).getValue();
+    }
+
+    public Set<String> getMembers() {
+        return members;
+    }
+
+    /**
+     * 64-bit FNV-1a, then a murmur finalizer so similar names (router-1,
+     * router-2) land far apart.
+     */
+    static long hash(String key) {
+        long hash = 0xcbf29ce484222325L;
+        for (byte b : key.getBytes(StandardCharsets.UTF_8)) {
+            hash ^= b & 0xff;
+            hash *= 0x100000001b3L;
+        }
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+}
@@ -0,0 +1,181 @@
+package com.aleatory.websocketsrouting.cluster;
+
+import java.time.Duration;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.Executor;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnExpression;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.TaskScheduler;
+import org.springframework.stereotype.Service;
+
+import com.aleatory.websocketsrouting.events.PortfolioTopicRequestedEvent;
+import com.aleatory.websocketsrouting.events.RouterMembershipChangedEvent;
+import com.aleatory.websocketsrouting.events.SendMessageToFrontendEvent;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import jakarta.annotation.PostConstruct;
+
+/**
+ * Makes sure each portfolio topic is subscribed upstream by exactly one router
+ * node, whichever owns it on the hash ring, instead of by every node a browser
+ * happened to ask.
+ *
+ * Requested topics go in the shared {@link ClusterStore} (so a node that takes
+ * over a topic knows about it) and a notice goes to the owner. The owner
+ * publishes what it receives once, on <code>CONDORS:ROUTER.FANOUT</code>, off
+ * the thread it came in on, and every other node hands it on to its own
+ * browsers; the owner drops its own copy. When nodes join or leave, each
+ * node subscribes to the topics it now owns and drops the ones it doesn't;
+ * there can be a moment of overlap (duplicate ticks) or gap (a missed tick)
+ * while the nodes catch up with each other, which is fine for ticks.
+ */
+@Service
+@ConditionalOnExpression("${router.cluster.enabled:false} and '${backend.messaging.transport:redis}' == 'websockets'")
+public class PortfolioTopicOwnership {
+    private static final Logger logger = LoggerFactory.getLogger(PortfolioTopicOwnership.class);
+    static final String TOPICS_CHANNEL = "CONDORS:ROUTER.TOPICS";
+    static final String FANOUT_CHANNEL = "CONDORS:ROUTER.FANOUT";
+
+    private static final ObjectMapper mapper = new ObjectMapper();
+
+    @Autowired
+    private ClusterStore store;
+
+    @Autowired
+    private RouterMembership membership;
+
+    @Autowired
+    private UpstreamSubscriptions upstream;
+
+    @Autowired
+    private ApplicationEventPublisher applicationEventPublisher;
+
+    @Autowired
+    @Qualifier("messagingScheduler")
+    private TaskScheduler scheduler;
+
+    @Autowired
+    @Qualifier("clusterFanoutExecutor")
+    private Executor fanoutExecutor;
+
+    @Value("${router.cluster.sync.seconds:5}")
+    private int syncSeconds;
+
+    record FanoutMessage(String origin, String destination, Object payload) {
+    }
+
+    @PostConstruct
+    void start() {
+        store.subscribe(TOPICS_CHANNEL, this::topicNoticeReceived);
+        store.subscribe(FANOUT_CHANNEL, this::fanoutReceived);
+        // Catches anything a missed notice or membership change left behind
+        scheduler.scheduleWithFixedDelay(this::rebalance, Duration.ofSeconds(syncSeconds));
+    }
+
+    @EventListener
+    void topicRequested(PortfolioTopicRequestedEvent event) {
+        String topic = event.getTopic();
+        if (upstream.getUpstreamTopics().contains(topic)) {
+            return;
+        }
+        try {
+            store.addTopic(topic);
+            if (membership.isOwner(topic)) {
+                upstream.subscribeUpstream(topic);
+            } else {
+                store.publish(TOPICS_CHANNEL, topic);
+            }
+        } catch (RuntimeException e) {
+            // Can't reach the others; better every node subscribes than nobody does
+            logger.warn("Could not share portfolio topic {}; subscribing to it ourselves: {}", topic, e.getMessage());
+            upstream.subscribeUpstream(topic);
+        }
+    }
+
+    private void topicNoticeReceived(String topic) {
+        if (membership.isOwner(topic)) {
+            upstream.subscribeUpstream(topic);
+        }
+    }
+
+    @EventListener
+    void membershipChanged(RouterMembershipChangedEvent event) {
+        rebalance();
+    }
+
+    /**
+     * Subscribes to every requested topic we now own and drops the ones we don't.
+     */
+    synchronized void rebalance() {
+        Set<String> topics;
+        try {
+            topics = store.getTopics();
+        } catch (RuntimeException e) {
+            logger.warn("Could not read portfolio topics; keeping our subscriptions: {}", e.getMessage());
+            return;
+        }
+        int added = 0, dropped = 0;
+        Set<String> subscribed = new TreeSet<>(upstream.getUpstreamTopics());
+        for (String topic : topics) {
+            if (membership.isOwner(topic) && !subscribed.contains(topic)) {
+                upstream.subscribeUpstream(topic);
+                added++;
+            }
+        }
+        for (String topic : subscribed) {
+            if (!membership.isOwner(topic)) {
+                upstream.unsubscribeUpstream(topic);
+                dropped++;
+            }
+        }
+        if (added + dropped > 0) {
+            logger.info("Took over {} portfolio topics and handed off {}; now subscribed to {}.", added, dropped, upstream.getUpstreamTopics().size());
+        }
+    }
+
+    /**
+     * What we get from upstream goes to the other nodes' browsers too.
+     */
+    @EventListener
+    void fanOut(SendMessageToFrontendEvent event) {
+        if (event.getSource() != upstream) {
+            return;
+        }
+        String json;
+        try {
+            json = mapper.writeValueAsString(new FanoutMessage(membership.getNodeId(), event.getDestination(), event.getPayload()));
+        } catch (JsonProcessingException e) {
+            logger.warn("Could not fan out message on {}: {}", event.getDestination(), e.getMessage());
+            return;
+        }
+        fanoutExecutor.execute(() -> {
+            try {
+                store.publish(FANOUT_CHANNEL, json);
+            } catch (RuntimeException e) {
+                logger.warn("Could not fan out message on {}: {}", event.getDestination(), e.getMessage());
+            }
+        });
+    }
+
+    private void fanoutReceived(String json) {
+        FanoutMessage message;
+        try {
+            message = mapper.readValue(json, FanoutMessage.class);
+        } catch (JsonProcessingException e) {
+            logger.error("Could not read fanned out message; dropped.", e);
+            return;
+        }
+        if (!membership.getNodeId().equals(message.origin())) {
+            applicationEventPublisher.publishEvent(new SendMessageToFrontendEvent(this, message.destination(), message.payload()));
+        }
+    }
+}
@@ -0,0 +1,58 @@
+package com.aleatory.websocketsrouting.cluster;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Set;
+import java.util.function.Consumer;
+
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+
+/**
+ * {@link ClusterStore} in Redis: members in a sorted set scored by last
+ * heartbeat, requested topics in a set, broadcasts over pub/sub.
+ */
+public class RedisClusterStore implements ClusterStore {
+    static final String MEMBERS_KEY = "CONDORS:ROUTERS";
+    static final String TOPICS_KEY = "CONDORS:ROUTER.TOPICS";
+
+    private final StringRedisTemplate redisTemplate;
+    private final RedisMessageListenerContainer listenerContainer;
+
+    public RedisClusterStore(StringRedisTemplate redisTemplate, RedisMessageListenerContainer listenerContainer) {
+        this.redisTemplate = redisTemplate;
+        this.listenerContainer = listenerContainer;
+    }
+
+    @Override
+    public Set<String> heartbeat(String nodeId, long now, long expireBefore) {
+        redisTemplate.opsForZSet().add(MEMBERS_KEY, nodeId, now);
+        redisTemplate.opsForZSet().removeRangeByScore(MEMBERS_KEY, 0, expireBefore);
+        return redisTemplate.opsForZSet().range(MEMBERS_KEY, 0, -1);
+    }
+
+    @Override
+    public void leave(String nodeId) {
+        redisTemplate.opsForZSet().remove(MEMBERS_KEY, nodeId);
+    }
+
+    @Override
+    public void addTopic(String topic) {
+        redisTemplate.opsForSet().add(TOPICS_KEY, topic);
+    }
+
+    @Override
+    public Set<String> getTopics() {
+        return redisTemplate.opsForSet().members(TOPICS_KEY);
+    }
+
+    @Override
+    public void publish(String channel, String message) {
+        redisTemplate.convertAndSend(channel, message);
+    }
+
+    @Override
+    public void subscribe(String channel, Consumer<String> listener) {
+        listenerContainer.addMessageListener((message, pattern) -> listener.accept(new String(message.getBody(), StandardCharsets.UTF_8)), ChannelTopic.of(channel));
+    }
+}
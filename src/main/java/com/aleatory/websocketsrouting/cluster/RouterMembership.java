@@ -0,0 +1,101 @@
+package com.aleatory.websocketsrouting.cluster;
+
+import java.time.Duration;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.scheduling.TaskScheduler;
+import org.springframework.stereotype.Service;
+
+import com.aleatory.websocketsrouting.events.RouterMembershipChangedEvent;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+
+/**
+ * Keeps track of the router nodes behind the load balancer
+ * (<code>router.cluster.enabled=true</code>). Every node heartbeats into the
+ * {@link ClusterStore} and reads back who else is alive; when that changes we
+ * rebuild the hash ring and publish a {@link RouterMembershipChangedEvent}.
+ */
+@Service
+@ConditionalOnProperty(value = "router.cluster.enabled", havingValue = "true")
+public class RouterMembership {
+    private static final Logger logger = LoggerFactory.getLogger(RouterMembership.class);
+
+    @Autowired
+    private ClusterStore store;
+
+    @Autowired
+    private ApplicationEventPublisher applicationEventPublisher;
+
+    @Autowired
+    @Qualifier("messagingScheduler")
+    private TaskScheduler scheduler;
+
+    @Value("${router.cluster.node.id:${HOSTNAME:router}-${server.port:8443}}")
+    private String nodeId;
+
+    @Value("${router.cluster.heartbeat.millis:2000}")
+    private long heartbeatMillis;
+
+    @Value("${router.cluster.member.timeout.millis:10000}")
+    private long memberTimeoutMillis;
+
+    @Value("${router.cluster.virtual.nodes:128}")
+    private int virtualNodes;
+
+    private volatile ConsistentHashRing ring;
+
+    @PostConstruct
+    void join() {
+        ring = new ConsistentHashRing(Set.of(nodeId), virtualNodes);
+        heartbeat();
+        scheduler.scheduleWithFixedDelay(this::heartbeat, Duration.ofMillis(heartbeatMillis));
+    }
+
+    void heartbeat() {
+        long now = System.currentTimeMillis();
+        Set<String> members;
+        try {
+            members = new TreeSet<>(store.heartbeat(nodeId, now, now - memberTimeoutMillis));
+        } catch (RuntimeException e) {
+            logger.warn("Could not heartbeat as router node {}; keeping members {}: {}", nodeId, ring.getMembers(), e.getMessage());
+            return;
+        }
+        members.add(nodeId);
+        if (!members.equals(ring.getMembers())) {
+            ring = new ConsistentHashRing(members, virtualNodes);
+            logger.info("Router nodes are now {} (we're {})", members, nodeId);
+            applicationEventPublisher.publishEvent(new RouterMembershipChangedEvent(this, members));
+        }
+    }
+
+    @PreDestroy
+    void leave() {
+        try {
+            store.leave(nodeId);
+        } catch (RuntimeException e) {
+            logger.warn("Could not leave the router cluster; the others will time us out: {}", e.getMessage());
+        }
+    }
+
+    public String getNodeId() {
+        return nodeId;
+    }
+
+    public boolean isOwner(String key) {
+        return nodeId.equals(ring.ownerOf(key));
+    }
+
+    public String ownerOf(String key) {
+        return ring.ownerOf(key);
+    }
+}
@@ -0,0 +1,19 @@
+package com.aleatory.websocketsrouting.cluster;
+
+import java.util.Set;
+
+/**
+ * The backend connection dynamic (portfolio) topics are subscribed on. In a
+ * router cluster only the owner of a topic is subscribed to it.
+ */
+public interface UpstreamSubscriptions {
+
+    /**
+     * Subscribes to the topic upstream, unless we already are.
+     */
+    void subscribeUpstream(String topic);
+
+    void unsubscribeUpstream(String topic);
+
+    Set<String> getUpstreamTopics();
+}
@@ -1,7 +1,9 @@
 package com.aleatory.websocketsrouting.config;
 
 import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadPoolExecutor;
 
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.scheduling.TaskScheduler;
@@ -28,10 +30,50 @@ public class AsyncConfig implements AsyncConfigurer {
         return scheduler;
     }
     
+    /**
+     * Sends and checks the STOMP heartbeats for the simple broker.
+     */
+    @Bean
+    public TaskScheduler heartbeatScheduler() {
+        ThreadPoolTaskScheduler scheduler = new ThreadPoolTaskScheduler();
+        scheduler.setPoolSize(1);
+        scheduler.setThreadNamePrefix("stomp-heartbeat-");
+        return scheduler;
+    }
+
     @Bean
     public TaskScheduler apiScheduler() {
         ThreadPoolTaskScheduler scheduler = new ThreadPoolTaskScheduler();
         scheduler.setPoolSize(5);
         return scheduler;
     }
+
+    /**
+     * Runs the close price sources in parallel, for every symbol; see
+     * HistoricalSPXPriceProvider. The pool size is the most fetches we'll have in
+     * flight at once.
+     */
+    @Bean
+    public ThreadPoolTaskExecutor closeSourceExecutor(@Value("${closes.fetch.parallelism:4}") int parallelism) {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(parallelism);
+        executor.setThreadNamePrefix("close-source-");
+        return executor;
+    }
+
+    /**
+     * Publishes cluster fan-out messages, one at a time and in order, so the
+     * thread that got them from upstream doesn't wait on Redis. If Redis falls
+     * far behind, the oldest queued ticks go first.
+     */
+    @Bean
+    public ThreadPoolTaskExecutor clusterFanoutExecutor() {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(1);
+        executor.setMaxPoolSize(1);
+        executor.setQueueCapacity(10_000);
+        executor.setRejectedExecutionHandler(new ThreadPoolExecutor.DiscardOldestPolicy());
+        executor.setThreadNamePrefix("cluster-fanout-");
+        return executor;
+    }
 }
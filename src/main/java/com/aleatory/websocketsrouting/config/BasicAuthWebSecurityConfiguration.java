@@ -1,5 +1,7 @@
 package com.aleatory.websocketsrouting.config;
 
+import java.time.Duration;
+
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -33,6 +35,13 @@ public class BasicAuthWebSecurityConfiguration {
     @Value("${app.security.password}")
     private String password;
 
+    // How long a successful check of the same credentials is remembered; 0 to check every time
+    @Value("${app.security.credential.cache.seconds:300}")
+    private int credentialCacheSeconds;
+
+    @Value("${app.security.credential.cache.size:1024}")
+    private int credentialCacheSize;
+
     @Bean
     @Profile("!dev")
     public SecurityFilterChain filterChain(HttpSecurity http) throws Exception {
@@ -58,6 +67,10 @@ public class BasicAuthWebSecurityConfiguration {
 
     @Bean
     public PasswordEncoder passwordEncoder() {
-        return new BCryptPasswordEncoder(8);
+        PasswordEncoder bcrypt = new BCryptPasswordEncoder(8);
+        if (credentialCacheSeconds <= 0) {
+            return bcrypt;
+        }
+        return new CachingPasswordEncoder(bcrypt, Duration.ofSeconds(credentialCacheSeconds), credentialCacheSize);
     }
 }
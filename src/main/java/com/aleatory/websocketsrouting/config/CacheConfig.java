@@ -1,29 +1,48 @@
 package com.aleatory.websocketsrouting.config;
 
+import java.time.Duration;
+import java.util.List;
+
+import org.apache.commons.pool2.impl.GenericObjectPoolConfig;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnExpression;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.cache.annotation.EnableCaching;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
 import org.springframework.data.redis.connection.RedisConnectionFactory;
 import org.springframework.data.redis.connection.RedisStandaloneConfiguration;
 import org.springframework.data.redis.connection.jedis.JedisClientConfiguration;
 import org.springframework.data.redis.connection.jedis.JedisConnectionFactory;
+import org.springframework.data.redis.connection.lettuce.LettuceClientConfiguration;
+import org.springframework.data.redis.connection.lettuce.LettuceConnection;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
 import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.data.redis.listener.PatternTopic;
 import org.springframework.data.redis.listener.RedisMessageListenerContainer;
-import org.springframework.data.redis.serializer.GenericJackson2JsonRedisSerializer;
 import org.springframework.data.redis.serializer.StringRedisSerializer;
 import org.springframework.scheduling.annotation.EnableAsync;
 
+import com.aleatory.websocketsrouting.backend.messaging.codec.MessageCodecSerializer;
+import com.aleatory.websocketsrouting.backend.messaging.redis.ClusterShardMap;
+import com.aleatory.websocketsrouting.backend.messaging.redis.MessageStream;
+import com.aleatory.websocketsrouting.backend.messaging.redis.RedisMessageStream;
+import com.aleatory.websocketsrouting.backend.messaging.redis.ShardMap;
 import com.aleatory.websocketsrouting.backend.messaging.redis.WebsocketsRoutingRedisMessaging;
 import com.fasterxml.jackson.annotation.JsonTypeInfo;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.json.JsonMapper;
+import com.fasterxml.jackson.dataformat.cbor.databind.CBORMapper;
 import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
 
+import io.lettuce.core.ClientOptions;
+import io.lettuce.core.SocketOptions;
+
 @Configuration
 @EnableCaching
 @EnableAsync
@@ -35,38 +54,124 @@ public class CacheConfig {
     @Value("${spring.redis.port}")
     private int REDIS_PORT;
 
+    // jedis (pooled, what we've always used) or lettuce (one shared, multiplexed connection)
+    @Value("${redis.client:jedis}")
+    private String clientMode;
+
+    @Value("${redis.connect.timeout.millis:2000}")
+    private long connectTimeoutMillis;
+
+    @Value("${redis.command.timeout.millis:1000}")
+    private long commandTimeoutMillis;
+
+    // Jedis pool, per factory
+    @Value("${redis.pool.max-total:8}")
+    private int poolMaxTotal;
+
+    @Value("${redis.pool.max-idle:8}")
+    private int poolMaxIdle;
+
+    @Value("${redis.pool.min-idle:0}")
+    private int poolMinIdle;
+
+    // The listener connections' command timeout has to outlast a blocking stream read
+    @Value("${backend.messaging.streams.block.millis:1000}")
+    private long streamBlockMillis;
+
+    // What we write: json (every peer reads it) or cbor; we read both either way
+    @Value("${backend.messaging.codec:json}")
+    private String codec;
+
+    @Value("${backend.messaging.codec.compress.min.bytes:0}")
+    private int compressMinBytes;
+
+    /**
+     * What the router reads and writes (last messages, expiry) through. Jedis
+     * unless <code>redis.client=lettuce</code>, where every caller shares one
+     * multiplexed connection and pipelines are written to the socket in one go
+     * when they're closed.
+     */
+    @Bean
+    @Primary
+    public RedisConnectionFactory redisConnectionFactory() {
+        logger.info("Will connect to Redis server on {}:{} with {}", REDIS_HOSTNAME, REDIS_PORT, clientMode);
+        return connectionFactory("websockets-routing");
+    }
+
+    /**
+     * Backend messaging gets its own connections so a burst of hash writes or a
+     * snapshot read never queues behind (or in front of) pub/sub and stream reads.
+     * (Blocking stream reads get a dedicated connection of their own anyway.)
+     * Its command timeout is at least the stream block time plus the connect
+     * timeout, so an XREADGROUP BLOCK on an idle stream comes back empty rather
+     * than being cancelled by the client with entries on their way.
+     */
     @Bean
-    public JedisConnectionFactory jedisConnectionFactory() {
-        logger.info("Will connect to Redis server on {}:{}", REDIS_HOSTNAME, REDIS_PORT);
+    @ConditionalOnExpression("'${backend.messaging.transport:redis}'.startsWith('redis')")
+    public RedisConnectionFactory redisListenerConnectionFactory() {
+        return connectionFactory("websockets-routing-listener", Math.max(commandTimeoutMillis, streamBlockMillis + connectTimeoutMillis));
+    }
+
+    private RedisConnectionFactory connectionFactory(String clientName) {
+        return connectionFactory(clientName, commandTimeoutMillis);
+    }
+
+    private RedisConnectionFactory connectionFactory(String clientName, long commandTimeoutMillis) {
         RedisStandaloneConfiguration configuration = new RedisStandaloneConfiguration(REDIS_HOSTNAME, REDIS_PORT);
-        JedisClientConfiguration jedisClientConfiguration = JedisClientConfiguration.builder().build();
-        JedisConnectionFactory factory = new JedisConnectionFactory(configuration, jedisClientConfiguration);
+        if (!"lettuce".equalsIgnoreCase(clientMode)) {
+            GenericObjectPoolConfig<Object> poolConfig = new GenericObjectPoolConfig<>();
+            poolConfig.setMaxTotal(poolMaxTotal);
+            poolConfig.setMaxIdle(poolMaxIdle);
+            poolConfig.setMinIdle(poolMinIdle);
+            JedisClientConfiguration jedisClientConfiguration = JedisClientConfiguration.builder().connectTimeout(Duration.ofMillis(connectTimeoutMillis))
+                    .readTimeout(Duration.ofMillis(commandTimeoutMillis)).clientName(clientName).usePooling().poolConfig(poolConfig).build();
+            return new JedisConnectionFactory(configuration, jedisClientConfiguration);
+        }
+        ClientOptions clientOptions = ClientOptions.builder().socketOptions(SocketOptions.builder().connectTimeout(Duration.ofMillis(connectTimeoutMillis)).build())
+                .build();
+        LettuceClientConfiguration lettuceClientConfiguration = LettuceClientConfiguration.builder().commandTimeout(Duration.ofMillis(commandTimeoutMillis))
+                .clientOptions(clientOptions).clientName(clientName).build();
+        LettuceConnectionFactory factory = new LettuceConnectionFactory(configuration, lettuceClientConfiguration);
+        factory.setPipeliningFlushPolicy(LettuceConnection.PipeliningFlushPolicy.flushOnClose());
         return factory;
     }
 
+    /**
+     * How values and backend messages are written to (and read from) Redis.
+     */
     @Bean
-    @ConditionalOnProperty(value = "backend.messaging.transport", havingValue = "redis", matchIfMissing = true)
-    public RedisTemplate<String, Object> redisTemplate(JedisConnectionFactory factory) {
+    @ConditionalOnExpression("'${backend.messaging.transport:redis}'.startsWith('redis')")
+    public MessageCodecSerializer messageCodecSerializer() {
+        ObjectMapper mapper = withDefaultTyping(JsonMapper.builder().addModule(new JavaTimeModule()).build());
+        ObjectMapper cborMapper = withDefaultTyping(CBORMapper.builder().addModule(new JavaTimeModule()).build());
+        return new MessageCodecSerializer(mapper, cborMapper, codec, compressMinBytes);
+    }
+
+    // Type ids as @class properties, which is what peers rebuild their objects from
+    private static ObjectMapper withDefaultTyping(ObjectMapper mapper) {
+        mapper.activateDefaultTyping(mapper.getPolymorphicTypeValidator(), ObjectMapper.DefaultTyping.NON_FINAL, JsonTypeInfo.As.PROPERTY);
+        return mapper;
+    }
+
+    @Bean
+    @ConditionalOnExpression("'${backend.messaging.transport:redis}'.startsWith('redis')")
+    public RedisTemplate<String, Object> redisTemplate(RedisConnectionFactory factory, RedisMetrics redisMetrics, MessageCodecSerializer valueSerializer) {
         final RedisTemplate<String, Object> redisTemplate = new RedisTemplate<>();
         StringRedisSerializer keySerializer = new StringRedisSerializer();
         redisTemplate.setHashKeySerializer(keySerializer);
 
-        ObjectMapper mapper = JsonMapper.builder().addModule(new JavaTimeModule()).build();
-        mapper.activateDefaultTyping(mapper.getPolymorphicTypeValidator(), ObjectMapper.DefaultTyping.NON_FINAL, JsonTypeInfo.As.PROPERTY);
-        GenericJackson2JsonRedisSerializer valueSerializer = new GenericJackson2JsonRedisSerializer(mapper), defaultSerializer = new GenericJackson2JsonRedisSerializer(mapper);
         redisTemplate.setValueSerializer(valueSerializer);
-        redisTemplate.setDefaultSerializer(defaultSerializer);
+        redisTemplate.setDefaultSerializer(valueSerializer);
         redisTemplate.setKeySerializer(keySerializer);
 
-        factory.afterPropertiesSet();
-        redisTemplate.setConnectionFactory(factory);
+        redisTemplate.setConnectionFactory(new TimedRedisConnectionFactory(factory, redisMetrics));
 
         return redisTemplate;
     }
 
     @Bean
     @ConditionalOnProperty(value = "backend.messaging.transport", havingValue = "redis", matchIfMissing = true)
-    RedisMessageListenerContainer redisMessageListenerContainer(RedisConnectionFactory connectionFactory, WebsocketsRoutingRedisMessaging messagingOperations) {
+    RedisMessageListenerContainer redisMessageListenerContainer(@Qualifier("redisListenerConnectionFactory") RedisConnectionFactory connectionFactory, WebsocketsRoutingRedisMessaging messagingOperations) {
 
         RedisMessageListenerContainer container = new RedisMessageListenerContainer();
         container.setConnectionFactory(connectionFactory);
@@ -75,4 +180,19 @@ public class CacheConfig {
         return container;
     }
 
+    @Bean
+    @ConditionalOnProperty(value = "backend.messaging.transport", havingValue = "redis-streams")
+    MessageStream backendMessageStream(@Qualifier("redisListenerConnectionFactory") RedisConnectionFactory connectionFactory, @Value("${backend.messaging.streams.key:condors:messages}") String key) {
+        logger.info("Will read backend messages from Redis stream {}", key);
+        return new RedisMessageStream(new StringRedisTemplate(connectionFactory), key);
+    }
+
+    @Bean
+    @ConditionalOnProperty(value = "backend.messaging.transport", havingValue = "redis-sharded")
+    ShardMap shardMap(@Value("${backend.messaging.sharded.nodes}") List<String> seedNodes, @Value("${backend.messaging.sharded.username:}") String username,
+            @Value("${backend.messaging.sharded.password:}") String password, @Value("${backend.messaging.sharded.ssl:false}") boolean ssl) {
+        logger.info("Will read backend messages with sharded pub/sub from the cluster at {}", seedNodes);
+        return new ClusterShardMap(seedNodes, username, password, ssl);
+    }
+
 }
@@ -0,0 +1,119 @@
+package com.aleatory.websocketsrouting.config;
+
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.time.Duration;
+import java.util.Base64;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.springframework.security.crypto.password.PasswordEncoder;
+
+/**
+ * Remembers, for <code>ttl</code>, that a password matched, so the same
+ * credentials coming back (every Basic-auth REST call and WebSocket handshake
+ * sends them) cost a keyed hash instead of a BCrypt check. Only successes are
+ * kept, so guessing still pays full price. Entries are keyed by an HMAC of the
+ * stored hash and the raw password under a key made at startup, so neither is
+ * kept; a changed password simply misses. At most <code>maxEntries</code>,
+ * oldest out first. When a storm of handshakes brings the same credentials at
+ * once, one thread checks and the rest wait for its answer.
+ */
+public class CachingPasswordEncoder implements PasswordEncoder {
+    private static final String HMAC = "HmacSHA256";
+
+    private final PasswordEncoder delegate;
+    private final long ttlNanos;
+    private final Map<String, Long> verified;
+    private final Map<String, CompletableFuture<Boolean>> checking = new ConcurrentHashMap<>();
+    private final ThreadLocal<Mac> macs;
+
+    public CachingPasswordEncoder(PasswordEncoder delegate, Duration ttl, int maxEntries) {
+        this.delegate = delegate;
+        this.ttlNanos = ttl.toNanos();
+        this.verified = new LinkedHashMap<>(16, 0.75f, false) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Long> eldest) {
+                return size() > maxEntries;
+            }
+        };
+        byte[] key = new byte[32];
+        new SecureRandom().nextBytes(key);
+        SecretKeySpec secret = new SecretKeySpec(key, HMAC);
+        this.macs = ThreadLocal.withInitial(() -> {
+            try {
+                Mac mac = Mac.getInstance(HMAC);
+                mac.init(secret);
+                return mac;
+            } catch (GeneralSecurityException e) {
+                throw new IllegalStateException("No " + HMAC, e);
+            }
+        });
+    }
+
+    @Override
+    public String encode(CharSequence rawPassword) {
+        return delegate.encode(rawPassword);
+    }
+
+    @Override
+    public boolean matches(CharSequence rawPassword, String encodedPassword) {
+        if (rawPassword == null || encodedPassword == null) {
+            return delegate.matches(rawPassword, encodedPassword);
+        }
+        String key = key(rawPassword, encodedPassword);
+        long now = System.nanoTime();
+        synchronized (verified) {
+            Long expires = verified.get(key);
+            if (expires != null && expires - now > 0) {
+                return true;
+            }
+        }
+        CompletableFuture<Boolean> check = new CompletableFuture<>();
+        CompletableFuture<Boolean> running = checking.putIfAbsent(key, check);
+        if (running != null) {
+            return running.join();
+        }
+        try {
+            boolean matches = delegate.matches(rawPassword, encodedPassword);
+            if (matches) {
+                synchronized (verified) {
+                    verified.put(key, now + ttlNanos);
+                }
+            }
+            check.complete(matches);
+            return matches;
+        } catch (RuntimeException e) {
+            check.completeExceptionally(e);
+            throw e;
+        } finally {
+            checking.remove(key, check);
+        }
+    }
+
+    @Override
+    public boolean upgradeEncoding(String encodedPassword) {
+        return delegate.upgradeEncoding(encodedPassword);
+    }
+
+    private String key(CharSequence rawPassword, String encodedPassword) {
+        Mac mac = macs.get();
+        mac.update(encodedPassword.getBytes(StandardCharsets.UTF_8));
+        mac.update((byte) 0);
+        return Base64.getEncoder().encodeToString(mac.doFinal(rawPassword.toString().getBytes(StandardCharsets.UTF_8)));
+    }
+
+    int size() {
+        synchronized (verified) {
+            return verified.size();
+        }
+    }
+}
@@ -0,0 +1,33 @@
+package com.aleatory.websocketsrouting.config;
+
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.data.redis.connection.RedisConnectionFactory;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+
+import com.aleatory.websocketsrouting.cluster.ClusterStore;
+import com.aleatory.websocketsrouting.cluster.RedisClusterStore;
+
+/**
+ * Router cluster (<code>router.cluster.enabled=true</code>): the nodes share
+ * membership and portfolio topics through the same Redis as the last messages.
+ */
+@Configuration
+@ConditionalOnProperty(value = "router.cluster.enabled", havingValue = "true")
+public class ClusterConfig {
+
+    @Bean
+    RedisMessageListenerContainer clusterListenerContainer(RedisConnectionFactory connectionFactory) {
+        RedisMessageListenerContainer container = new RedisMessageListenerContainer();
+        container.setConnectionFactory(connectionFactory);
+        return container;
+    }
+
+    @Bean
+    ClusterStore clusterStore(RedisConnectionFactory connectionFactory, @Qualifier("clusterListenerContainer") RedisMessageListenerContainer listenerContainer) {
+        return new RedisClusterStore(new StringRedisTemplate(connectionFactory), listenerContainer);
+    }
+}
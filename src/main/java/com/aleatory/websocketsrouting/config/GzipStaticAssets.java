@@ -0,0 +1,59 @@
+package com.aleatory.websocketsrouting.config;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.stream.Stream;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Run by the build (antrun, process-classes): gzips the frontend's hashed
+ * .js and .css next to themselves, for {@link StaticAssetsConfig} to serve to
+ * browsers that take gzip. Best compression, and no timestamp in the header,
+ * so the same file always gives the same bytes.
+ */
+public class GzipStaticAssets {
+
+    public static void main(String[] args) throws IOException {
+        if (args.length != 1) {
+            throw new IllegalArgumentException("Usage: GzipStaticAssets <directory>");
+        }
+        Path directory = Paths.get(args[0]);
+        if (!Files.isDirectory(directory)) {
+            System.out.println("No " + directory + "; nothing to gzip.");
+            return;
+        }
+        System.out.println("Gzipped " + gzipAll(directory) + " static assets in " + directory);
+    }
+
+    /**
+     * @return how many files were gzipped
+     */
+    static int gzipAll(Path directory) throws IOException {
+        List<Path> assets;
+        try (Stream<Path> files = Files.walk(directory)) {
+            assets = files.filter(Files::isRegularFile).filter(file -> {
+                String name = file.getFileName().toString();
+                return name.endsWith(".js") || name.endsWith(".css");
+            }).toList();
+        }
+        for (Path asset : assets) {
+            gzip(asset, asset.resolveSibling(asset.getFileName() + ".gz"));
+        }
+        return assets.size();
+    }
+
+    static void gzip(Path source, Path target) throws IOException {
+        try (OutputStream out = new GZIPOutputStream(Files.newOutputStream(target)) {
+            {
+                def.setLevel(Deflater.BEST_COMPRESSION);
+            }
+        }) {
+            Files.copy(source, out);
+        }
+    }
+}
@@ -0,0 +1,107 @@
+package com.aleatory.websocketsrouting.config;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+
+import org.springframework.core.io.AbstractResource;
+import org.springframework.core.io.Resource;
+import org.springframework.http.HttpHeaders;
+import org.springframework.lang.Nullable;
+import org.springframework.util.StreamUtils;
+import org.springframework.web.servlet.resource.AbstractResourceResolver;
+import org.springframework.web.servlet.resource.HttpResource;
+import org.springframework.web.servlet.resource.ResourceResolverChain;
+
+import jakarta.servlet.http.HttpServletRequest;
+
+/**
+ * Reads what the rest of the chain resolves into memory, so it's served from
+ * there rather than the jar. Goes behind the caching resolver, which keeps what
+ * we return; the headers of an encoded variant (Content-Encoding, Vary) come
+ * along. Anything over <code>maxBytes</code> is left where it is.
+ */
+public class InMemoryResourceResolver extends AbstractResourceResolver {
+    private final long maxBytes;
+
+    public InMemoryResourceResolver(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    @Override
+    protected Resource resolveResourceInternal(@Nullable HttpServletRequest request, String requestPath, List<? extends Resource> locations,
+            ResourceResolverChain chain) {
+        Resource resource = chain.resolveResource(request, requestPath, locations);
+        if (resource == null || resource instanceof InMemoryResource) {
+            return resource;
+        }
+        try {
+            if (resource.contentLength() > maxBytes) {
+                return resource;
+            }
+            return new InMemoryResource(resource);
+        } catch (IOException e) {
+            logger.debug("Could not read " + resource + " into memory", e);
+            return resource;
+        }
+    }
+
+    @Override
+    protected String resolveUrlPathInternal(String resourceUrlPath, List<? extends Resource> locations, ResourceResolverChain chain) {
+        return chain.resolveUrlPath(resourceUrlPath, locations);
+    }
+
+    static final class InMemoryResource extends AbstractResource implements HttpResource {
+        private final byte[] bytes;
+        private final String filename;
+        private final long lastModified;
+        private final String description;
+        private final HttpHeaders headers;
+
+        InMemoryResource(Resource resource) throws IOException {
+            try (InputStream in = resource.getInputStream()) {
+                this.bytes = StreamUtils.copyToByteArray(in);
+            }
+            this.filename = resource.getFilename();
+            this.lastModified = resource.lastModified();
+            this.description = resource.getDescription();
+            this.headers = resource instanceof HttpResource httpResource ? httpResource.getResponseHeaders() : new HttpHeaders();
+        }
+
+        @Override
+        public InputStream getInputStream() {
+            return new ByteArrayInputStream(bytes);
+        }
+
+        @Override
+        public boolean exists() {
+            return true;
+        }
+
+        @Override
+        public long contentLength() {
+            return bytes.length;
+        }
+
+        @Override
+        public long lastModified() {
+            return lastModified;
+        }
+
+        @Override
+        public String getFilename() {
+            return filename;
+        }
+
+        @Override
+        public String getDescription() {
+            return "in memory: " + description;
+        }
+
+        @Override
+        public HttpHeaders getResponseHeaders() {
+            return headers;
+        }
+    }
+}
@@ -0,0 +1,75 @@
+package com.aleatory.websocketsrouting.config;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.springframework.aot.hint.BindingReflectionHintsRegistrar;
+import org.springframework.aot.hint.MemberCategory;
+import org.springframework.aot.hint.RuntimeHints;
+import org.springframework.aot.hint.RuntimeHintsRegistrar;
+import org.springframework.aot.hint.TypeReference;
+import org.springframework.beans.factory.annotation.AnnotatedBeanDefinition;
+import org.springframework.beans.factory.config.BeanDefinition;
+import org.springframework.context.annotation.ClassPathScanningCandidateComponentProvider;
+import org.springframework.core.io.DefaultResourceLoader;
+import org.springframework.util.ClassUtils;
+
+/**
+ * What a native image needs that Spring's AOT processing can't see for itself.
+ *
+ * Redis values are written with Jackson default typing, so whatever comes back
+ * names its own class (<code>@class</code>) and Jackson builds it by
+ * reflection: the domain and event classes here and in ib-common, and the JDK
+ * collections and java.time types that show up in them. jsoup loads its
+ * per-request authenticator by name.
+ */
+public class NativeRuntimeHints implements RuntimeHintsRegistrar {
+    static final String[] DOMAIN_PACKAGES = { "com.aleatory.websocketsrouting.domain", "com.aleatory.websocketsrouting.events", "com.aleatory.common.domain",
+            "com.aleatory.common.events", "org.fattails.domain" };
+
+    static final String[] TYPED_JDK_CLASSES = { "java.util.ArrayList", "java.util.LinkedList", "java.util.HashMap", "java.util.LinkedHashMap", "java.util.TreeMap",
+            "java.util.HashSet", "java.util.LinkedHashSet", "java.util.TreeSet", "java.util.concurrent.ConcurrentHashMap", "java.math.BigDecimal",
+            "java.math.BigInteger", "java.time.LocalDate", "java.time.LocalDateTime", "java.time.LocalTime", "java.time.ZonedDateTime", "java.time.Instant",
+            "java.util.Date" };
+
+    static final String[] JSOUP_REFLECTIVE_CLASSES = { "org.jsoup.helper.RequestAuthHandler" };
+
+    private final BindingReflectionHintsRegistrar bindings = new BindingReflectionHintsRegistrar();
+
+    @Override
+    public void registerHints(RuntimeHints hints, ClassLoader classLoader) {
+        for (Class<?> type : domainClasses(classLoader)) {
+            bindings.registerReflectionHints(hints.reflection(), type);
+        }
+        for (String name : TYPED_JDK_CLASSES) {
+            hints.reflection().registerType(TypeReference.of(name), MemberCategory.INVOKE_PUBLIC_CONSTRUCTORS, MemberCategory.INVOKE_PUBLIC_METHODS);
+        }
+        for (String name : JSOUP_REFLECTIVE_CLASSES) {
+            hints.reflection().registerType(TypeReference.of(name), MemberCategory.INVOKE_PUBLIC_CONSTRUCTORS);
+        }
+    }
+
+    /**
+     * Every top-level class in the domain packages, found on the classpath at
+     * build time.
+     */
+    static List<Class<?>> domainClasses(ClassLoader classLoader) {
+        ClassPathScanningCandidateComponentProvider scanner = new ClassPathScanningCandidateComponentProvider(false) {
+            @Override
+            protected boolean isCandidateComponent(AnnotatedBeanDefinition beanDefinition) {
+                return beanDefinition.getMetadata().isIndependent();
+            }
+        };
+        scanner.addIncludeFilter((reader, factory) -> true);
+        if (classLoader != null) {
+            scanner.setResourceLoader(new DefaultResourceLoader(classLoader));
+        }
+        List<Class<?>> classes = new ArrayList<>();
+        for (String domainPackage : DOMAIN_PACKAGES) {
+            for (BeanDefinition candidate : scanner.findCandidateComponents(domainPackage)) {
+                classes.add(ClassUtils.resolveClassName(candidate.getBeanClassName(), classLoader));
+            }
+        }
+        return classes;
+    }
+}
@@ -0,0 +1,75 @@
+package com.aleatory.websocketsrouting.config;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.TaskScheduler;
+import org.springframework.stereotype.Component;
+
+import jakarta.annotation.PostConstruct;
+
+/**
+ * Counts and times what we ask Redis to do: getting a connection
+ * (<code>connection</code>), each command by name (<code>hSet</code>,
+ * <code>expire</code>...) and flushing a pipeline (<code>pipeline</code>). Logged
+ * every <code>redis.metrics.log.minutes</code> and served at /redis-metrics.
+ */
+@Component
+public class RedisMetrics {
+    private static final Logger logger = LoggerFactory.getLogger(RedisMetrics.class);
+
+    @Autowired
+    @Qualifier("messagingScheduler")
+    private TaskScheduler scheduler;
+
+    @Value("${redis.metrics.log.minutes:15}")
+    private int logMinutes;
+
+    private static final class Timer {
+        final LongAdder count = new LongAdder();
+        final LongAdder totalNanos = new LongAdder();
+        final LongAccumulator maxNanos = new LongAccumulator(Math::max, 0);
+    }
+
+    public record Stats(long count, double meanMicros, double maxMicros) {
+    }
+
+    private final Map<String, Timer> timers = new ConcurrentHashMap<>();
+
+    @PostConstruct
+    private void scheduleLogging() {
+        if (scheduler != null && logMinutes > 0) {
+            scheduler.scheduleAtFixedRate(() -> logger.info("Redis latency: {}", snapshot()), Instant.now().plus(Duration.ofMinutes(logMinutes)),
+                    Duration.ofMinutes(logMinutes));
+        }
+    }
+
+    public void record(String name, long nanos) {
+        Timer timer = timers.computeIfAbsent(name, n -> new Timer());
+        timer.count.increment();
+        timer.totalNanos.add(nanos);
+        timer.maxNanos.accumulate(nanos);
+    }
+
+    /**
+     * @return count, mean and max per name since startup, sorted by name
+     */
+    public Map<String, Stats> snapshot() {
+        Map<String, Stats> snapshot = new TreeMap<>();
+        timers.forEach((name, timer) -> {
+            long count = timer.count.sum();
+            snapshot.put(name, new Stats(count, count == 0 ? 0 : timer.totalNanos.sum() / 1000.0 / count, timer.maxNanos.get() / 1000.0));
+        });
+        return snapshot;
+    }
+}
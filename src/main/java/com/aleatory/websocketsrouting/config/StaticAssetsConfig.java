@@ -0,0 +1,40 @@
+package com.aleatory.websocketsrouting.config;
+
+import java.time.Duration;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.http.CacheControl;
+import org.springframework.web.servlet.config.annotation.ResourceHandlerRegistry;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+import org.springframework.web.servlet.resource.EncodedResourceResolver;
+
+/**
+ * Serves the frontend build's content-hashed files (/static/**) so a browser
+ * fetches each one once: cacheable for a year and immutable, as the
+ * precompressed .gz the build made next to it if the browser takes gzip, and
+ * from memory after the first request (up to
+ * <code>frontend.assets.memory.max.kb</code> a file). index.html and the rest
+ * keep Boot's default handling, so a new build shows up on the next load.
+ */
+@Configuration
+@ConditionalOnProperty(value = "frontend.assets.immutable", havingValue = "true", matchIfMissing = true)
+public class StaticAssetsConfig implements WebMvcConfigurer {
+    static final String HASHED_ASSETS = "/static/**";
+    static final String HASHED_ASSETS_LOCATION = "classpath:/static/static/";
+
+    @Value("${frontend.assets.memory.max.kb:1024}")
+    private int memoryMaxKb;
+
+    static CacheControl immutable() {
+        // Private: they're behind the login
+        return CacheControl.maxAge(Duration.ofDays(365)).cachePrivate().immutable();
+    }
+
+    @Override
+    public void addResourceHandlers(ResourceHandlerRegistry registry) {
+        registry.addResourceHandler(HASHED_ASSETS).addResourceLocations(HASHED_ASSETS_LOCATION).setCacheControl(immutable()).resourceChain(true)
+                .addResolver(new InMemoryResourceResolver(memoryMaxKb * 1024L)).addResolver(new EncodedResourceResolver());
+    }
+}
@@ -0,0 +1,96 @@
+package com.aleatory.websocketsrouting.config;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Set;
+
+import org.springframework.dao.DataAccessException;
+import org.springframework.data.redis.connection.RedisClusterConnection;
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.connection.RedisConnectionFactory;
+import org.springframework.data.redis.connection.RedisSentinelConnection;
+
+/**
+ * Wraps a connection factory so every connection it hands out, and every
+ * command run on one, is timed into {@link RedisMetrics}. That includes the
+ * commands run through the connection's <code>hashCommands()</code>,
+ * <code>keyCommands()</code> and so on, which is how the template's operations
+ * reach Redis.
+ */
+public class TimedRedisConnectionFactory implements RedisConnectionFactory {
+    // Bookkeeping, not round trips to Redis
+    private static final Set<String> UNTIMED = Set.of("close", "isClosed", "isPipelined", "isQueueing", "isSubscribed", "getSubscription", "getNativeConnection",
+            "openPipeline", "getSentinelConnection", "toString", "hashCode", "equals");
+
+    private final RedisConnectionFactory delegate;
+    private final RedisMetrics metrics;
+
+    public TimedRedisConnectionFactory(RedisConnectionFactory delegate, RedisMetrics metrics) {
+        this.delegate = delegate;
+        this.metrics = metrics;
+    }
+
+    @Override
+    public RedisConnection getConnection() {
+        long start = System.nanoTime();
+        RedisConnection connection = delegate.getConnection();
+        metrics.record("connection", System.nanoTime() - start);
+        return timed(RedisConnection.class, connection);
+    }
+
+    private <T> T timed(Class<T> type, Object target) {
+        return type.cast(Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[] { type }, (proxy, method, args) -> invoke(target, method, args)));
+    }
+
+    private Object invoke(Object target, Method method, Object[] args) throws Throwable {
+        String name = method.getName();
+        if (isCommandsAccessor(method)) {
+            Object commands = call(target, method, args);
+            return commands == null ? null : timed(method.getReturnType(), commands);
+        }
+        boolean timed = !UNTIMED.contains(name);
+        long start = System.nanoTime();
+        try {
+            return call(target, method, args);
+        } finally {
+            if (timed) {
+                metrics.record("closePipeline".equals(name) ? "pipeline" : name, System.nanoTime() - start);
+            }
+        }
+    }
+
+    // commands(), hashCommands(), keyCommands()...: no round trip, but what they return makes them
+    private static boolean isCommandsAccessor(Method method) {
+        String name = method.getName();
+        return (name.equals("commands") || name.endsWith("Commands")) && method.getParameterCount() == 0 && method.getReturnType().isInterface();
+    }
+
+    private static Object call(Object target, Method method, Object[] args) throws Throwable {
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+
+    @Override
+    public RedisClusterConnection getClusterConnection() {
+        return delegate.getClusterConnection();
+    }
+
+    @Override
+    public boolean getConvertPipelineAndTxResults() {
+        return delegate.getConvertPipelineAndTxResults();
+    }
+
+    @Override
+    public RedisSentinelConnection getSentinelConnection() {
+        return delegate.getSentinelConnection();
+    }
+
+    @Override
+    public DataAccessException translateExceptionIfPossible(RuntimeException ex) {
+        return delegate.translateExceptionIfPossible(ex);
+    }
+}
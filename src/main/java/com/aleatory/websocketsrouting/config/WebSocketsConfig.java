@@ -4,17 +4,22 @@ import java.util.List;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
 import org.springframework.context.event.EventListener;
 import org.springframework.lang.Nullable;
 import org.springframework.messaging.MessageHeaders;
 import org.springframework.messaging.converter.MessageConverter;
 import org.springframework.messaging.converter.StringMessageConverter;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.messaging.simp.config.ChannelRegistration;
 import org.springframework.messaging.simp.config.MessageBrokerRegistry;
+import org.springframework.scheduling.TaskScheduler;
 import org.springframework.web.client.RestTemplate;
 import org.springframework.web.socket.client.WebSocketClient;
 import org.springframework.web.socket.client.standard.StandardWebSocketClient;
@@ -27,6 +32,11 @@ import org.springframework.web.socket.messaging.WebSocketStompClient;
 import com.aleatory.common.events.ReconnectStompClientEvent;
 import com.aleatory.websocketsrouting.backend.messaging.websockets.PortfolioWebsocketsBackendMessagingClient;
 import com.aleatory.websocketsrouting.backend.messaging.websockets.WebsocketsBackendMessagingClient;
+import com.aleatory.websocketsrouting.broker.ShardedBroker;
+import com.aleatory.websocketsrouting.delta.DeltaEncoder;
+import com.aleatory.websocketsrouting.drain.SessionDrain;
+import com.aleatory.websocketsrouting.limits.SessionLimits;
+import com.aleatory.websocketsrouting.startup.WarmupGate;
 
 import jakarta.annotation.PostConstruct;
 
@@ -44,24 +54,80 @@ public class WebSocketsConfig implements WebSocketMessageBrokerConfigurer {
     @Value("${portfolio.websockets.url}")
     private String PORTFOLIO_SERVER_URL;
 
+    // Shut until the JIT warm-up is done (if there is one)
+    @Autowired
+    private WarmupGate warmupGate;
+
+    // Closes the sessions gently when we shut down
+    @Autowired
+    private SessionDrain sessionDrain;
+
+    // Session and subscription caps, and closing the sessions gone quiet
+    @Autowired
+    private SessionLimits sessionLimits;
+
+    // Moves delta subscriptions to their delta destinations (if delta.enabled)
+    @Autowired(required = false)
+    private DeltaEncoder deltaEncoder;
+
+    @Autowired
+    @Qualifier("heartbeatScheduler")
+    private TaskScheduler heartbeatScheduler;
+
+    // What we send, and what we want from the client at least that often; 0 for none
+    @Value("${stomp.heartbeat.send.millis:10000}")
+    private long heartbeatSendMillis;
+
+    @Value("${stomp.heartbeat.receive.millis:10000}")
+    private long heartbeatReceiveMillis;
+
     @PostConstruct
     private void printPricingServerURL() {
         logger.info("Pricing server URL = {}", PRICING_SERVER_URL);
     }
 
+    /**
+     * Publish order is kept per session: the outbound channel's pool would
+     * otherwise write a destination's messages out in whatever order its
+     * threads get to them, and a delta patch can't be applied out of turn.
+     */
     @Override
     public void configureMessageBroker(MessageBrokerRegistry config) {
-        config.enableSimpleBroker("/topic");
+        config.setPreservePublishOrder(true);
+        config.enableSimpleBroker("/topic").setHeartbeatValue(new long[] { heartbeatSendMillis, heartbeatReceiveMillis }).setTaskScheduler(heartbeatScheduler);
+    }
+
+    /**
+     * With <code>broker.mode=sharded</code>, everything we send to the browsers
+     * goes through the sharded broker instead of the simple one.
+     */
+    @Bean
+    @Primary
+    @ConditionalOnProperty(value = "broker.mode", havingValue = "sharded")
+    public SimpMessagingTemplate shardedMessagingTemplate(ShardedBroker broker, @Qualifier("brokerMessagingTemplate") SimpMessagingTemplate brokerMessagingTemplate) {
+        SimpMessagingTemplate template = new SimpMessagingTemplate(broker);
+        template.setMessageConverter(brokerMessagingTemplate.getMessageConverter());
+        return template;
     }
 
     @Override
     public void registerStompEndpoints(StompEndpointRegistry registry) {
-        registry.addEndpoint("/condors").setAllowedOrigins("*");
+        registry.addEndpoint("/condors").setAllowedOrigins("*").addInterceptors(warmupGate, sessionDrain, sessionLimits);
     }
 
     @Override
     public void configureWebSocketTransport(WebSocketTransportRegistration registry) {
         registry.setSendBufferSizeLimit(1024 * 1024);
+        registry.addDecoratorFactory(sessionDrain::decorate);
+        registry.addDecoratorFactory(sessionLimits::decorate);
+    }
+
+    @Override
+    public void configureClientInboundChannel(ChannelRegistration registration) {
+        registration.interceptors(sessionDrain, sessionLimits);
+        if (deltaEncoder != null) {
+            registration.interceptors(deltaEncoder);
+        }
     }
 
     private static class JSONLovingStringMessageConverter extends StringMessageConverter {
@@ -129,7 +195,7 @@ public class WebSocketsConfig implements WebSocketMessageBrokerConfigurer {
 
     @Bean
     @ConditionalOnProperty(value = "backend.messaging.transport", havingValue = "websockets", matchIfMissing = false)
-    public WebsocketsBackendMessagingClient portfolioHandler() {
+    public PortfolioWebsocketsBackendMessagingClient portfolioHandler() {
         return portfolioHandler = new PortfolioWebsocketsBackendMessagingClient();
     }
 
@@ -0,0 +1,201 @@
+package com.aleatory.websocketsrouting.dao;
+
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.BitSet;
+
+import com.aleatory.websocketsrouting.domain.CloseHistory;
+import com.aleatory.websocketsrouting.domain.ClosePrice;
+
+/**
+ * In-memory copy of one symbol's closes, held as columns: trade dates as epoch days,
+ * closes as doubles and the is_final flags as a bit set, all sorted by date.
+ * That's 12 bytes and change per trading day rather than a boxed
+ * {@link ClosePrice} and map entry, and lookups are binary searches.
+ *
+ * Readers never lock: every change builds new columns and swaps them in, so a
+ * reader always sees one consistent snapshot. Writes are rare (a handful a day)
+ * and almost always append the newest date, which is the cheap case.
+ */
+public class CloseIndex {
+    // Calendar days back the previous trading day can be: Friday to a Tuesday after a Monday holiday
+    static final int MAX_TRADING_DAY_GAP = 4;
+
+    private static final class Columns {
+        final int[] epochDays;
+        final double[] closes;
+        final BitSet finals;
+
+        Columns(int[] epochDays, double[] closes, BitSet finals) {
+            this.epochDays = epochDays;
+            this.closes = closes;
+            this.finals = finals;
+        }
+
+        int size() {
+            return epochDays.length;
+        }
+    }
+
+    private volatile Columns columns = new Columns(new int[0], new double[0], new BitSet());
+
+    /**
+     * Replaces the whole index. The arrays must be sorted by date, with no
+     * duplicates, and are owned by the index afterwards.
+     */
+    public synchronized void load(int[] epochDays, double[] closes, BitSet finals) {
+        if (epochDays.length != closes.length) {
+            throw new IllegalArgumentException("Got " + epochDays.length + " dates but " + closes.length + " closes.");
+        }
+        for (int i = 1; i < epochDays.length; i++) {
+            if (epochDays[i] <= epochDays[i - 1]) {
+                throw new IllegalArgumentException("Dates are not sorted and unique at " + LocalDate.ofEpochDay(epochDays[i]));
+            }
+        }
+        columns = new Columns(epochDays, closes, finals);
+    }
+
+    /**
+     * @return a loader that collects closes (in date order) and then replaces the
+     *         whole index with them
+     */
+    public Loader loader() {
+        return new Loader();
+    }
+
+    /**
+     * Collects closes into growing primitive arrays for {@link #load}.
+     */
+    public class Loader {
+        private int[] epochDays = new int[1024];
+        private double[] closes = new double[1024];
+        private final BitSet finals = new BitSet();
+        private int size;
+
+        public void add(LocalDate date, double close, boolean finalPrice) {
+            if (size == epochDays.length) {
+                epochDays = Arrays.copyOf(epochDays, size * 2);
+                closes = Arrays.copyOf(closes, size * 2);
+            }
+            epochDays[size] = (int) date.toEpochDay();
+            closes[size] = close;
+            finals.set(size, finalPrice);
+            size++;
+        }
+
+        /**
+         * Replaces the index with what was added.
+         * 
+         * @return the number of closes loaded
+         */
+        public int finish() {
+            load(Arrays.copyOf(epochDays, size), Arrays.copyOf(closes, size), finals);
+            return size;
+        }
+    }
+
+    /**
+     * Adds or replaces the close for a date.
+     */
+    public synchronized void put(LocalDate date, double close, boolean finalPrice) {
+        Columns current = columns;
+        int epochDay = (int) date.toEpochDay();
+        int index = Arrays.binarySearch(current.epochDays, epochDay);
+        if (index >= 0) {
+            if (current.closes[index] == close && current.finals.get(index) == finalPrice) {
+                return;
+            }
+            double[] closes = current.closes.clone();
+            closes[index] = close;
+            BitSet finals = (BitSet) current.finals.clone();
+            finals.set(index, finalPrice);
+            columns = new Columns(current.epochDays, closes, finals);
+            return;
+        }
+        int insertAt = -index - 1;
+        int size = current.size();
+        int[] epochDays = new int[size + 1];
+        double[] closes = new double[size + 1];
+        System.arraycopy(current.epochDays, 0, epochDays, 0, insertAt);
+        System.arraycopy(current.closes, 0, closes, 0, insertAt);
+        System.arraycopy(current.epochDays, insertAt, epochDays, insertAt + 1, size - insertAt);
+        System.arraycopy(current.closes, insertAt, closes, insertAt + 1, size - insertAt);
+        epochDays[insertAt] = epochDay;
+        closes[insertAt] = close;
+        BitSet finals;
+        if (insertAt == size) {
+            finals = (BitSet) current.finals.clone();
+        } else {
+            finals = new BitSet(size + 1);
+            for (int i = current.finals.nextSetBit(0); i >= 0; i = current.finals.nextSetBit(i + 1)) {
+                finals.set(i < insertAt ? i : i + 1);
+            }
+        }
+        finals.set(insertAt, finalPrice);
+        columns = new Columns(epochDays, closes, finals);
+    }
+
+    public int size() {
+        return columns.size();
+    }
+
+    /**
+     * @return the close for the date, or null if we don't have one
+     */
+    public ClosePrice get(LocalDate date) {
+        Columns current = columns;
+        int index = Arrays.binarySearch(current.epochDays, (int) date.toEpochDay());
+        return index >= 0 ? closePriceAt(current, index) : null;
+    }
+
+    /**
+     * @return the latest close strictly before the date, or null if there isn't
+     *         one
+     */
+    public ClosePrice lastBefore(LocalDate date) {
+        Columns current = columns;
+        int index = Arrays.binarySearch(current.epochDays, (int) date.toEpochDay());
+        int before = (index >= 0 ? index : -index - 1) - 1;
+        return before >= 0 ? closePriceAt(current, before) : null;
+    }
+
+    /**
+     * The closes from <code>from</code> to <code>to</code> (both inclusive) with
+     * the percent move from the previous trading day's close. The first day's
+     * move uses the close before <code>from</code> if we have it. There's no
+     * holiday calendar here, so the previous close we have counts as the previous
+     * trading day's if it's at most {@value #MAX_TRADING_DAY_GAP} days back (a
+     * weekend and a holiday); further back, and the day has no move rather than
+     * one over a gap in our closes.
+     */
+    public CloseHistory range(LocalDate from, LocalDate to) {
+        Columns current = columns;
+        int start = Arrays.binarySearch(current.epochDays, (int) from.toEpochDay());
+        start = start >= 0 ? start : -start - 1;
+        int end = Arrays.binarySearch(current.epochDays, (int) to.toEpochDay());
+        end = end >= 0 ? end + 1 : -end - 1;
+        int count = Math.max(0, end - start);
+
+        LocalDate[] dates = new LocalDate[count];
+        double[] closes = new double[count];
+        Double[] percentChanges = new Double[count];
+        boolean[] finals = new boolean[count];
+        for (int i = 0; i < count; i++) {
+            int index = start + i;
+            dates[i] = LocalDate.ofEpochDay(current.epochDays[index]);
+            closes[i] = current.closes[index];
+            finals[i] = current.finals.get(index);
+            if (index > 0 && current.epochDays[index] - current.epochDays[index - 1] <= MAX_TRADING_DAY_GAP) {
+                double previous = current.closes[index - 1];
+                percentChanges[i] = (current.closes[index] - previous) / previous * 100.0;
+            }
+        }
+        return new CloseHistory(dates, closes, percentChanges, finals);
+    }
+
+    private static ClosePrice closePriceAt(Columns columns, int index) {
+        ClosePrice closePrice = new ClosePrice(LocalDate.ofEpochDay(columns.epochDays[index]), columns.closes[index]);
+        closePrice.setFinalPrice(columns.finals.get(index));
+        return closePrice;
+    }
+}
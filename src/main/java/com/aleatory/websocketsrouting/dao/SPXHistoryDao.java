@@ -1,26 +1,70 @@
 package com.aleatory.websocketsrouting.dao;
 
-import java.sql.ResultSet;
+import java.io.IOException;
+import java.io.StringReader;
+import java.sql.PreparedStatement;
 import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.Duration;
+import java.time.Instant;
 import java.time.LocalDate;
+import java.time.ZoneId;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import org.postgresql.PGConnection;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
 import org.springframework.context.event.EventListener;
 import org.springframework.dao.DataAccessException;
-import org.springframework.jdbc.core.RowMapper;
-import org.springframework.jdbc.core.namedparam.BeanPropertySqlParameterSource;
+import org.springframework.jdbc.BadSqlGrammarException;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
 import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.scheduling.TaskScheduler;
 import org.springframework.stereotype.Repository;
 
+import com.aleatory.websocketsrouting.domain.CloseHistory;
 import com.aleatory.websocketsrouting.domain.ClosePrice;
 import com.aleatory.websocketsrouting.events.SPXCloseReceivedEvent;
+import com.aleatory.websocketsrouting.events.SPXClosesReconciledEvent;
 
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+
+/**
+ * Reads and writes closes for every symbol in <code>closes.symbols</code>. SPX
+ * stays in spx_history, where the other services expect it; everything else
+ * goes in close_history:
+ * 
+ * <pre>
+ * CREATE TABLE public.close_history (symbol text NOT NULL, trade_date date NOT NULL,
+ *     close double precision NOT NULL, is_final boolean NOT NULL DEFAULT false,
+ *     PRIMARY KEY (symbol, trade_date));
+ * </pre>
+ * 
+ * Reads are served from in-memory {@link CloseIndex}es, one per symbol, that
+ * are loaded from both tables once at startup (two queries however many symbols
+ * there are) and kept current as closes are stored, so only writes go to the
+ * database.
+ * 
+ * Single closes (from {@link SPXCloseReceivedEvent}) are written behind: they're
+ * queued, coalesced per symbol and date, and flushed every
+ * <code>closes.write.behind.millis</code> in one multi-row upsert per symbol,
+ * off the thread that published the close.
+ */
 @Repository
 public class SPXHistoryDao {
     private static Logger logger = LoggerFactory.getLogger(SPXHistoryDao.class);
@@ -28,50 +72,277 @@ public class SPXHistoryDao {
     @Autowired
     private NamedParameterJdbcTemplate template;
 
-    private static final String LAST_SPX_CLOSE_QUERY = "SELECT close FROM spx_history WHERE trade_date=(SELECT MAX(trade_date) FROM spx_history WHERE trade_date < CURRENT_DATE);";
+    @Autowired
+    @Qualifier("messagingScheduler")
+    private TaskScheduler scheduler;
+
+    @Value("${closes.write.behind.millis:250}")
+    private long writeBehindMillis;
 
-    private static final String INSERT_SPX_CLOSE_SQL = "INSERT INTO public.spx_history (trade_date, close, is_final) VALUES (:forDate, :price, :finalPrice)\n" //
+    // What "today" means for a close, wherever we run
+    @Value("${closes.exchange.zone:America/Chicago}")
+    private ZoneId exchangeZone;
+
+    /**
+     * The upsert for a batch of closes is built from these, with one VALUES row
+     * per close. The conflict clause only refers to EXCLUDED so the same statement
+     * works for any number of rows, and RETURNING tells us which rows were
+     * actually written (a final close isn't overwritten until the day after).
+     */
+    private static final String INSERT_SPX_CLOSES_SQL_HEAD = "INSERT INTO public.spx_history (trade_date, close, is_final) VALUES ";
+    private static final String INSERT_SPX_CLOSES_SQL_TAIL = "\n" //
             + "	ON CONFLICT (trade_date) " //
-            + "DO UPDATE SET close=:price, is_final=:finalPrice " + "WHERE NOT spx_history.is_final OR CURRENT_DATE > :forDate;";
+            + "DO UPDATE SET close=EXCLUDED.close, is_final=EXCLUDED.is_final " + "WHERE NOT spx_history.is_final OR CURRENT_DATE > EXCLUDED.trade_date\n" //
+            + "	RETURNING trade_date, close, is_final;";
+    private static final String INSERT_CLOSES_SQL_HEAD = "INSERT INTO public.close_history (symbol, trade_date, close, is_final) VALUES ";
+    private static final String INSERT_CLOSES_SQL_TAIL = "\n" //
+            + "	ON CONFLICT (symbol, trade_date) " //
+            + "DO UPDATE SET close=EXCLUDED.close, is_final=EXCLUDED.is_final " + "WHERE NOT close_history.is_final OR CURRENT_DATE > EXCLUDED.trade_date\n" //
+            + "	RETURNING trade_date, close, is_final;";
 
-    private static final String ALL_SPX_CLOSE_DATES_QUERY = "SELECT trade_date, close, is_final FROM spx_history ORDER BY trade_date DESC;";
+    private static final int MAX_ROWS_PER_UPSERT = 1000;
 
-    public Double getLastSPXClose() {
-        Double lastSPXClose = template.queryForObject(LAST_SPX_CLOSE_QUERY, Collections.emptyMap(), Double.class);
-        return lastSPXClose;
+    private static final String CREATE_STAGING_TABLE_SQL = "CREATE TEMPORARY TABLE close_history_staging (trade_date date NOT NULL, close double precision NOT NULL) ON COMMIT DROP;";
+    private static final String COPY_TO_STAGING_SQL = "COPY close_history_staging (trade_date, close) FROM STDIN WITH (FORMAT csv)";
+    private static final String MERGE_SPX_STAGING_SQL = "INSERT INTO public.spx_history (trade_date, close, is_final) SELECT trade_date, close, true FROM close_history_staging\n" //
+            + "	ON CONFLICT (trade_date) DO NOTHING;";
+    private static final String MERGE_STAGING_SQL = "INSERT INTO public.close_history (symbol, trade_date, close, is_final) SELECT ?, trade_date, close, true FROM close_history_staging\n" //
+            + "	ON CONFLICT (symbol, trade_date) DO NOTHING;";
+
+    private static final String ALL_SPX_CLOSES_QUERY = "SELECT trade_date, close, is_final FROM spx_history ORDER BY trade_date;";
+    private static final String ALL_CLOSES_QUERY = "SELECT symbol, trade_date, close, is_final FROM close_history ORDER BY symbol, trade_date;";
+
+    private final Map<String, CloseIndex> indexes = new ConcurrentHashMap<>();
+
+    private volatile boolean indexLoaded;
+
+    private record PendingKey(String symbol, LocalDate forDate) {
     }
 
-    public Map<LocalDate, ClosePrice> fetchAllSPXCloses() {
-        List<ClosePrice> closePrices = template.query(ALL_SPX_CLOSE_DATES_QUERY, new RowMapper<ClosePrice>() {
+    private final Map<PendingKey, ClosePrice> pendingWrites = new ConcurrentHashMap<>();
 
-            @Override
-            public ClosePrice mapRow(ResultSet rs, int rowNum) throws SQLException {
-                ClosePrice closePrice = new ClosePrice(rs.getDate("trade_date").toLocalDate(), rs.getDouble("close"));
-                closePrice.setFinalPrice(rs.getBoolean("is_final"));
-                return closePrice;
-            }
-        });
-        Map<LocalDate, ClosePrice> closePriceIndex = new HashMap<>();
-        for (ClosePrice closePrice : closePrices) {
-            closePriceIndex.put(closePrice.getCloseDate(), closePrice);
+    @EventListener(ApplicationReadyEvent.class)
+    void warmIndex() {
+        try {
+            loadIndex();
+        } catch (DataAccessException e) {
+            logger.error("Could not load closes at startup; will try again on first read.", e);
+        }
+    }
+
+    private synchronized void loadIndex() {
+        if (indexLoaded) {
+            return;
+        }
+        reloadIndex();
+    }
+
+    private synchronized void reloadIndex() {
+        long start = System.nanoTime();
+        Map<String, CloseIndex.Loader> loaders = new HashMap<>();
+        CloseIndex.Loader spxLoader = loaders.computeIfAbsent(SPXCloseReceivedEvent.SPX, this::loaderFor);
+        template.query(ALL_SPX_CLOSES_QUERY, Collections.emptyMap(),
+                (RowCallbackHandler) rs -> spxLoader.add(rs.getDate("trade_date").toLocalDate(), rs.getDouble("close"), rs.getBoolean("is_final")));
+        try {
+            template.query(ALL_CLOSES_QUERY, Collections.emptyMap(), (RowCallbackHandler) rs -> loaders.computeIfAbsent(rs.getString("symbol"), this::loaderFor)
+                    .add(rs.getDate("trade_date").toLocalDate(), rs.getDouble("close"), rs.getBoolean("is_final")));
+        } catch (BadSqlGrammarException e) {
+            logger.warn("No close_history table; only SPX closes are available. ({})", e.getMessage());
+        }
+        int count = 0;
+        for (CloseIndex.Loader loader : loaders.values()) {
+            count += loader.finish();
+        }
+        indexLoaded = true;
+        logger.info("Loaded {} closes for {} into memory in {} ms.", count, loaders.keySet(), (System.nanoTime() - start) / 1_000_000);
+    }
+
+    private CloseIndex.Loader loaderFor(String symbol) {
+        return indexes.computeIfAbsent(symbol, s -> new CloseIndex()).loader();
+    }
+
+    private CloseIndex index(String symbol) {
+        if (!indexLoaded) {
+            loadIndex();
         }
-        return closePriceIndex;
+        return indexes.computeIfAbsent(symbol, s -> new CloseIndex());
+    }
+
+    @PostConstruct
+    private void scheduleWriteBehindFlush() {
+        scheduler.scheduleWithFixedDelay(this::flushPendingWrites, Instant.now().plus(writeBehindMillis, ChronoUnit.MILLIS), Duration.ofMillis(writeBehindMillis));
+    }
+
+    /**
+     * @return the latest SPX close before today, or null if we don't have one
+     */
+    public Double getLastSPXClose() {
+        return getLastClose(SPXCloseReceivedEvent.SPX);
+    }
+
+    /**
+     * @return the latest close for the symbol before today, or null if we don't
+     *         have one
+     */
+    public Double getLastClose(String symbol) {
+        ClosePrice lastClose = index(symbol).lastBefore(LocalDate.now(exchangeZone));
+        return lastClose != null ? lastClose.getPrice() : null;
     }
 
     /**
-     * Listens for {@link SPXCloseReceivedEvent} to store the SPX close.
+     * @return the stored SPX close for the date, or null if we don't have one
+     */
+    public ClosePrice findSPXClose(LocalDate forDate) {
+        return findClose(SPXCloseReceivedEvent.SPX, forDate);
+    }
+
+    /**
+     * @return the stored close for the symbol and date, or null if we don't have
+     *         one
+     */
+    public ClosePrice findClose(String symbol, LocalDate forDate) {
+        return index(symbol).get(forDate);
+    }
+
+    /**
+     * @return the stored closes for the symbol from <code>from</code> to
+     *         <code>to</code>, both inclusive, with daily percent moves
+     */
+    public CloseHistory fetchCloseHistory(String symbol, LocalDate from, LocalDate to) {
+        return index(symbol).range(from, to);
+    }
+
+    /**
+     * Listens for {@link SPXCloseReceivedEvent} to store the close. The write is
+     * queued; a later close for the same symbol and date replaces it if it hasn't
+     * been flushed yet.
      * 
-     * @param event the event that gives us the SPX close to store
+     * @param event the event that gives us the close to store
      */
     @EventListener
     public void storeSPXClose(SPXCloseReceivedEvent event) {
-        logger.info("Writing close of {} for day {} ({}) to database.", event.getPrice(), event.getForDate(), event.isFinalPrice() ? "final" : "not final");
-        BeanPropertySqlParameterSource params = new BeanPropertySqlParameterSource(event);
+        logger.info("Queueing {} close of {} for day {} ({}) for database.", event.getSymbol(), event.getPrice(), event.getForDate(),
+                event.isFinalPrice() ? "final" : "not final");
+        ClosePrice closePrice = new ClosePrice(event.getForDate(), event.getPrice());
+        closePrice.setFinalPrice(event.isFinalPrice());
+        pendingWrites.put(new PendingKey(event.getSymbol(), event.getForDate()), closePrice);
+    }
+
+    /**
+     * Stores everything from a reconciliation in one go.
+     */
+    @EventListener
+    public void storeReconciledSPXCloses(SPXClosesReconciledEvent event) {
+        List<ClosePrice> closePrices = new ArrayList<>(event.getCorrections());
+        closePrices.addAll(event.getFinalizations());
         try {
-            template.update(INSERT_SPX_CLOSE_SQL, params);
-            logger.debug("Wrote close for {} to DB.", event.getForDate());
+            storeCloses(event.getSymbol(), closePrices);
         } catch (DataAccessException e) {
-            logger.error("Could not write close for {} to database.", event.getForDate(), e);
+            logger.error("Could not write {} reconciled {} closes to database.", closePrices.size(), event.getSymbol(), e);
+        }
+    }
+
+    /**
+     * Writes out whatever single closes are queued, one upsert per symbol.
+     */
+    @PreDestroy
+    synchronized void flushPendingWrites() {
+        if (pendingWrites.isEmpty()) {
+            return;
+        }
+        Map<String, List<ClosePrice>> bySymbol = new HashMap<>();
+        Map<PendingKey, ClosePrice> flushing = new HashMap<>(pendingWrites);
+        flushing.forEach((key, closePrice) -> bySymbol.computeIfAbsent(key.symbol(), s -> new ArrayList<>()).add(closePrice));
+        bySymbol.forEach((symbol, closePrices) -> {
+            try {
+                storeCloses(symbol, closePrices);
+                // Only drop what we wrote; a newer close for the date may have come in meanwhile
+                for (ClosePrice closePrice : closePrices) {
+                    pendingWrites.remove(new PendingKey(symbol, closePrice.getCloseDate()), closePrice);
+                }
+            } catch (DataAccessException e) {
+                logger.error("Could not write {} queued {} closes to database; will retry.", closePrices.size(), symbol, e);
+            }
+        });
+    }
+
+    /**
+     * Upserts the closes with one statement per {@value #MAX_ROWS_PER_UPSERT}
+     * rows, updating the in-memory index with the rows the database actually
+     * changed. There must be at most one close per date. Holds the lock a reload
+     * takes, so a reload never swaps in an index that's missing these.
+     * 
+     * @return the number of rows written
+     */
+    public synchronized int storeCloses(String symbol, Collection<ClosePrice> closePrices) {
+        boolean spx = SPXCloseReceivedEvent.SPX.equals(symbol);
+        // No need to load the index to write to it
+        CloseIndex index = indexes.computeIfAbsent(symbol, s -> new CloseIndex());
+        List<ClosePrice> all = new ArrayList<>(closePrices);
+        int written = 0;
+        for (int start = 0; start < all.size(); start += MAX_ROWS_PER_UPSERT) {
+            List<ClosePrice> chunk = all.subList(start, Math.min(all.size(), start + MAX_ROWS_PER_UPSERT));
+            StringBuilder sql = new StringBuilder(spx ? INSERT_SPX_CLOSES_SQL_HEAD : INSERT_CLOSES_SQL_HEAD);
+            MapSqlParameterSource params = new MapSqlParameterSource("symbol", symbol);
+            for (int i = 0; i < chunk.size(); i++) {
+                ClosePrice closePrice = chunk.get(i);
+                sql.append(i == 0 ? "" : ", ").append(spx ? "(" : "(:symbol, ").append(":forDate").append(i).append(", :price").append(i).append(", :finalPrice").append(i)
+                        .append(')');
+                params.addValue("forDate" + i, closePrice.getCloseDate());
+                params.addValue("price" + i, closePrice.getPrice());
+                params.addValue("finalPrice" + i, closePrice.isFinalPrice());
+            }
+            sql.append(spx ? INSERT_SPX_CLOSES_SQL_TAIL : INSERT_CLOSES_SQL_TAIL);
+            AtomicInteger rows = new AtomicInteger();
+            template.query(sql.toString(), params, (RowCallbackHandler) rs -> {
+                index.put(rs.getDate("trade_date").toLocalDate(), rs.getDouble("close"), rs.getBoolean("is_final"));
+                rows.incrementAndGet();
+            });
+            written += rows.get();
+        }
+        logger.info("Wrote {} of {} {} closes to DB.", written, all.size(), symbol);
+        return written;
+    }
+
+    /**
+     * Bulk-loads historical (final) closes: they're streamed into a temporary
+     * staging table with COPY and merged into the symbol's table with a single
+     * insert that leaves existing dates alone, all in one transaction. The
+     * in-memory index is reloaded afterwards.
+     * 
+     * @return the number of rows inserted
+     */
+    public int copyCloses(String symbol, List<ClosePrice> closePrices) {
+        StringBuilder csv = new StringBuilder(closePrices.size() * 20);
+        for (ClosePrice closePrice : closePrices) {
+            csv.append(closePrice.getCloseDate()).append(',').append(closePrice.getPrice()).append('\n');
         }
+        Integer inserted = template.getJdbcTemplate().execute((ConnectionCallback<Integer>) connection -> {
+            boolean autoCommit = connection.getAutoCommit();
+            connection.setAutoCommit(false);
+            try (Statement statement = connection.createStatement()) {
+                statement.execute(CREATE_STAGING_TABLE_SQL);
+                long copied = connection.unwrap(PGConnection.class).getCopyAPI().copyIn(COPY_TO_STAGING_SQL, new StringReader(csv.toString()));
+                int merged;
+                if (SPXCloseReceivedEvent.SPX.equals(symbol)) {
+                    merged = statement.executeUpdate(MERGE_SPX_STAGING_SQL);
+                } else {
+                    try (PreparedStatement merge = connection.prepareStatement(MERGE_STAGING_SQL)) {
+                        merge.setString(1, symbol);
+                        merged = merge.executeUpdate();
+                    }
+                }
+                connection.commit();
+                logger.info("Copied {} {} closes to staging, merged {} new ones.", copied, symbol, merged);
+                return merged;
+            } catch (SQLException | IOException e) {
+                connection.rollback();
+                throw e instanceof SQLException sqlException ? sqlException : new SQLException("COPY to close_history_staging failed.", e);
+            } finally {
+                connection.setAutoCommit(autoCommit);
+            }
+        });
+        reloadIndex();
+        return inserted != null ? inserted : 0;
     }
 }
@@ -0,0 +1,281 @@
+package com.aleatory.websocketsrouting.delta;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.context.event.EventListener;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.converter.MessageConversionException;
+import org.springframework.messaging.converter.MessageConverter;
+import org.springframework.messaging.core.MessageSendingOperations;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessageType;
+import org.springframework.messaging.simp.stomp.StompHeaderAccessor;
+import org.springframework.messaging.support.ChannelInterceptor;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.stereotype.Component;
+
+import com.aleatory.websocketsrouting.events.SendMessageToFrontendEvent;
+import com.aleatory.websocketsrouting.replay.TopicReplay;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+/**
+ * Delta mode for the big payloads (<code>delta.destinations</code>, the current
+ * condor by default). A client opts in by subscribing with a
+ * <code>delta: merge-patch</code> header; its subscription is moved to
+ * <code>&lt;destination&gt;.delta</code>, where each value goes out once, as a
+ * JSON merge patch (RFC 7396) of what changed since the one before, rather than
+ * whole. Values that haven't changed aren't sent at all.
+ *
+ * Each message on the delta destination has a <code>delta</code> header,
+ * <code>full</code> or <code>patch</code>, and <code>seq</code> and
+ * <code>seq-epoch</code> headers of its own numbering. A full value (keyframe)
+ * goes out every <code>delta.keyframe.every</code> messages, whenever a patch
+ * wouldn't be smaller, and to each new subscription. A client replaces its
+ * value on a keyframe, applies a patch whose seq is one past the last it
+ * applied, ignores anything older, and resubscribes (for a keyframe) on a gap,
+ * on an epoch change or if a patch arrives before any keyframe. A message with
+ * no <code>delta</code> header is a full value from before we started.
+ *
+ * Values are written with the broker's own converter, so a keyframe is the
+ * same document a full subscriber gets, dates and all.
+ *
+ * Off by default. While no client has a delta subscription, all we do per
+ * value is keep the latest as it came; it's only written out and diffed
+ * (from the next keyframe on) once someone subscribes.
+ */
+@Component
+@ConditionalOnProperty(value = "delta.enabled", havingValue = "true")
+public class DeltaEncoder implements ChannelInterceptor {
+    private static final Logger logger = LoggerFactory.getLogger(DeltaEncoder.class);
+    private static final ObjectMapper mapper = new ObjectMapper();
+    public static final String DELTA_HEADER = "delta";
+    public static final String MERGE_PATCH = "merge-patch";
+    public static final String FULL = "full";
+    public static final String PATCH = "patch";
+    public static final String DELTA_SUFFIX = ".delta";
+
+    // Lazy: the broker configuration that makes them needs us first
+    @Autowired
+    @Lazy
+    private MessageSendingOperations<String> messagingTemplate;
+
+    @Autowired
+    @Lazy
+    private TopicReplay topicReplay;
+
+    @Autowired
+    @Lazy
+    @Qualifier("brokerMessageConverter")
+    private MessageConverter messageConverter;
+
+    @Value("${delta.destinations:/topic/prices.current.condor}")
+    private Set<String> destinations;
+
+    @Value("${delta.keyframe.every:100}")
+    private int keyframeEvery;
+
+    private final Map<String, Stream> streams = new ConcurrentHashMap<>();
+    private final LongAdder keyframes = new LongAdder(), patches = new LongAdder(), unchanged = new LongAdder(), idle = new LongAdder(), fullChars = new LongAdder(),
+            sentChars = new LongAdder();
+
+    // Session id -> its delta subscriptions' ids
+    private final Map<String, Set<String>> deltaSubscriptions = new ConcurrentHashMap<>();
+    private final AtomicInteger deltaSubscriptionCount = new AtomicInteger();
+
+    /**
+     * One destination's last value and numbering; guarded by itself. While
+     * nobody has a delta subscription the latest value waits in
+     * <code>pending</code>, unconverted.
+     */
+    private static final class Stream {
+        Object pending;
+        JsonNode last;
+        String lastJson;
+        long seq;
+        long sinceKeyframe;
+    }
+
+    /**
+     * Moves a delta subscription to the delta destination.
+     */
+    @Override
+    public Message<?> preSend(Message<?> message, MessageChannel channel) {
+        SimpMessageHeaderAccessor accessor = SimpMessageHeaderAccessor.wrap(message);
+        SimpMessageType type = accessor.getMessageType();
+        if (type == SimpMessageType.UNSUBSCRIBE) {
+            removeDeltaSubscription(accessor.getSessionId(), accessor.getSubscriptionId());
+            return message;
+        }
+        if (type == SimpMessageType.DISCONNECT) {
+            Set<String> removed = accessor.getSessionId() == null ? null : deltaSubscriptions.remove(accessor.getSessionId());
+            if (removed != null) {
+                deltaSubscriptionCount.addAndGet(-removed.size());
+            }
+            return message;
+        }
+        if (type != SimpMessageType.SUBSCRIBE || !isDeltaSubscription(accessor.getDestination(), accessor.getFirstNativeHeader(DELTA_HEADER))) {
+            return message;
+        }
+        if (accessor.getSessionId() != null && accessor.getSubscriptionId() != null
+                && deltaSubscriptions.computeIfAbsent(accessor.getSessionId(), s -> ConcurrentHashMap.newKeySet()).add(accessor.getSubscriptionId())) {
+            deltaSubscriptionCount.incrementAndGet();
+        }
+        StompHeaderAccessor moved = StompHeaderAccessor.wrap(message);
+        moved.setDestination(accessor.getDestination() + DELTA_SUFFIX);
+        return MessageBuilder.createMessage(message.getPayload(), moved.getMessageHeaders());
+    }
+
+    private void removeDeltaSubscription(String sessionId, String subscriptionId) {
+        Set<String> subscriptions = sessionId == null ? null : deltaSubscriptions.get(sessionId);
+        if (subscriptions != null && subscriptionId != null && subscriptions.remove(subscriptionId)) {
+            deltaSubscriptionCount.decrementAndGet();
+        }
+    }
+
+    /**
+     * @return whether a subscription to the destination with that
+     *         <code>delta</code> header gets deltas
+     */
+    public boolean isDeltaSubscription(String destination, String deltaHeader) {
+        return MERGE_PATCH.equals(deltaHeader) && destinations.contains(destination);
+    }
+
+    @EventListener
+    void encode(SendMessageToFrontendEvent event) {
+        String destination = event.getDestination();
+        if (event.getPayload() == null || !destinations.contains(destination)) {
+            return;
+        }
+        Stream stream = streams.computeIfAbsent(destination, d -> new Stream());
+        synchronized (stream) {
+            if (deltaSubscriptionCount.get() <= 0) {
+                stream.pending = event.getPayload();
+                idle.increment();
+                return;
+            }
+            catchUp(destination, stream);
+            String json;
+            JsonNode value;
+            try {
+                json = toJson(event.getPayload());
+                value = mapper.readTree(json);
+            } catch (IOException | MessageConversionException e) {
+                logger.warn("Could not read the value for {} as JSON; no delta sent: {}", destination, e.getMessage());
+                return;
+            }
+            ObjectNode patch = stream.last == null || stream.sinceKeyframe + 1 >= keyframeEvery ? null : JsonMergePatch.diff(stream.last, value);
+            if (patch != null && patch.isEmpty()) {
+                unchanged.increment();
+                return;
+            }
+            String patchJson = patch == null ? null : patch.toString();
+            boolean isPatch = patchJson != null && patchJson.length() < json.length();
+            String body = isPatch ? patchJson : json;
+            stream.last = value;
+            stream.lastJson = json;
+            stream.seq++;
+            stream.sinceKeyframe = isPatch ? stream.sinceKeyframe + 1 : 0;
+            (isPatch ? patches : keyframes).increment();
+            fullChars.add(json.length());
+            sentChars.add(body.length());
+            messagingTemplate.convertAndSend(destination + DELTA_SUFFIX, body, Map.of(DELTA_HEADER, isPatch ? PATCH : FULL, TopicReplay.SEQ_HEADER, Long.toString(stream.seq),
+                    TopicReplay.SEQ_EPOCH_HEADER, topicReplay.getEpoch()));
+        }
+    }
+
+    /**
+     * Sends a new subscription the latest value as a keyframe.
+     *
+     * @return false if we've had nothing for the destination since we started
+     */
+    public boolean sendKeyframe(String sessionId, String subscriptionId, String destination) {
+        Stream stream = streams.get(destination);
+        if (stream == null) {
+            return false;
+        }
+        synchronized (stream) {
+            catchUp(destination, stream);
+            if (stream.lastJson == null) {
+                return false;
+            }
+            keyframes.increment();
+            topicReplay.sendTo(sessionId, subscriptionId, destination + DELTA_SUFFIX, stream.lastJson,
+                    Map.of(DELTA_HEADER, FULL, TopicReplay.SEQ_HEADER, Long.toString(stream.seq), TopicReplay.SEQ_EPOCH_HEADER, topicReplay.getEpoch()));
+            return true;
+        }
+    }
+
+    /**
+     * Makes the value kept while nobody was subscribed the last one, so the
+     * next keyframe is of it and the next patch is from it.
+     */
+    private void catchUp(String destination, Stream stream) {
+        if (stream.pending == null) {
+            return;
+        }
+        Object pending = stream.pending;
+        stream.pending = null;
+        try {
+            String json = toJson(pending);
+            stream.last = mapper.readTree(json);
+            stream.lastJson = json;
+        } catch (IOException | MessageConversionException e) {
+            logger.warn("Could not read the value for {} as JSON: {}", destination, e.getMessage());
+            stream.last = null;
+            stream.lastJson = null;
+        }
+        stream.sinceKeyframe = 0;
+    }
+
+    /**
+     * @return the value as the broker would write it for a full subscriber
+     */
+    private String toJson(Object payload) throws IOException {
+        if (payload instanceof String text) {
+            return text;
+        }
+        if (payload instanceof byte[] bytes) {
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+        Message<?> message = messageConverter.toMessage(payload, null);
+        if (message == null || !(message.getPayload() instanceof byte[] body)) {
+            throw new IOException("no converter for " + payload.getClass().getName());
+        }
+        return new String(body, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @return keyframes and patches sent, values skipped as unchanged or kept
+     *         while nobody subscribed, delta subscriptions, and the characters
+     *         sent against what whole values would have been
+     */
+    public Map<String, Long> getStats() {
+        Map<String, Long> stats = new TreeMap<>();
+        stats.put("destinations", (long) streams.size());
+        stats.put("keyframes", keyframes.sum());
+        stats.put("patches", patches.sum());
+        stats.put("unchanged", unchanged.sum());
+        stats.put("idle", idle.sum());
+        stats.put("subscriptions", (long) deltaSubscriptionCount.get());
+        stats.put("fullChars", fullChars.sum());
+        stats.put("sentChars", sentChars.sum());
+        return stats;
+    }
+}
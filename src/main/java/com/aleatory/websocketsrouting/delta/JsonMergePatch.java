@@ -0,0 +1,86 @@
+package com.aleatory.websocketsrouting.delta;
+
+import java.util.Iterator;
+import java.util.Map;
+
+import org.springframework.lang.Nullable;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+/**
+ * JSON merge patches (RFC 7396): an object of just the fields that changed, a
+ * null for each one that went away, nested objects patched the same way.
+ * Arrays and anything else that changed go whole.
+ */
+public final class JsonMergePatch {
+    private JsonMergePatch() {
+    }
+
+    /**
+     * @return the patch taking <code>from</code> to <code>to</code> (empty if
+     *         nothing changed), or null if a merge patch can't say it: either
+     *         isn't an object, or a field was set to null (which a patch reads as
+     *         removing it)
+     */
+    @Nullable
+    public static ObjectNode diff(JsonNode from, JsonNode to) {
+        if (!from.isObject() || !to.isObject()) {
+            return null;
+        }
+        ObjectNode patch = JsonNodeFactory.instance.objectNode();
+        Iterator<String> names = from.fieldNames();
+        while (names.hasNext()) {
+            String name = names.next();
+            if (!to.has(name)) {
+                patch.putNull(name);
+            }
+        }
+        Iterator<Map.Entry<String, JsonNode>> fields = to.fields();
+        while (fields.hasNext()) {
+            Map.Entry<String, JsonNode> field = fields.next();
+            JsonNode was = from.get(field.getKey());
+            JsonNode now = field.getValue();
+            if (now.equals(was)) {
+                continue;
+            }
+            if (now.isNull()) {
+                return null;
+            }
+            if (was != null && was.isObject() && now.isObject()) {
+                ObjectNode nested = diff(was, now);
+                if (nested == null) {
+                    return null;
+                }
+                patch.set(field.getKey(), nested);
+            } else {
+                patch.set(field.getKey(), now);
+            }
+        }
+        return patch;
+    }
+
+    /**
+     * Applies a patch as a client would.
+     *
+     * @return the patched value; <code>target</code> itself if it's an object
+     */
+    public static JsonNode apply(JsonNode target, JsonNode patch) {
+        if (!patch.isObject()) {
+            return patch;
+        }
+        ObjectNode result = target.isObject() ? (ObjectNode) target : JsonNodeFactory.instance.objectNode();
+        Iterator<Map.Entry<String, JsonNode>> fields = patch.fields();
+        while (fields.hasNext()) {
+            Map.Entry<String, JsonNode> field = fields.next();
+            if (field.getValue().isNull()) {
+                result.remove(field.getKey());
+            } else {
+                JsonNode current = result.get(field.getKey());
+                result.set(field.getKey(), apply(current == null ? JsonNodeFactory.instance.nullNode() : current, field.getValue()));
+            }
+        }
+        return result;
+    }
+}
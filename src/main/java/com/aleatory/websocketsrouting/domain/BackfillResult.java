@@ -0,0 +1,66 @@
+package com.aleatory.websocketsrouting.domain;
+
+/**
+ * What a historical close backfill did, and how fast.
+ */
+public class BackfillResult {
+
+    int files;
+    int failedFiles;
+    int rowsParsed;
+    int rowsNew;
+    int rowsInserted;
+    long millis;
+
+    public BackfillResult(int files, int failedFiles, int rowsParsed, int rowsNew, int rowsInserted, long millis) {
+        super();
+        this.files = files;
+        this.failedFiles = failedFiles;
+        this.rowsParsed = rowsParsed;
+        this.rowsNew = rowsNew;
+        this.rowsInserted = rowsInserted;
+        this.millis = millis;
+    }
+
+    public int getFiles() {
+        return files;
+    }
+
+    public int getFailedFiles() {
+        return failedFiles;
+    }
+
+    /**
+     * @return closes read from the archives, duplicates included
+     */
+    public int getRowsParsed() {
+        return rowsParsed;
+    }
+
+    /**
+     * @return distinct dates we didn't already have, i.e. what was sent to the
+     *         database
+     */
+    public int getRowsNew() {
+        return rowsNew;
+    }
+
+    public int getRowsInserted() {
+        return rowsInserted;
+    }
+
+    public long getMillis() {
+        return millis;
+    }
+
+    public long getRowsPerSecond() {
+        return millis > 0 ? rowsParsed * 1000L / millis : rowsParsed;
+    }
+
+    @Override
+    public String toString() {
+        return "BackfillResult [files=" + files + ", failedFiles=" + failedFiles + ", rowsParsed=" + rowsParsed + ", rowsNew=" + rowsNew + ", rowsInserted=" + rowsInserted
+                + ", millis=" + millis + ", rowsPerSecond=" + getRowsPerSecond() + "]";
+    }
+
+}
@@ -0,0 +1,41 @@
+package com.aleatory.websocketsrouting.domain;
+
+import java.time.LocalDate;
+
+/**
+ * A run of SPX closes, column-wise, the way the charts want them. Entry i of
+ * each array is for dates[i]; percentChanges[i] is the move from the previous
+ * trading day's close and is null if we don't have that close.
+ */
+public class CloseHistory {
+
+    LocalDate[] dates;
+    double[] closes;
+    Double[] percentChanges;
+    boolean[] finalPrices;
+
+    public CloseHistory(LocalDate[] dates, double[] closes, Double[] percentChanges, boolean[] finalPrices) {
+        super();
+        this.dates = dates;
+        this.closes = closes;
+        this.percentChanges = percentChanges;
+        this.finalPrices = finalPrices;
+    }
+
+    public LocalDate[] getDates() {
+        return dates;
+    }
+
+    public double[] getCloses() {
+        return closes;
+    }
+
+    public Double[] getPercentChanges() {
+        return percentChanges;
+    }
+
+    public boolean[] getFinalPrices() {
+        return finalPrices;
+    }
+
+}
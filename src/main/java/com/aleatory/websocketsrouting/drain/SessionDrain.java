@@ -0,0 +1,169 @@
+package com.aleatory.websocketsrouting.drain;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.context.event.ContextClosedEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.server.ServerHttpRequest;
+import org.springframework.http.server.ServerHttpResponse;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessageType;
+import org.springframework.messaging.support.ChannelInterceptor;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.stereotype.Component;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.WebSocketHandler;
+import org.springframework.web.socket.WebSocketSession;
+import org.springframework.web.socket.handler.WebSocketHandlerDecorator;
+import org.springframework.web.socket.server.HandshakeInterceptor;
+
+import com.aleatory.websocketsrouting.broker.ShardedBroker;
+
+/**
+ * Lets the browsers go gently when we shut down (a /restart, the nightly
+ * restart or a plain stop), instead of all of them coming back in the same
+ * second. Once the context starts closing we turn away new handshakes (503)
+ * and drop new CONNECTs and SUBSCRIBEs, give the outbound channel (and the
+ * sharded broker's shards, if that's the broker) <code>drain.flush.millis</code>
+ * to send what they have queued, then close each
+ * /condors session with 1012 (service restart) and the reason
+ * <code>reconnect-after=&lt;millis&gt;</code>: <code>drain.reconnect.after.millis</code>
+ * plus a random part of <code>drain.reconnect.window.seconds</code>. Clients
+ * should wait that long before reconnecting.
+ */
+@Component
+public class SessionDrain implements HandshakeInterceptor, ChannelInterceptor {
+    private static final Logger logger = LoggerFactory.getLogger(SessionDrain.class);
+    public static final String RECONNECT_AFTER = "reconnect-after=";
+
+    // Lazy: the broker configuration that makes it needs us first
+    @Autowired
+    @Lazy
+    @Qualifier("clientOutboundChannelExecutor")
+    private ThreadPoolTaskExecutor outboundExecutor;
+
+    // Only with broker.mode=sharded, whose shards write to the sessions themselves
+    @Autowired
+    private ObjectProvider<ShardedBroker> shardedBroker;
+
+    @Value("${drain.reconnect.after.millis:5000}")
+    private long reconnectAfterMillis;
+
+    @Value("${drain.reconnect.window.seconds:30}")
+    private int windowSeconds;
+
+    @Value("${drain.flush.millis:2000}")
+    private long flushMillis;
+
+    private final Map<String, WebSocketSession> sessions = new ConcurrentHashMap<>();
+    private volatile boolean draining;
+
+    /**
+     * Keeps track of the open sessions, for the /condors transport.
+     */
+    public WebSocketHandler decorate(WebSocketHandler handler) {
+        return new WebSocketHandlerDecorator(handler) {
+            @Override
+            public void afterConnectionEstablished(WebSocketSession session) throws Exception {
+                sessions.put(session.getId(), session);
+                super.afterConnectionEstablished(session);
+            }
+
+            @Override
+            public void afterConnectionClosed(WebSocketSession session, CloseStatus closeStatus) throws Exception {
+                sessions.remove(session.getId());
+                super.afterConnectionClosed(session, closeStatus);
+            }
+        };
+    }
+
+    @EventListener(ContextClosedEvent.class)
+    void drain() {
+        draining = true;
+        List<WebSocketSession> open = List.copyOf(sessions.values());
+        if (open.isEmpty()) {
+            return;
+        }
+        long start = System.currentTimeMillis();
+        flushOutbound();
+        for (WebSocketSession session : open) {
+            long delay = reconnectAfterMillis + ThreadLocalRandom.current().nextLong(windowSeconds * 1000L + 1);
+            try {
+                session.close(CloseStatus.SERVICE_RESTARTED.withReason(RECONNECT_AFTER + delay));
+            } catch (IOException | RuntimeException e) {
+                logger.debug("Could not close session {}: {}", session.getId(), e.getMessage());
+            }
+        }
+        logger.info("Drained {} sessions in {} ms; told them to come back over {} to {} s.", open.size(), System.currentTimeMillis() - start,
+                reconnectAfterMillis / 1000, reconnectAfterMillis / 1000 + windowSeconds);
+    }
+
+    /**
+     * Waits (up to <code>drain.flush.millis</code>) for the outbound channel and
+     * the broker shards to send what they have.
+     */
+    private void flushOutbound() {
+        long deadline = System.currentTimeMillis() + flushMillis;
+        ShardedBroker broker = shardedBroker.getIfAvailable();
+        try {
+            while ((outboundExecutor.getActiveCount() > 0 || !outboundExecutor.getThreadPoolExecutor().getQueue().isEmpty() || (broker != null && !broker.isIdle()))
+                    && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IllegalStateException e) {
+            // Not initialized, or already shut down: nothing to wait for
+        }
+    }
+
+    public boolean isDraining() {
+        return draining;
+    }
+
+    public int getSessionCount() {
+        return sessions.size();
+    }
+
+    @Override
+    public Message<?> preSend(Message<?> message, MessageChannel channel) {
+        if (!draining) {
+            return message;
+        }
+        SimpMessageType type = SimpMessageHeaderAccessor.getMessageType(message.getHeaders());
+        if (type == SimpMessageType.CONNECT || type == SimpMessageType.SUBSCRIBE) {
+            logger.debug("Draining; dropped {} from {}", type, SimpMessageHeaderAccessor.getSessionId(message.getHeaders()));
+            return null;
+        }
+        return message;
+    }
+
+    @Override
+    public boolean beforeHandshake(ServerHttpRequest request, ServerHttpResponse response, WebSocketHandler wsHandler, Map<String, Object> attributes) {
+        if (!draining) {
+            return true;
+        }
+        response.setStatusCode(HttpStatus.SERVICE_UNAVAILABLE);
+        response.getHeaders().set(HttpHeaders.RETRY_AFTER, Long.toString(reconnectAfterMillis / 1000 + windowSeconds));
+        return false;
+    }
+
+    @Override
+    public void afterHandshake(ServerHttpRequest request, ServerHttpResponse response, WebSocketHandler wsHandler, Exception exception) {
+    }
+}
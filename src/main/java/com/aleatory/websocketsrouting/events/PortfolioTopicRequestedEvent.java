@@ -0,0 +1,23 @@
+package com.aleatory.websocketsrouting.events;
+
+import org.springframework.context.ApplicationEvent;
+
+/**
+ * A browser subscribed to a portfolio topic; in a router cluster, whichever node
+ * owns the topic subscribes to it upstream.
+ */
+public class PortfolioTopicRequestedEvent extends ApplicationEvent {
+    private static final long serialVersionUID = 1L;
+
+    private String topic;
+
+    public PortfolioTopicRequestedEvent(Object source, String topic) {
+        super(source);
+        this.topic = topic;
+    }
+
+    public String getTopic() {
+        return topic;
+    }
+
+}
@@ -0,0 +1,21 @@
+package com.aleatory.websocketsrouting.events;
+
+import java.util.Set;
+
+import org.springframework.context.ApplicationEvent;
+
+public class RouterMembershipChangedEvent extends ApplicationEvent {
+    private static final long serialVersionUID = 1L;
+
+    private Set<String> members;
+
+    public RouterMembershipChangedEvent(Object source, Set<String> members) {
+        super(source);
+        this.members = members;
+    }
+
+    public Set<String> getMembers() {
+        return members;
+    }
+
+}
@@ -4,18 +4,45 @@ import java.time.LocalDate;
 
 import org.springframework.context.ApplicationEvent;
 
+/**
+ * A close for one of the symbols in <code>closes.symbols</code>. Despite the
+ * name it isn't only SPX any more; the constructors without a symbol are SPX.
+ */
 public class SPXCloseReceivedEvent extends ApplicationEvent {
     private static final long serialVersionUID = 1L;
 
+    public static final String SPX = "SPX";
+
+    private String symbol;
     private Double price;
     private LocalDate forDate;
     private boolean finalPrice;
+    private boolean provisional;
 
     public SPXCloseReceivedEvent(Object source, Double price, LocalDate forDate, boolean finalPrice) {
+        this(source, price, forDate, finalPrice, false);
+    }
+
+    /**
+     * @param provisional true if the close was taken from the last SPX tick at
+     *                    the bell rather than a close source; a (non-provisional)
+     *                    close for the same day will follow
+     */
+    public SPXCloseReceivedEvent(Object source, Double price, LocalDate forDate, boolean finalPrice, boolean provisional) {
+        this(source, SPX, price, forDate, finalPrice, provisional);
+    }
+
+    public SPXCloseReceivedEvent(Object source, String symbol, Double price, LocalDate forDate, boolean finalPrice, boolean provisional) {
         super(source);
+        this.symbol = symbol;
         this.price = price;
         this.forDate = forDate;
         this.finalPrice = finalPrice;
+        this.provisional = provisional;
+    }
+
+    public String getSymbol() {
+        return symbol;
     }
 
     public Double getPrice() {
@@ -30,4 +57,8 @@ public class SPXCloseReceivedEvent extends ApplicationEvent {
         return finalPrice;
     }
 
+    public boolean isProvisional() {
+        return provisional;
+    }
+
 }
@@ -0,0 +1,49 @@
+package com.aleatory.websocketsrouting.events;
+
+import java.util.List;
+
+import org.springframework.context.ApplicationEvent;
+
+import com.aleatory.websocketsrouting.domain.ClosePrice;
+
+/**
+ * All the changes from one reconciliation of our stored closes against the
+ * close sources, published together so they can be written in one statement
+ * and sent downstream in one message. One event per symbol.
+ */
+public class SPXClosesReconciledEvent extends ApplicationEvent {
+    private static final long serialVersionUID = 1L;
+
+    private String symbol;
+    private List<ClosePrice> corrections;
+    private List<ClosePrice> finalizations;
+
+    /**
+     * @param corrections   closes that were missing or had a different price
+     * @param finalizations closes whose price was right but weren't final yet;
+     *                      these only need storing
+     */
+    public SPXClosesReconciledEvent(Object source, List<ClosePrice> corrections, List<ClosePrice> finalizations) {
+        this(source, SPXCloseReceivedEvent.SPX, corrections, finalizations);
+    }
+
+    public SPXClosesReconciledEvent(Object source, String symbol, List<ClosePrice> corrections, List<ClosePrice> finalizations) {
+        super(source);
+        this.symbol = symbol;
+        this.corrections = corrections;
+        this.finalizations = finalizations;
+    }
+
+    public String getSymbol() {
+        return symbol;
+    }
+
+    public List<ClosePrice> getCorrections() {
+        return corrections;
+    }
+
+    public List<ClosePrice> getFinalizations() {
+        return finalizations;
+    }
+
+}
@@ -5,15 +5,28 @@ import org.springframework.context.ApplicationEvent;
 public class SendMessageToFrontendEvent extends ApplicationEvent {
     private static final long serialVersionUID = 1L;
 
+    // JIT warm-up traffic: routed like the rest, but not kept, journaled or counted
+    public static final String WARMUP_PREFIX = "/topic/warmup.";
+
     private String destination;
     private Object payload;
 
+    // Where it came from and its number there, for transports that number messages; 0 if not
+    private String upstream;
+    private long upstreamSeq;
+
     public SendMessageToFrontendEvent(Object source, String destination, Object payload) {
         super(source);
         this.destination = destination;
         this.payload = payload;
     }
 
+    public SendMessageToFrontendEvent(Object source, String destination, Object payload, String upstream, long upstreamSeq) {
+        this(source, destination, payload);
+        this.upstream = upstream;
+        this.upstreamSeq = upstreamSeq;
+    }
+
     public String getDestination() {
         return destination;
     }
@@ -22,4 +35,16 @@ public class SendMessageToFrontendEvent extends ApplicationEvent {
         return payload;
     }
 
+    public String getUpstream() {
+        return upstream;
+    }
+
+    public long getUpstreamSeq() {
+        return upstreamSeq;
+    }
+
+    public boolean isWarmup() {
+        return destination.startsWith(WARMUP_PREFIX);
+    }
+
 }
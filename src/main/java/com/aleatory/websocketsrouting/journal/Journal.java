@@ -0,0 +1,130 @@
+package com.aleatory.websocketsrouting.journal;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.event.EventListener;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.converter.MessageConversionException;
+import org.springframework.messaging.converter.MessageConverter;
+import org.springframework.scheduling.TaskScheduler;
+import org.springframework.stereotype.Component;
+
+import com.aleatory.websocketsrouting.events.SendMessageToFrontendEvent;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+
+/**
+ * Records everything we route to the frontend (<code>journal.enabled=true</code>)
+ * in memory-mapped segments under <code>journal.directory</code>, for
+ * {@link JournalReplayer} or offline analysis. String and byte[] payloads go
+ * straight into the mapped file; anything else is converted by the
+ * <code>brokerMessageConverter</code> first, so what's journaled is the body
+ * the broker sent (JSON, with java.time values as ISO strings). Segments older
+ * than <code>journal.retention.days</code> are deleted.
+ */
+@Component
+@ConditionalOnProperty(value = "journal.enabled", havingValue = "true")
+public class Journal {
+    private static final Logger logger = LoggerFactory.getLogger(Journal.class);
+
+    @Autowired
+    @Qualifier("messagingScheduler")
+    private TaskScheduler scheduler;
+
+    @Autowired
+    @Qualifier("brokerMessageConverter")
+    private MessageConverter messageConverter;
+
+    @Value("${journal.directory:journal}")
+    private Path directory;
+
+    @Value("${journal.segment.mb:256}")
+    private int segmentMb;
+
+    @Value("${journal.index.interval.millis:1000}")
+    private long indexIntervalMillis;
+
+    @Value("${journal.retention.days:7}")
+    private int retentionDays;
+
+    private JournalWriter writer;
+
+    @PostConstruct
+    void open() throws IOException {
+        writer = new JournalWriter(directory, segmentMb * 1024 * 1024, indexIntervalMillis * 1_000_000L);
+        logger.info("Journaling routed messages to {}", directory.toAbsolutePath());
+        if (scheduler != null && retentionDays > 0) {
+            scheduler.scheduleWithFixedDelay(this::deleteOldSegments, Instant.now().plus(Duration.ofMinutes(1)), Duration.ofHours(1));
+        }
+    }
+
+    @EventListener
+    void record(SendMessageToFrontendEvent event) {
+        // Don't journal what we're replaying from the journal, or warm-up traffic
+        if (event.getPayload() == null || event.getSource() instanceof JournalReplayer || event.isWarmup()) {
+            return;
+        }
+        try {
+            if (event.getPayload() instanceof CharSequence text) {
+                append(event.getDestination(), text);
+            } else if (event.getPayload() instanceof byte[] bytes) {
+                append(event.getDestination(), bytes, false);
+            } else {
+                Message<?> message = messageConverter.toMessage(event.getPayload(), null);
+                if (message == null || !(message.getPayload() instanceof byte[] body)) {
+                    logger.warn("Could not journal message to {}: no converter for {}", event.getDestination(), event.getPayload().getClass().getName());
+                    return;
+                }
+                append(event.getDestination(), body, true);
+            }
+        } catch (MessageConversionException e) {
+            logger.warn("Could not journal message to {}: {}", event.getDestination(), e.getMessage());
+        } catch (UncheckedIOException e) {
+            logger.error("Could not journal message to {}", event.getDestination(), e);
+        }
+    }
+
+    private synchronized void append(String destination, CharSequence payload) {
+        if (!writer.append(destination, payload)) {
+            logger.warn("Message to {} too big to journal ({} chars); dropped.", destination, payload.length());
+        }
+    }
+
+    private synchronized void append(String destination, byte[] payload, boolean json) {
+        if (!writer.append(destination, payload, json)) {
+            logger.warn("Message to {} too big to journal ({} bytes); dropped.", destination, payload.length);
+        }
+    }
+
+    private synchronized void deleteOldSegments() {
+        try {
+            int deleted = writer.deleteSegmentsBefore(writer.now() - Duration.ofDays(retentionDays).toNanos());
+            if (deleted > 0) {
+                logger.info("Deleted {} journal segments older than {} days.", deleted, retentionDays);
+            }
+        } catch (IOException e) {
+            logger.warn("Could not delete old journal segments: {}", e.getMessage());
+        }
+    }
+
+    public Path getDirectory() {
+        return directory;
+    }
+
+    @PreDestroy
+    synchronized void close() throws IOException {
+        writer.close();
+        logger.info("Journaled {} messages ({} dropped).", writer.getAppended(), writer.getDropped());
+    }
+}
@@ -0,0 +1,215 @@
+package com.aleatory.websocketsrouting.journal;
+
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.Set;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Reads back what a {@link JournalWriter} wrote, in time order. Segments that
+ * end before the window, start after it or (going by their destination index)
+ * have none of the wanted destinations aren't opened; within a segment the time
+ * index takes us close to the start of the window. Safe to use on a directory
+ * that's still being written to.
+ */
+public class JournalReader {
+    private final Path directory;
+
+    /**
+     * @param format {@link JournalWriter#TEXT}, {@link JournalWriter#JSON} or
+     *               {@link JournalWriter#BYTES}
+     */
+    public record Entry(long epochNanos, String destination, int format, byte[] payload) {
+        public String payloadAsString() {
+            return new String(payload, StandardCharsets.UTF_8);
+        }
+
+        /**
+         * @return the payload as it was routed: text, the bytes, or for an object
+         *         the JSON the broker sent for it, as text
+         */
+        public Object toPayload() {
+            return format == JournalWriter.BYTES ? payload : payloadAsString();
+        }
+
+        /**
+         * Reads an object's JSON back into a type. Use a mapper that reads what
+         * the broker writes (Boot's, say), so java.time fields come back.
+         */
+        public <T> T readValue(ObjectMapper mapper, Class<T> type) throws IOException {
+            if (format != JournalWriter.JSON) {
+                throw new IOException("Journaled message to " + destination + " is not JSON");
+            }
+            return mapper.readValue(payload, type);
+        }
+    }
+
+    @FunctionalInterface
+    public interface Visitor {
+        /**
+         * @return false to stop reading
+         */
+        boolean visit(Entry entry);
+    }
+
+    public JournalReader(Path directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * Visits the messages from <code>fromNanos</code> (inclusive) to
+     * <code>toNanos</code> (exclusive) to the given destinations (all of them if
+     * empty).
+     *
+     * @return how many were visited
+     */
+    public long read(long fromNanos, long toNanos, Set<String> destinations, Visitor visitor) throws IOException {
+        List<Path> segments = JournalWriter.segments(directory);
+        long visited = 0;
+        for (int i = 0; i < segments.size(); i++) {
+            Path segment = segments.get(i);
+            long start = JournalWriter.startOf(segment);
+            if (start >= toNanos) {
+                break;
+            }
+            if (i + 1 < segments.size() && JournalWriter.startOf(segments.get(i + 1)) <= fromNanos) {
+                continue;
+            }
+            if (!destinations.isEmpty() && !mayContain(segment, fromNanos, destinations)) {
+                continue;
+            }
+            long read = readSegment(segment, fromNanos, toNanos, destinations, visitor);
+            if (read < 0) {
+                return visited - read - 1;
+            }
+            visited += read;
+        }
+        return visited;
+    }
+
+    /**
+     * Visits the newest messages we have: those in the last segment with any,
+     * from its start.
+     *
+     * @return how many were visited
+     */
+    public long readNewest(Visitor visitor) throws IOException {
+        List<Path> segments = JournalWriter.segments(directory);
+        for (int i = segments.size() - 1; i >= 0; i--) {
+            long to = i + 1 < segments.size() ? JournalWriter.startOf(segments.get(i + 1)) : Long.MAX_VALUE;
+            long visited = read(JournalWriter.startOf(segments.get(i)), to, Set.of(), visitor);
+            if (visited > 0) {
+                return visited;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Goes by the destination index, if the segment is finished and has one.
+     */
+    private static boolean mayContain(Path segment, long fromNanos, Set<String> destinations) throws IOException {
+        Path index = JournalWriter.sidecar(segment, JournalWriter.DESTINATIONS_SUFFIX);
+        if (!Files.exists(index)) {
+            return true;
+        }
+        for (String line : Files.readAllLines(index, StandardCharsets.UTF_8)) {
+            String[] fields = line.split("\t", 4);
+            if (fields.length == 4 && destinations.contains(fields[3]) && Long.parseLong(fields[2]) >= fromNanos) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return how many were visited, or -(that + 1) if the visitor stopped us
+     */
+    private static long readSegment(Path path, long fromNanos, long toNanos, Set<String> wanted, Visitor visitor) throws IOException {
+        MappedByteBuffer segment = map(path);
+        if (segment.capacity() < JournalWriter.RECORDS_OFFSET || segment.getInt(JournalWriter.MAGIC_OFFSET) != JournalWriter.MAGIC) {
+            throw new IOException(path + " is not a journal segment");
+        }
+        String[] destinations = readDictionary(segment);
+        int position = seek(path, fromNanos);
+        long visited = 0;
+        while (position + JournalWriter.RECORD_HEADER_SIZE <= segment.capacity()) {
+            int length = segment.getInt(position);
+            if (length <= 0 || position + length > segment.capacity()) {
+                break;
+            }
+            int id = segment.getShort(position + 4);
+            int format = segment.getShort(position + 6);
+            long epochNanos = segment.getLong(position + 8);
+            if (epochNanos >= toNanos) {
+                break;
+            }
+            if (epochNanos >= fromNanos && id >= 0 && id < destinations.length && (wanted.isEmpty() || wanted.contains(destinations[id]))) {
+                byte[] payload = new byte[length - JournalWriter.RECORD_HEADER_SIZE];
+                segment.get(position + JournalWriter.RECORD_HEADER_SIZE, payload);
+                visited++;
+                if (!visitor.visit(new Entry(epochNanos, destinations[id], format, payload))) {
+                    return -visited - 1;
+                }
+            }
+            position += (length + 7) & ~7;
+        }
+        return visited;
+    }
+
+    private static String[] readDictionary(MappedByteBuffer segment) {
+        int count = segment.getInt(JournalWriter.DESTINATION_COUNT_OFFSET);
+        String[] destinations = new String[count];
+        int position = JournalWriter.DICTIONARY_OFFSET;
+        for (int id = 0; id < count; id++) {
+            int length = segment.getShort(position);
+            byte[] name = new byte[length];
+            segment.get(position + 2, name);
+            destinations[id] = new String(name, StandardCharsets.UTF_8);
+            position += 2 + length;
+        }
+        return destinations;
+    }
+
+    /**
+     * @return the offset of the last indexed record at or before fromNanos, or the
+     *         first record if there's no index
+     */
+    private static int seek(Path segment, long fromNanos) throws IOException {
+        Path path = JournalWriter.sidecar(segment, JournalWriter.INDEX_SUFFIX);
+        if (!Files.exists(path)) {
+            return JournalWriter.RECORDS_OFFSET;
+        }
+        MappedByteBuffer index = map(path);
+        int low = 0, high = index.capacity() / JournalWriter.INDEX_ENTRY_SIZE - 1, offset = JournalWriter.RECORDS_OFFSET;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            long epochNanos = index.getLong(mid * JournalWriter.INDEX_ENTRY_SIZE);
+            // Entries fill from the front; the unused ones after them are zero
+            if (epochNanos != 0 && epochNanos <= fromNanos) {
+                offset = (int) index.getLong(mid * JournalWriter.INDEX_ENTRY_SIZE + 8);
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return offset;
+    }
+
+    private static MappedByteBuffer map(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            MappedByteBuffer buffer = channel.map(MapMode.READ_ONLY, 0, channel.size());
+            buffer.order(ByteOrder.LITTLE_ENDIAN);
+            return buffer;
+        }
+    }
+}
@@ -0,0 +1,130 @@
+package com.aleatory.websocketsrouting.journal;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.stereotype.Service;
+
+import com.aleatory.websocketsrouting.events.SendMessageToFrontendEvent;
+
+import jakarta.annotation.PreDestroy;
+
+/**
+ * Plays a stretch of the journal back through the router
+ * (<code>journal.replay.enabled=true</code>), as if the backends were sending it
+ * again: at the recorded pace times <code>speed</code>, or as fast as we can
+ * (speed 0). Meant for an offline router, to reproduce a session or load test
+ * with real traffic; replayed messages update the last values like live ones.
+ * One replay at a time.
+ */
+@Service
+@ConditionalOnProperty(value = "journal.replay.enabled", havingValue = "true")
+public class JournalReplayer {
+    private static final Logger logger = LoggerFactory.getLogger(JournalReplayer.class);
+
+    @Autowired
+    private ApplicationEventPublisher applicationEventPublisher;
+
+    @Value("${journal.directory:journal}")
+    private Path directory;
+
+    public record Status(boolean running, Instant from, Instant to, double speed, long replayed, Instant position) {
+    }
+
+    private volatile Thread thread;
+    private volatile boolean stopping;
+    private volatile Instant from, to;
+    private volatile double speed;
+    private volatile long replayed;
+    private volatile long positionNanos;
+
+    /**
+     * Starts replaying messages to the destinations (all if empty) recorded from
+     * <code>from</code> up to <code>to</code>.
+     *
+     * @param speed 1 for real time, 10 for ten times as fast...; 0 for flat out
+     */
+    public synchronized Status start(Instant from, Instant to, double speed, Set<String> destinations) {
+        if (speed < 0 || !to.isAfter(from)) {
+            throw new IllegalArgumentException("Need a positive window and a speed of 0 or more");
+        }
+        if (thread != null && thread.isAlive()) {
+            throw new IllegalStateException("A replay is already running");
+        }
+        this.from = from;
+        this.to = to;
+        this.speed = speed;
+        this.replayed = 0;
+        this.positionNanos = 0;
+        this.stopping = false;
+        thread = new Thread(() -> {
+            try {
+                long count = replay(epochNanos(from), epochNanos(to), speed, destinations);
+                logger.info("Replayed {} journaled messages from {} to {} at {}x.", count, from, to, speed == 0 ? "max" : speed);
+            } catch (IOException | RuntimeException e) {
+                logger.error("Journal replay from {} to {} failed", from, to, e);
+            }
+        }, "journal-replay");
+        thread.setDaemon(true);
+        thread.start();
+        return getStatus();
+    }
+
+    /**
+     * Replays on the calling thread.
+     *
+     * @return how many messages were published
+     */
+    long replay(long fromNanos, long toNanos, double speed, Set<String> destinations) throws IOException {
+        long[] first = { -1 };
+        long startNanoTime = System.nanoTime();
+        return new JournalReader(directory).read(fromNanos, toNanos, destinations, entry -> {
+            if (speed > 0) {
+                if (first[0] < 0) {
+                    first[0] = entry.epochNanos();
+                }
+                long due = startNanoTime + (long) ((entry.epochNanos() - first[0]) / speed);
+                for (long wait = due - System.nanoTime(); wait > 0 && !stopping; wait = due - System.nanoTime()) {
+                    LockSupport.parkNanos(wait);
+                }
+            }
+            if (stopping) {
+                return false;
+            }
+            applicationEventPublisher.publishEvent(new SendMessageToFrontendEvent(this, entry.destination(), entry.toPayload()));
+            replayed++;
+            positionNanos = entry.epochNanos();
+            return true;
+        });
+    }
+
+    @PreDestroy
+    public void stop() {
+        stopping = true;
+        Thread current = thread;
+        if (current != null) {
+            LockSupport.unpark(current);
+        }
+    }
+
+    public Status getStatus() {
+        Thread current = thread;
+        long position = positionNanos;
+        return new Status(current != null && current.isAlive(), from, to, speed, replayed,
+                position == 0 ? null : Instant.ofEpochSecond(0, position));
+    }
+
+    private static long epochNanos(Instant instant) {
+        return TimeUnit.SECONDS.toNanos(instant.getEpochSecond()) + instant.getNano();
+    }
+}
@@ -0,0 +1,347 @@
+package com.aleatory.websocketsrouting.journal;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+/**
+ * Appends routed messages to memory-mapped segment files in a directory.
+ *
+ * A segment, <code>journal-&lt;start epoch nanos&gt;.dat</code>, is a 64-byte
+ * header (magic, version, start time, destination count), a 64 KB dictionary
+ * of the destinations used in it (<code>[short length][name]</code>, ids in
+ * order), then records: <code>[int length][short destination id][short
+ * format][long epoch nanos][payload]</code>, padded to 8 bytes. The format says
+ * what the payload was: a String ({@link #TEXT}, as UTF-8), an object written as
+ * JSON ({@link #JSON}) or raw bytes ({@link #BYTES}). A zero length marks the
+ * end, so a segment cut short by a crash still reads up to its last whole
+ * record (the length is written last).
+ *
+ * Next to each segment are a sparse time index (<code>.idx</code>:
+ * <code>[long epoch nanos][long offset]</code> every
+ * <code>indexIntervalNanos</code>) and, once the segment is finished, a
+ * destination index (<code>.destinations</code>: per destination the count and
+ * first and last times) so readers can skip segments and seek within them.
+ *
+ * Appending a String or byte[] payload to a destination already in the segment
+ * allocates nothing: the characters are encoded straight into the mapped file.
+ * Not thread safe on its own; {@link Journal} calls it under a lock.
+ */
+public class JournalWriter implements Closeable {
+    static final int MAGIC = 0x434E4A4C; // CNJL
+    static final int VERSION = 1;
+    static final int MAGIC_OFFSET = 0;
+    static final int VERSION_OFFSET = 4;
+    static final int START_OFFSET = 8;
+    static final int DESTINATION_COUNT_OFFSET = 16;
+    static final int HEADER_SIZE = 64;
+    static final int DICTIONARY_OFFSET = HEADER_SIZE;
+    static final int DICTIONARY_SIZE = 64 * 1024;
+    static final int RECORDS_OFFSET = DICTIONARY_OFFSET + DICTIONARY_SIZE;
+    static final int RECORD_HEADER_SIZE = 16;
+    static final int INDEX_ENTRY_SIZE = 16;
+    static final int INDEX_SIZE = 1024 * 1024;
+    public static final int TEXT = 0, JSON = 1, BYTES = 2;
+    static final String SEGMENT_SUFFIX = ".dat", INDEX_SUFFIX = ".idx", DESTINATIONS_SUFFIX = ".destinations";
+
+    private final Path directory;
+    private final int segmentBytes;
+    private final long indexIntervalNanos;
+
+    // Epoch nanos from nanoTime, so timestamps are fine-grained and never go backwards
+    private final long baseEpochNanos = System.currentTimeMillis() * 1_000_000L;
+    private final long baseNanoTime = System.nanoTime();
+
+    private Path segmentPath;
+    private MappedByteBuffer segment;
+    private MappedByteBuffer index;
+    private int position;
+    private int dictionaryPosition;
+    private long nextIndexNanos;
+
+    // Per segment: destination -> id, and the destination index by id
+    private final Map<String, Integer> destinationIds = new HashMap<>();
+    private String[] destinations = new String[64];
+    private long[] counts = new long[64];
+    private long[] firstNanos = new long[64];
+    private long[] lastNanos = new long[64];
+
+    private long appended;
+    private long dropped;
+
+    /**
+     * @param segmentBytes       size of each segment file, header and dictionary
+     *                           included
+     * @param indexIntervalNanos how often to note where we are in the time index
+     */
+    public JournalWriter(Path directory, int segmentBytes, long indexIntervalNanos) throws IOException {
+        if (segmentBytes < RECORDS_OFFSET * 2) {
+            throw new IllegalArgumentException("Journal segments must be at least " + RECORDS_OFFSET * 2 + " bytes: " + segmentBytes);
+        }
+        this.directory = directory;
+        this.segmentBytes = segmentBytes;
+        this.indexIntervalNanos = indexIntervalNanos;
+        Files.createDirectories(directory);
+        open(now());
+    }
+
+    public long now() {
+        return baseEpochNanos + (System.nanoTime() - baseNanoTime);
+    }
+
+    public boolean append(String destination, CharSequence payload) {
+        return append(destination, payload, now());
+    }
+
+    /**
+     * @param json whether the bytes are an object written as JSON
+     */
+    public boolean append(String destination, byte[] payload, boolean json) {
+        return append(destination, payload, json ? JSON : BYTES, now());
+    }
+
+    /**
+     * @return false if the message is too big for a segment (or we couldn't
+     *         start a new one), in which case it's counted as dropped
+     */
+    boolean append(String destination, CharSequence payload, long epochNanos) {
+        int id = prepare(destination, utf8Length(payload), epochNanos);
+        if (id < 0) {
+            return false;
+        }
+        return finish(id, TEXT, putUtf8(position + RECORD_HEADER_SIZE, payload), epochNanos);
+    }
+
+    boolean append(String destination, byte[] payload, int format, long epochNanos) {
+        int id = prepare(destination, payload.length, epochNanos);
+        if (id < 0) {
+            return false;
+        }
+        segment.put(position + RECORD_HEADER_SIZE, payload);
+        return finish(id, format, position + RECORD_HEADER_SIZE + payload.length, epochNanos);
+    }
+
+    /**
+     * Makes room for a record with a payload of that many bytes (starting a new
+     * segment if need be) and looks up the destination's id.
+     *
+     * @return the id, or -1 if the record can't be written
+     */
+    private int prepare(String destination, int payloadBytes, long epochNanos) {
+        int needed = align(RECORD_HEADER_SIZE + payloadBytes);
+        if (needed > segmentBytes - RECORDS_OFFSET || dictionaryEntrySize(destination) > DICTIONARY_SIZE) {
+            dropped++;
+            return -1;
+        }
+        Integer id = destinationIds.get(destination);
+        if (position + needed > segmentBytes || (id == null && dictionaryPosition + dictionaryEntrySize(destination) > DICTIONARY_SIZE)) {
+            try {
+                roll(epochNanos);
+            } catch (IOException e) {
+                dropped++;
+                throw new UncheckedIOException("Could not start a new journal segment in " + directory, e);
+            }
+            id = null;
+        }
+        if (id == null) {
+            id = define(destination, epochNanos);
+        }
+        if (epochNanos >= nextIndexNanos) {
+            if (index.remaining() >= INDEX_ENTRY_SIZE) {
+                index.putLong(epochNanos).putLong(position);
+            }
+            nextIndexNanos = epochNanos + indexIntervalNanos;
+        }
+        return id;
+    }
+
+    private boolean finish(int id, int format, int end, long epochNanos) {
+        segment.putShort(position + 4, (short) id);
+        segment.putShort(position + 6, (short) format);
+        segment.putLong(position + 8, epochNanos);
+        // Length last: until it's there the record doesn't exist
+        segment.putInt(position, end - position);
+        position = align(end);
+        if (counts[id]++ == 0) {
+            firstNanos[id] = epochNanos;
+        }
+        lastNanos[id] = epochNanos;
+        appended++;
+        return true;
+    }
+
+    private int define(String destination, long epochNanos) {
+        int id = destinationIds.size();
+        byte[] name = destination.getBytes(StandardCharsets.UTF_8);
+        segment.putShort(DICTIONARY_OFFSET + dictionaryPosition, (short) name.length);
+        segment.put(DICTIONARY_OFFSET + dictionaryPosition + 2, name);
+        dictionaryPosition += 2 + name.length;
+        segment.putInt(DESTINATION_COUNT_OFFSET, id + 1);
+        destinationIds.put(destination, id);
+        if (id == destinations.length) {
+            destinations = Arrays.copyOf(destinations, id * 2);
+            counts = Arrays.copyOf(counts, id * 2);
+            firstNanos = Arrays.copyOf(firstNanos, id * 2);
+            lastNanos = Arrays.copyOf(lastNanos, id * 2);
+        }
+        destinations[id] = destination;
+        return id;
+    }
+
+    private static int dictionaryEntrySize(String destination) {
+        return 2 + utf8Length(destination);
+    }
+
+    /**
+     * What {@link #putUtf8} will write, counted without encoding anything.
+     */
+    static int utf8Length(CharSequence chars) {
+        int length = 0;
+        for (int i = 0, n = chars.length(); i < n; i++) {
+            char c = chars.charAt(i);
+            if (c < 0x80) {
+                length++;
+            } else if (c < 0x800) {
+                length += 2;
+            } else if (Character.isHighSurrogate(c) && i + 1 < n && Character.isLowSurrogate(chars.charAt(i + 1))) {
+                length += 4;
+                i++;
+            } else if (Character.isSurrogate(c)) {
+                length++;
+            } else {
+                length += 3;
+            }
+        }
+        return length;
+    }
+
+    private int putUtf8(int at, CharSequence chars) {
+        for (int i = 0, n = chars.length(); i < n; i++) {
+            char c = chars.charAt(i);
+            if (c < 0x80) {
+                segment.put(at++, (byte) c);
+            } else if (c < 0x800) {
+                segment.put(at++, (byte) (0xc0 | c >> 6));
+                segment.put(at++, (byte) (0x80 | c & 0x3f));
+            } else if (Character.isHighSurrogate(c) && i + 1 < n && Character.isLowSurrogate(chars.charAt(i + 1))) {
+                int codePoint = Character.toCodePoint(c, chars.charAt(++i));
+                segment.put(at++, (byte) (0xf0 | codePoint >> 18));
+                segment.put(at++, (byte) (0x80 | codePoint >> 12 & 0x3f));
+                segment.put(at++, (byte) (0x80 | codePoint >> 6 & 0x3f));
+                segment.put(at++, (byte) (0x80 | codePoint & 0x3f));
+            } else if (Character.isSurrogate(c)) {
+                segment.put(at++, (byte) '?');
+            } else {
+                segment.put(at++, (byte) (0xe0 | c >> 12));
+                segment.put(at++, (byte) (0x80 | c >> 6 & 0x3f));
+                segment.put(at++, (byte) (0x80 | c & 0x3f));
+            }
+        }
+        return at;
+    }
+
+    private static int align(int length) {
+        return (length + 7) & ~7;
+    }
+
+    private void open(long epochNanos) throws IOException {
+        segmentPath = directory.resolve(String.format("journal-%019d%s", epochNanos, SEGMENT_SUFFIX));
+        segment = map(segmentPath, segmentBytes);
+        segment.putInt(VERSION_OFFSET, VERSION);
+        segment.putLong(START_OFFSET, epochNanos);
+        segment.putInt(MAGIC_OFFSET, MAGIC);
+        index = map(sidecar(segmentPath, INDEX_SUFFIX), INDEX_SIZE);
+        position = RECORDS_OFFSET;
+        dictionaryPosition = 0;
+        nextIndexNanos = epochNanos;
+        destinationIds.clear();
+        Arrays.fill(counts, 0);
+    }
+
+    private static MappedByteBuffer map(Path path, int size) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            MappedByteBuffer buffer = channel.map(MapMode.READ_WRITE, 0, size);
+            buffer.order(ByteOrder.LITTLE_ENDIAN);
+            return buffer;
+        }
+    }
+
+    static Path sidecar(Path segment, String suffix) {
+        String name = segment.getFileName().toString();
+        return segment.resolveSibling(name.substring(0, name.length() - SEGMENT_SUFFIX.length()) + suffix);
+    }
+
+    /**
+     * Finishes the current segment and starts another.
+     */
+    void roll(long epochNanos) throws IOException {
+        finishSegment();
+        open(Math.max(epochNanos, startOf(segmentPath) + 1));
+    }
+
+    private void finishSegment() throws IOException {
+        segment.force();
+        index.force();
+        List<String> lines = new ArrayList<>();
+        for (int id = 0; id < destinationIds.size(); id++) {
+            lines.add(counts[id] + "\t" + firstNanos[id] + "\t" + lastNanos[id] + "\t" + destinations[id]);
+        }
+        Files.write(sidecar(segmentPath, DESTINATIONS_SUFFIX), lines, StandardCharsets.UTF_8);
+    }
+
+    static long startOf(Path segment) {
+        String name = segment.getFileName().toString();
+        return Long.parseLong(name.substring("journal-".length(), name.length() - SEGMENT_SUFFIX.length()));
+    }
+
+    static List<Path> segments(Path directory) throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.filter(path -> path.getFileName().toString().matches("journal-\\d{19}\\.dat")).sorted().toList();
+        }
+    }
+
+    /**
+     * Deletes finished segments that started before the given time.
+     *
+     * @return how many
+     */
+    public int deleteSegmentsBefore(long epochNanos) throws IOException {
+        int deleted = 0;
+        for (Path path : segments(directory)) {
+            if (startOf(path) < epochNanos && !path.equals(segmentPath)) {
+                Files.deleteIfExists(sidecar(path, INDEX_SUFFIX));
+                Files.deleteIfExists(sidecar(path, DESTINATIONS_SUFFIX));
+                Files.delete(path);
+                deleted++;
+            }
+        }
+        return deleted;
+    }
+
+    public long getAppended() {
+        return appended;
+    }
+
+    public long getDropped() {
+        return dropped;
+    }
+
+    @Override
+    public void close() throws IOException {
+        finishSegment();
+    }
+}
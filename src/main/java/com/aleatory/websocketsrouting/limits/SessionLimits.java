@@ -0,0 +1,194 @@
+package com.aleatory.websocketsrouting.limits;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.server.ServerHttpRequest;
+import org.springframework.http.server.ServerHttpResponse;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.MessageDeliveryException;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessageType;
+import org.springframework.messaging.support.ChannelInterceptor;
+import org.springframework.scheduling.TaskScheduler;
+import org.springframework.stereotype.Component;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.WebSocketHandler;
+import org.springframework.web.socket.WebSocketMessage;
+import org.springframework.web.socket.WebSocketSession;
+import org.springframework.web.socket.handler.WebSocketHandlerDecorator;
+import org.springframework.web.socket.server.HandshakeInterceptor;
+
+import jakarta.annotation.PostConstruct;
+
+/**
+ * Keeps what we hold for /condors down to the clients that are really there.
+ *
+ * <ul>
+ * <li>At most <code>limits.sessions.max</code> sessions: past that a handshake
+ * gets 503 (and one that slips through is closed with 1013, try again
+ * later).</li>
+ * <li>At most <code>limits.subscriptions.per.session</code> subscriptions per
+ * session: one more gets a STOMP ERROR.</li>
+ * <li>A session we've heard nothing from (not even a heartbeat) for
+ * <code>limits.idle.seconds</code> is closed, which drops its subscriptions and
+ * send buffer. Clients that negotiate heartbeats never get near that; the
+ * broker itself closes those that stop sending them.</li>
+ * </ul>
+ * 0 turns any of them off.
+ */
+@Component
+public class SessionLimits implements HandshakeInterceptor, ChannelInterceptor {
+    private static final Logger logger = LoggerFactory.getLogger(SessionLimits.class);
+    static final CloseStatus IDLE = CloseStatus.GOING_AWAY.withReason("idle");
+
+    @Autowired
+    @Qualifier("messagingScheduler")
+    private TaskScheduler scheduler;
+
+    @Value("${limits.sessions.max:2000}")
+    private int maxSessions;
+
+    @Value("${limits.subscriptions.per.session:200}")
+    private int maxSubscriptions;
+
+    @Value("${limits.idle.seconds:120}")
+    private int idleSeconds;
+
+    // Session -> when we last heard from it
+    private final Map<String, Tracked> sessions = new ConcurrentHashMap<>();
+    private final LongAdder rejectedSessions = new LongAdder(), rejectedSubscriptions = new LongAdder(), reaped = new LongAdder();
+
+    private static final class Tracked {
+        final WebSocketSession session;
+        final Set<String> subscriptions = ConcurrentHashMap.newKeySet();
+        volatile long lastHeardNanos = System.nanoTime();
+
+        Tracked(WebSocketSession session) {
+            this.session = session;
+        }
+    }
+
+    @PostConstruct
+    void scheduleReaping() {
+        if (scheduler != null && idleSeconds > 0) {
+            Duration every = Duration.ofSeconds(Math.max(1, idleSeconds / 4));
+            scheduler.scheduleWithFixedDelay(this::reapIdle, every);
+        }
+    }
+
+    public WebSocketHandler decorate(WebSocketHandler handler) {
+        return new WebSocketHandlerDecorator(handler) {
+            @Override
+            public void afterConnectionEstablished(WebSocketSession session) throws Exception {
+                if (maxSessions > 0 && sessions.size() >= maxSessions) {
+                    rejectedSessions.increment();
+                    session.close(CloseStatus.SERVICE_OVERLOAD);
+                    return;
+                }
+                sessions.put(session.getId(), new Tracked(session));
+                super.afterConnectionEstablished(session);
+            }
+
+            @Override
+            public void handleMessage(WebSocketSession session, WebSocketMessage<?> message) throws Exception {
+                Tracked tracked = sessions.get(session.getId());
+                if (tracked != null) {
+                    tracked.lastHeardNanos = System.nanoTime();
+                }
+                super.handleMessage(session, message);
+            }
+
+            @Override
+            public void afterConnectionClosed(WebSocketSession session, CloseStatus closeStatus) throws Exception {
+                // Not ours if we turned it away
+                if (sessions.remove(session.getId()) != null) {
+                    super.afterConnectionClosed(session, closeStatus);
+                }
+            }
+        };
+    }
+
+    /**
+     * Closes the sessions we haven't heard from in <code>limits.idle.seconds</code>.
+     */
+    void reapIdle() {
+        long cutoff = System.nanoTime() - idleSeconds * 1_000_000_000L;
+        for (Tracked tracked : sessions.values()) {
+            if (tracked.lastHeardNanos - cutoff < 0) {
+                logger.info("Closing session {}: nothing from it in {} s.", tracked.session.getId(), idleSeconds);
+                reaped.increment();
+                try {
+                    tracked.session.close(IDLE);
+                } catch (IOException | RuntimeException e) {
+                    logger.debug("Could not close idle session {}: {}", tracked.session.getId(), e.getMessage());
+                }
+            }
+        }
+    }
+
+    @Override
+    public Message<?> preSend(Message<?> message, MessageChannel channel) {
+        SimpMessageType type = SimpMessageHeaderAccessor.getMessageType(message.getHeaders());
+        if (type != SimpMessageType.SUBSCRIBE && type != SimpMessageType.UNSUBSCRIBE) {
+            return message;
+        }
+        Tracked tracked = sessions.get(SimpMessageHeaderAccessor.getSessionId(message.getHeaders()));
+        String subscriptionId = SimpMessageHeaderAccessor.getSubscriptionId(message.getHeaders());
+        if (tracked == null || subscriptionId == null) {
+            return message;
+        }
+        if (type == SimpMessageType.UNSUBSCRIBE) {
+            tracked.subscriptions.remove(subscriptionId);
+            return message;
+        }
+        if (maxSubscriptions > 0 && !tracked.subscriptions.contains(subscriptionId) && tracked.subscriptions.size() >= maxSubscriptions) {
+            rejectedSubscriptions.increment();
+            throw new MessageDeliveryException(message, "Too many subscriptions (at most " + maxSubscriptions + " per session)");
+        }
+        tracked.subscriptions.add(subscriptionId);
+        return message;
+    }
+
+    @Override
+    public boolean beforeHandshake(ServerHttpRequest request, ServerHttpResponse response, WebSocketHandler wsHandler, Map<String, Object> attributes) {
+        if (maxSessions <= 0 || sessions.size() < maxSessions) {
+            return true;
+        }
+        rejectedSessions.increment();
+        response.setStatusCode(HttpStatus.SERVICE_UNAVAILABLE);
+        response.getHeaders().set(HttpHeaders.RETRY_AFTER, "30");
+        return false;
+    }
+
+    @Override
+    public void afterHandshake(ServerHttpRequest request, ServerHttpResponse response, WebSocketHandler wsHandler, Exception exception) {
+    }
+
+    /**
+     * @return live sessions and subscriptions, and what we've turned away or
+     *         closed since startup
+     */
+    public Map<String, Long> getStats() {
+        Map<String, Long> stats = new TreeMap<>();
+        stats.put("sessions", (long) sessions.size());
+        stats.put("subscriptions", sessions.values().stream().mapToLong(tracked -> tracked.subscriptions.size()).sum());
+        stats.put("rejectedSessions", rejectedSessions.sum());
+        stats.put("rejectedSubscriptions", rejectedSubscriptions.sum());
+        stats.put("reapedIdle", reaped.sum());
+        return stats;
+    }
+}
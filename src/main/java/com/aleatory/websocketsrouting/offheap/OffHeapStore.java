@@ -0,0 +1,217 @@
+package com.aleatory.websocketsrouting.offheap;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.scheduling.TaskScheduler;
+import org.springframework.stereotype.Component;
+
+import com.aleatory.common.util.TradingDays;
+
+import jakarta.annotation.PostConstruct;
+
+/**
+ * Off-heap home for cached message bodies (<code>offheap.enabled=true</code>),
+ * so the replay rings and last values of a day's worth of destinations don't
+ * pile up in the old generation. Bodies live in a {@link SlabArena} of at most
+ * <code>offheap.max.mb</code>, accounted per topic (destination).
+ *
+ * When it's full, the least recently used topics are evicted until
+ * <code>offheap.evict.percent</code> of it is free again; at 00:05 on the next
+ * trading day, when the Redis last messages expire, everything is. Evicting is
+ * up to whoever stored the bodies: they register an {@link Evictor}, which is
+ * called off the caller's thread and must {@link #free} the topic's handles.
+ * The store that didn't fit fails, and the caller keeps that body on the heap.
+ */
+@Component
+@ConditionalOnProperty(value = "offheap.enabled", havingValue = "true")
+public class OffHeapStore {
+    private static final Logger logger = LoggerFactory.getLogger(OffHeapStore.class);
+
+    @Autowired
+    @Qualifier("messagingScheduler")
+    private TaskScheduler scheduler;
+
+    @Value("${offheap.max.mb:256}")
+    private long maxMb;
+
+    @Value("${offheap.slab.kb:1024}")
+    private int slabKb;
+
+    @Value("${offheap.evict.percent:10}")
+    private int evictPercent;
+
+    @Value("${offheap.metrics.log.minutes:15}")
+    private int logMinutes;
+
+    public interface Evictor {
+        /**
+         * Drops everything stored for the topic, freeing its handles.
+         */
+        void evict(String topic);
+    }
+
+    private static final class Usage {
+        long allocatedBytes;
+        long usedBytes;
+        long values;
+    }
+
+    public record Stats(long maxBytes, long reservedBytes, long allocatedBytes, long usedBytes, long values, int slabs, int emptySlabs, int topics,
+            long rejected, long evictedTopics, Map<Integer, Long> valuesByBlockSize) {
+    }
+
+    private final List<Evictor> evictors = new CopyOnWriteArrayList<>();
+    private final AtomicBoolean evicting = new AtomicBoolean();
+
+    // Least recently used first
+    private final LinkedHashMap<String, Usage> topics = new LinkedHashMap<>(64, 0.75f, true);
+    private SlabArena arena;
+    private long rejected;
+    private long evictedTopics;
+
+    @PostConstruct
+    void init() {
+        arena = new SlabArena(slabKb * 1024, maxMb * 1024 * 1024);
+        if (scheduler == null) {
+            return;
+        }
+        if (logMinutes > 0) {
+            scheduler.scheduleAtFixedRate(() -> logger.info("Off-heap cache: {}", getStats()), Instant.now().plus(Duration.ofMinutes(logMinutes)),
+                    Duration.ofMinutes(logMinutes));
+        }
+        scheduleExpiry();
+    }
+
+    private void scheduleExpiry() {
+        LocalDateTime expiry = LocalDateTime.of(TradingDays.nextTradingDay(), LocalTime.of(0, 5));
+        // Never now or earlier, or this would keep rescheduling itself
+        if (!expiry.isAfter(LocalDateTime.now())) {
+            expiry = LocalDateTime.of(LocalDate.now().plusDays(1), LocalTime.of(0, 5));
+        }
+        scheduler.schedule(() -> {
+            evictAll();
+            scheduleExpiry();
+        }, expiry.atZone(ZoneId.systemDefault()).toInstant());
+    }
+
+    public void addEvictor(Evictor evictor) {
+        evictors.add(evictor);
+    }
+
+    /**
+     * @return the handle, or -1 if there's no room for it (yet)
+     */
+    public synchronized long store(String topic, byte[] bytes) {
+        long handle = arena.allocate(bytes);
+        if (handle < 0) {
+            rejected++;
+            if (arena.blockSize(bytes.length) > 0 && scheduler != null && evicting.compareAndSet(false, true)) {
+                scheduler.schedule(this::evictLeastRecentlyUsed, Instant.now());
+            }
+            return -1;
+        }
+        Usage usage = topics.computeIfAbsent(topic, t -> new Usage());
+        usage.allocatedBytes += arena.blockSize(bytes.length);
+        usage.usedBytes += bytes.length;
+        usage.values++;
+        return handle;
+    }
+
+    public synchronized byte[] load(String topic, long handle) {
+        topics.get(topic);
+        return arena.read(handle);
+    }
+
+    public synchronized void free(String topic, long handle) {
+        int length = arena.length(handle);
+        arena.free(handle);
+        Usage usage = topics.get(topic);
+        if (usage != null) {
+            usage.allocatedBytes -= arena.blockSize(length);
+            usage.usedBytes -= length;
+            if (--usage.values == 0) {
+                topics.remove(topic);
+            }
+        }
+    }
+
+    /**
+     * Evicts the least recently used topics until evict.percent of the arena is
+     * free.
+     */
+    void evictLeastRecentlyUsed() {
+        List<String> victims = new ArrayList<>();
+        synchronized (this) {
+            long excess = arena.getStats().allocatedBytes() - maxMb * 1024 * 1024 * (100 - evictPercent) / 100;
+            for (Iterator<Map.Entry<String, Usage>> it = topics.entrySet().iterator(); it.hasNext() && excess > 0;) {
+                Map.Entry<String, Usage> entry = it.next();
+                victims.add(entry.getKey());
+                excess -= entry.getValue().allocatedBytes;
+            }
+        }
+        try {
+            evict(victims);
+            logger.info("Off-heap cache full; evicted {} least recently used topics.", victims.size());
+        } finally {
+            evicting.set(false);
+        }
+    }
+
+    void evictAll() {
+        List<String> victims;
+        synchronized (this) {
+            victims = new ArrayList<>(topics.keySet());
+        }
+        evict(victims);
+        logger.info("Evicted all {} topics from the off-heap cache for the new trading day.", victims.size());
+    }
+
+    // Not under our lock: evictors take their own, then call free()
+    private void evict(List<String> victims) {
+        for (String topic : victims) {
+            for (Evictor evictor : evictors) {
+                evictor.evict(topic);
+            }
+        }
+        synchronized (this) {
+            evictedTopics += victims.size();
+        }
+    }
+
+    public synchronized long getUsedBytes(String topic) {
+        Usage usage = topics.get(topic);
+        return usage == null ? 0 : usage.usedBytes;
+    }
+
+    public synchronized Stats getStats() {
+        SlabArena.Stats stats = arena.getStats();
+        Map<Integer, Long> byBlockSize = new TreeMap<>();
+        long[] byClass = stats.valuesByClass();
+        for (int i = 0; i < byClass.length; i++) {
+            if (byClass[i] > 0) {
+                byBlockSize.put(SlabArena.MIN_BLOCK << i, byClass[i]);
+            }
+        }
+        return new Stats(maxMb * 1024 * 1024, stats.reservedBytes(), stats.allocatedBytes(), stats.usedBytes(), stats.values(), stats.slabs(),
+                stats.emptySlabs(), topics.size(), rejected, evictedTopics, byBlockSize);
+    }
+}
@@ -0,0 +1,177 @@
+package com.aleatory.websocketsrouting.offheap;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Byte arrays kept off the heap, in direct-buffer slabs of
+ * <code>slabBytes</code>. Each slab is cut into equal blocks of one size class
+ * (powers of two from {@link #MIN_BLOCK} up to the slab size) and a block holds
+ * one value: <code>[int length][bytes]</code>. A slab whose blocks are all free
+ * goes back to a shared pool for whichever class needs one next, so memory
+ * moves to where the sizes are. At most <code>maxBytes</code> of slabs are
+ * allocated; past that {@link #allocate} says no and it's up to the caller to
+ * free something.
+ *
+ * A handle is the slab's index in the high int and the block's in the low one.
+ * Not thread safe.
+ */
+public class SlabArena {
+    public static final int MIN_BLOCK = 64;
+    private static final int LENGTH_SIZE = 4;
+
+    private static final class Slab {
+        final int index;
+        final ByteBuffer buffer;
+        int sizeClass = -1;
+        int blockSize;
+        int[] free;
+        int freeCount;
+
+        Slab(int index, int bytes) {
+            this.index = index;
+            this.buffer = ByteBuffer.allocateDirect(bytes);
+        }
+
+        void carve(int sizeClass, int blockSize) {
+            this.sizeClass = sizeClass;
+            this.blockSize = blockSize;
+            int blocks = buffer.capacity() / blockSize;
+            free = new int[blocks];
+            for (int i = 0; i < blocks; i++) {
+                free[i] = blocks - 1 - i;
+            }
+            freeCount = blocks;
+        }
+
+        int blocks() {
+            return free.length;
+        }
+    }
+
+    public record Stats(long reservedBytes, long allocatedBytes, long usedBytes, long values, int slabs, int emptySlabs, long[] valuesByClass) {
+    }
+
+    private final int slabBytes;
+    private final int maxSlabs;
+    private final List<Slab> slabs = new ArrayList<>();
+    private final List<ArrayDeque<Slab>> partial = new ArrayList<>();
+    private final ArrayDeque<Slab> empty = new ArrayDeque<>();
+    private final long[] valuesByClass;
+    private long allocatedBytes;
+    private long usedBytes;
+    private long values;
+
+    /**
+     * @param slabBytes a power of two, at least {@link #MIN_BLOCK}
+     */
+    public SlabArena(int slabBytes, long maxBytes) {
+        if (slabBytes < MIN_BLOCK || Integer.bitCount(slabBytes) != 1) {
+            throw new IllegalArgumentException("Slab size must be a power of two of at least " + MIN_BLOCK + ": " + slabBytes);
+        }
+        this.slabBytes = slabBytes;
+        this.maxSlabs = (int) Math.min(Integer.MAX_VALUE, maxBytes / slabBytes);
+        int classes = Integer.numberOfTrailingZeros(slabBytes) - Integer.numberOfTrailingZeros(MIN_BLOCK) + 1;
+        for (int i = 0; i < classes; i++) {
+            partial.add(new ArrayDeque<>());
+        }
+        valuesByClass = new long[classes];
+    }
+
+    /**
+     * @return the size class that fits a value of this length, or -1 if none does
+     */
+    int sizeClass(int length) {
+        int needed = length + LENGTH_SIZE;
+        if (needed > slabBytes) {
+            return -1;
+        }
+        int block = Math.max(MIN_BLOCK, Integer.highestOneBit(needed - 1) << 1);
+        return Integer.numberOfTrailingZeros(block) - Integer.numberOfTrailingZeros(MIN_BLOCK);
+    }
+
+    /**
+     * Copies the bytes off heap.
+     *
+     * @return the handle, or -1 if there's no room (or they'd never fit a slab)
+     */
+    public long allocate(byte[] bytes) {
+        int sizeClass = sizeClass(bytes.length);
+        if (sizeClass < 0) {
+            return -1;
+        }
+        Slab slab = partial.get(sizeClass).peek();
+        if (slab == null) {
+            slab = empty.poll();
+            if (slab == null) {
+                if (slabs.size() >= maxSlabs) {
+                    return -1;
+                }
+                slab = new Slab(slabs.size(), slabBytes);
+                slabs.add(slab);
+            }
+            slab.carve(sizeClass, MIN_BLOCK << sizeClass);
+            partial.get(sizeClass).push(slab);
+        }
+        int block = slab.free[--slab.freeCount];
+        if (slab.freeCount == 0) {
+            partial.get(sizeClass).poll();
+        }
+        int offset = block * slab.blockSize;
+        slab.buffer.putInt(offset, bytes.length);
+        slab.buffer.put(offset + LENGTH_SIZE, bytes);
+        allocatedBytes += slab.blockSize;
+        usedBytes += bytes.length;
+        values++;
+        valuesByClass[sizeClass]++;
+        return (long) slab.index << 32 | block;
+    }
+
+    /**
+     * @return a copy of the value on the heap
+     */
+    public byte[] read(long handle) {
+        Slab slab = slabs.get((int) (handle >>> 32));
+        int offset = (int) handle * slab.blockSize;
+        byte[] bytes = new byte[slab.buffer.getInt(offset)];
+        slab.buffer.get(offset + LENGTH_SIZE, bytes);
+        return bytes;
+    }
+
+    public int length(long handle) {
+        Slab slab = slabs.get((int) (handle >>> 32));
+        return slab.buffer.getInt((int) handle * slab.blockSize);
+    }
+
+    public void free(long handle) {
+        Slab slab = slabs.get((int) (handle >>> 32));
+        int block = (int) handle;
+        allocatedBytes -= slab.blockSize;
+        usedBytes -= slab.buffer.getInt(block * slab.blockSize);
+        values--;
+        valuesByClass[slab.sizeClass]--;
+        slab.free[slab.freeCount++] = block;
+        if (slab.freeCount == 1 && slab.blocks() > 1) {
+            partial.get(slab.sizeClass).push(slab);
+        }
+        if (slab.freeCount == slab.blocks()) {
+            partial.get(slab.sizeClass).remove(slab);
+            slab.sizeClass = -1;
+            empty.push(slab);
+        }
+    }
+
+    /**
+     * @return the block size a value of this length takes, 0 if it won't fit
+     */
+    public int blockSize(int length) {
+        int sizeClass = sizeClass(length);
+        return sizeClass < 0 ? 0 : MIN_BLOCK << sizeClass;
+    }
+
+    public Stats getStats() {
+        return new Stats((long) slabs.size() * slabBytes, allocatedBytes, usedBytes, values, slabs.size(), empty.size(), valuesByClass.clone());
+    }
+}
@@ -0,0 +1,33 @@
+package com.aleatory.websocketsrouting.provider;
+
+import java.util.List;
+
+import com.aleatory.websocketsrouting.domain.ClosePrice;
+
+/**
+ * Somewhere we can get index closes from. {@link HistoricalSPXPriceProvider}
+ * asks every configured source at once (see <code>closes.sources</code>) and
+ * only believes a close once <code>closes.quorum</code> of them agree on it, so
+ * a single site changing its layout no longer stops expirations.
+ */
+public interface ClosePriceSource {
+
+    /**
+     * @return the name used for this source in <code>closes.sources</code> and in
+     *         the logs
+     */
+    String getName();
+
+    /**
+     * Fetches the most recent closes for a symbol. Implementations may block (and
+     * retry) but should give up promptly when interrupted, and may be called for
+     * several symbols at once.
+     * 
+     * @param symbol  one of <code>closes.symbols</code>, e.g. SPX or NDX
+     * @param numDays the maximum number of trading days to return, most recent
+     *                first
+     * @return the closes, most recent first, or null if the source couldn't be
+     *         read or doesn't carry the symbol
+     */
+    List<ClosePrice> fetchCloses(String symbol, int numDays);
+}
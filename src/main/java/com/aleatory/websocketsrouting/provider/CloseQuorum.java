@@ -0,0 +1,65 @@
+package com.aleatory.websocketsrouting.provider;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import com.aleatory.websocketsrouting.domain.ClosePrice;
+
+/**
+ * Tallies the closes reported by each {@link ClosePriceSource}. A close for a
+ * date is agreed once <code>quorum</code> sources report the same price for it
+ * (to the cent). Not thread-safe; results are added from the one thread
+ * collecting them.
+ */
+class CloseQuorum {
+    private final int quorum;
+
+    private final Map<LocalDate, Map<Long, Integer>> votes = new HashMap<>();
+    private final TreeMap<LocalDate, ClosePrice> agreedCloses = new TreeMap<>(Comparator.reverseOrder());
+
+    CloseQuorum(int quorum) {
+        this.quorum = quorum;
+    }
+
+    /**
+     * Counts one source's closes.
+     * 
+     * @param closePrices the closes from a single source
+     */
+    void addVotes(List<ClosePrice> closePrices) {
+        for (ClosePrice closePrice : closePrices) {
+            if (agreedCloses.containsKey(closePrice.getCloseDate())) {
+                continue;
+            }
+            long cents = Math.round(closePrice.getPrice() * 100);
+            int count = votes.computeIfAbsent(closePrice.getCloseDate(), date -> new HashMap<>()).merge(cents, 1, Integer::sum);
+            if (count >= quorum) {
+                agreedCloses.put(closePrice.getCloseDate(), closePrice);
+                votes.remove(closePrice.getCloseDate());
+            }
+        }
+    }
+
+    boolean hasAgreement() {
+        return !agreedCloses.isEmpty();
+    }
+
+    /**
+     * @return the most recent agreed close, or null if nothing has reached quorum
+     */
+    ClosePrice latestAgreedClose() {
+        return agreedCloses.isEmpty() ? null : agreedCloses.firstEntry().getValue();
+    }
+
+    /**
+     * @return all agreed closes, most recent first
+     */
+    List<ClosePrice> agreedCloses() {
+        return new ArrayList<>(agreedCloses.values());
+    }
+}
@@ -0,0 +1,72 @@
+package com.aleatory.websocketsrouting.provider;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import org.jsoup.parser.Parser;
+import org.jsoup.parser.StreamParser;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.core.io.DefaultResourceLoader;
+import org.springframework.core.io.Resource;
+import org.springframework.core.io.ResourceLoader;
+import org.springframework.stereotype.Component;
+
+import com.aleatory.websocketsrouting.domain.ClosePrice;
+
+/**
+ * Reads closes from a saved copy of the Yahoo history page. Used by the tests
+ * and handy for running a dev box offline: set
+ * <code>closes.file.location</code> (e.g.
+ * <code>file:/tmp/{symbol}-history.html</code>; <code>{symbol}</code> is
+ * replaced with the lower-case symbol) and add <code>file</code> to
+ * <code>closes.sources</code>.
+ */
+@Component
+@ConditionalOnProperty("closes.file.location")
+public class FileClosePriceSource implements ClosePriceSource {
+    private static final Logger logger = LoggerFactory.getLogger(FileClosePriceSource.class);
+
+    private final YahooHistoryPageParser pageParser = new YahooHistoryPageParser();
+
+    private final ResourceLoader resourceLoader = new DefaultResourceLoader();
+
+    private final String location;
+    private final String name;
+
+    public FileClosePriceSource(@Value("${closes.file.location}") String location) {
+        this(location, "file");
+    }
+
+    public FileClosePriceSource(String location, String name) {
+        this.location = location;
+        this.name = name;
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public List<ClosePrice> fetchCloses(String symbol, int numDays) {
+        Resource location = resourceLoader.getResource(this.location.replace("{symbol}", symbol.toLowerCase()));
+        if (!location.exists()) {
+            logger.debug("No closes file {} for {}.", location, symbol);
+            return null;
+        }
+        try {
+            BufferedReader reader = new BufferedReader(new InputStreamReader(location.getInputStream(), StandardCharsets.UTF_8));
+            List<ClosePrice> closePrices = pageParser.parse(new StreamParser(Parser.htmlParser()).parse(reader, ""), numDays);
+            return closePrices.isEmpty() ? null : closePrices;
+        } catch (IOException e) {
+            logger.warn("Could not read closes from {}: {}", location, e.getMessage());
+            return null;
+        }
+    }
+}
@@ -1,28 +1,32 @@
 package com.aleatory.websocketsrouting.provider;
 
-import java.io.IOException;
-import java.text.ParseException;
-import java.text.SimpleDateFormat;
 import java.time.Duration;
 import java.time.Instant;
 import java.time.LocalDate;
 import java.time.LocalTime;
-import java.time.ZoneId;
 import java.time.ZonedDateTime;
 import java.time.temporal.ChronoUnit;
 import java.util.ArrayList;
-import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+import java.util.function.Predicate;
 
-import org.jsoup.Jsoup;
-import org.jsoup.nodes.Document;
-import org.jsoup.nodes.Element;
-import org.jsoup.select.Elements;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.context.event.ApplicationReadyEvent;
 import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.context.event.EventListener;
@@ -33,12 +37,21 @@ import com.aleatory.common.util.TradingDays;
 import com.aleatory.websocketsrouting.dao.SPXHistoryDao;
 import com.aleatory.websocketsrouting.domain.ClosePrice;
 import com.aleatory.websocketsrouting.events.SPXCloseReceivedEvent;
+import com.aleatory.websocketsrouting.events.SPXClosesReconciledEvent;
 
 /**
  * This class checks to verify that we haven't missed any closes for SPX (which
- * ensures that we can do expirations). It does a check 1 minute after the SPX
- * close in order to expire the condor for the day (if any) and also checks all
- * the dates as far back as Yahoo Finance has historical data for SPX closes.
+ * ensures that we can do expirations) or for the other indexes in
+ * <code>closes.symbols</code> (NDX, RUT, XSP...). It does a check 1 minute after
+ * the close in order to expire the condor for the day (if any) and also checks
+ * all the dates as far back as Yahoo Finance has historical data.
+ * 
+ * Closes come from the {@link ClosePriceSource}s named in
+ * <code>closes.sources</code> (just Yahoo by default); a close is only used once
+ * <code>closes.quorum</code> of them agree on it. Every symbol is fetched from
+ * every source at once on the closeSourceExecutor, whose pool size
+ * (<code>closes.fetch.parallelism</code>) caps how many fetches are in flight;
+ * all the symbols share the one scheduled check at the close.
  * 
  * Note: this class is <b>not</b> the source of yesterday's close for change
  * calculations or for determining if there was a >1% move. That comes from IB
@@ -50,13 +63,6 @@ import com.aleatory.websocketsrouting.events.SPXCloseReceivedEvent;
 public class HistoricalSPXPriceProvider {
     private static final Logger logger = LoggerFactory.getLogger(HistoricalSPXPriceProvider.class);
     
-    private static final String URL_FOR_CLOSE = "https://finance.yahoo.com/quote/%5EGSPC/history/";
-                                                              
-    private static final String CSS_PATH_FOR_VALIDITY_CHECK = "#nimbus-app > main > section > section > section > section > div.container > div.table-container > table > tbody > tr";
-    private static final String CSS_PATH_FOR_HISTORY_ROWS = "#nimbus-app > main > section > section > section > section > div.container > div.table-container > table > tbody > tr";
-    private static final String CSS_PATH_FOR_DATE = "td:nth-child(1)";
-    private static final String CSS_PATH_FOR_PRICE = "td:nth-child(6)";
-
     @Autowired
     @Qualifier("messagingScheduler")
     private TaskScheduler scheduler;
@@ -67,23 +73,38 @@ public class HistoricalSPXPriceProvider {
     @Autowired
     private ApplicationEventPublisher applicationEventPublisher;
     
-    private SimpleDateFormat parser = new SimpleDateFormat("MMM d, yyyy");
-    
-    private static class BadDateStringException extends RuntimeException {
-        private static final long serialVersionUID = 1L;
+    @Autowired
+    @Qualifier("closeSourceExecutor")
+    private Executor closeSourceExecutor;
 
-        public BadDateStringException( String badDateString ) {
-            super(badDateString);
-        }
+    @Autowired
+    private List<ClosePriceSource> sources;
+
+    @Value("${closes.sources:yahoo}")
+    private List<String> sourceNames;
+
+    @Value("${closes.symbols:SPX}")
+    private List<String> symbols;
+
+    @Value("${closes.quorum:1}")
+    private int quorum;
+
+    @Value("${closes.source.timeout.seconds:90}")
+    private int sourceTimeoutSeconds;
+
+    @Value("${closes.reconcile.batched:false}")
+    private boolean batchedReconcile;
+
+    private record SymbolCloses(String symbol, List<ClosePrice> closePrices) {
     }
     
-    public ClosePrice fetchTodaysClose() {
-        ClosePrice closePrice = checkClosePriceAtClose();
+    public ClosePrice fetchTodaysClose(String symbol) {
+        ClosePrice closePrice = checkClosePricesAtClose(List.of(symbol)).get(symbol);
         return closePrice;
     }
 
     @EventListener(ApplicationReadyEvent.class)
-    private void scheduleYahooCloseFetch() {
+    private void scheduleCloseFetch() {
         scheduleCheckPriceAtClose();
         //Check previous closes 1 minute after startup, otherwise the portfolio server might not have started up yet
         //and will miss the close event and not correctly expire trades.
@@ -101,183 +122,214 @@ public class HistoricalSPXPriceProvider {
         // Make it 3:01 (or 12:01 for a half-day).
         nextClose = nextClose.plus(1, ChronoUnit.MINUTES);
         Instant closeInstant = nextClose.toInstant();
-        logger.info("Will get next close from web at {}", nextClose);
+        logger.info("Will get next closes for {} from web at {}", symbols, nextClose);
         scheduler.schedule(() -> {
-            checkClosePriceAtClose();
+            checkClosePricesAtClose(symbols);
             scheduleCheckPriceAtClose();
         }, closeInstant);
     }
 
     /**
-     * At 3:01 (or 12:01 on a short day), get the top (today's) row in the Yahoo
-     * Finance SPX historical quotes page.
+     * At 3:01 (or 12:01 on a short day), get the top (today's) close for each
+     * symbol from each close source (e.g. the top row in the Yahoo Finance
+     * historical quotes page). Each symbol's close is fired as soon as a quorum of
+     * sources agree on it, without waiting for the slower sources or symbols.
      * 
      * Closes from this code are considered non-final--they might change later in
      * the day and those changes will be caught by the checkAllPreviousCloses
      * routine the next time the service runs (presumably, not not necessarily, the
      * next morning).
+     * 
+     * @return the close fired for each symbol that got one
      */
-    ClosePrice checkClosePriceAtClose() {
-        logger.info("Checking close price.");
-        List<ClosePrice> closePrices = connectForClose(1);
-        if (closePrices != null && closePrices.size() > 0) {
-            logger.info("Firing new close event for date {}: price: {}.", closePrices.get(0).getCloseDate(), closePrices.get(0).getPrice());
-            SPXCloseReceivedEvent event = new SPXCloseReceivedEvent(this, closePrices.get(0).getPrice(), closePrices.get(0).getCloseDate(), false);
-            applicationEventPublisher.publishEvent(event);
-            return closePrices.get(0);
+    Map<String, ClosePrice> checkClosePricesAtClose(List<String> symbols) {
+        logger.info("Checking close prices for {}.", symbols);
+        Map<String, ClosePrice> closePrices = new LinkedHashMap<>();
+        connectForClose(symbols, 1, CloseQuorum::hasAgreement, (symbol, closeQuorum) -> {
+            ClosePrice closePrice = closeQuorum.latestAgreedClose();
+            logger.info("Firing new {} close event for date {}: price: {}.", symbol, closePrice.getCloseDate(), closePrice.getPrice());
+            applicationEventPublisher.publishEvent(new SPXCloseReceivedEvent(this, symbol, closePrice.getPrice(), closePrice.getCloseDate(), false, false));
+            closePrices.put(symbol, closePrice);
+        });
+        for (String symbol : symbols) {
+            if (!closePrices.containsKey(symbol)) {
+                logger.warn("Close sources did not agree on a {} close (quorum {}).", symbol, quorum);
+            }
         }
-        return null;
+        return closePrices;
     }
 
     /**
-     * Get all the historical closes from Yahoo for 100 days back and make sure
-     * they're the same as what we have in the database.
+     * Get all the historical closes for every symbol from the close sources for
+     * 100 days back (as far as Yahoo goes) and make sure they're the same as what
+     * we have in the database.
      * 
      * Closes we get from this routine are all at least from the day after and so
      * are considered final--they can't be changed any more.
      * 
      * This check ensures all our old (pre-today) closing prices have been set to
-     * the correct value (via Yahoo). We can miss one or two if the backend isn't
-     * running for a day or two.
+     * the correct value (via the close sources). We can miss one or two if the
+     * backend isn't running for a day or two.
+     * 
+     * With <code>closes.reconcile.batched</code> set, all the changes for a symbol
+     * go out as a single {@link SPXClosesReconciledEvent} (one upsert, one
+     * downstream message) instead of an event per corrected close.
      */
-    private void checkAllPreviousCloses() {
-        logger.info("Checking previous closes 100 days back.");
-        List<ClosePrice> closePrices = connectForClose(100);
+    void checkAllPreviousCloses() {
+        logger.info("Checking previous closes for {} 100 days back.", symbols);
+        // Wait for every source here; we want every date any quorum agrees on.
+        Map<String, CloseQuorum> closeQuorums = connectForClose(symbols, 100, closeQuorum -> false, (symbol, closeQuorum) -> {
+        });
+        closeQuorums.forEach((symbol, closeQuorum) -> reconcilePreviousCloses(symbol, closeQuorum.agreedCloses()));
+    }
+
+    private void reconcilePreviousCloses(String symbol, List<ClosePrice> closePrices) {
         // Error occurred
-        if (closePrices == null) {
+        if (closePrices.isEmpty()) {
+            logger.warn("Close sources did not agree on any previous {} closes (quorum {}).", symbol, quorum);
             return;
         }
-        Map<LocalDate, ClosePrice> dbClosePrices = dao.fetchAllSPXCloses();
-        for (int i = 0; i < closePrices.size(); i++) {
-            ClosePrice closePrice = closePrices.get(i);
+        List<ClosePrice> corrections = new ArrayList<>();
+        List<ClosePrice> finalizations = new ArrayList<>();
+        for (ClosePrice closePrice : closePrices) {
             //Is it today's? If so, only check it if the market is closed today.
             if (LocalDate.now().equals(closePrice.getCloseDate()) && TradingDays.indexClosingTime().isAfter(LocalTime.now())) {
                 continue;
             }
-            ClosePrice dbClosePrice = dbClosePrices.get(closePrice.getCloseDate());
+            ClosePrice dbClosePrice = dao.findClose(symbol, closePrice.getCloseDate());
             Double dbPrice = dbClosePrice != null ? dbClosePrice.getPrice() : null;
-            SPXCloseReceivedEvent event = new SPXCloseReceivedEvent(this, closePrices.get(i).getPrice(), closePrices.get(i).getCloseDate(), true);
+            ClosePrice finalClosePrice = new ClosePrice(closePrice.getCloseDate(), closePrice.getPrice());
+            finalClosePrice.setFinalPrice(true);
             if (dbPrice == null || !closePrice.getPrice().equals(dbPrice)) {
-                logger.info("Writing updated close for date {}: price: {}.", closePrices.get(i).getCloseDate(), closePrices.get(i).getPrice());
-                applicationEventPublisher.publishEvent(event);
+                logger.info("Writing updated {} close for date {}: price: {}.", symbol, closePrice.getCloseDate(), closePrice.getPrice());
+                corrections.add(finalClosePrice);
             } else if (!dbClosePrice.isFinalPrice()) {
-                logger.info("Possibly finalizing close for date {}: price: {}.", closePrices.get(i).getCloseDate(), closePrices.get(i).getPrice());
-                dao.storeSPXClose(event);
+                logger.info("Possibly finalizing {} close for date {}: price: {}.", symbol, closePrice.getCloseDate(), closePrice.getPrice());
+                finalizations.add(finalClosePrice);
             }
         }
+
+        if (batchedReconcile) {
+            if (!corrections.isEmpty() || !finalizations.isEmpty()) {
+                logger.info("Reconciled previous {} closes: {} corrected, {} to finalize.", symbol, corrections.size(), finalizations.size());
+                applicationEventPublisher.publishEvent(new SPXClosesReconciledEvent(this, symbol, corrections, finalizations));
+            }
+            return;
+        }
+        for (ClosePrice correction : corrections) {
+            applicationEventPublisher.publishEvent(new SPXCloseReceivedEvent(this, symbol, correction.getPrice(), correction.getCloseDate(), true, false));
+        }
+        for (ClosePrice finalization : finalizations) {
+            dao.storeSPXClose(new SPXCloseReceivedEvent(this, symbol, finalization.getPrice(), finalization.getCloseDate(), true, false));
+        }
     }
 
     /**
-     * This method screen-scrapes a page with the SPX closing price at one minute
-     * after the SPX closing time (3PM usually, 12PM on short days). We do this
-     * because our vendor (c,mon, it's IBK) doesn't send the adjusted close until
-     * long after the close, and there is the possibility that we will trade when we
-     * shouldn't (i.e., the last SPX tick was .999% up or down, then the close is
-     * 1.0% up or down). In V1 of this feature, we get the close from the Yahoo web
-     * page.
+     * This method gets the closes from the configured sources at one minute after
+     * the closing time (3PM usually, 12PM on short days). We do this because our
+     * vendor (c,mon, it's IBK) doesn't send the adjusted close until long after
+     * the close, and there is the possibility that we will trade when we shouldn't
+     * (i.e., the last SPX tick was .999% up or down, then the close is 1.0% up or
+     * down). In V1 of this feature, we got the close from the Yahoo web page only;
+     * now every source in <code>closes.sources</code> is asked for every symbol at
+     * once and their answers tallied per symbol as they come in.
      * 
-     * @param scheduleNextCheck if true, schedule a recheck tonight and tomorrow
-     *                          check
+     * @param symbols  the symbols to fetch
+     * @param numDays  the number of days (most recent first) to ask each source for
+     * @param enough   checked after each source answers for a symbol; once it's
+     *                 true we stop waiting for that symbol's other sources
+     * @param onEnough called (on this thread) as soon as a symbol has enough
+     * @return the tally of closes per symbol from the sources that answered
      */
-    private List<ClosePrice> connectForClose(int numDays) {
-        Document doc = doConnect();
-        
-        if( doc == null ) {
-            return null;
-        }
-
-        List<ClosePrice> closePrices = new ArrayList<>();
-
-        // elements will hold a value for each row; we want the 1st and 6th cells in the
-        // row, holding the date and price
-        Elements elements = doc.select(CSS_PATH_FOR_HISTORY_ROWS);
-
-        for (int i = 0; i < numDays && i < elements.size(); i++) {
-            Element element = elements.get(i);
-            ClosePrice closePrice;
-            try {
-                closePrice = getClosePriceFromHTML(element);
-            } catch (BadDateStringException e) {
-                logger.warn("Could not parse Yahoo closing date string {}", e.getMessage());
-                continue;
-            } catch (RuntimeException e) {
-                continue;
+    private Map<String, CloseQuorum> connectForClose(List<String> symbols, int numDays, Predicate<CloseQuorum> enough, BiConsumer<String, CloseQuorum> onEnough) {
+        List<ClosePriceSource> sources = configuredSources();
+        Map<String, CloseQuorum> closeQuorums = new LinkedHashMap<>();
+        Map<String, List<Future<SymbolCloses>>> futures = new HashMap<>();
+        CompletionService<SymbolCloses> completionService = new ExecutorCompletionService<>(closeSourceExecutor);
+        int submitted = 0;
+        for (String symbol : symbols) {
+            closeQuorums.put(symbol, new CloseQuorum(quorum));
+            List<Future<SymbolCloses>> symbolFutures = new ArrayList<>();
+            for (ClosePriceSource source : sources) {
+                symbolFutures.add(completionService.submit(() -> new SymbolCloses(symbol, fetchFromSource(source, symbol, numDays))));
+                submitted++;
             }
-            closePrices.add(closePrice);
+            futures.put(symbol, symbolFutures);
         }
 
-        return closePrices;
-
-    }
-    
-    private Document doConnect() {
-        Document doc = null;
-
-        Elements elements = null;
-        // Try to connect 5 times before quitting in disgrace and disgust
-        for (int i = 0; (elements == null || elements.size() == 0) && i < 5; i++) {
-            try {
-                doc = Jsoup.connect(URL_FOR_CLOSE)
-                        .header("User-Agent", "Mozilla/5.0")
-                        .header("Accept", "text/html,application/xhtml+xml,application/xml;q=0.9,image/avif,image/webp,image/apng,*/*;q=0.8,application/signed-exchange;v=b3;q=0.7")
-                        .get();
-            } catch (IOException e) {
-                logger.info("Error connecting to SPX history page; {} retry.\nError was: {}", (i + 1 < 5) ? "will" : "will not", e.getMessage());
-                wait5Seconds();
-                continue;
-            }
-            elements = doc.select(CSS_PATH_FOR_VALIDITY_CHECK);
-            if (elements.size() == 0) {
-                logger.info("Error parsing SPX history page; {} retry.", (i + 1 < 5) ? "will" : "will not");
-                wait5Seconds();
+        Set<String> waiting = new HashSet<>(symbols);
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(sourceTimeoutSeconds);
+        try {
+            for (int i = 0; i < submitted && !waiting.isEmpty(); i++) {
+                Future<SymbolCloses> done = completionService.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+                if (done == null) {
+                    logger.warn("Timed out after {} seconds waiting for close sources for {}.", sourceTimeoutSeconds, waiting);
+                    break;
+                }
+                // Cancelled stragglers for a symbol we're done with come through here too
+                if (done.isCancelled()) {
+                    continue;
+                }
+                SymbolCloses symbolCloses = done.get();
+                String symbol = symbolCloses.symbol();
+                if (!waiting.contains(symbol)) {
+                    continue;
+                }
+                CloseQuorum closeQuorum = closeQuorums.get(symbol);
+                if (symbolCloses.closePrices() != null) {
+                    closeQuorum.addVotes(symbolCloses.closePrices());
+                }
+                if (enough.test(closeQuorum)) {
+                    waiting.remove(symbol);
+                    cancel(futures.get(symbol));
+                    onEnough.accept(symbol, closeQuorum);
+                }
             }
+        } catch (InterruptedException e) {
+            logger.warn("Interrupted while waiting for close sources.");
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            // fetchFromSource catches everything, so this can't really happen
+            logger.error("Close source failed.", e.getCause());
+        } finally {
+            // Don't leave stragglers retrying once we have what we need
+            futures.values().forEach(this::cancel);
         }
+        return closeQuorums;
+    }
 
-        if (doc == null || elements == null || elements.size() == 0) {
-            logger.info("Unable to read/parse SPX history page in 5 tries; giving it up.");
-            return null;
+    private void cancel(List<Future<SymbolCloses>> futures) {
+        for (Future<SymbolCloses> future : futures) {
+            future.cancel(true);
         }
-        
-        return doc;
-
     }
 
-    private synchronized void wait5Seconds() {
+    private List<ClosePrice> fetchFromSource(ClosePriceSource source, String symbol, int numDays) {
         try {
-            this.wait(5000);
-        } catch (InterruptedException e) {
-            logger.warn("Five second wait interrupted.");
+            List<ClosePrice> closePrices = source.fetchCloses(symbol, numDays);
+            if (closePrices == null) {
+                logger.info("No {} closes from source {}.", symbol, source.getName());
+            } else {
+                logger.debug("Got {} {} closes from source {}.", closePrices.size(), symbol, source.getName());
+            }
+            return closePrices;
+        } catch (RuntimeException e) {
+            logger.warn("Error getting {} closes from source {}.", symbol, source.getName(), e);
+            return null;
         }
     }
-    
-    private ClosePrice getClosePriceFromHTML(Element element) {
-        Element dateElement = null;
-        Element priceElement = null;
-        LocalDate closeDateLocal;
-        try {
-            dateElement = element.select(CSS_PATH_FOR_DATE).get(0);
-            priceElement = element.select(CSS_PATH_FOR_PRICE).get(0);
-        } catch (Exception e) {
-            logger.warn("Exception while reading table row, row {} was:\n{}", element);
-            throw new RuntimeException(e);
+
+    private List<ClosePriceSource> configuredSources() {
+        List<ClosePriceSource> configured = new ArrayList<>();
+        for (ClosePriceSource source : sources) {
+            if (sourceNames.contains(source.getName())) {
+                configured.add(source);
+            }
         }
-        String dateStr = dateElement.text();
-        Date closeDate;
-        
-        try {
-            closeDate = parser.parse(dateStr);
-        } catch (ParseException e) {
-            throw new BadDateStringException(dateStr);
+        if (configured.size() < quorum) {
+            logger.warn("Only {} close sources configured ({}) but quorum is {}; no close will ever be agreed.", configured.size(), sourceNames, quorum);
         }
-
-
-        closeDateLocal = LocalDate.ofInstant(closeDate.toInstant(), ZoneId.systemDefault());
-        logger.debug("Yahoo close date is {}, converted to local: {}", dateElement.text(), closeDateLocal);
-        String priceStr = priceElement.text();
-        priceStr = priceStr.replaceAll(",", "");
-        logger.debug("Yahoo close is {}", priceStr);
-        Double price = Double.parseDouble(priceStr);
-        return new ClosePrice(closeDateLocal, price);
+        return configured;
     }
 
 }
@@ -0,0 +1,176 @@
+package com.aleatory.websocketsrouting.provider;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZonedDateTime;
+import java.time.temporal.ChronoUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.TaskScheduler;
+import org.springframework.stereotype.Component;
+
+import com.aleatory.common.util.TradingDays;
+import com.aleatory.websocketsrouting.domain.ClosePrice;
+import com.aleatory.websocketsrouting.events.SPXCloseReceivedEvent;
+import com.aleatory.websocketsrouting.events.SendMessageToFrontendEvent;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.json.JsonMapper;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+
+/**
+ * Fires a provisional SPX close right at the bell, taken from the last SPX
+ * tick we routed on /topic/prices.spx, so the portfolio server can start
+ * expirations without waiting for {@link HistoricalSPXPriceProvider} to scrape
+ * the close a minute later.
+ *
+ * Off unless <code>closes.provisional.enabled</code> is set. The provisional
+ * close is non-final and goes out to the backends on its own topic,
+ * /topic/prices.spx.close.provisional; the scraped close follows as usual and overwrites it (in the database and
+ * downstream). When it does, we log how far off the provisional close was.
+ */
+@Component
+@ConditionalOnProperty(value = "closes.provisional.enabled", havingValue = "true", matchIfMissing = false)
+public class ProvisionalSPXCloseProvider {
+    private static final Logger logger = LoggerFactory.getLogger(ProvisionalSPXCloseProvider.class);
+
+    private static final String SPX_PRICE_TOPIC = "/topic/prices.spx";
+
+    @Autowired
+    @Qualifier("messagingScheduler")
+    private TaskScheduler scheduler;
+
+    @Autowired
+    private ApplicationEventPublisher applicationEventPublisher;
+
+    /**
+     * JSON pointer to the price in a /topic/prices.spx message.
+     */
+    @Value("${closes.provisional.price.pointer:/price}")
+    private String pricePointer;
+
+    /**
+     * Only ticks this close to the bell count; an older tick means the feed is
+     * stale and we'd rather wait for the scrape.
+     */
+    @Value("${closes.provisional.window.seconds:60}")
+    private long windowSeconds;
+
+    /**
+     * How long after the bell we wait for the closing print to come through.
+     */
+    @Value("${closes.provisional.grace.millis:500}")
+    private long graceMillis;
+
+    private final ObjectMapper mapper = JsonMapper.builder().addModule(new JavaTimeModule()).build();
+
+    private record Tick(double price, Instant at) {
+    }
+
+    private volatile Instant windowStart = Instant.MAX;
+    private volatile Instant windowEnd = Instant.MIN;
+    private volatile Tick lastTick;
+    private volatile ClosePrice provisionalClose;
+
+    @EventListener(ApplicationReadyEvent.class)
+    private void scheduleProvisionalClose() {
+        ZonedDateTime nextClose = TradingDays.todaySPXCloseTime();
+        if (ZonedDateTime.now().isAfter(nextClose)) {
+            nextClose = TradingDays.nextSPXCloseTime();
+        }
+        ZonedDateTime closeTime = nextClose;
+        openWindow(closeTime);
+        logger.info("Will take provisional close from SPX ticks at {}", closeTime);
+        scheduler.schedule(() -> {
+            publishProvisionalClose(closeTime);
+            scheduleProvisionalClose();
+        }, closeTime.toInstant().plusMillis(graceMillis));
+    }
+
+    void openWindow(ZonedDateTime closeTime) {
+        lastTick = null;
+        windowStart = closeTime.toInstant().minus(Duration.of(windowSeconds, ChronoUnit.SECONDS));
+        windowEnd = closeTime.toInstant().plusMillis(graceMillis);
+    }
+
+    @EventListener
+    private void captureSPXTick(SendMessageToFrontendEvent event) {
+        if (!SPX_PRICE_TOPIC.equals(event.getDestination())) {
+            return;
+        }
+        recordTick(event.getPayload(), Instant.now());
+    }
+
+    /**
+     * Keeps the tick if it's inside the window around the bell; ticks the rest of
+     * the day cost only the time comparison.
+     */
+    void recordTick(Object payload, Instant at) {
+        if (at.isBefore(windowStart) || at.isAfter(windowEnd)) {
+            return;
+        }
+        Double price = priceFrom(payload);
+        if (price != null) {
+            lastTick = new Tick(price, at);
+        }
+    }
+
+    private Double priceFrom(Object payload) {
+        JsonNode message;
+        try {
+            message = payload instanceof String json ? mapper.readTree(json) : mapper.valueToTree(payload);
+        } catch (JsonProcessingException | IllegalArgumentException e) {
+            logger.warn("Could not read SPX tick {}: {}", payload, e.getMessage());
+            return null;
+        }
+        JsonNode price = message.at(pricePointer);
+        if (!price.isNumber() && !price.isTextual()) {
+            logger.warn("No price at {} in SPX tick {}", pricePointer, payload);
+            return null;
+        }
+        double value = price.asDouble();
+        return value > 0 ? value : null;
+    }
+
+    /**
+     * Fires the provisional close for the close at closeTime from the last tick
+     * we kept, if any.
+     */
+    ClosePrice publishProvisionalClose(ZonedDateTime closeTime) {
+        Tick tick = lastTick;
+        if (tick == null) {
+            logger.warn("No SPX tick in the {} seconds before the close at {}; no provisional close.", windowSeconds, closeTime);
+            return null;
+        }
+        ClosePrice closePrice = new ClosePrice(closeTime.toLocalDate(), tick.price());
+        provisionalClose = closePrice;
+        logger.info("Firing provisional close event for date {}: price: {} (tick at {}).", closePrice.getCloseDate(), closePrice.getPrice(), tick.at());
+        applicationEventPublisher.publishEvent(new SPXCloseReceivedEvent(this, closePrice.getPrice(), closePrice.getCloseDate(), false, true));
+        return closePrice;
+    }
+
+    @EventListener
+    private void reconcileProvisionalClose(SPXCloseReceivedEvent event) {
+        ClosePrice provisional = provisionalClose;
+        if (event.isProvisional() || provisional == null || !SPXCloseReceivedEvent.SPX.equals(event.getSymbol())
+                || !provisional.getCloseDate().equals(event.getForDate())) {
+            return;
+        }
+        provisionalClose = null;
+        if (Math.round(provisional.getPrice() * 100) == Math.round(event.getPrice() * 100)) {
+            logger.info("Provisional close {} for {} confirmed.", provisional.getPrice(), provisional.getCloseDate());
+        } else {
+            logger.warn("Provisional close {} for {} was off by {}; corrected to {}.", provisional.getPrice(), provisional.getCloseDate(),
+                    String.format("%.2f", event.getPrice() - provisional.getPrice()), event.getPrice());
+        }
+    }
+}
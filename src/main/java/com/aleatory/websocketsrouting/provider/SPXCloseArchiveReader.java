@@ -0,0 +1,107 @@
+package com.aleatory.websocketsrouting.provider;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.List;
+import java.util.Locale;
+import java.util.Objects;
+
+import org.jsoup.parser.Parser;
+import org.jsoup.parser.StreamParser;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.aleatory.websocketsrouting.domain.ClosePrice;
+
+/**
+ * Reads SPX closes out of archive files: CSV downloads (Yahoo's
+ * Date,Open,High,Low,Close,Adj Close,Volume layout, or anything with a date
+ * column and a close column) and saved copies of the Yahoo history page.
+ * Closes from archives are history, so they're all final.
+ */
+class SPXCloseArchiveReader {
+    private static final Logger logger = LoggerFactory.getLogger(SPXCloseArchiveReader.class);
+
+    private static final DateTimeFormatter US_DATE_FORMAT = DateTimeFormatter.ofPattern("M/d/yyyy", Locale.US);
+
+    private final YahooHistoryPageParser pageParser = new YahooHistoryPageParser();
+
+    static boolean isArchive(Path path) {
+        String name = path.getFileName().toString().toLowerCase(Locale.ROOT);
+        return name.endsWith(".csv") || name.endsWith(".html") || name.endsWith(".htm");
+    }
+
+    List<ClosePrice> read(Path path) throws IOException {
+        String name = path.getFileName().toString().toLowerCase(Locale.ROOT);
+        List<ClosePrice> closePrices = name.endsWith(".csv") ? readCSV(path) : readHTML(path);
+        closePrices.forEach(closePrice -> closePrice.setFinalPrice(true));
+        logger.debug("Read {} closes from {}", closePrices.size(), path);
+        return closePrices;
+    }
+
+    private List<ClosePrice> readHTML(Path path) throws IOException {
+        BufferedReader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8);
+        return pageParser.parse(new StreamParser(Parser.htmlParser()).parse(reader, ""), Integer.MAX_VALUE);
+    }
+
+    /**
+     * Lines are parsed in parallel; a file covering decades is tens of thousands
+     * of them.
+     */
+    List<ClosePrice> readCSV(Path path) throws IOException {
+        List<String> lines = Files.readAllLines(path, StandardCharsets.UTF_8);
+        if (lines.isEmpty()) {
+            return List.of();
+        }
+        String[] header = lines.get(0).split(",");
+        int dateColumn = -1, closeColumn = -1, plainCloseColumn = -1;
+        for (int i = 0; i < header.length; i++) {
+            String column = header[i].trim().replace("\"", "").toLowerCase(Locale.ROOT);
+            if (column.equals("date") || column.equals("trade_date")) {
+                dateColumn = i;
+            } else if (column.equals("adj close") || column.equals("adj_close")) {
+                closeColumn = i;
+            } else if (column.equals("close")) {
+                plainCloseColumn = i;
+            }
+        }
+        int firstRow = 1;
+        if (dateColumn < 0) {
+            // No header; assume date,close
+            dateColumn = 0;
+            closeColumn = 1;
+            firstRow = 0;
+        } else if (closeColumn < 0) {
+            closeColumn = plainCloseColumn;
+        }
+        if (closeColumn < 0) {
+            throw new IOException("No close column in " + path);
+        }
+        int dateIndex = dateColumn, closeIndex = closeColumn;
+        return lines.subList(firstRow, lines.size()).parallelStream().map(line -> parseLine(line, dateIndex, closeIndex)).filter(Objects::nonNull).toList();
+    }
+
+    private ClosePrice parseLine(String line, int dateColumn, int closeColumn) {
+        String[] fields = line.split(",");
+        if (fields.length <= Math.max(dateColumn, closeColumn)) {
+            return null;
+        }
+        String dateStr = fields[dateColumn].trim().replace("\"", "");
+        String closeStr = fields[closeColumn].trim().replace("\"", "");
+        try {
+            LocalDate date = dateStr.contains("/") ? LocalDate.parse(dateStr, US_DATE_FORMAT) : LocalDate.parse(dateStr);
+            double close = Double.parseDouble(closeStr);
+            return close > 0 ? new ClosePrice(date, close) : null;
+        } catch (DateTimeParseException | NumberFormatException e) {
+            // Yahoo puts "null" in for days it has no data
+            logger.debug("Skipping archive line {}", line);
+            return null;
+        }
+    }
+}
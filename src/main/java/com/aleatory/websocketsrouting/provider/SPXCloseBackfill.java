@@ -0,0 +1,115 @@
+package com.aleatory.websocketsrouting.provider;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.stream.Stream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import com.aleatory.websocketsrouting.dao.SPXHistoryDao;
+import com.aleatory.websocketsrouting.domain.BackfillResult;
+import com.aleatory.websocketsrouting.domain.ClosePrice;
+
+/**
+ * Loads historical closes for a symbol from local archives (CSV downloads or
+ * saved Yahoo history pages) into its history table, for the years before we
+ * started scraping. Files are parsed in parallel, deduplicated against each other and
+ * against what we already have, and the new dates are loaded with one COPY.
+ * Existing rows are never changed.
+ */
+@Component
+public class SPXCloseBackfill {
+    private static final Logger logger = LoggerFactory.getLogger(SPXCloseBackfill.class);
+
+    @Autowired
+    private SPXHistoryDao dao;
+
+    // Archives are only ever read from under here
+    @Value("${closes.backfill.root:${user.home}/condors/archives}")
+    private Path root;
+
+    private final SPXCloseArchiveReader archiveReader = new SPXCloseArchiveReader();
+
+    /**
+     * @return the location resolved against <code>closes.backfill.root</code>,
+     *         or null if it's not under there (an absolute path elsewhere, ../,
+     *         a symbolic link out)
+     */
+    public Path resolve(String location) throws IOException {
+        Path base = root.toAbsolutePath().normalize();
+        Path path = base.resolve(location).normalize();
+        if (!path.startsWith(base)) {
+            return null;
+        }
+        if (Files.exists(path) && Files.exists(base) && !path.toRealPath().startsWith(base.toRealPath())) {
+            return null;
+        }
+        return path;
+    }
+
+    /**
+     * @param symbol   the symbol the archives are for, e.g. SPX
+     * @param location an archive file, or a directory whose archive files (at
+     *                 any depth) should all be loaded
+     */
+    public BackfillResult backfill(String symbol, Path location) throws IOException {
+        long start = System.nanoTime();
+        List<Path> files;
+        try (Stream<Path> paths = Files.walk(location)) {
+            files = paths.filter(Files::isRegularFile).filter(SPXCloseArchiveReader::isArchive).sorted().toList();
+        }
+        logger.info("Backfilling {} closes from {} archive files under {}.", symbol, files.size(), location);
+
+        List<List<ClosePrice>> parsed = files.parallelStream().map(this::readArchive).toList();
+
+        // Later files (in path order) win if two archives disagree about a date
+        Map<LocalDate, ClosePrice> merged = new TreeMap<>();
+        int rowsParsed = 0, failedFiles = 0;
+        for (int i = 0; i < files.size(); i++) {
+            List<ClosePrice> closePrices = parsed.get(i);
+            if (closePrices == null) {
+                failedFiles++;
+                continue;
+            }
+            rowsParsed += closePrices.size();
+            for (ClosePrice closePrice : closePrices) {
+                ClosePrice previous = merged.put(closePrice.getCloseDate(), closePrice);
+                if (previous != null && Math.round(previous.getPrice() * 100) != Math.round(closePrice.getPrice() * 100)) {
+                    logger.warn("Archives disagree on close for {}: {} vs {}; using {} from {}.", closePrice.getCloseDate(), previous.getPrice(), closePrice.getPrice(),
+                            closePrice.getPrice(), files.get(i));
+                }
+            }
+        }
+
+        List<ClosePrice> newClosePrices = new ArrayList<>();
+        for (ClosePrice closePrice : merged.values()) {
+            if (dao.findClose(symbol, closePrice.getCloseDate()) == null) {
+                newClosePrices.add(closePrice);
+            }
+        }
+        int inserted = newClosePrices.isEmpty() ? 0 : dao.copyCloses(symbol, newClosePrices);
+
+        BackfillResult result = new BackfillResult(files.size(), failedFiles, rowsParsed, newClosePrices.size(), inserted, (System.nanoTime() - start) / 1_000_000);
+        logger.info("{} backfill done: {}", symbol, result);
+        return result;
+    }
+
+    private List<ClosePrice> readArchive(Path file) {
+        try {
+            return archiveReader.read(file);
+        } catch (IOException | RuntimeException e) {
+            logger.warn("Could not read archive {}: {}", file, e.getMessage());
+            return null;
+        }
+    }
+}
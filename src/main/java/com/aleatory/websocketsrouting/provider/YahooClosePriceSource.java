@@ -0,0 +1,95 @@
+package com.aleatory.websocketsrouting.provider;
+
+import java.io.IOException;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+
+import org.jsoup.Jsoup;
+import org.jsoup.parser.StreamParser;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.env.Environment;
+import org.springframework.stereotype.Component;
+
+import com.aleatory.websocketsrouting.domain.ClosePrice;
+
+/**
+ * Screen-scrapes the Yahoo Finance history page for a symbol. Yahoo's tickers
+ * for the indexes we know about are built in; any other symbol needs
+ * <code>closes.yahoo.ticker.&lt;SYMBOL&gt;</code> set.
+ */
+@Component
+public class YahooClosePriceSource implements ClosePriceSource {
+    private static final Logger logger = LoggerFactory.getLogger(YahooClosePriceSource.class);
+
+    private static final String URL_FOR_CLOSE = "https://finance.yahoo.com/quote/%s/history/";
+
+    private static final Map<String, String> TICKERS = Map.of("SPX", "^GSPC", "NDX", "^NDX", "RUT", "^RUT", "XSP", "^XSP");
+
+    @Autowired
+    private Environment environment;
+
+    private final YahooHistoryPageParser pageParser = new YahooHistoryPageParser();
+
+    @Override
+    public String getName() {
+        return "yahoo";
+    }
+
+    @Override
+    public List<ClosePrice> fetchCloses(String symbol, int numDays) {
+        String ticker = tickerFor(symbol);
+        if (ticker == null) {
+            logger.warn("No Yahoo ticker for {}; set closes.yahoo.ticker.{}.", symbol, symbol);
+            return null;
+        }
+        // Try to connect 5 times before quitting in disgrace and disgust
+        for (int i = 0; i < 5 && !Thread.currentThread().isInterrupted(); i++) {
+            List<ClosePrice> closePrices;
+            try {
+                closePrices = pageParser.parse(openHistoryPage(ticker), numDays);
+            } catch (IOException e) {
+                logger.info("Error connecting to {} history page; {} retry.\nError was: {}", symbol, (i + 1 < 5) ? "will" : "will not", e.getMessage());
+                wait5Seconds();
+                continue;
+            }
+            if (!closePrices.isEmpty()) {
+                return closePrices;
+            }
+            logger.info("Error parsing {} history page; {} retry.", symbol, (i + 1 < 5) ? "will" : "will not");
+            wait5Seconds();
+        }
+
+        logger.info("Unable to read/parse {} history page in 5 tries; giving it up.", symbol);
+        return null;
+    }
+
+    /**
+     * Opens the history page for streaming; nothing past the rows we ask the
+     * parser for is read off the connection.
+     */
+    StreamParser openHistoryPage(String ticker) throws IOException {
+        return Jsoup.connect(String.format(URL_FOR_CLOSE, URLEncoder.encode(ticker, StandardCharsets.UTF_8)))
+                .header("User-Agent", "Mozilla/5.0")
+                .header("Accept", "text/html,application/xhtml+xml,application/xml;q=0.9,image/avif,image/webp,image/apng,*/*;q=0.8,application/signed-exchange;v=b3;q=0.7")
+                .execute()
+                .streamParser();
+    }
+
+    String tickerFor(String symbol) {
+        String configured = environment != null ? environment.getProperty("closes.yahoo.ticker." + symbol) : null;
+        return configured != null ? configured : TICKERS.get(symbol);
+    }
+
+    synchronized void wait5Seconds() {
+        try {
+            this.wait(5000);
+        } catch (InterruptedException e) {
+            logger.warn("Five second wait interrupted.");
+            Thread.currentThread().interrupt();
+        }
+    }
+}
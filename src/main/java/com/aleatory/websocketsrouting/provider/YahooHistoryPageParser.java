@@ -0,0 +1,100 @@
+package com.aleatory.websocketsrouting.provider;
+
+import java.io.IOException;
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+import org.jsoup.nodes.Element;
+import org.jsoup.parser.StreamParser;
+import org.jsoup.select.Evaluator;
+import org.jsoup.select.QueryParser;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.aleatory.websocketsrouting.domain.ClosePrice;
+
+/**
+ * Pulls closing prices out of a Yahoo Finance history page. Rather than
+ * building the whole DOM and then selecting the history rows, the page is
+ * tokenized as it comes in and each row is handed back as soon as its closing
+ * tag is seen; once we have the number of rows we asked for, we stop reading.
+ * The check at the close only wants the top row, so it never reads the rest of
+ * the (large) page.
+ *
+ * This class holds no mutable state and can be shared by the scheduled checks
+ * and the /todays-close endpoint.
+ */
+class YahooHistoryPageParser {
+    private static final Logger logger = LoggerFactory.getLogger(YahooHistoryPageParser.class);
+
+    static final String CSS_PATH_FOR_HISTORY_ROWS = "#nimbus-app > main > section > section > section > section > div.container > div.table-container > table > tbody > tr";
+    private static final String CSS_PATH_FOR_DATE = "td:nth-child(1)";
+    private static final String CSS_PATH_FOR_PRICE = "td:nth-child(6)";
+
+    private static final DateTimeFormatter DATE_FORMAT = DateTimeFormatter.ofPattern("MMM d, yyyy", Locale.US);
+
+    static class BadDateStringException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        public BadDateStringException(String badDateString) {
+            super(badDateString);
+        }
+    }
+
+    /**
+     * Reads at most numDays history rows from the page and closes the parser.
+     * Rows that can't be read (bad date, missing cells) count against numDays
+     * but are left out of the result, as before.
+     *
+     * @param streamParser a stream parser over the history page
+     * @param numDays      the number of rows (most recent first) to read
+     * @return the closes found; empty if the page has no history table we
+     *         recognize
+     */
+    List<ClosePrice> parse(StreamParser streamParser, int numDays) throws IOException {
+        List<ClosePrice> closePrices = new ArrayList<>();
+        Evaluator rowQuery = QueryParser.parse(CSS_PATH_FOR_HISTORY_ROWS);
+        try (streamParser) {
+            for (int i = 0; i < numDays; i++) {
+                Element row = streamParser.selectNext(rowQuery);
+                if (row == null) {
+                    break;
+                }
+                try {
+                    closePrices.add(getClosePriceFromRow(row));
+                } catch (BadDateStringException e) {
+                    logger.warn("Could not parse Yahoo closing date string {}", e.getMessage());
+                } catch (RuntimeException e) {
+                    logger.debug("Skipping unreadable history row {}", row);
+                }
+                // We're done with the row; don't let the partial document keep growing.
+                row.remove();
+            }
+        }
+        return closePrices;
+    }
+
+    ClosePrice getClosePriceFromRow(Element row) {
+        Element dateElement = row.selectFirst(CSS_PATH_FOR_DATE);
+        Element priceElement = row.selectFirst(CSS_PATH_FOR_PRICE);
+        if (dateElement == null || priceElement == null) {
+            throw new IllegalArgumentException("History row is missing the date or price cell.");
+        }
+        String dateStr = dateElement.text();
+        LocalDate closeDate;
+        try {
+            closeDate = LocalDate.parse(dateStr, DATE_FORMAT);
+        } catch (DateTimeParseException e) {
+            throw new BadDateStringException(dateStr);
+        }
+        logger.debug("Yahoo close date is {}", closeDate);
+        String priceStr = priceElement.text().replace(",", "");
+        logger.debug("Yahoo close is {}", priceStr);
+        Double price = Double.parseDouble(priceStr);
+        return new ClosePrice(closeDate, price);
+    }
+}
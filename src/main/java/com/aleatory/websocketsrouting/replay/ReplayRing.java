@@ -0,0 +1,91 @@
+package com.aleatory.websocketsrouting.replay;
+
+import java.util.Arrays;
+import java.util.function.ObjLongConsumer;
+
+/**
+ * The last few messages sent to one destination, by sequence number. Numbers
+ * start at 1 and go up by one per message, so a message lives in slot
+ * <code>seq & mask</code>; the number is kept in a long[] next to it, so no
+ * boxing and no nodes, just two arrays allocated once. Not thread safe; the
+ * caller locks.
+ */
+public class ReplayRing {
+    private final long[] seqs;
+    private final Object[] payloads;
+    private final int mask;
+    private long lastSeq;
+    private long clearedThrough;
+
+    /**
+     * @param capacity how many messages to keep, rounded up to a power of two
+     */
+    public ReplayRing(int capacity) {
+        int size = capacity <= 1 ? 1 : Integer.highestOneBit(capacity - 1) << 1;
+        seqs = new long[size];
+        payloads = new Object[size];
+        mask = size - 1;
+    }
+
+    /**
+     * @return the message's sequence number
+     */
+    public long append(Object payload) {
+        long seq = ++lastSeq;
+        int slot = (int) seq & mask;
+        seqs[slot] = seq;
+        payloads[slot] = payload;
+        return seq;
+    }
+
+    /**
+     * @return the last sequence number handed out, 0 if none yet
+     */
+    public long getLastSeq() {
+        return lastSeq;
+    }
+
+    /**
+     * @return the oldest sequence number still here
+     */
+    public long getFirstSeq() {
+        return Math.max(clearedThrough + 1, lastSeq - seqs.length + 1);
+    }
+
+    /**
+     * @return the message, or null if it's been overwritten (or not sent yet)
+     */
+    public Object get(long seq) {
+        int slot = (int) seq & mask;
+        return seq > clearedThrough && seqs[slot] == seq ? payloads[slot] : null;
+    }
+
+    /**
+     * Hands over every message after <code>seq</code>, oldest first.
+     *
+     * @return false, having handed over nothing, if some of them are gone (or
+     *         <code>seq</code> is one we never handed out), so the caller needs a
+     *         snapshot instead
+     */
+    public boolean since(long seq, ObjLongConsumer<Object> consumer) {
+        if (seq < 0 || seq > lastSeq || seq + 1 < getFirstSeq()) {
+            return false;
+        }
+        for (long next = seq + 1; next <= lastSeq; next++) {
+            consumer.accept(payloads[(int) next & mask], next);
+        }
+        return true;
+    }
+
+    /**
+     * Drops the messages kept so far; numbering carries on where it was.
+     */
+    public void clear() {
+        Arrays.fill(payloads, null);
+        clearedThrough = lastSeq;
+    }
+
+    public int getCapacity() {
+        return seqs.length;
+    }
+}
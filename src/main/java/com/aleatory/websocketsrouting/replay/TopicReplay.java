@@ -0,0 +1,313 @@
+package com.aleatory.websocketsrouting.replay;
+
+import java.time.Instant;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.lang.Nullable;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.MessageHandler;
+import org.springframework.messaging.MessageHeaders;
+import org.springframework.messaging.converter.MessageConverter;
+import org.springframework.messaging.core.MessageSendingOperations;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessageType;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.scheduling.TaskScheduler;
+import org.springframework.stereotype.Component;
+import org.springframework.web.socket.WebSocketHandler;
+
+import com.aleatory.websocketsrouting.broker.SessionWriter;
+import com.aleatory.websocketsrouting.broker.ShardedBroker;
+import com.aleatory.websocketsrouting.offheap.OffHeapStore;
+import com.aleatory.websocketsrouting.snapshot.LastValueSnapshot;
+
+import jakarta.annotation.PostConstruct;
+
+/**
+ * Numbers what we send to each destination and keeps the last
+ * <code>replay.ring.size</code> of them, so a browser that drops off for a
+ * moment gets back what it missed rather than just the latest value.
+ *
+ * Every message goes out with a <code>seq</code> header (1, 2, 3... per
+ * destination) and a <code>seq-epoch</code> header. Sequences start over when
+ * we restart, and each router in a cluster counts on its own, so the epoch
+ * tells a client whether its numbers still mean anything here. A client
+ * resubscribing with <code>last-seq</code> (and <code>seq-epoch</code>) gets
+ * just the messages after it. If they're no longer in the ring, or the epoch
+ * doesn't match, it gets the latest value instead. Replays and snapshots go to
+ * the one subscription, not the whole destination. A client should drop
+ * anything at or below the last <code>seq</code> it has applied.
+ *
+ * With an {@link OffHeapStore}, the rings hold the bodies as the broker sent
+ * them, off the heap; a destination evicted from there starts its ring over.
+ *
+ * Like the last values, what the rings hold expires at 00:05 on the next
+ * trading day, so no one gets yesterday's value as the latest. The numbering
+ * carries on.
+ */
+@Component
+public class TopicReplay {
+    private static final Logger logger = LoggerFactory.getLogger(TopicReplay.class);
+    public static final String SEQ_HEADER = "seq";
+    public static final String SEQ_EPOCH_HEADER = "seq-epoch";
+    public static final String LAST_SEQ_HEADER = "last-seq";
+
+    @Autowired
+    private MessageSendingOperations<String> messagingTemplate;
+
+    @Autowired
+    @Qualifier("clientOutboundChannel")
+    private MessageChannel clientOutboundChannel;
+
+    // So replays go through the destination's shard, in order with what's live
+    @Autowired(required = false)
+    private ShardedBroker shardedBroker;
+
+    // Without shards, replays are written to the session as they're sent, so
+    // nothing published after them can overtake them on the outbound pool
+    @Autowired(required = false)
+    @Qualifier("subProtocolWebSocketHandler")
+    private WebSocketHandler webSocketHandler;
+
+    @Autowired(required = false)
+    private OffHeapStore offHeapStore;
+
+    @Autowired
+    @Qualifier("brokerMessageConverter")
+    private MessageConverter messageConverter;
+
+    @Autowired(required = false)
+    @Qualifier("messagingScheduler")
+    private TaskScheduler scheduler;
+
+    @Value("${replay.ring.size:256}")
+    private int ringSize;
+
+    private final String epoch = Long.toString(System.currentTimeMillis(), 36);
+    private final Map<String, ReplayRing> rings = new ConcurrentHashMap<>();
+    private final LongAdder replays = new LongAdder(), replayedMessages = new LongAdder(), snapshots = new LongAdder();
+    private SimpMessagingTemplate sessionTemplate;
+
+    // A body kept in the off-heap store, and its content type
+    private record Stored(long handle, Object contentType) {
+    }
+
+    @PostConstruct
+    void createSessionTemplate() {
+        MessageChannel toSession = clientOutboundChannel;
+        if (shardedBroker != null) {
+            toSession = shardedBroker;
+        } else if (webSocketHandler instanceof MessageHandler handler) {
+            toSession = new SessionWriter(handler, clientOutboundChannel);
+        }
+        sessionTemplate = new SimpMessagingTemplate(toSession);
+        sessionTemplate.setMessageConverter(messageConverter);
+        if (offHeapStore != null) {
+            offHeapStore.addEvictor(this::evict);
+        }
+    }
+
+    @PostConstruct
+    void scheduleExpiry() {
+        if (scheduler == null) {
+            return;
+        }
+        scheduler.schedule(() -> {
+            expire();
+            scheduleExpiry();
+        }, Instant.ofEpochMilli(LastValueSnapshot.nextExpiry()));
+    }
+
+    /**
+     * Drops what every ring holds for the new trading day; numbers carry on.
+     */
+    void expire() {
+        logger.info("Clearing the replay rings of {} destinations for the new trading day.", rings.size());
+        rings.keySet().forEach(this::evict);
+    }
+
+    /**
+     * Numbers the message, keeps it and sends it to everyone subscribed.
+     */
+    public void publish(String destination, Object payload) {
+        if (payload == null) {
+            messagingTemplate.convertAndSend(destination, payload);
+            return;
+        }
+        ReplayRing ring = rings.computeIfAbsent(destination, d -> new ReplayRing(ringSize));
+        // Numbered and sent under the one lock, so they go out in number order
+        synchronized (ring) {
+            if (offHeapStore == null) {
+                long seq = ring.append(payload);
+                messagingTemplate.convertAndSend(destination, payload, Map.of(SEQ_HEADER, Long.toString(seq), SEQ_EPOCH_HEADER, epoch));
+                return;
+            }
+            long seq = ring.getLastSeq() + 1;
+            SimpMessageHeaderAccessor headers = SimpMessageHeaderAccessor.create(SimpMessageType.MESSAGE);
+            headers.setNativeHeader(SEQ_HEADER, Long.toString(seq));
+            headers.setNativeHeader(SEQ_EPOCH_HEADER, epoch);
+            headers.setLeaveMutable(true);
+            Message<?> message = messageConverter.toMessage(payload, headers.getMessageHeaders());
+            if (message == null) {
+                ring.append(payload);
+                messagingTemplate.convertAndSend(destination, payload, Map.of(SEQ_HEADER, Long.toString(seq), SEQ_EPOCH_HEADER, epoch));
+                return;
+            }
+            // Converted once: the same body goes out now and into the ring
+            release(destination, ring.get(seq - ring.getCapacity()));
+            ring.append(keep(destination, message, payload));
+            messagingTemplate.send(destination, message);
+        }
+    }
+
+    /**
+     * @return the body off heap if it fits, else the payload as is
+     */
+    private Object keep(String destination, Message<?> message, Object payload) {
+        if (message.getPayload() instanceof byte[] body) {
+            long handle = offHeapStore.store(destination, body);
+            if (handle >= 0) {
+                return new Stored(handle, message.getHeaders().get(MessageHeaders.CONTENT_TYPE));
+            }
+        }
+        return payload;
+    }
+
+    private void release(String destination, Object kept) {
+        if (kept instanceof Stored stored) {
+            offHeapStore.free(destination, stored.handle());
+        }
+    }
+
+    /**
+     * Drops what we keep for the destination; its numbers carry on.
+     */
+    void evict(String destination) {
+        ReplayRing ring = rings.get(destination);
+        if (ring == null) {
+            return;
+        }
+        synchronized (ring) {
+            for (long seq = ring.getFirstSeq(); seq <= ring.getLastSeq(); seq++) {
+                release(destination, ring.get(seq));
+            }
+            ring.clear();
+        }
+    }
+
+    /**
+     * Forgets the destination altogether, numbers and all (warm-up traffic).
+     */
+    public void drop(String destination) {
+        evict(destination);
+        rings.remove(destination);
+    }
+
+    /**
+     * Sends the subscription what it missed since <code>lastSeq</code>.
+     *
+     * @return false if we can't (it's too far behind, or its numbers are from
+     *         another epoch); the caller sends a snapshot instead
+     */
+    public boolean replay(String sessionId, String subscriptionId, String destination, String lastSeq, @Nullable String clientEpoch) {
+        ReplayRing ring = rings.get(destination);
+        long seq;
+        try {
+            seq = Long.parseLong(lastSeq.trim());
+        } catch (NumberFormatException e) {
+            logger.debug("Ignoring {} header {} on {}", LAST_SEQ_HEADER, lastSeq, destination);
+            return false;
+        }
+        if (ring == null || (clientEpoch != null && !epoch.equals(clientEpoch))) {
+            snapshots.increment();
+            return false;
+        }
+        synchronized (ring) {
+            long before = ring.getLastSeq();
+            if (!ring.since(seq, (payload, next) -> sendTo(sessionId, subscriptionId, destination, payload, next))) {
+                logger.debug("Session {} is too far behind on {} (at {}, we have {} to {}); sending a snapshot.", sessionId, destination, seq, ring.getFirstSeq(), before);
+                snapshots.increment();
+                return false;
+            }
+            replays.increment();
+            replayedMessages.add(before - seq);
+            return true;
+        }
+    }
+
+    /**
+     * Sends the subscription the latest numbered message, if we've sent any.
+     */
+    public boolean sendLatest(String sessionId, String subscriptionId, String destination) {
+        ReplayRing ring = rings.get(destination);
+        if (ring == null) {
+            return false;
+        }
+        synchronized (ring) {
+            long seq = ring.getLastSeq();
+            Object payload = ring.get(seq);
+            if (payload == null) {
+                return false;
+            }
+            sendTo(sessionId, subscriptionId, destination, payload, seq);
+            return true;
+        }
+    }
+
+    /**
+     * Sends the subscription an unnumbered message (a value from before we
+     * started, say). A {@link Message} is taken to be a body the broker's
+     * converter already wrote, and goes out as it is.
+     */
+    public void sendTo(String sessionId, String subscriptionId, String destination, Object payload) {
+        sendTo(sessionId, subscriptionId, destination, payload, 0);
+    }
+
+    private void sendTo(String sessionId, String subscriptionId, String destination, Object payload, long seq) {
+        sendTo(sessionId, subscriptionId, destination, payload, seq > 0 ? Map.of(SEQ_HEADER, Long.toString(seq), SEQ_EPOCH_HEADER, epoch) : Map.of());
+    }
+
+    /**
+     * Sends the subscription a message with headers of the caller's own (a delta
+     * keyframe, say), in order with what's live on the destination.
+     */
+    public void sendTo(String sessionId, String subscriptionId, String destination, Object payload, Map<String, String> nativeHeaders) {
+        SimpMessageHeaderAccessor headers = SimpMessageHeaderAccessor.create(SimpMessageType.MESSAGE);
+        headers.setSessionId(sessionId);
+        headers.setSubscriptionId(subscriptionId);
+        nativeHeaders.forEach(headers::setNativeHeader);
+        headers.setLeaveMutable(true);
+        if (payload instanceof Stored stored) {
+            headers.setHeader(MessageHeaders.CONTENT_TYPE, stored.contentType());
+            sessionTemplate.send(destination, MessageBuilder.createMessage(offHeapStore.load(destination, stored.handle()), headers.getMessageHeaders()));
+        } else if (payload instanceof Message<?> body) {
+            headers.setHeader(MessageHeaders.CONTENT_TYPE, body.getHeaders().get(MessageHeaders.CONTENT_TYPE));
+            sessionTemplate.send(destination, MessageBuilder.createMessage(body.getPayload(), headers.getMessageHeaders()));
+        } else {
+            sessionTemplate.convertAndSend(destination, payload, headers.getMessageHeaders());
+        }
+    }
+
+    public String getEpoch() {
+        return epoch;
+    }
+
+    public Map<String, Long> getStats() {
+        Map<String, Long> stats = new TreeMap<>();
+        stats.put("destinations", (long) rings.size());
+        stats.put("replays", replays.sum());
+        stats.put("replayedMessages", replayedMessages.sum());
+        stats.put("snapshots", snapshots.sum());
+        return stats;
+    }
+}
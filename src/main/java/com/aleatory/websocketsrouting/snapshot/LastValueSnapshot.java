@@ -0,0 +1,427 @@
+package com.aleatory.websocketsrouting.snapshot;
+
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.event.EventListener;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageHeaders;
+import org.springframework.messaging.converter.MessageConversionException;
+import org.springframework.messaging.converter.MessageConverter;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.scheduling.TaskScheduler;
+import org.springframework.stereotype.Component;
+import org.springframework.util.MimeTypeUtils;
+
+import com.aleatory.common.util.TradingDays;
+import com.aleatory.websocketsrouting.events.SendMessageToFrontendEvent;
+import com.aleatory.websocketsrouting.offheap.OffHeapStore;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+
+/**
+ * The last message to each destination, checkpointed every
+ * <code>snapshot.checkpoint.millis</code> to a memory-mapped file
+ * (<code>snapshot.file</code>) and read back when we start, before the
+ * websocket endpoint is up. So after a restart the first subscribers get the
+ * last values from local memory instead of waiting on Redis, and still get them
+ * if Redis is down.
+ *
+ * What's kept is the body the broker sends for the value, converted by the
+ * same <code>brokerMessageConverter</code>, and its content type, so a
+ * subscriber gets the same bytes after a restart as before it. The file is a
+ * 64-byte header (magic, version) then records, each the latest value for a
+ * destination as of that checkpoint: <code>[int length][short content type
+ * length][short destination length][long expires at millis][destination][content
+ * type][body]</code>, padded to 8 bytes, the length written last. Later records
+ * win. When it fills up it's rewritten with just the current values. Like the
+ * Redis key, values expire at 00:05 on the next trading day.
+ *
+ * With an {@link OffHeapStore}, values are only on the heap until they're
+ * checkpointed; after that we keep the bytes we wrote, off heap, and read them
+ * back for a subscriber.
+ */
+@Component
+@ConditionalOnProperty(value = "snapshot.enabled", havingValue = "true")
+public class LastValueSnapshot {
+    private static final Logger logger = LoggerFactory.getLogger(LastValueSnapshot.class);
+
+    static final int MAGIC = 0x434E4C56; // CNLV
+    static final int VERSION = 2;
+    static final int HEADER_SIZE = 64;
+    static final int RECORD_HEADER_SIZE = 16;
+
+    @Autowired
+    @Qualifier("messagingScheduler")
+    private TaskScheduler scheduler;
+
+    // What the broker writes bodies with, so ours are the same
+    @Autowired
+    @Qualifier("brokerMessageConverter")
+    private MessageConverter messageConverter;
+
+    @Value("${snapshot.file:${java.io.tmpdir}/condors/last-values.snapshot}")
+    private Path file;
+
+    @Value("${snapshot.file.mb:16}")
+    private int fileMb;
+
+    @Value("${snapshot.checkpoint.millis:100}")
+    private long checkpointMillis;
+
+    @Autowired(required = false)
+    private OffHeapStore offHeapStore;
+
+    // As sent, or as restored (a Message holding the body)
+    private final Map<String, Object> values = new ConcurrentHashMap<>();
+
+    // Checkpointed values kept off heap; guarded by this
+    private final Map<String, Stored> offHeap = new HashMap<>();
+
+    // Changed since the last checkpoint
+    private final Map<String, Object> dirty = new ConcurrentHashMap<>();
+
+    private record Record(String destination, byte[] name, byte[] contentType, byte[] payload) {
+        int length() {
+            return RECORD_HEADER_SIZE + name.length + contentType.length + payload.length;
+        }
+    }
+
+    private record Stored(long handle, byte[] contentType) {
+    }
+
+    private volatile long expiresAtMillis;
+    private MappedByteBuffer buffer;
+    private int position;
+
+    @PostConstruct
+    void open() throws IOException {
+        expiresAtMillis = nextExpiry();
+        if (offHeapStore != null) {
+            offHeapStore.addEvictor(this::evict);
+        }
+        long start = System.nanoTime();
+        load();
+        logger.info("Restored {} last values from {} in {} ms.", size(), file.toAbsolutePath(), (System.nanoTime() - start) / 1_000_000);
+        if (scheduler != null) {
+            scheduler.scheduleWithFixedDelay(this::checkpoint, Duration.ofMillis(checkpointMillis));
+            scheduleExpiry();
+        }
+    }
+
+    /**
+     * @return when today's last values expire: 00:05 on the next trading day
+     */
+    public static long nextExpiry() {
+        LocalDateTime expiry = LocalDateTime.of(TradingDays.nextTradingDay(), LocalTime.of(0, 5));
+        // Never now or earlier, or the clear would keep rescheduling itself
+        if (!expiry.isAfter(LocalDateTime.now())) {
+            expiry = LocalDateTime.of(LocalDate.now().plusDays(1), LocalTime.of(0, 5));
+        }
+        return expiry.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+    }
+
+    private void scheduleExpiry() {
+        scheduler.schedule(() -> {
+            logger.info("Clearing {} last values for the new trading day.", size());
+            expiresAtMillis = nextExpiry();
+            values.clear();
+            dirty.clear();
+            synchronized (this) {
+                new ArrayList<>(offHeap.keySet()).forEach(this::evict);
+            }
+            scheduleExpiry();
+        }, Instant.ofEpochMilli(expiresAtMillis));
+    }
+
+    @EventListener
+    void update(SendMessageToFrontendEvent event) {
+        if (event.getPayload() != null && !event.isWarmup()) {
+            values.put(event.getDestination(), event.getPayload());
+            dirty.put(event.getDestination(), event.getPayload());
+        }
+    }
+
+    /**
+     * @return the body the broker sends for the last message to the
+     *         destination, with its content type, or null if none (today)
+     */
+    public Message<byte[]> get(String destination) {
+        Object value = values.get(destination);
+        if (value != null) {
+            return toBody(destination, value);
+        }
+        if (offHeapStore == null) {
+            return null;
+        }
+        synchronized (this) {
+            Stored stored = offHeap.get(destination);
+            return stored == null ? null : body(stored.contentType(), offHeapStore.load(destination, stored.handle()));
+        }
+    }
+
+    public synchronized int size() {
+        int size = offHeap.size();
+        for (String destination : values.keySet()) {
+            if (!offHeap.containsKey(destination)) {
+                size++;
+            }
+        }
+        return size;
+    }
+
+    /**
+     * Moves a checkpointed value off heap, if it still is the latest and there's
+     * room.
+     */
+    private void keepOffHeap(Record record, Object value) {
+        long handle = offHeapStore.store(record.destination(), record.payload());
+        if (handle < 0) {
+            return;
+        }
+        Stored previous = offHeap.put(record.destination(), new Stored(handle, record.contentType()));
+        if (previous != null) {
+            offHeapStore.free(record.destination(), previous.handle());
+        }
+        if (value != null) {
+            values.remove(record.destination(), value);
+        }
+    }
+
+    synchronized void evict(String destination) {
+        Stored stored = offHeap.remove(destination);
+        if (stored != null) {
+            offHeapStore.free(destination, stored.handle());
+        }
+    }
+
+    /**
+     * Reads the file's values into memory, keeping the latest for each
+     * destination that hasn't expired, and maps it for writing. A missing or
+     * unreadable file just means we start empty.
+     */
+    synchronized void load() throws IOException {
+        int capacity = fileMb * 1024 * 1024;
+        Files.createDirectories(file.toAbsolutePath().getParent());
+        boolean existed = Files.exists(file);
+        buffer = map(file, capacity);
+        if (!existed || buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+            if (existed) {
+                logger.warn("{} is not a last-value snapshot; starting empty.", file);
+            }
+            rewrite(List.of());
+            return;
+        }
+        long now = System.currentTimeMillis();
+        Map<String, Record> restored = new HashMap<>();
+        int at = HEADER_SIZE;
+        while (at + RECORD_HEADER_SIZE <= buffer.capacity()) {
+            int length = buffer.getInt(at);
+            if (length <= 0 || at + length > buffer.capacity()) {
+                break;
+            }
+            int contentTypeLength = buffer.getShort(at + 4) & 0xffff;
+            int destinationLength = buffer.getShort(at + 6) & 0xffff;
+            long expiresAt = buffer.getLong(at + 8);
+            if (RECORD_HEADER_SIZE + destinationLength + contentTypeLength > length) {
+                break;
+            }
+            byte[] destination = new byte[destinationLength];
+            buffer.get(at + RECORD_HEADER_SIZE, destination);
+            byte[] contentType = new byte[contentTypeLength];
+            buffer.get(at + RECORD_HEADER_SIZE + destinationLength, contentType);
+            byte[] payload = new byte[length - RECORD_HEADER_SIZE - destinationLength - contentTypeLength];
+            buffer.get(at + RECORD_HEADER_SIZE + destinationLength + contentTypeLength, payload);
+            String name = new String(destination, StandardCharsets.UTF_8);
+            if (expiresAt > now) {
+                restored.put(name, new Record(name, destination, contentType, payload));
+            } else {
+                restored.remove(name);
+            }
+            at += align(length);
+        }
+        for (Record record : restored.values()) {
+            if (offHeapStore != null) {
+                keepOffHeap(record, null);
+            }
+            if (!offHeap.containsKey(record.destination())) {
+                values.put(record.destination(), body(record.contentType(), record.payload()));
+            }
+        }
+        // Start the file over with just what we kept
+        rewrite(currentRecords());
+    }
+
+    private static Message<byte[]> body(byte[] contentType, byte[] payload) {
+        MessageBuilder<byte[]> builder = MessageBuilder.withPayload(payload);
+        if (contentType.length > 0) {
+            builder.setHeader(MessageHeaders.CONTENT_TYPE, MimeTypeUtils.parseMimeType(new String(contentType, StandardCharsets.US_ASCII)));
+        }
+        return builder.build();
+    }
+
+    /**
+     * @return the value as the broker would send it, or null if it can't be
+     */
+    @SuppressWarnings("unchecked")
+    private Message<byte[]> toBody(String destination, Object value) {
+        if (value instanceof Message<?> restored) {
+            return (Message<byte[]>) restored;
+        }
+        try {
+            Message<?> message = messageConverter.toMessage(value, null);
+            if (message != null && message.getPayload() instanceof byte[]) {
+                return (Message<byte[]>) message;
+            }
+        } catch (MessageConversionException e) {
+            logger.warn("Could not convert last value for {}: {}", destination, e.getMessage());
+            return null;
+        }
+        logger.warn("No converter for last value for {} ({})", destination, value.getClass().getName());
+        return null;
+    }
+
+    /**
+     * Writes out what's changed since the last checkpoint.
+     */
+    synchronized void checkpoint() {
+        if (dirty.isEmpty() || buffer == null) {
+            return;
+        }
+        Map<String, Object> batch = new HashMap<>(dirty);
+        batch.forEach(dirty::remove);
+        List<Record> records = encode(batch);
+        int needed = 0;
+        for (Record record : records) {
+            needed += align(record.length());
+        }
+        if (position + needed > buffer.capacity()) {
+            try {
+                rewrite(currentRecords());
+            } catch (IOException e) {
+                logger.error("Could not compact {}; last values not checkpointed.", file, e);
+                return;
+            }
+        } else {
+            append(records);
+        }
+        if (offHeapStore != null) {
+            for (Record record : records) {
+                keepOffHeap(record, batch.get(record.destination()));
+            }
+        }
+    }
+
+    /**
+     * @return what's on the heap, and what's off it that isn't
+     */
+    private List<Record> currentRecords() {
+        List<Record> records = encode(values);
+        offHeap.forEach((destination, stored) -> {
+            if (!values.containsKey(destination)) {
+                records.add(new Record(destination, destination.getBytes(StandardCharsets.UTF_8), stored.contentType(),
+                        offHeapStore.load(destination, stored.handle())));
+            }
+        });
+        return records;
+    }
+
+    /**
+     * Replaces the file with one holding just these records.
+     */
+    private void rewrite(List<Record> records) throws IOException {
+        Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+        Files.deleteIfExists(temporary);
+        buffer = map(temporary, buffer.capacity());
+        buffer.putInt(4, VERSION);
+        buffer.putInt(0, MAGIC);
+        position = HEADER_SIZE;
+        if (!append(records)) {
+            logger.error("{} MB is too small for {} last values; raise snapshot.file.mb.", fileMb, records.size());
+        }
+        buffer.force();
+        Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private List<Record> encode(Map<String, Object> batch) {
+        List<Record> records = new ArrayList<>(batch.size());
+        batch.forEach((destination, payload) -> {
+            Message<byte[]> body = toBody(destination, payload);
+            if (body == null) {
+                return;
+            }
+            Object contentType = body.getHeaders().get(MessageHeaders.CONTENT_TYPE);
+            records.add(new Record(destination, destination.getBytes(StandardCharsets.UTF_8),
+                    contentType == null ? new byte[0] : contentType.toString().getBytes(StandardCharsets.US_ASCII), body.getPayload()));
+        });
+        return records;
+    }
+
+    private boolean append(List<Record> records) {
+        long expiresAt = expiresAtMillis;
+        for (Record record : records) {
+            int length = record.length();
+            if (position + align(length) > buffer.capacity()) {
+                return false;
+            }
+            buffer.putShort(position + 4, (short) record.contentType().length);
+            buffer.putShort(position + 6, (short) record.name().length);
+            buffer.putLong(position + 8, expiresAt);
+            buffer.put(position + RECORD_HEADER_SIZE, record.name());
+            buffer.put(position + RECORD_HEADER_SIZE + record.name().length, record.contentType());
+            buffer.put(position + RECORD_HEADER_SIZE + record.name().length + record.contentType().length, record.payload());
+            buffer.putInt(position, length);
+            position += align(length);
+        }
+        if (position + 4 <= buffer.capacity()) {
+            buffer.putInt(position, 0);
+        }
+        return true;
+    }
+
+    private static int align(int length) {
+        return (length + 7) & ~7;
+    }
+
+    private static MappedByteBuffer map(Path path, int size) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            MappedByteBuffer buffer = channel.map(MapMode.READ_WRITE, 0, size);
+            buffer.order(ByteOrder.LITTLE_ENDIAN);
+            return buffer;
+        }
+    }
+
+    @PreDestroy
+    synchronized void close() {
+        checkpoint();
+        if (buffer != null) {
+            buffer.force();
+        }
+    }
+}
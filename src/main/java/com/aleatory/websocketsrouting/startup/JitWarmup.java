@@ -0,0 +1,243 @@
+package com.aleatory.websocketsrouting.startup;
+
+import java.io.IOException;
+import java.lang.management.CompilationMXBean;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.redis.serializer.RedisSerializer;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageHandler;
+import org.springframework.messaging.SubscribableChannel;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.stomp.StompEncoder;
+import org.springframework.messaging.simp.stomp.StompHeaderAccessor;
+import org.springframework.stereotype.Component;
+import org.springframework.web.socket.TextMessage;
+
+import com.aleatory.websocketsrouting.backend.messaging.redis.WebsocketsRoutingRedisMessaging;
+import com.aleatory.websocketsrouting.events.SendMessageToFrontendEvent;
+import com.aleatory.websocketsrouting.journal.JournalReader;
+import com.aleatory.websocketsrouting.replay.TopicReplay;
+
+/**
+ * Runs traffic through the router after a restart, before {@link WarmupGate}
+ * lets the browsers in (<code>warmup.enabled=true</code>), so the hot path is
+ * C2-compiled by the time they're back. The newest journaled messages if
+ * there's a journal, else made-up prices. Each goes through the codec,
+ * {@link WebsocketsRoutingRedisMessaging#receiveMessages}, the routing
+ * listeners and the broker, and a sink on the broker channel encodes it to a
+ * STOMP frame the way the session handler would.
+ *
+ * They go to <code>/topic/warmup.*</code> copies of their destinations, so
+ * nobody gets them and they don't touch the last values, the journal or
+ * Redis. Rounds of <code>warmup.round.messages</code> run until the JIT has
+ * spent under <code>warmup.stable.compile.millis</code> compiling in each of
+ * <code>warmup.stable.rounds</code> rounds in a row, or for at most
+ * <code>warmup.max.seconds</code>. The p99 routing time of the first and last
+ * rounds is logged and served at /startup-stats.
+ */
+@Component
+@ConditionalOnProperty(value = "warmup.enabled", havingValue = "true")
+public class JitWarmup {
+    private static final Logger logger = LoggerFactory.getLogger(JitWarmup.class);
+    private static final int MAX_RECORDED = 10_000;
+    private static final String[] SYNTHETIC_TOPICS = { "/topic/prices.spx", "/topic/prices.condor", "/topic/prices.current.condor", "/topic/prices.impvol",
+            "/topic/trading.state", "/topic/trading/condor.bid", "/topic/trading.time" };
+
+    @Autowired
+    private WarmupGate gate;
+
+    @Autowired
+    private ApplicationEventPublisher applicationEventPublisher;
+
+    @Autowired
+    private TopicReplay topicReplay;
+
+    @Autowired
+    @Qualifier("brokerChannel")
+    private SubscribableChannel brokerChannel;
+
+    @Autowired(required = false)
+    private WebsocketsRoutingRedisMessaging redisMessaging;
+
+    @Autowired(required = false)
+    @Qualifier("messageCodecSerializer")
+    private RedisSerializer<Object> serializer;
+
+    @Value("${journal.directory:journal}")
+    private Path journalDirectory;
+
+    @Value("${warmup.round.messages:5000}")
+    private int roundMessages;
+
+    @Value("${warmup.stable.rounds:3}")
+    private int stableRounds;
+
+    @Value("${warmup.stable.compile.millis:5}")
+    private long stableCompileMillis;
+
+    @Value("${warmup.max.seconds:60}")
+    private int maxSeconds;
+
+    public record Report(String source, long millis, int rounds, long messages, long frames, double firstP99Micros, double lastP99Micros, long compileMillis) {
+    }
+
+    // A message as it comes off the wire (if we have the codec), and where to send it
+    private record Sample(String destination, byte[] encoded, Object payload) {
+    }
+
+    private final StompEncoder encoder = new StompEncoder();
+    private final MessageHandler sink = this::encode;
+    private long frames;
+    private volatile Report report;
+
+    @EventListener(ApplicationReadyEvent.class)
+    void start() {
+        Thread thread = new Thread(this::run, "jit-warmup");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    void run() {
+        try {
+            List<Sample> traffic = recorded();
+            String source = "journal";
+            if (traffic.isEmpty()) {
+                traffic = synthetic();
+                source = "synthetic";
+            }
+            report = warmUp(traffic, source);
+            logger.info("JIT warm-up done in {} ms: {} rounds, {} {} messages, {} frames, {} ms compiling; p99 {} us in the first round, {} us in the last.",
+                    report.millis(), report.rounds(), report.messages(), source, report.frames(), report.compileMillis(), report.firstP99Micros(),
+                    report.lastP99Micros());
+        } catch (RuntimeException e) {
+            logger.error("JIT warm-up failed; opening up anyway.", e);
+        } finally {
+            gate.open();
+        }
+    }
+
+    Report warmUp(List<Sample> traffic, String source) {
+        CompilationMXBean jit = ManagementFactory.getCompilationMXBean();
+        boolean timedJit = jit != null && jit.isCompilationTimeMonitoringSupported();
+        long compileStart = timedJit ? jit.getTotalCompilationTime() : 0, lastCompile = compileStart;
+        long start = System.nanoTime(), deadline = start + maxSeconds * 1_000_000_000L;
+        long[] nanos = new long[roundMessages];
+        double firstP99 = 0, lastP99 = 0;
+        int rounds = 0, stable = 0;
+        long messages = 0;
+        frames = 0;
+        brokerChannel.subscribe(sink);
+        try {
+            while (stable < stableRounds && System.nanoTime() < deadline) {
+                for (int i = 0; i < roundMessages; i++) {
+                    Sample sample = traffic.get((int) (messages++ % traffic.size()));
+                    long before = System.nanoTime();
+                    route(sample);
+                    nanos[i] = System.nanoTime() - before;
+                }
+                lastP99 = p99Micros(nanos);
+                if (rounds++ == 0) {
+                    firstP99 = lastP99;
+                }
+                // Without JIT timing we just do the minimum
+                long compile = timedJit ? jit.getTotalCompilationTime() : lastCompile;
+                stable = compile - lastCompile <= stableCompileMillis ? stable + 1 : 0;
+                lastCompile = compile;
+            }
+        } finally {
+            brokerChannel.unsubscribe(sink);
+            traffic.stream().map(Sample::destination).distinct().forEach(topicReplay::drop);
+        }
+        return new Report(source, (System.nanoTime() - start) / 1_000_000, rounds, messages, frames, firstP99, lastP99, lastCompile - compileStart);
+    }
+
+    private void route(Sample sample) {
+        Object payload = sample.encoded() != null ? serializer.deserialize(sample.encoded()) : sample.payload();
+        if (redisMessaging != null) {
+            redisMessaging.receiveMessages(sample.destination(), payload);
+        } else {
+            applicationEventPublisher.publishEvent(new SendMessageToFrontendEvent(this, sample.destination(), payload));
+        }
+    }
+
+    /**
+     * What StompSubProtocolHandler does with a message for one of its sessions.
+     */
+    private void encode(Message<?> message) {
+        String destination = SimpMessageHeaderAccessor.getDestination(message.getHeaders());
+        if (destination == null || !destination.startsWith(SendMessageToFrontendEvent.WARMUP_PREFIX) || !(message.getPayload() instanceof byte[] payload)) {
+            return;
+        }
+        StompHeaderAccessor headers = StompHeaderAccessor.wrap(message);
+        headers.updateStompCommandAsServerMessage();
+        headers.setSubscriptionId("warmup");
+        if (new TextMessage(encoder.encode(headers.getMessageHeaders(), payload)).getPayloadLength() > 0) {
+            frames++;
+        }
+    }
+
+    private static double p99Micros(long[] nanos) {
+        long[] sorted = nanos.clone();
+        Arrays.sort(sorted);
+        return Math.round(sorted[Math.min(sorted.length - 1, (int) (sorted.length * 0.99))] / 100.0) / 10.0;
+    }
+
+    List<Sample> recorded() {
+        List<Sample> samples = new ArrayList<>();
+        if (!Files.isDirectory(journalDirectory)) {
+            return samples;
+        }
+        try {
+            new JournalReader(journalDirectory).readNewest(entry -> {
+                samples.add(sample(entry.destination(), entry.toPayload()));
+                return samples.size() < MAX_RECORDED;
+            });
+        } catch (IOException e) {
+            logger.warn("Could not read the journal for warm-up traffic: {}", e.getMessage());
+        }
+        return samples;
+    }
+
+    List<Sample> synthetic() {
+        List<Sample> samples = new ArrayList<>();
+        for (int i = 0; i < 64; i++) {
+            for (String topic : SYNTHETIC_TOPICS) {
+                Map<String, Object> price = new LinkedHashMap<>();
+                price.put("symbol", "SPX");
+                price.put("bid", 4500 + i * 0.25);
+                price.put("ask", 4500.5 + i * 0.25);
+                price.put("size", 10 + i);
+                price.put("time", LocalDateTime.now().plusSeconds(i).toString());
+                samples.add(sample(topic, price));
+            }
+        }
+        return samples;
+    }
+
+    private Sample sample(String destination, Object payload) {
+        String warmupDestination = SendMessageToFrontendEvent.WARMUP_PREFIX + (destination.startsWith("/topic/") ? destination.substring(7) : destination);
+        return new Sample(warmupDestination, serializer != null ? serializer.serialize(payload) : null, payload);
+    }
+
+    public Report getReport() {
+        return report;
+    }
+}
@@ -0,0 +1,106 @@
+package com.aleatory.websocketsrouting.startup;
+
+import java.lang.management.ManagementFactory;
+import java.time.Instant;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.aot.AotDetector;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.SpringApplication;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+import org.springframework.web.socket.messaging.SessionSubscribeEvent;
+
+import com.aleatory.websocketsrouting.events.SendMessageToFrontendEvent;
+
+/**
+ * How long we took to come up after a (re)start: to ready, to the first
+ * subscriber and to the first message routed, all from the JVM's start. Logged
+ * as <code>Startup: ...</code> lines (which StartupBenchmark reads) and served
+ * at /startup-stats.
+ *
+ * For CDS training runs, <code>startup.exit.after=ready</code> (or
+ * <code>first-message</code>) shuts us down once we get there.
+ */
+@Component
+public class StartupTimer {
+    private static final Logger logger = LoggerFactory.getLogger(StartupTimer.class);
+
+    @Autowired
+    private ConfigurableApplicationContext context;
+
+    @Autowired(required = false)
+    private JitWarmup jitWarmup;
+
+    @Value("${startup.exit.after:}")
+    private String exitAfter;
+
+    private final long jvmStartMillis = ManagementFactory.getRuntimeMXBean().getStartTime();
+    private volatile long readyMillis;
+    private volatile long firstSubscriptionMillis;
+    private volatile long firstMessageMillis;
+
+    private long sinceJvmStart() {
+        return System.currentTimeMillis() - jvmStartMillis;
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    void ready() {
+        readyMillis = sinceJvmStart();
+        logger.info("Startup: {} ms to ready (CDS {}, AOT {}).", readyMillis, isCdsInUse() ? "on" : "off", AotDetector.useGeneratedArtifacts() ? "on" : "off");
+        exitIf("ready");
+    }
+
+    @EventListener
+    void subscribed(SessionSubscribeEvent event) {
+        if (firstSubscriptionMillis == 0) {
+            firstSubscriptionMillis = sinceJvmStart();
+            logger.info("Startup: {} ms to first subscription.", firstSubscriptionMillis);
+        }
+    }
+
+    @EventListener
+    void routed(SendMessageToFrontendEvent event) {
+        if (firstMessageMillis == 0 && !event.isWarmup()) {
+            synchronized (this) {
+                if (firstMessageMillis != 0) {
+                    return;
+                }
+                firstMessageMillis = sinceJvmStart();
+            }
+            logger.info("Startup: {} ms to first routed message (to {}).", firstMessageMillis, event.getDestination());
+            exitIf("first-message");
+        }
+    }
+
+    private void exitIf(String milestone) {
+        if (milestone.equals(exitAfter)) {
+            logger.info("Exiting after {} (startup.exit.after).", milestone);
+            new Thread(() -> System.exit(SpringApplication.exit(context)), "startup-exit").start();
+        }
+    }
+
+    private static boolean isCdsInUse() {
+        return ManagementFactory.getRuntimeMXBean().getInputArguments().stream().anyMatch(arg -> arg.startsWith("-XX:SharedArchiveFile"));
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("jvmStarted", Instant.ofEpochMilli(jvmStartMillis));
+        stats.put("readyMillis", readyMillis);
+        stats.put("firstSubscriptionMillis", firstSubscriptionMillis);
+        stats.put("firstMessageMillis", firstMessageMillis);
+        stats.put("cds", isCdsInUse());
+        stats.put("aot", AotDetector.useGeneratedArtifacts());
+        if (jitWarmup != null) {
+            stats.put("warmup", jitWarmup.getReport());
+        }
+        return stats;
+    }
+}
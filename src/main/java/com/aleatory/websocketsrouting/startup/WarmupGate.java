@@ -0,0 +1,71 @@
+package com.aleatory.websocketsrouting.startup;
+
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.server.ServerHttpRequest;
+import org.springframework.http.server.ServerHttpResponse;
+import org.springframework.stereotype.Component;
+import org.springframework.web.socket.WebSocketHandler;
+import org.springframework.web.socket.server.HandshakeInterceptor;
+
+import jakarta.annotation.PostConstruct;
+
+/**
+ * Keeps /condors shut (503 with a Retry-After) until {@link JitWarmup} is done,
+ * so the browsers reconnecting after a restart aren't routed by the
+ * interpreter. Open from the start unless <code>warmup.enabled</code>.
+ */
+@Component
+public class WarmupGate implements HandshakeInterceptor {
+    private static final Logger logger = LoggerFactory.getLogger(WarmupGate.class);
+
+    @Value("${warmup.enabled:false}")
+    private boolean warmupEnabled;
+
+    @Value("${warmup.retry.after.seconds:5}")
+    private int retryAfterSeconds;
+
+    private volatile boolean open;
+    private final LongAdder turnedAway = new LongAdder();
+
+    @PostConstruct
+    void init() {
+        open = !warmupEnabled;
+    }
+
+    public void open() {
+        if (!open) {
+            open = true;
+            logger.info("Opening /condors; turned away {} handshakes while warming up.", turnedAway.sum());
+        }
+    }
+
+    public boolean isOpen() {
+        return open;
+    }
+
+    public long getTurnedAway() {
+        return turnedAway.sum();
+    }
+
+    @Override
+    public boolean beforeHandshake(ServerHttpRequest request, ServerHttpResponse response, WebSocketHandler wsHandler, Map<String, Object> attributes) {
+        if (open) {
+            return true;
+        }
+        turnedAway.increment();
+        response.setStatusCode(HttpStatus.SERVICE_UNAVAILABLE);
+        response.getHeaders().set(HttpHeaders.RETRY_AFTER, Integer.toString(retryAfterSeconds));
+        return false;
+    }
+
+    @Override
+    public void afterHandshake(ServerHttpRequest request, ServerHttpResponse response, WebSocketHandler wsHandler, Exception exception) {
+    }
+}
@@ -0,0 +1,28 @@
+package com.aleatory.websocketsrouting;
+
+import java.util.List;
+
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+import org.springframework.messaging.converter.ByteArrayMessageConverter;
+import org.springframework.messaging.converter.CompositeMessageConverter;
+import org.springframework.messaging.converter.MappingJackson2MessageConverter;
+import org.springframework.messaging.converter.MessageConverter;
+import org.springframework.messaging.converter.StringMessageConverter;
+
+import com.fasterxml.jackson.databind.SerializationFeature;
+
+/**
+ * The <code>brokerMessageConverter</code> the app ends up with: our string
+ * converter, then Boot's byte array and Jackson ones, the latter on an
+ * ObjectMapper set up the way Boot's is (java.time as ISO strings).
+ */
+public final class BrokerMessageConverters {
+    private BrokerMessageConverters() {
+    }
+
+    public static MessageConverter create() {
+        MappingJackson2MessageConverter json = new MappingJackson2MessageConverter();
+        json.setObjectMapper(Jackson2ObjectMapperBuilder.json().featuresToDisable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS).build());
+        return new CompositeMessageConverter(List.of(new StringMessageConverter(), new ByteArrayMessageConverter(), json));
+    }
+}
@@ -0,0 +1,173 @@
+package com.aleatory.websocketsrouting.api;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.dao.QueryTimeoutException;
+import org.springframework.data.redis.core.HashOperations;
+import org.springframework.data.redis.core.RedisOperations;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.SessionCallback;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessageType;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.web.socket.messaging.SessionSubscribeEvent;
+
+import com.aleatory.websocketsrouting.delta.DeltaEncoder;
+import com.aleatory.websocketsrouting.events.SendMessageToFrontendEvent;
+import com.aleatory.websocketsrouting.replay.TopicReplay;
+import com.aleatory.websocketsrouting.snapshot.LastValueSnapshot;
+
+@ExtendWith(MockitoExtension.class)
+class MainRoutingStompControllerTest {
+    static final String REDIS_KEY = "CONDORS:LAST.MESSAGES";
+
+    MainRoutingStompController cut;
+
+    @Mock
+    TopicReplay topicReplay;
+
+    @Mock
+    RedisTemplate<String, Object> redisTemplate;
+
+    @Mock
+    RedisOperations<String, Object> pipeline;
+
+    @Mock
+    HashOperations<String, Object, Object> pipelineHashOps;
+
+    @Mock
+    HashOperations<String, Object, Object> hashOps;
+
+    @Mock
+    LastValueSnapshot lastValueSnapshot;
+
+    @Mock
+    DeltaEncoder deltaEncoder;
+
+    @BeforeEach
+    void setUp() {
+        cut = new MainRoutingStompController();
+        ReflectionTestUtils.setField(cut, "topicReplay", topicReplay);
+        ReflectionTestUtils.setField(cut, "redisTemplate", redisTemplate);
+    }
+
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    void runPipelines() {
+        when(pipeline.opsForHash()).thenReturn((HashOperations) pipelineHashOps);
+        doAnswer(invocation -> {
+            ((SessionCallback) invocation.getArgument(0)).execute(pipeline);
+            return null;
+        }).when(redisTemplate).executePipelined(any(SessionCallback.class));
+    }
+
+    void send(String destination, Object payload) {
+        ReflectionTestUtils.invokeMethod(cut, "sendToFrontEnd", new SendMessageToFrontendEvent(this, destination, payload));
+    }
+
+    @Test
+    void testLastMessagesAreCoalescedAndPipelined() {
+        runPipelines();
+        send("/topic/prices.spx", "{\"price\":5860.10}");
+        send("/topic/prices.spx", "{\"price\":5864.67}");
+        send("/topic/prices.impvol", "{\"vol\":12.5}");
+        verify(topicReplay, times(3)).publish(any(String.class), any(Object.class));
+
+        cut.flushLastMessages();
+        verify(redisTemplate).executePipelined(any(SessionCallback.class));
+        verify(pipelineHashOps).put(REDIS_KEY, "/topic/prices.spx", "{\"price\":5864.67}");
+        verify(pipelineHashOps).put(REDIS_KEY, "/topic/prices.impvol", "{\"vol\":12.5}");
+        verify(pipelineHashOps, never()).put(REDIS_KEY, "/topic/prices.spx", "{\"price\":5860.10}");
+
+        cut.flushLastMessages();
+        verify(redisTemplate, times(1)).executePipelined(any(SessionCallback.class));
+    }
+
+    @Test
+    void testFailedFlushIsRetried() {
+        send("/topic/prices.spx", "{\"price\":5864.67}");
+        doThrow(new QueryTimeoutException("Redis command timed out")).when(redisTemplate).executePipelined(any(SessionCallback.class));
+        cut.flushLastMessages();
+
+        runPipelines();
+        cut.flushLastMessages();
+        verify(pipelineHashOps).put(REDIS_KEY, "/topic/prices.spx", "{\"price\":5864.67}");
+    }
+
+    void subscribe(String destination, String lastSeq) {
+        subscribe(destination, lastSeq, null);
+    }
+
+    void subscribe(String destination, String lastSeq, String delta) {
+        SimpMessageHeaderAccessor headers = SimpMessageHeaderAccessor.create(SimpMessageType.SUBSCRIBE);
+        headers.setSessionId("session-1");
+        headers.setSubscriptionId("sub-0");
+        headers.setNativeHeader("destination", destination);
+        if (lastSeq != null) {
+            headers.setNativeHeader(TopicReplay.LAST_SEQ_HEADER, lastSeq);
+        }
+        if (delta != null) {
+            headers.setNativeHeader(DeltaEncoder.DELTA_HEADER, delta);
+        }
+        Message<byte[]> message = MessageBuilder.createMessage(new byte[0], headers.getMessageHeaders());
+        ReflectionTestUtils.invokeMethod(cut, "sendLastMessageToFrontEndOnSubscription", new SessionSubscribeEvent(this, message));
+    }
+
+    @Test
+    void testResubscribeGetsReplayInsteadOfSnapshot() {
+        when(topicReplay.replay("session-1", "sub-0", "/topic/trading.state", "41", null)).thenReturn(true);
+
+        subscribe("/topic/trading.state", "41");
+
+        verify(topicReplay, never()).sendLatest(any(), any(), any());
+        verify(redisTemplate, never()).opsForHash();
+    }
+
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    @Test
+    void testSnapshotFromRedisGoesToTheSubscriberOnly() {
+        when(redisTemplate.opsForHash()).thenReturn((HashOperations) hashOps);
+        when(hashOps.get(REDIS_KEY, "/topic/trading.state")).thenReturn("OPEN");
+
+        subscribe("/topic/trading.state", "41");
+
+        verify(topicReplay).sendTo("session-1", "sub-0", "/topic/trading.state", "OPEN");
+    }
+
+    @Test
+    void testLocalSnapshotIsUsedBeforeRedis() {
+        ReflectionTestUtils.setField(cut, "lastValueSnapshot", lastValueSnapshot);
+        Message<byte[]> body = MessageBuilder.withPayload("OPEN".getBytes()).build();
+        when(lastValueSnapshot.get("/topic/trading.state")).thenReturn(body);
+
+        subscribe("/topic/trading.state", null);
+
+        verify(topicReplay).sendTo("session-1", "sub-0", "/topic/trading.state", body);
+        verify(redisTemplate, never()).opsForHash();
+    }
+
+    @Test
+    void testDeltaSubscriberGetsAKeyframeNotAReplay() {
+        ReflectionTestUtils.setField(cut, "deltaEncoder", deltaEncoder);
+        when(deltaEncoder.isDeltaSubscription("/topic/prices.current.condor", DeltaEncoder.MERGE_PATCH)).thenReturn(true);
+        when(deltaEncoder.sendKeyframe("session-1", "sub-0", "/topic/prices.current.condor")).thenReturn(true);
+
+        subscribe("/topic/prices.current.condor", "41", DeltaEncoder.MERGE_PATCH);
+
+        verify(topicReplay, never()).replay(any(), any(), any(), any(), any());
+        verify(topicReplay, never()).sendLatest(any(), any(), any());
+        verify(redisTemplate, never()).opsForHash();
+    }
+}
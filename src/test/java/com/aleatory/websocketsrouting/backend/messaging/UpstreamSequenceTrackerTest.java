@@ -0,0 +1,35 @@
+package com.aleatory.websocketsrouting.backend.messaging;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+
+import com.aleatory.websocketsrouting.events.SendMessageToFrontendEvent;
+
+class UpstreamSequenceTrackerTest {
+
+    @Test
+    void countsGapsAndRestarts() {
+        UpstreamSequenceTracker cut = new UpstreamSequenceTracker();
+        for (long seq : new long[] { 7, 8, 9, 12, 13, 20, 1, 2 }) {
+            cut.observe("trading:/topic/trading.state", seq);
+        }
+        cut.observe("price:/topic/prices.spx", 1);
+
+        assertEquals(new UpstreamSequenceTracker.Stats(2, 2, 8, 1), cut.snapshot().get("trading:/topic/trading.state"));
+        assertEquals(new UpstreamSequenceTracker.Stats(1, 0, 0, 0), cut.snapshot().get("price:/topic/prices.spx"));
+    }
+
+    @Test
+    void picksTheNumbersUpFromTheEvents() {
+        UpstreamSequenceTracker cut = new UpstreamSequenceTracker();
+        cut.received(new SendMessageToFrontendEvent(this, "/topic/prices.spx", "{}", "price", 4));
+        cut.received(new SendMessageToFrontendEvent(this, "/topic/prices.spx", "{}", "price", 6));
+        // Unnumbered transports
+        cut.received(new SendMessageToFrontendEvent(this, "/topic/prices.spx", "{}"));
+
+        assertEquals(Map.of("price:/topic/prices.spx", new UpstreamSequenceTracker.Stats(6, 1, 1, 0)), cut.snapshot());
+    }
+}
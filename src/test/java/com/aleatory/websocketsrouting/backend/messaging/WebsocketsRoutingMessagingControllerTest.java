@@ -0,0 +1,62 @@
+package com.aleatory.websocketsrouting.backend.messaging;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoMoreInteractions;
+
+import java.time.LocalDate;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.aleatory.common.domain.WireClose;
+import com.aleatory.common.messaging.PubSubMessagingOperations;
+import com.aleatory.websocketsrouting.events.SPXCloseReceivedEvent;
+
+@ExtendWith(MockitoExtension.class)
+class WebsocketsRoutingMessagingControllerTest {
+    static final LocalDate FRI = LocalDate.of(2024, 10, 18);
+
+    WebsocketsRoutingMessagingController cut;
+
+    @Mock
+    PubSubMessagingOperations messagingOperations;
+
+    @BeforeEach
+    void setUp() {
+        cut = new WebsocketsRoutingMessagingController();
+        ReflectionTestUtils.setField(cut, "messagingOperations", messagingOperations);
+    }
+
+    WireClose send(SPXCloseReceivedEvent event, String topic) {
+        ReflectionTestUtils.invokeMethod(cut, "sendSPXClose", event);
+        ArgumentCaptor<WireClose> wireClose = ArgumentCaptor.forClass(WireClose.class);
+        verify(messagingOperations).publishMessage(eq(topic), wireClose.capture());
+        verifyNoMoreInteractions(messagingOperations);
+        return wireClose.getValue();
+    }
+
+    @Test
+    void testProvisionalCloseGoesOutPlainOnItsOwnTopic() {
+        WireClose wireClose = send(new SPXCloseReceivedEvent(this, 5864.67, FRI, false, true), "/topic/prices.spx.close.provisional");
+
+        // A backend resolves it as the one close type it knows
+        assertEquals(WireClose.class, wireClose.getClass());
+        assertEquals(5864.67, wireClose.getClose());
+        assertEquals(FRI, wireClose.getForDay());
+    }
+
+    @Test
+    void testCloseGoesOutOnTheCloseTopic() {
+        WireClose wireClose = send(new SPXCloseReceivedEvent(this, 5864.67, FRI, true), "/topic/prices.spx.close");
+
+        assertEquals(WireClose.class, wireClose.getClass());
+        assertEquals(5864.67, wireClose.getClose());
+    }
+}
@@ -0,0 +1,80 @@
+package com.aleatory.websocketsrouting.backend.messaging.codec;
+
+import java.io.IOException;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Size and encode/decode time of each codec on the recorded payloads in
+ * fixtures/payloads, with the same default-typing mappers the template uses. Not
+ * part of the normal test run; run it with
+ * <code>mvn test -Dtest=MessageCodecBenchmark</code>.
+ */
+class MessageCodecBenchmark {
+    private static final Logger logger = LoggerFactory.getLogger(MessageCodecBenchmark.class);
+
+    private static final long WARMUP_NANOS = 2_000_000_000L;
+    private static final long RUN_NANOS = 3_000_000_000L;
+
+    record Codec(String name, MessageCodecSerializer serializer) {
+    }
+
+    private final List<Codec> codecs = List.of(new Codec("json", MessageCodecSerializerTest.serializer("json", 0)),
+            new Codec("cbor", MessageCodecSerializerTest.serializer("cbor", 0)), new Codec("json+deflate", MessageCodecSerializerTest.serializer("json", 1024)),
+            new Codec("cbor+deflate", MessageCodecSerializerTest.serializer("cbor", 1024)));
+
+    @Test
+    void benchmarkSpxTick() throws IOException {
+        run("spx-tick.json");
+    }
+
+    @Test
+    void benchmarkPositions() throws IOException {
+        run("positions.json");
+    }
+
+    @Test
+    void benchmarkCondorFull() throws IOException {
+        run("condor-full.json");
+    }
+
+    private void run(String payloadName) throws IOException {
+        Object payload = MessageCodecSerializerTest.recorded(payloadName);
+        int jsonBytes = codecs.get(0).serializer().serialize(payload).length;
+        for (Codec codec : codecs) {
+            byte[] encoded = codec.serializer().serialize(payload);
+            double encodeNanos = time(() -> codec.serializer().serialize(payload).length);
+            double decodeNanos = time(() -> codec.serializer().deserialize(encoded) != null ? 1 : 0);
+            logger.info("{} {}: {} bytes ({}% of json), encode {} us/op, decode {} us/op", payloadName, codec.name(), encoded.length,
+                    Math.round(100.0 * encoded.length / jsonBytes), String.format("%.1f", encodeNanos / 1000), String.format("%.1f", decodeNanos / 1000));
+        }
+    }
+
+    private interface Op {
+        int run();
+    }
+
+    /**
+     * @return mean nanos per op over RUN_NANOS, after WARMUP_NANOS of the same
+     */
+    private double time(Op op) {
+        int sink = 0;
+        long warmupEnd = System.nanoTime() + WARMUP_NANOS;
+        while (System.nanoTime() < warmupEnd) {
+            sink += op.run();
+        }
+        long ops = 0, start = System.nanoTime(), elapsed;
+        do {
+            sink += op.run();
+            ops++;
+            elapsed = System.nanoTime() - start;
+        } while (elapsed < RUN_NANOS);
+        if (sink == 42) {
+            logger.trace("sink");
+        }
+        return (double) elapsed / ops;
+    }
+}
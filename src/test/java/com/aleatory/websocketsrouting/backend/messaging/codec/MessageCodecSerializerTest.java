@@ -0,0 +1,146 @@
+package com.aleatory.websocketsrouting.backend.messaging.codec;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.serializer.GenericJackson2JsonRedisSerializer;
+import org.springframework.data.redis.serializer.SerializationException;
+
+import com.fasterxml.jackson.annotation.JsonTypeInfo;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.json.JsonMapper;
+import com.fasterxml.jackson.dataformat.cbor.CBORGenerator;
+import com.fasterxml.jackson.dataformat.cbor.databind.CBORMapper;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+
+class MessageCodecSerializerTest {
+    // Configured like the template's mapper in CacheConfig
+    static MessageCodecSerializer serializer(String codec, int compressMinBytes) {
+        return new MessageCodecSerializer(typing(JsonMapper.builder().addModule(new JavaTimeModule()).build()),
+                typing(CBORMapper.builder().addModule(new JavaTimeModule()).build()), codec, compressMinBytes);
+    }
+
+    static ObjectMapper typing(ObjectMapper mapper) {
+        mapper.activateDefaultTyping(mapper.getPolymorphicTypeValidator(), ObjectMapper.DefaultTyping.NON_FINAL, JsonTypeInfo.As.PROPERTY);
+        return mapper;
+    }
+
+    static Object recorded(String name) throws IOException {
+        try (InputStream in = MessageCodecSerializerTest.class.getResourceAsStream("/fixtures/payloads/" + name)) {
+            return new ObjectMapper().readValue(in, Object.class);
+        }
+    }
+
+    public static class Tick {
+        private String symbol;
+        private double price;
+
+        public Tick() {
+        }
+
+        Tick(String symbol, double price) {
+            this.symbol = symbol;
+            this.price = price;
+        }
+
+        public String getSymbol() {
+            return symbol;
+        }
+
+        public void setSymbol(String symbol) {
+            this.symbol = symbol;
+        }
+
+        public double getPrice() {
+            return price;
+        }
+
+        public void setPrice(double price) {
+            this.price = price;
+        }
+    }
+
+    @Test
+    void testJsonIsWhatPeersAlreadyWrite() {
+        Map<String, Object> tick = new LinkedHashMap<>(Map.of("symbol", "SPX", "price", 5864.67));
+        ObjectMapper mapper = typing(JsonMapper.builder().addModule(new JavaTimeModule()).build());
+        byte[] legacy = new GenericJackson2JsonRedisSerializer(mapper).serialize(tick);
+        assertArrayEquals(legacy, serializer("json", 0).serialize(tick));
+    }
+
+    @Test
+    void testCborRoundTripsLikeJson() throws IOException {
+        Object positions = recorded("positions.json");
+        MessageCodecSerializer json = serializer("json", 0), cbor = serializer("cbor", 0);
+        byte[] encoded = cbor.serialize(positions);
+        assertEquals(MessageCodecSerializer.ENVELOPE, encoded[0]);
+        assertEquals(MessageCodecSerializer.CBOR, encoded[1]);
+        assertTrue(encoded.length < json.serialize(positions).length);
+        assertEquals(json.deserialize(json.serialize(positions)), cbor.deserialize(encoded));
+    }
+
+    @Test
+    void testTypeIdsSurviveCbor() {
+        MessageCodecSerializer cbor = serializer("cbor", 0);
+        Object read = cbor.deserialize(cbor.serialize(new ArrayList<>(List.of(new Tick("SPX", 5864.67)))));
+        Tick tick = assertInstanceOf(Tick.class, ((List<?>) read).get(0));
+        assertEquals(5864.67, tick.getPrice());
+    }
+
+    @Test
+    void testCborIsWhatAStockDecoderReads() throws IOException {
+        Object tick = recorded("spx-tick.json");
+        byte[] encoded = serializer("cbor", 0).serialize(tick);
+        assertEquals(tick, new CBORMapper().readValue(Arrays.copyOfRange(encoded, 3, encoded.length), Object.class));
+
+        // Bare, self-describing CBOR from some other encoder
+        CBORMapper stock = CBORMapper.builder().enable(CBORGenerator.Feature.WRITE_TYPE_HEADER).build();
+        byte[] bare = stock.writeValueAsBytes(tick);
+        assertArrayEquals(MessageCodecSerializer.CBOR_SELF_DESCRIBE, Arrays.copyOf(bare, 3));
+        assertEquals(tick, serializer("json", 0).deserialize(bare));
+    }
+
+    @Test
+    void testEitherCodecReadsTheOther() throws IOException {
+        Object tick = recorded("spx-tick.json");
+        MessageCodecSerializer json = serializer("json", 0), cbor = serializer("cbor", 0);
+        assertEquals(tick, cbor.deserialize(json.serialize(tick)));
+        assertEquals(tick, json.deserialize(cbor.serialize(tick)));
+    }
+
+    @Test
+    void testLargePayloadsAreDeflated() throws IOException {
+        Object condors = recorded("condor-full.json");
+        for (String codec : List.of("json", "cbor")) {
+            MessageCodecSerializer plain = serializer(codec, 0), deflating = serializer(codec, 4096);
+            byte[] deflated = deflating.serialize(condors);
+            assertEquals(MessageCodecSerializer.DEFLATED, deflated[2]);
+            assertTrue(deflated.length * 3 < plain.serialize(condors).length);
+            assertEquals(plain.deserialize(plain.serialize(condors)), plain.deserialize(deflated));
+        }
+        // Small ones aren't worth it
+        assertEquals('{', serializer("json", 4096).serialize(recorded("spx-tick.json"))[0]);
+    }
+
+    @Test
+    void testBadInput() {
+        MessageCodecSerializer cbor = serializer("cbor", 0);
+        assertNull(cbor.deserialize(new byte[0]));
+        assertThrows(SerializationException.class, () -> cbor.deserialize(new byte[] { 0, 'X', 0, 1 }));
+        assertThrows(SerializationException.class, () -> cbor.deserialize(new byte[] { 0, 'C', 1, 0x7f, 0, 0, 0, 1 }));
+        assertThrows(IllegalArgumentException.class, () -> serializer("smile", 0));
+    }
+}
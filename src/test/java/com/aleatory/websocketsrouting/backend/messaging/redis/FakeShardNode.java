@@ -0,0 +1,198 @@
+package com.aleatory.websocketsrouting.backend.messaging.redis;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Stands in for one node of a Redis cluster, as far as sharded pub/sub goes:
+ * SSUBSCRIBE and SPUBLISH for the channels it owns, MOVED for the rest, PING,
+ * and a sunsubscribe push to its subscribers when a channel is taken away. A
+ * silent node reads commands but answers none, like one behind a half-open
+ * connection.
+ */
+class FakeShardNode implements Closeable {
+    private final ServerSocket server;
+    private final Set<String> owned = ConcurrentHashMap.newKeySet();
+    private final Map<String, List<OutputStream>> subscribers = new ConcurrentHashMap<>();
+    private final List<Socket> clients = new CopyOnWriteArrayList<>();
+    final List<String> published = new CopyOnWriteArrayList<>();
+    volatile String movedTo = "127.0.0.1:1";
+    volatile String password;
+    volatile boolean silent;
+    volatile int pings;
+
+    FakeShardNode() throws IOException {
+        server = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+        Thread acceptor = new Thread(this::accept, "fake-shard-" + server.getLocalPort());
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    String node() {
+        return "127.0.0.1:" + server.getLocalPort();
+    }
+
+    void own(String channel) {
+        owned.add(channel);
+    }
+
+    /**
+     * The slot moved away: drop the channel and tell its subscribers, like a
+     * real node does.
+     */
+    void release(String channel) throws IOException {
+        owned.remove(channel);
+        List<OutputStream> outs = subscribers.remove(channel);
+        if (outs != null) {
+            for (OutputStream out : outs) {
+                push(out, "sunsubscribe", channel.getBytes(StandardCharsets.UTF_8), null);
+            }
+        }
+    }
+
+    int subscriberCount(String channel) {
+        return subscribers.getOrDefault(channel, List.of()).size();
+    }
+
+    /**
+     * @return connections accepted so far
+     */
+    int accepted() {
+        return clients.size();
+    }
+
+    private void accept() {
+        while (!server.isClosed()) {
+            try {
+                Socket client = server.accept();
+                clients.add(client);
+                Thread handler = new Thread(() -> serve(client), "fake-shard-client");
+                handler.setDaemon(true);
+                handler.start();
+            } catch (IOException e) {
+                return;
+            }
+        }
+    }
+
+    private void serve(Socket client) {
+        OutputStream out = null;
+        try (client) {
+            InputStream in = new BufferedInputStream(client.getInputStream());
+            out = client.getOutputStream();
+            boolean authenticated = password == null;
+            while (true) {
+                List<byte[]> command = readCommand(in);
+                if (command == null) {
+                    return;
+                }
+                String name = new String(command.get(0), StandardCharsets.US_ASCII).toUpperCase();
+                String channel = command.size() > 1 ? new String(command.get(1), StandardCharsets.UTF_8) : "";
+                if (name.equals("PING")) {
+                    pings++;
+                }
+                if (silent) {
+                    continue;
+                }
+                if (name.equals("AUTH")) {
+                    authenticated = new String(command.get(command.size() - 1), StandardCharsets.UTF_8).equals(password);
+                    write(out, authenticated ? "+OK\r\n" : "-WRONGPASS invalid username-password pair\r\n");
+                } else if (!authenticated) {
+                    write(out, "-NOAUTH Authentication required.\r\n");
+                } else if (name.equals("PING")) {
+                    write(out, "*2\r\n$4\r\npong\r\n$0\r\n\r\n");
+                } else if (!owned.contains(channel)) {
+                    write(out, "-MOVED 1234 " + movedTo + "\r\n");
+                } else if (name.equals("SSUBSCRIBE")) {
+                    subscribers.computeIfAbsent(channel, c -> new CopyOnWriteArrayList<>()).add(out);
+                    push(out, "ssubscribe", command.get(1), null);
+                } else if (name.equals("SPUBLISH")) {
+                    published.add(channel);
+                    List<OutputStream> outs = subscribers.getOrDefault(channel, List.of());
+                    for (OutputStream subscriber : outs) {
+                        push(subscriber, "smessage", command.get(1), command.get(2));
+                    }
+                    write(out, ":" + outs.size() + "\r\n");
+                } else {
+                    write(out, "-ERR unknown command " + name + "\r\n");
+                }
+            }
+        } catch (IOException e) {
+            // Client went away
+        } finally {
+            for (List<OutputStream> outs : subscribers.values()) {
+                outs.remove(out);
+            }
+        }
+    }
+
+    private static List<byte[]> readCommand(InputStream in) throws IOException {
+        int type = in.read();
+        if (type == -1) {
+            return null;
+        }
+        int count = Integer.parseInt(line(in));
+        List<byte[]> args = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            in.read();
+            int length = Integer.parseInt(line(in));
+            args.add(in.readNBytes(length));
+            in.readNBytes(2);
+        }
+        return args;
+    }
+
+    private static String line(InputStream in) throws IOException {
+        StringBuilder line = new StringBuilder();
+        int c;
+        while ((c = in.read()) != '\r') {
+            line.append((char) c);
+        }
+        in.read();
+        return line.toString();
+    }
+
+    private static void push(OutputStream out, String kind, byte[] channel, byte[] payload) throws IOException {
+        StringBuilder header = new StringBuilder("*3\r\n$").append(kind.length()).append("\r\n").append(kind).append("\r\n$").append(channel.length).append("\r\n");
+        synchronized (out) {
+            out.write(header.toString().getBytes(StandardCharsets.US_ASCII));
+            out.write(channel);
+            if (payload == null) {
+                out.write("\r\n:0\r\n".getBytes(StandardCharsets.US_ASCII));
+            } else {
+                out.write(("\r\n$" + payload.length + "\r\n").getBytes(StandardCharsets.US_ASCII));
+                out.write(payload);
+                out.write("\r\n".getBytes(StandardCharsets.US_ASCII));
+            }
+            out.flush();
+        }
+    }
+
+    private static void write(OutputStream out, String reply) throws IOException {
+        synchronized (out) {
+            out.write(reply.getBytes(StandardCharsets.US_ASCII));
+            out.flush();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        server.close();
+        for (Socket client : clients) {
+            client.close();
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package com.aleatory.websocketsrouting.backend.messaging.redis;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Stand-in for a Redis stream with consumer groups, close enough for the
+ * transport tests: a new group starts at the end, {@link #NEW} reads advance the
+ * group and make the entries pending for the consumer, {@link #PENDING} reads
+ * return the consumer's unacknowledged entries.
+ */
+class InMemoryMessageStream implements MessageStream {
+    private final List<Entry> entries = new ArrayList<>();
+    private final Map<String, Integer> lastDelivered = new HashMap<>();
+    private final Map<String, Set<Entry>> pending = new HashMap<>();
+    private long sequence;
+
+    @Override
+    public synchronized void createGroup(String group) {
+        lastDelivered.putIfAbsent(group, entries.size());
+    }
+
+    @Override
+    public synchronized String add(String topic, String payload) {
+        Entry entry = new Entry((++sequence) + "-0", topic, payload);
+        entries.add(entry);
+        notifyAll();
+        return entry.id();
+    }
+
+    @Override
+    public synchronized List<Entry> read(String group, String consumer, String from, int count, Duration block) {
+        Set<Entry> consumerPending = pending.computeIfAbsent(group + "/" + consumer, k -> new LinkedHashSet<>());
+        if (PENDING.equals(from)) {
+            return consumerPending.stream().limit(count).toList();
+        }
+        if (block != null && entries.size() == lastDelivered.get(group)) {
+            try {
+                wait(block.toMillis());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        int start = lastDelivered.get(group);
+        List<Entry> read = new ArrayList<>(entries.subList(start, Math.min(entries.size(), start + count)));
+        lastDelivered.put(group, start + read.size());
+        consumerPending.addAll(read);
+        return read;
+    }
+
+    @Override
+    public synchronized void acknowledge(String group, List<String> ids) {
+        pending.entrySet().stream().filter(e -> e.getKey().startsWith(group + "/")).forEach(e -> e.getValue().removeIf(entry -> ids.contains(entry.id())));
+    }
+
+    @Override
+    public synchronized void trim(long maxLength) {
+    }
+
+    synchronized int pendingCount() {
+        return pending.values().stream().mapToInt(Set::size).sum();
+    }
+}
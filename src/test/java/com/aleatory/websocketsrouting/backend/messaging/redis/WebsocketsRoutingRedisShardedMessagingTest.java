@@ -0,0 +1,258 @@
+package com.aleatory.websocketsrouting.backend.messaging.redis;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.scheduling.TaskScheduler;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.aleatory.websocketsrouting.backend.messaging.codec.MessageCodecSerializer;
+import com.aleatory.websocketsrouting.events.SendMessageToFrontendEvent;
+import com.fasterxml.jackson.annotation.JsonTypeInfo;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.databind.CBORMapper;
+
+/**
+ * Runs the transport against two fake cluster nodes on localhost.
+ */
+@ExtendWith(MockitoExtension.class)
+class WebsocketsRoutingRedisShardedMessagingTest {
+    static final String SPX = "/topic/prices.spx", IMPVOL = "/topic/prices.impvol", PORTFOLIO = "/topic/portfolio";
+
+    /**
+     * Channel -> node, with changes held back until refresh() like a topology
+     * that has to be re-read.
+     */
+    static class TestShardMap implements ShardMap {
+        final Map<String, String> current = new ConcurrentHashMap<>(), next = new ConcurrentHashMap<>();
+
+        @Override
+        public String nodeFor(String channel) {
+            String node = current.get(channel);
+            if (node == null) {
+                throw new IllegalStateException("No cluster node serves " + channel);
+            }
+            return node;
+        }
+
+        @Override
+        public void refresh() {
+            current.putAll(next);
+        }
+    }
+
+    FakeShardNode nodeA, nodeB;
+    TestShardMap shardMap = new TestShardMap();
+    MessageCodecSerializer serializer;
+    BlockingQueue<Object> events = new LinkedBlockingQueue<>();
+    WebsocketsRoutingRedisShardedMessaging cut;
+
+    @Mock
+    TaskScheduler scheduler;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        nodeA = new FakeShardNode();
+        nodeB = new FakeShardNode();
+        nodeA.own(SPX);
+        nodeA.own(IMPVOL);
+        nodeB.own(PORTFOLIO);
+        shardMap.current.putAll(Map.of(SPX, nodeA.node(), IMPVOL, nodeA.node(), PORTFOLIO, nodeB.node()));
+
+        ObjectMapper mapper = new ObjectMapper(), cborMapper = new CBORMapper();
+        mapper.activateDefaultTyping(mapper.getPolymorphicTypeValidator(), ObjectMapper.DefaultTyping.NON_FINAL, JsonTypeInfo.As.PROPERTY);
+        cborMapper.activateDefaultTyping(cborMapper.getPolymorphicTypeValidator(), ObjectMapper.DefaultTyping.NON_FINAL, JsonTypeInfo.As.PROPERTY);
+        serializer = new MessageCodecSerializer(mapper, cborMapper, "cbor", 0);
+
+        cut = new WebsocketsRoutingRedisShardedMessaging();
+        ReflectionTestUtils.setField(cut, "applicationEventPublisher", (ApplicationEventPublisher) events::add);
+        ReflectionTestUtils.setField(cut, "shardMap", shardMap);
+        ReflectionTestUtils.setField(cut, "serializer", serializer);
+        ReflectionTestUtils.setField(cut, "scheduler", scheduler);
+        ReflectionTestUtils.setField(cut, "initialChannels", List.of(SPX, IMPVOL, PORTFOLIO));
+        ReflectionTestUtils.setField(cut, "resyncSeconds", 5);
+        ReflectionTestUtils.setField(cut, "connectTimeoutMillis", 1000);
+        cut.start();
+        awaitTrue(() -> nodeA.subscriberCount(SPX) == 1 && nodeA.subscriberCount(IMPVOL) == 1 && nodeB.subscriberCount(PORTFOLIO) == 1);
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        cut.stop();
+        nodeA.close();
+        nodeB.close();
+    }
+
+    static void awaitTrue(BooleanSupplier condition) {
+        long giveUp = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (!condition.getAsBoolean()) {
+            if (System.nanoTime() > giveUp) {
+                throw new AssertionError("Timed out waiting");
+            }
+            Thread.onSpinWait();
+        }
+    }
+
+    /**
+     * SPUBLISHes like a backend would.
+     */
+    void backendPublishes(FakeShardNode node, String channel, Object payload) throws IOException {
+        try (ShardConnection connection = new ShardConnection(node.node(), 1000)) {
+            assertEquals(1L, connection.spublish(channel, serializer.serialize(payload)));
+        }
+    }
+
+    // Peers send mutable maps; immutable ones are final and go without a type id
+    static Map<String, Object> message(String key, Object value) {
+        return new HashMap<>(Map.of(key, value));
+    }
+
+    SendMessageToFrontendEvent nextEvent() throws InterruptedException {
+        Object event = events.poll(5, TimeUnit.SECONDS);
+        assertNotNull(event, "No message reached the router");
+        return (SendMessageToFrontendEvent) event;
+    }
+
+    @Test
+    void testOneSubscriberPerShard() throws Exception {
+        assertEquals(Map.of(nodeA.node(), Set.of(SPX, IMPVOL), nodeB.node(), Set.of(PORTFOLIO)), cut.getSubscriptions());
+
+        backendPublishes(nodeA, SPX, message("price", 5864.67));
+        SendMessageToFrontendEvent event = nextEvent();
+        assertEquals(SPX, event.getDestination());
+        assertEquals(Map.of("price", 5864.67), event.getPayload());
+
+        backendPublishes(nodeB, PORTFOLIO, message("positions", 3));
+        assertEquals(PORTFOLIO, nextEvent().getDestination());
+    }
+
+    @Test
+    void testResubscribesWhenSlotMoves() throws Exception {
+        nodeB.own(SPX);
+        shardMap.next.put(SPX, nodeB.node());
+        nodeA.release(SPX);
+        awaitTrue(() -> Boolean.TRUE.equals(ReflectionTestUtils.getField(cut, "resyncNeeded")));
+        ReflectionTestUtils.invokeMethod(cut, "resyncIfNeeded");
+        awaitTrue(() -> nodeB.subscriberCount(SPX) == 1);
+        assertEquals(Map.of(nodeA.node(), Set.of(IMPVOL), nodeB.node(), Set.of(PORTFOLIO, SPX)), cut.getSubscriptions());
+
+        backendPublishes(nodeB, SPX, message("price", 5865.0));
+        assertEquals(Map.of("price", 5865.0), nextEvent().getPayload());
+    }
+
+    @Test
+    void testPublishFollowsMoved() throws Exception {
+        nodeB.own(SPX);
+        shardMap.next.put(SPX, nodeB.node());
+        nodeA.release(SPX);
+        cut.publishMessage(SPX, message("price", 5866.0));
+        assertEquals(List.of(SPX), nodeB.published);
+        assertEquals(List.of(), nodeA.published);
+    }
+
+    @Test
+    void testAddedChannelIsSubscribedOnItsShard() throws Exception {
+        String xsp = "/topic/prices.xsp";
+        nodeB.own(xsp);
+        shardMap.current.put(xsp, nodeB.node());
+        int accepted = nodeB.accepted();
+        cut.addChannel(xsp);
+        awaitTrue(() -> nodeB.subscriberCount(xsp) == 1);
+        // On the connection we had, not a new one
+        assertEquals(accepted, nodeB.accepted());
+        assertEquals(1, nodeB.subscriberCount(PORTFOLIO));
+        backendPublishes(nodeB, xsp, message("price", 586.1));
+        assertEquals(xsp, nextEvent().getDestination());
+    }
+
+    @Test
+    void testSubscribeErrorResubscribesOnTheRightShard() throws Exception {
+        String xsp = "/topic/prices.xsp";
+        nodeB.own(xsp);
+        // Our topology is behind: we SSUBSCRIBE on A, which answers MOVED
+        shardMap.current.put(xsp, nodeA.node());
+        shardMap.next.put(xsp, nodeB.node());
+        int accepted = nodeA.accepted();
+        cut.addChannel(xsp);
+        awaitTrue(() -> Boolean.TRUE.equals(ReflectionTestUtils.getField(cut, "resyncNeeded")));
+        assertEquals(Set.of(SPX, IMPVOL), cut.getSubscriptions().get(nodeA.node()));
+
+        ReflectionTestUtils.invokeMethod(cut, "resyncIfNeeded");
+        awaitTrue(() -> nodeB.subscriberCount(xsp) == 1);
+        assertEquals(accepted, nodeA.accepted());
+        backendPublishes(nodeB, xsp, message("price", 586.2));
+        assertEquals(xsp, nextEvent().getDestination());
+        backendPublishes(nodeA, SPX, message("price", 5864.8));
+        assertEquals(SPX, nextEvent().getDestination());
+    }
+
+    @Test
+    void testReconnectsWhenANodeStopsAnswering() throws Exception {
+        cut.stop();
+        ReflectionTestUtils.setField(cut, "pingMillis", 100);
+        cut.start();
+        // A quiet connection is PINGed, and that's answered
+        awaitTrue(() -> nodeA.pings > 0);
+        assertEquals(false, ReflectionTestUtils.getField(cut, "resyncNeeded"));
+
+        int accepted = nodeA.accepted();
+        nodeA.silent = true;
+        awaitTrue(() -> Boolean.TRUE.equals(ReflectionTestUtils.getField(cut, "resyncNeeded")));
+        nodeA.silent = false;
+        ReflectionTestUtils.invokeMethod(cut, "resyncIfNeeded");
+        awaitTrue(() -> nodeA.accepted() > accepted && nodeA.subscriberCount(SPX) == 1);
+
+        backendPublishes(nodeA, SPX, message("price", 5868.0));
+        assertEquals(Map.of("price", 5868.0), nextEvent().getPayload());
+    }
+
+    @Test
+    void testUnservedSlotWaitsForTheNextResync() throws Exception {
+        String xsp = "/topic/prices.xsp";
+        cut.addChannel(xsp);
+        assertTrue((Boolean) ReflectionTestUtils.getField(cut, "resyncNeeded"));
+        assertEquals(Map.of(nodeA.node(), Set.of(SPX, IMPVOL), nodeB.node(), Set.of(PORTFOLIO)), cut.getSubscriptions());
+
+        nodeB.own(xsp);
+        shardMap.next.put(xsp, nodeB.node());
+        ReflectionTestUtils.invokeMethod(cut, "resyncIfNeeded");
+        awaitTrue(() -> nodeB.subscriberCount(xsp) == 1);
+    }
+
+    @Test
+    void testAuthenticatesWithThePassword() throws Exception {
+        cut.stop();
+        try (FakeShardNode secured = new FakeShardNode()) {
+            secured.password = "secret";
+            List.of(SPX, IMPVOL, PORTFOLIO).forEach(secured::own);
+            shardMap.current.putAll(Map.of(SPX, secured.node(), IMPVOL, secured.node(), PORTFOLIO, secured.node()));
+            ReflectionTestUtils.setField(cut, "password", "secret");
+            cut.start();
+            awaitTrue(() -> secured.subscriberCount(SPX) == 1);
+
+            try (ShardConnection backend = new ShardConnection(secured.node(), 1000, null, "secret", false)) {
+                assertEquals(1L, backend.spublish(SPX, serializer.serialize(message("price", 5867.0))));
+            }
+            assertEquals(Map.of("price", 5867.0), nextEvent().getPayload());
+        }
+    }
+}
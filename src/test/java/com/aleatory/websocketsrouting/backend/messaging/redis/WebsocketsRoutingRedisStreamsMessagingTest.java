@@ -0,0 +1,105 @@
+package com.aleatory.websocketsrouting.backend.messaging.redis;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.scheduling.TaskScheduler;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.aleatory.websocketsrouting.events.SendMessageToFrontendEvent;
+
+@ExtendWith(MockitoExtension.class)
+class WebsocketsRoutingRedisStreamsMessagingTest {
+    static final String GROUP = "websockets-routing";
+
+    WebsocketsRoutingRedisStreamsMessaging cut;
+
+    @Mock
+    ApplicationEventPublisher applicationEventPublisher;
+
+    @Mock
+    TaskScheduler scheduler;
+
+    InMemoryMessageStream stream = new InMemoryMessageStream();
+
+    @BeforeEach
+    void setUp() {
+        cut = newRouter();
+    }
+
+    @AfterEach
+    void tearDown() {
+        cut.stop();
+    }
+
+    WebsocketsRoutingRedisStreamsMessaging newRouter() {
+        WebsocketsRoutingRedisStreamsMessaging router = new WebsocketsRoutingRedisStreamsMessaging();
+        ReflectionTestUtils.setField(router, "applicationEventPublisher", applicationEventPublisher);
+        ReflectionTestUtils.setField(router, "stream", stream);
+        ReflectionTestUtils.setField(router, "scheduler", scheduler);
+        ReflectionTestUtils.setField(router, "group", GROUP);
+        ReflectionTestUtils.setField(router, "consumer", "router-1");
+        ReflectionTestUtils.setField(router, "batchSize", 2);
+        ReflectionTestUtils.setField(router, "blockMillis", 50L);
+        ReflectionTestUtils.setField(router, "catchUpTimeoutSeconds", 5);
+        return router;
+    }
+
+    @Test
+    void testCatchesUpOnMessagesPublishedWhileDown() {
+        stream.createGroup(GROUP);
+        cut.publishMessage("/topic/prices.spx", Map.of("price", 5864.67));
+        cut.publishMessage("/topic/prices.spx", Map.of("price", 5864.70));
+        cut.publishMessage("/topic/prices.current.condor.full", Map.of("price", 1.0));
+        cut.publishMessage("/topic/trades", "{\"id\":7}");
+
+        cut.start();
+
+        // Done before start() returns, i.e. before the web server starts
+        ArgumentCaptor<SendMessageToFrontendEvent> events = ArgumentCaptor.forClass(SendMessageToFrontendEvent.class);
+        verify(applicationEventPublisher, times(3)).publishEvent(events.capture());
+        List<SendMessageToFrontendEvent> sent = events.getAllValues();
+        assertEquals(Map.of("price", 5864.70), sent.get(1).getPayload());
+        assertEquals("/topic/trades", sent.get(2).getDestination());
+        assertEquals(Map.of("id", 7), sent.get(2).getPayload());
+        assertEquals(0, stream.pendingCount());
+    }
+
+    @Test
+    void testUnacknowledgedMessagesAreReadAgain() {
+        stream.createGroup(GROUP);
+        stream.add("/topic/prices.spx", "{\"price\":5864.67}");
+        // Delivered to us before a crash, never acknowledged
+        stream.read(GROUP, "router-1", MessageStream.NEW, 10, null);
+
+        cut.start();
+
+        verify(applicationEventPublisher).publishEvent(any(SendMessageToFrontendEvent.class));
+        assertEquals(0, stream.pendingCount());
+    }
+
+    @Test
+    void testReadsLiveMessagesAfterCatchUp() {
+        cut.start();
+        verify(applicationEventPublisher, never()).publishEvent(any());
+
+        stream.add("/topic/prices.spx", "{\"price\":5864.67}");
+
+        verify(applicationEventPublisher, timeout(2000)).publishEvent(any(SendMessageToFrontendEvent.class));
+    }
+}
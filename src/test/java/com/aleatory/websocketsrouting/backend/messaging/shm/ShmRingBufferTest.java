@@ -0,0 +1,121 @@
+package com.aleatory.websocketsrouting.backend.messaging.shm;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class ShmRingBufferTest {
+    static final int CAPACITY = 4096;
+
+    @TempDir
+    Path directory;
+
+    record Received(String topic, String payload) {
+    }
+
+    List<Received> drain(ShmRingBuffer.Reader reader) {
+        List<Received> received = new ArrayList<>();
+        while (reader.poll((topic, payload) -> received.add(new Received(topic, payload)), 10) > 0) {
+        }
+        return received;
+    }
+
+    @Test
+    void testPublishedRecordsAreReadInOrder() throws IOException {
+        ShmRingBuffer publisher = ShmRingBuffer.open(directory.resolve("pricing.ring"), CAPACITY);
+        ShmRingBuffer.Reader reader = ShmRingBuffer.attach(directory.resolve("pricing.ring")).reader();
+
+        publisher.offer("/topic/prices.spx", "{\"price\":5864.67}");
+        publisher.offer("/topic/prices.impvol", "{\"vol\":\"12.5%\",\"note\":\"été\"}");
+
+        List<Received> received = drain(reader);
+        assertEquals(List.of(new Received("/topic/prices.spx", "{\"price\":5864.67}"), new Received("/topic/prices.impvol", "{\"vol\":\"12.5%\",\"note\":\"été\"}")),
+                received);
+        assertTrue(drain(reader).isEmpty());
+    }
+
+    @Test
+    void testReaderStartsAtCurrentPosition() throws IOException {
+        ShmRingBuffer publisher = ShmRingBuffer.open(directory.resolve("pricing.ring"), CAPACITY);
+        publisher.offer("/topic/prices.spx", "old");
+        ShmRingBuffer.Reader reader = publisher.reader();
+        publisher.offer("/topic/prices.spx", "new");
+        assertEquals(List.of(new Received("/topic/prices.spx", "new")), drain(reader));
+    }
+
+    @Test
+    void testRecordsWrapAround() throws IOException {
+        ShmRingBuffer publisher = ShmRingBuffer.open(directory.resolve("pricing.ring"), CAPACITY);
+        ShmRingBuffer.Reader reader = publisher.reader();
+        // 1000 records of ~100 bytes go round a 4K ring many times; keep up as we go
+        for (int i = 0; i < 1000; i++) {
+            publisher.offer("/topic/prices.spx", "{\"price\":" + i + ",\"pad\":\"" + "x".repeat(i % 70) + "\"}");
+            List<Received> received = drain(reader);
+            assertEquals(1, received.size());
+            assertTrue(received.get(0).payload().startsWith("{\"price\":" + i + ","));
+        }
+        assertEquals(0, reader.getLostBytes());
+    }
+
+    @Test
+    void testLappedReaderSkipsAhead() throws IOException {
+        ShmRingBuffer publisher = ShmRingBuffer.open(directory.resolve("pricing.ring"), CAPACITY);
+        ShmRingBuffer.Reader reader = publisher.reader();
+        for (int i = 0; i < 200; i++) {
+            publisher.offer("/topic/prices.spx", "{\"price\":" + i + "}");
+        }
+        assertTrue(drain(reader).isEmpty());
+        assertTrue(reader.getLostBytes() > 0);
+
+        publisher.offer("/topic/prices.spx", "{\"price\":200}");
+        assertEquals(List.of(new Received("/topic/prices.spx", "{\"price\":200}")), drain(reader));
+    }
+
+    @Test
+    void testTopicsAreDecodedOnce() throws IOException {
+        ShmRingBuffer publisher = ShmRingBuffer.open(directory.resolve("pricing.ring"), CAPACITY);
+        ShmRingBuffer.Reader reader = publisher.reader();
+        publisher.offer("/topic/prices.spx", "1");
+        publisher.offer("/topic/prices.spx", "2");
+        List<Received> received = drain(reader);
+        assertSame(received.get(0).topic(), received.get(1).topic());
+    }
+
+    @Test
+    void testOversizedRecordRejected() throws IOException {
+        ShmRingBuffer publisher = ShmRingBuffer.open(directory.resolve("pricing.ring"), CAPACITY);
+        assertFalse(publisher.offer("/topic/prices.spx", "x".repeat(CAPACITY / 4)));
+    }
+
+    @Test
+    void testPositionSurvivesReopen() throws IOException {
+        Path file = directory.resolve("pricing.ring");
+        ShmRingBuffer publisher = ShmRingBuffer.open(file, CAPACITY);
+        ShmRingBuffer.Reader reader = publisher.reader();
+        publisher.offer("/topic/prices.spx", "before");
+        ShmRingBuffer restarted = ShmRingBuffer.open(file, CAPACITY * 2);
+        assertEquals(CAPACITY, restarted.getCapacity());
+        restarted.offer("/topic/prices.spx", "after");
+        assertEquals(List.of(new Received("/topic/prices.spx", "before"), new Received("/topic/prices.spx", "after")), drain(reader));
+    }
+
+    @Test
+    void testAttachToNonRing() throws IOException {
+        Path empty = Files.createFile(directory.resolve("starting.ring"));
+        assertNull(ShmRingBuffer.attach(empty));
+        Path junk = Files.write(directory.resolve("junk.ring"), new byte[1024]);
+        assertThrows(IOException.class, () -> ShmRingBuffer.attach(junk));
+    }
+}
@@ -0,0 +1,144 @@
+package com.aleatory.websocketsrouting.backend.messaging.shm;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+import org.junit.jupiter.api.Assumptions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import io.lettuce.core.RedisClient;
+import io.lettuce.core.api.StatefulRedisConnection;
+import io.lettuce.core.pubsub.RedisPubSubAdapter;
+import io.lettuce.core.pubsub.StatefulRedisPubSubConnection;
+
+/**
+ * One-way latency of a price tick from a publisher thread to the reader, over
+ * the shm ring (spin and park) and over Redis pub/sub. Not part of the normal
+ * test run; run it with <code>mvn test -Dtest=ShmTransportBenchmark</code>. The
+ * Redis leg only runs with <code>-Dbenchmark.redis.uri=redis://host:6379</code>.
+ *
+ * Ticks are sent one at a time, each once the previous one has arrived, so this
+ * measures latency rather than throughput. The publisher yields while it waits;
+ * on a box with fewer than two free cores the spin numbers mean nothing.
+ */
+class ShmTransportBenchmark {
+    private static final Logger logger = LoggerFactory.getLogger(ShmTransportBenchmark.class);
+
+    private static final int WARMUP_ITERATIONS = 2000;
+    private static final int ITERATIONS = 20000;
+    private static final String TOPIC = "/topic/prices.spx";
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void benchmarkShmSpin() throws Exception {
+        runShm(true);
+    }
+
+    @Test
+    void benchmarkShmPark() throws Exception {
+        runShm(false);
+    }
+
+    private void runShm(boolean spin) throws IOException {
+        ShmRingBuffer ring = ShmRingBuffer.open(directory.resolve("pricing.ring"), 16 * 1024 * 1024);
+        ShmRingBuffer.Reader reader = ShmRingBuffer.attach(ring.getPath()).reader();
+        long[] latencies = new long[ITERATIONS];
+        int total = WARMUP_ITERATIONS + ITERATIONS;
+        AtomicInteger received = new AtomicInteger();
+        Thread consumer = new Thread(() -> {
+            while (received.get() < total) {
+                int read = reader.poll((topic, payload) -> {
+                    long latency = System.nanoTime() - sentAt(payload);
+                    if (received.get() >= WARMUP_ITERATIONS) {
+                        latencies[received.get() - WARMUP_ITERATIONS] = latency;
+                    }
+                    received.incrementAndGet();
+                }, 16);
+                if (read == 0) {
+                    if (spin) {
+                        Thread.onSpinWait();
+                    } else {
+                        LockSupport.parkNanos(TimeUnit.MICROSECONDS.toNanos(50));
+                    }
+                }
+            }
+        });
+        consumer.setDaemon(true);
+        consumer.start();
+        for (int i = 0; i < total; i++) {
+            ring.offer(TOPIC, tick(i));
+            awaitArrival(received, i + 1);
+        }
+        report(spin ? "shm (spin)" : "shm (park 50us)", latencies);
+    }
+
+    @Test
+    void benchmarkRedisPubSub() {
+        String uri = System.getProperty("benchmark.redis.uri");
+        Assumptions.assumeTrue(uri != null, "Set -Dbenchmark.redis.uri to compare with Redis pub/sub");
+        RedisClient client = RedisClient.create(uri);
+        try (StatefulRedisPubSubConnection<String, String> subscriber = client.connectPubSub();
+                StatefulRedisConnection<String, String> publisher = client.connect()) {
+            long[] latencies = new long[ITERATIONS];
+            int total = WARMUP_ITERATIONS + ITERATIONS;
+            AtomicInteger received = new AtomicInteger();
+            subscriber.addListener(new RedisPubSubAdapter<>() {
+                @Override
+                public void message(String channel, String message) {
+                    long latency = System.nanoTime() - sentAt(message);
+                    if (received.get() >= WARMUP_ITERATIONS) {
+                        latencies[received.get() - WARMUP_ITERATIONS] = latency;
+                    }
+                    received.incrementAndGet();
+                }
+            });
+            subscriber.sync().subscribe(TOPIC);
+            for (int i = 0; i < total; i++) {
+                publisher.sync().publish(TOPIC, tick(i));
+                awaitArrival(received, i + 1);
+            }
+            report("redis pub/sub", latencies);
+        } finally {
+            client.shutdown();
+        }
+    }
+
+    private static String tick(int i) {
+        return "{\"sentAt\":" + System.nanoTime() + ",\"price\":" + (5800 + i % 100) + ".25,\"symbol\":\"SPX\"}";
+    }
+
+    private static long sentAt(String payload) {
+        int start = payload.indexOf(':') + 1;
+        return Long.parseLong(payload, start, payload.indexOf(',', start), 10);
+    }
+
+    private static void awaitArrival(AtomicInteger received, int count) {
+        long giveUp = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (received.get() < count) {
+            if (System.nanoTime() > giveUp) {
+                throw new IllegalStateException("Tick " + count + " never arrived.");
+            }
+            Thread.yield();
+        }
+    }
+
+    private static void report(String transport, long[] latencies) {
+        long[] sorted = latencies.clone();
+        Arrays.sort(sorted);
+        logger.info("{}: p50 {} us, p99 {} us, p99.9 {} us, max {} us", transport, micros(sorted[sorted.length / 2]), micros(sorted[sorted.length * 99 / 100]),
+                micros(sorted[sorted.length * 999 / 1000]), micros(sorted[sorted.length - 1]));
+    }
+
+    private static String micros(long nanos) {
+        return String.format("%.1f", nanos / 1000.0);
+    }
+}
@@ -0,0 +1,191 @@
+package com.aleatory.websocketsrouting.broker;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.junit.jupiter.api.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.MessageHandler;
+import org.springframework.messaging.converter.StringMessageConverter;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessageType;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.messaging.simp.broker.SimpleBrokerMessageHandler;
+import org.springframework.messaging.support.ExecutorSubscribableChannel;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.web.socket.messaging.SessionSubscribeEvent;
+
+/**
+ * Fan-out throughput and ordering of the simple broker (with its outbound
+ * thread pool sized like Spring's default) against the sharded broker at 1, 2
+ * and one-per-core shards. Not part of the normal test run; run it with
+ * <code>mvn test -Dtest=ShardedBrokerBenchmark</code>.
+ */
+class ShardedBrokerBenchmark {
+    private static final Logger logger = LoggerFactory.getLogger(ShardedBrokerBenchmark.class);
+
+    private static final int DESTINATIONS = 64, SUBSCRIBERS = 50, PRODUCERS = 4, MESSAGES = 500;
+    private static final int CORES = Runtime.getRuntime().availableProcessors();
+
+    /**
+     * Counts what each session gets, does a little work per send (as encoding a
+     * frame would) and notes anything that arrives behind a later message.
+     */
+    static class CountingHandler implements MessageHandler {
+        final LongAdder sent = new LongAdder(), outOfOrder = new LongAdder();
+        final Map<String, AtomicInteger> lastSeen = new ConcurrentHashMap<>();
+
+        @Override
+        public void handleMessage(Message<?> message) {
+            SimpMessageHeaderAccessor headers = SimpMessageHeaderAccessor.wrap(message);
+            if (headers.getMessageType() != SimpMessageType.MESSAGE) {
+                return;
+            }
+            byte[] frame = ((byte[]) message.getPayload()).clone();
+            int seq = Integer.parseInt(new String(frame));
+            int previous = lastSeen.computeIfAbsent(headers.getSessionId() + headers.getDestination(), k -> new AtomicInteger(-1)).getAndSet(seq);
+            if (seq < previous) {
+                outOfOrder.increment();
+            }
+            sent.increment();
+        }
+    }
+
+    interface Broker {
+        void subscribe(String sessionId, String destination);
+
+        MessageChannel channel();
+
+        void close();
+    }
+
+    @Test
+    void benchmarkFanOut() throws InterruptedException {
+        for (int round = 0; round < 2; round++) {
+            run("simple", simpleBroker(new CountingHandler()));
+            run("sharded x1", shardedBroker(1));
+            run("sharded x2", shardedBroker(2));
+            run("sharded x" + CORES, shardedBroker(CORES));
+        }
+    }
+
+    private CountingHandler handler;
+
+    private Broker simpleBroker(CountingHandler handler) {
+        this.handler = handler;
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(CORES * 2);
+        executor.setMaxPoolSize(Integer.MAX_VALUE);
+        executor.initialize();
+        ExecutorSubscribableChannel inbound = new ExecutorSubscribableChannel(), outbound = new ExecutorSubscribableChannel(executor),
+                brokerChannel = new ExecutorSubscribableChannel();
+        outbound.subscribe(handler);
+        SimpleBrokerMessageHandler broker = new SimpleBrokerMessageHandler(inbound, outbound, brokerChannel, List.of("/topic"));
+        broker.start();
+        return new Broker() {
+            final Set<String> connected = new HashSet<>();
+            int subscriptionId;
+
+            @Override
+            public void subscribe(String sessionId, String destination) {
+                // The simple broker ignores sessions it hasn't seen connect
+                if (connected.add(sessionId)) {
+                    inbound.send(ShardedBrokerTest.frame(SimpMessageType.CONNECT, sessionId, null, null));
+                }
+                inbound.send(ShardedBrokerTest.frame(SimpMessageType.SUBSCRIBE, sessionId, Integer.toString(subscriptionId++), destination));
+            }
+
+            @Override
+            public MessageChannel channel() {
+                return brokerChannel;
+            }
+
+            @Override
+            public void close() {
+                broker.stop();
+                executor.shutdown();
+            }
+        };
+    }
+
+    private Broker shardedBroker(int shards) {
+        handler = new CountingHandler();
+        ShardedBrokerTest.RecordingHandler webSocketHandler = new ShardedBrokerTest.RecordingHandler() {
+            @Override
+            public void handleMessage(Message<?> message) {
+                handler.handleMessage(message);
+            }
+        };
+        ShardedBroker broker = new ShardedBroker();
+        ReflectionTestUtils.setField(broker, "webSocketHandler", webSocketHandler);
+        ReflectionTestUtils.setField(broker, "shardCount", shards);
+        broker.start();
+        return new Broker() {
+            int subscriptionId;
+
+            @Override
+            public void subscribe(String sessionId, String destination) {
+                broker.subscribed(new SessionSubscribeEvent(this, ShardedBrokerTest.frame(SimpMessageType.SUBSCRIBE, sessionId, Integer.toString(subscriptionId++), destination)));
+            }
+
+            @Override
+            public MessageChannel channel() {
+                return broker;
+            }
+
+            @Override
+            public void close() {
+                broker.stop();
+            }
+        };
+    }
+
+    private void run(String name, Broker broker) throws InterruptedException {
+        for (int d = 0; d < DESTINATIONS; d++) {
+            for (int s = 0; s < SUBSCRIBERS; s++) {
+                broker.subscribe("session-" + s, "/topic/prices.condor.portfolio." + d);
+            }
+        }
+        SimpMessagingTemplate template = new SimpMessagingTemplate(broker.channel());
+        template.setMessageConverter(new StringMessageConverter());
+        long expected = (long) DESTINATIONS * SUBSCRIBERS * MESSAGES;
+
+        long start = System.nanoTime();
+        List<Thread> producers = new ArrayList<>();
+        for (int p = 0; p < PRODUCERS; p++) {
+            int first = p;
+            producers.add(new Thread(() -> {
+                for (int i = 0; i < MESSAGES; i++) {
+                    for (int d = first; d < DESTINATIONS; d += PRODUCERS) {
+                        template.convertAndSend("/topic/prices.condor.portfolio." + d, Integer.toString(i));
+                    }
+                }
+            }));
+        }
+        producers.forEach(Thread::start);
+        for (Thread producer : producers) {
+            producer.join();
+        }
+        long deadline = System.nanoTime() + 60_000_000_000L;
+        while (handler.sent.sum() < expected && System.nanoTime() < deadline) {
+            Thread.sleep(1);
+        }
+        if (handler.sent.sum() < expected) {
+            logger.warn("{}: only {} of {} sends arrived", name, handler.sent.sum(), expected);
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        logger.info("{} on {} cores: {} sends in {} s, {} sends/s, {} out of order", name, CORES, expected, String.format("%.2f", seconds),
+                Math.round(expected / seconds), handler.outOfOrder.sum());
+        broker.close();
+    }
+}
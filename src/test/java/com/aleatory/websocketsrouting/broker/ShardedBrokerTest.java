@@ -0,0 +1,325 @@
+package com.aleatory.websocketsrouting.broker;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.function.BooleanSupplier;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.MessageHandler;
+import org.springframework.messaging.converter.StringMessageConverter;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessageType;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.messaging.support.ChannelInterceptor;
+import org.springframework.messaging.support.ExecutorSubscribableChannel;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.handler.AbstractWebSocketHandler;
+import org.springframework.web.socket.messaging.SessionDisconnectEvent;
+import org.springframework.web.socket.messaging.SessionSubscribeEvent;
+import org.springframework.web.socket.messaging.SessionUnsubscribeEvent;
+
+import com.aleatory.websocketsrouting.delta.DeltaEncoder;
+
+@ExtendWith(MockitoExtension.class)
+class ShardedBrokerTest {
+
+    /**
+     * Stands in for the sub-protocol handler: what each session got, and on which
+     * thread.
+     */
+    static class RecordingHandler extends AbstractWebSocketHandler implements MessageHandler {
+        record Sent(String sessionId, String subscriptionId, String destination, String payload, String thread) {
+        }
+
+        final Queue<Sent> sent = new ConcurrentLinkedQueue<>();
+
+        @Override
+        public void handleMessage(Message<?> message) {
+            SimpMessageHeaderAccessor headers = SimpMessageHeaderAccessor.wrap(message);
+            sent.add(new Sent(headers.getSessionId(), headers.getSubscriptionId(), headers.getDestination(), new String((byte[]) message.getPayload()),
+                    Thread.currentThread().getName()));
+        }
+
+        List<Sent> to(String sessionId, String destination) {
+            return sent.stream().filter(s -> s.sessionId().equals(sessionId) && s.destination().equals(destination)).toList();
+        }
+    }
+
+    RecordingHandler handler = new RecordingHandler();
+    ExecutorSubscribableChannel clientOutboundChannel = new ExecutorSubscribableChannel();
+    ShardedBroker cut;
+    SimpMessagingTemplate template;
+
+    @Mock
+    MessageChannel brokerChannel;
+
+    @BeforeEach
+    void setUp() {
+        cut = new ShardedBroker();
+        ReflectionTestUtils.setField(cut, "webSocketHandler", handler);
+        ReflectionTestUtils.setField(cut, "brokerChannel", brokerChannel);
+        ReflectionTestUtils.setField(cut, "clientOutboundChannel", clientOutboundChannel);
+        ReflectionTestUtils.setField(cut, "shardCount", 4);
+        cut.start();
+        template = new SimpMessagingTemplate(cut);
+        template.setMessageConverter(new StringMessageConverter());
+    }
+
+    @AfterEach
+    void tearDown() {
+        cut.stop();
+    }
+
+    static Message<byte[]> frame(SimpMessageType type, String sessionId, String subscriptionId, String destination) {
+        SimpMessageHeaderAccessor headers = SimpMessageHeaderAccessor.create(type);
+        headers.setSessionId(sessionId);
+        headers.setSubscriptionId(subscriptionId);
+        headers.setDestination(destination);
+        return MessageBuilder.createMessage(new byte[0], headers.getMessageHeaders());
+    }
+
+    void subscribe(String sessionId, String subscriptionId, String destination) {
+        cut.subscribed(new SessionSubscribeEvent(this, frame(SimpMessageType.SUBSCRIBE, sessionId, subscriptionId, destination)));
+    }
+
+    static void await(BooleanSupplier condition) throws InterruptedException {
+        for (int i = 0; i < 500 && !condition.getAsBoolean(); i++) {
+            Thread.sleep(10);
+        }
+        assertTrue(condition.getAsBoolean());
+    }
+
+    @Test
+    void sendsToEachSubscription() throws InterruptedException {
+        subscribe("s1", "sub-0", "/topic/prices.spx");
+        subscribe("s2", "sub-7", "/topic/prices.spx");
+        subscribe("s2", "sub-8", "/topic/prices.impvol");
+
+        template.convertAndSend("/topic/prices.spx", "{\"last\":5012.5}");
+        template.convertAndSend("/topic/prices.impvol", "{\"iv\":0.14}");
+
+        await(() -> handler.sent.size() == 3);
+        assertEquals("sub-0", handler.to("s1", "/topic/prices.spx").get(0).subscriptionId());
+        assertEquals("sub-7", handler.to("s2", "/topic/prices.spx").get(0).subscriptionId());
+        assertEquals("{\"iv\":0.14}", handler.to("s2", "/topic/prices.impvol").get(0).payload());
+    }
+
+    @Test
+    void keepsEachDestinationsOrderAndThread() throws InterruptedException {
+        int destinations = 12, messages = 1000;
+        for (int d = 0; d < destinations; d++) {
+            subscribe("s1", "sub-" + d, "/topic/prices.condor.portfolio." + d);
+            subscribe("s2", "sub-" + d, "/topic/prices.condor.portfolio." + d);
+        }
+        List<Thread> producers = new ArrayList<>();
+        for (int d = 0; d < destinations; d++) {
+            String destination = "/topic/prices.condor.portfolio." + d;
+            producers.add(new Thread(() -> {
+                for (int i = 0; i < messages; i++) {
+                    template.convertAndSend(destination, Integer.toString(i));
+                }
+            }));
+        }
+        producers.forEach(Thread::start);
+        for (Thread producer : producers) {
+            producer.join();
+        }
+
+        await(() -> handler.sent.size() == destinations * messages * 2);
+        Map<String, String> threads = new ConcurrentHashMap<>();
+        for (int d = 0; d < destinations; d++) {
+            String destination = "/topic/prices.condor.portfolio." + d;
+            for (String session : List.of("s1", "s2")) {
+                List<RecordingHandler.Sent> received = handler.to(session, destination);
+                for (int i = 0; i < messages; i++) {
+                    assertEquals(Integer.toString(i), received.get(i).payload(), destination + " out of order for " + session);
+                    assertEquals(threads.computeIfAbsent(destination, k -> received.get(0).thread()), received.get(i).thread());
+                }
+            }
+            assertEquals("broker-shard-" + cut.shardIndexFor(destination), threads.get(destination));
+        }
+    }
+
+    @Test
+    void stopsSendingAfterUnsubscribeOrDisconnect() throws InterruptedException {
+        subscribe("s1", "sub-0", "/topic/prices.spx");
+        subscribe("s1", "sub-1", "/topic/trading.state");
+        subscribe("s2", "sub-0", "/topic/prices.spx");
+        cut.unsubscribed(new SessionUnsubscribeEvent(this, frame(SimpMessageType.UNSUBSCRIBE, "s1", "sub-0", null)));
+        cut.disconnected(new SessionDisconnectEvent(this, frame(SimpMessageType.DISCONNECT, "s2", null, null), "s2", CloseStatus.NORMAL));
+
+        template.convertAndSend("/topic/prices.spx", "1");
+        template.convertAndSend("/topic/trading.state", "OPEN");
+
+        await(() -> handler.sent.size() == 1);
+        Thread.sleep(50);
+        assertEquals(1, handler.sent.size());
+        assertEquals(1, handler.to("s1", "/topic/trading.state").size());
+        int subscriptions = 0;
+        for (int shard = 0; shard < cut.getShardCount(); shard++) {
+            subscriptions += cut.getSubscriptionCount(shard);
+        }
+        assertEquals(1, subscriptions);
+    }
+
+    @Test
+    void leavesOtherDestinationsToTheBrokerChannel() {
+        when(brokerChannel.send(any(), anyLong())).thenReturn(true);
+
+        template.convertAndSend("/queue/errors", "nope");
+
+        verify(brokerChannel).send(any(), anyLong());
+    }
+
+    @Test
+    void outboundInterceptorsSeeEveryMessage() throws InterruptedException {
+        Queue<String> seen = new ConcurrentLinkedQueue<>();
+        clientOutboundChannel.addInterceptor(new ChannelInterceptor() {
+            @Override
+            public Message<?> preSend(Message<?> message, MessageChannel channel) {
+                String sessionId = SimpMessageHeaderAccessor.getSessionId(message.getHeaders());
+                seen.add(sessionId);
+                // s2 is being throttled, say
+                return "s2".equals(sessionId) ? null : message;
+            }
+        });
+        cut.stop();
+        cut.start();
+        subscribe("s1", "sub-0", "/topic/prices.spx");
+        subscribe("s2", "sub-0", "/topic/prices.spx");
+
+        template.convertAndSend("/topic/prices.spx", "1");
+
+        await(() -> seen.size() == 2 && cut.isIdle());
+        assertEquals(1, handler.sent.size());
+        assertEquals(1, handler.to("s1", "/topic/prices.spx").size());
+    }
+
+    @Test
+    void completesOnlyWithTheInterceptorsThatLetItThrough() throws InterruptedException {
+        Queue<String> completed = new ConcurrentLinkedQueue<>();
+        for (String name : List.of("first", "throttle", "last")) {
+            clientOutboundChannel.addInterceptor(new ChannelInterceptor() {
+                @Override
+                public Message<?> preSend(Message<?> message, MessageChannel channel) {
+                    return "throttle".equals(name) && "s2".equals(SimpMessageHeaderAccessor.getSessionId(message.getHeaders())) ? null : message;
+                }
+
+                @Override
+                public void afterSendCompletion(Message<?> message, MessageChannel channel, boolean sent, Exception ex) {
+                    completed.add(SimpMessageHeaderAccessor.getSessionId(message.getHeaders()) + ":" + name + ":" + sent);
+                }
+            });
+        }
+        cut.stop();
+        cut.start();
+        subscribe("s2", "sub-0", "/topic/prices.spx");
+
+        template.convertAndSend("/topic/prices.spx", "1");
+        await(() -> completed.size() == 1 && cut.isIdle());
+        assertEquals(List.of("s2:first:false"), List.copyOf(completed));
+
+        completed.clear();
+        subscribe("s1", "sub-0", "/topic/trading.state");
+        template.convertAndSend("/topic/trading.state", "1");
+        await(() -> completed.size() == 3 && cut.isIdle());
+        assertEquals(List.of("s1:last:true", "s1:throttle:true", "s1:first:true"), List.copyOf(completed));
+    }
+
+    @Test
+    void stopDropsWhatTheShardsHaventGotTo() throws InterruptedException {
+        CountDownLatch stuck = new CountDownLatch(1);
+        clientOutboundChannel.addInterceptor(new ChannelInterceptor() {
+            @Override
+            public Message<?> preSend(Message<?> message, MessageChannel channel) {
+                try {
+                    stuck.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return message;
+            }
+        });
+        ReflectionTestUtils.setField(cut, "shardCount", 1);
+        cut.stop();
+        cut.start();
+        subscribe("s1", "sub-0", "/topic/prices.spx");
+        template.convertAndSend("/topic/prices.spx", "1");
+        await(() -> !cut.isIdle() && ((Queue<?>) ReflectionTestUtils.getField(((Object[]) ReflectionTestUtils.getField(cut, "shards"))[0], "queue")).isEmpty());
+        for (int i = 2; i <= 6; i++) {
+            template.convertAndSend("/topic/prices.spx", Integer.toString(i));
+        }
+
+        long start = System.nanoTime();
+        assertEquals(5, cut.stop(100));
+        assertTrue(System.nanoTime() - start < 1_000_000_000L);
+        stuck.countDown();
+        await(cut::isIdle);
+        assertEquals(1, handler.sent.size());
+    }
+
+    @Test
+    void forgetsTheSessionsShardsOnDisconnect() throws InterruptedException {
+        subscribe("s1", "sub-0", "/topic/prices.spx");
+        subscribe("s1", "sub-1", "/topic/trading.state");
+        Map<?, ?> sessionShards = (Map<?, ?>) ReflectionTestUtils.getField(cut, "sessionShards");
+        assertEquals(1, sessionShards.size());
+
+        cut.disconnected(new SessionDisconnectEvent(this, frame(SimpMessageType.DISCONNECT, "s1", null, null), "s1", CloseStatus.NORMAL));
+        // Nobody subscribed from s2, so nothing to tell the shards
+        cut.disconnected(new SessionDisconnectEvent(this, frame(SimpMessageType.DISCONNECT, "s2", null, null), "s2", CloseStatus.NORMAL));
+
+        assertTrue(sessionShards.isEmpty());
+        await(cut::isIdle);
+        int subscriptions = 0;
+        for (int shard = 0; shard < cut.getShardCount(); shard++) {
+            subscriptions += cut.getSubscriptionCount(shard);
+        }
+        assertEquals(0, subscriptions);
+    }
+
+    @Test
+    void filesDeltaSubscriptionsUnderTheDeltaDestination() throws InterruptedException {
+        String condor = "/topic/prices.current.condor";
+        DeltaEncoder deltaEncoder = new DeltaEncoder();
+        ReflectionTestUtils.setField(deltaEncoder, "destinations", Set.of(condor));
+        ReflectionTestUtils.setField(cut, "deltaEncoder", deltaEncoder);
+        // The event has the frame as sent, not as the encoder moved it
+        Message<byte[]> frame = frame(SimpMessageType.SUBSCRIBE, "s1", "sub-0", condor);
+        SimpMessageHeaderAccessor headers = SimpMessageHeaderAccessor.wrap(frame);
+        headers.setNativeHeader(DeltaEncoder.DELTA_HEADER, DeltaEncoder.MERGE_PATCH);
+        cut.subscribed(new SessionSubscribeEvent(this, MessageBuilder.createMessage(frame.getPayload(), headers.getMessageHeaders())));
+        subscribe("s2", "sub-0", condor);
+
+        template.convertAndSend(condor + DeltaEncoder.DELTA_SUFFIX, "{\"mid\":1.1}");
+        template.convertAndSend(condor, "{\"mid\":1.1,\"bid\":1.0}");
+
+        await(() -> handler.sent.size() == 2);
+        Thread.sleep(50);
+        assertEquals(1, handler.to("s1", condor + DeltaEncoder.DELTA_SUFFIX).size());
+        assertEquals(List.of(), handler.to("s1", condor));
+        assertEquals(1, handler.to("s2", condor).size());
+    }
+}
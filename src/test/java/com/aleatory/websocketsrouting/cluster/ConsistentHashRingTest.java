@@ -0,0 +1,70 @@
+package com.aleatory.websocketsrouting.cluster;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+
+class ConsistentHashRingTest {
+    static final int KEYS = 3000;
+
+    static String key(int i) {
+        return "/topic/prices.condor.portfolio." + i;
+    }
+
+    static Map<String, String> owners(ConsistentHashRing ring) {
+        Map<String, String> owners = new HashMap<>();
+        for (int i = 0; i < KEYS; i++) {
+            owners.put(key(i), ring.ownerOf(key(i)));
+        }
+        return owners;
+    }
+
+    @Test
+    void spreadsKeysEvenly() {
+        Map<String, String> owners = owners(new ConsistentHashRing(List.of("router-8443", "router-8444", "router-8445"), 128));
+
+        for (String member : List.of("router-8443", "router-8444", "router-8445")) {
+            long share = owners.values().stream().filter(member::equals).count();
+            assertTrue(share > KEYS / 4 && share < KEYS * 5 / 12, member + " got " + share + " of " + KEYS);
+        }
+    }
+
+    @Test
+    void joiningMemberOnlyTakesKeys() {
+        Map<String, String> before = owners(new ConsistentHashRing(List.of("a", "b", "c"), 128));
+        Map<String, String> after = owners(new ConsistentHashRing(List.of("a", "b", "c", "d"), 128));
+
+        int moved = 0;
+        for (String key : before.keySet()) {
+            if (!before.get(key).equals(after.get(key))) {
+                assertEquals("d", after.get(key));
+                moved++;
+            }
+        }
+        assertTrue(moved > KEYS / 6 && moved < KEYS / 3, moved + " keys moved");
+    }
+
+    @Test
+    void leavingMemberOnlyGivesUpItsKeys() {
+        Map<String, String> before = owners(new ConsistentHashRing(List.of("a", "b", "c"), 128));
+        Map<String, String> after = owners(new ConsistentHashRing(List.of("a", "c"), 128));
+
+        for (String key : before.keySet()) {
+            if (!before.get(key).equals("b")) {
+                assertEquals(before.get(key), after.get(key));
+            }
+        }
+    }
+
+    @Test
+    void sameMembersSameOwnersWhateverTheOrder() {
+        assertEquals(owners(new ConsistentHashRing(List.of("a", "b", "c"), 64)), owners(new ConsistentHashRing(List.of("c", "a", "b"), 64)));
+        assertNull(new ConsistentHashRing(List.of(), 64).ownerOf(key(1)));
+    }
+}
@@ -0,0 +1,51 @@
+package com.aleatory.websocketsrouting.cluster;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+
+/**
+ * {@link ClusterStore} shared by several nodes in one JVM; publishes deliver
+ * straight away on the caller's thread.
+ */
+class InMemoryClusterStore implements ClusterStore {
+    final Map<String, Long> members = new ConcurrentHashMap<>();
+    final Set<String> topics = ConcurrentHashMap.newKeySet();
+    final Map<String, List<Consumer<String>>> listeners = new ConcurrentHashMap<>();
+
+    @Override
+    public Set<String> heartbeat(String nodeId, long now, long expireBefore) {
+        members.put(nodeId, now);
+        members.values().removeIf(lastSeen -> lastSeen <= expireBefore);
+        return new TreeSet<>(members.keySet());
+    }
+
+    @Override
+    public void leave(String nodeId) {
+        members.remove(nodeId);
+    }
+
+    @Override
+    public void addTopic(String topic) {
+        topics.add(topic);
+    }
+
+    @Override
+    public Set<String> getTopics() {
+        return new TreeSet<>(topics);
+    }
+
+    @Override
+    public void publish(String channel, String message) {
+        listeners.getOrDefault(channel, List.of()).forEach(listener -> listener.accept(message));
+    }
+
+    @Override
+    public void subscribe(String channel, Consumer<String> listener) {
+        listeners.computeIfAbsent(channel, c -> new CopyOnWriteArrayList<>()).add(listener);
+    }
+}
@@ -0,0 +1,203 @@
+package com.aleatory.websocketsrouting.cluster;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.scheduling.TaskScheduler;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.aleatory.websocketsrouting.events.PortfolioTopicRequestedEvent;
+import com.aleatory.websocketsrouting.events.RouterMembershipChangedEvent;
+import com.aleatory.websocketsrouting.events.SendMessageToFrontendEvent;
+
+/**
+ * Several router nodes in one JVM sharing an in-memory store, as if they were
+ * instances on localhost behind a load balancer.
+ */
+@ExtendWith(MockitoExtension.class)
+class PortfolioTopicOwnershipTest {
+    static final int TOPICS = 40;
+
+    static class FakeUpstream implements UpstreamSubscriptions {
+        final Set<String> topics = new ConcurrentSkipListSet<>();
+
+        @Override
+        public void subscribeUpstream(String topic) {
+            topics.add(topic);
+        }
+
+        @Override
+        public void unsubscribeUpstream(String topic) {
+            topics.remove(topic);
+        }
+
+        @Override
+        public Set<String> getUpstreamTopics() {
+            return new TreeSet<>(topics);
+        }
+    }
+
+    class Node {
+        final RouterMembership membership = new RouterMembership();
+        final PortfolioTopicOwnership ownership = new PortfolioTopicOwnership();
+        final FakeUpstream upstream = new FakeUpstream();
+        final List<SendMessageToFrontendEvent> toFrontend = new CopyOnWriteArrayList<>();
+
+        Node(String nodeId) {
+            ApplicationEventPublisher publisher = event -> {
+                if (event instanceof RouterMembershipChangedEvent changed) {
+                    ownership.membershipChanged(changed);
+                } else if (event instanceof SendMessageToFrontendEvent message) {
+                    toFrontend.add(message);
+                    ownership.fanOut(message);
+                }
+            };
+            ReflectionTestUtils.setField(membership, "store", store);
+            ReflectionTestUtils.setField(membership, "applicationEventPublisher", publisher);
+            ReflectionTestUtils.setField(membership, "scheduler", scheduler);
+            ReflectionTestUtils.setField(membership, "nodeId", nodeId);
+            ReflectionTestUtils.setField(membership, "memberTimeoutMillis", 10_000L);
+            ReflectionTestUtils.setField(membership, "virtualNodes", 128);
+            ReflectionTestUtils.setField(ownership, "store", store);
+            ReflectionTestUtils.setField(ownership, "membership", membership);
+            ReflectionTestUtils.setField(ownership, "upstream", upstream);
+            ReflectionTestUtils.setField(ownership, "applicationEventPublisher", publisher);
+            ReflectionTestUtils.setField(ownership, "scheduler", scheduler);
+            ReflectionTestUtils.setField(ownership, "fanoutExecutor", (Executor) Runnable::run);
+            ReflectionTestUtils.setField(ownership, "syncSeconds", 5);
+            ownership.start();
+            membership.join();
+        }
+
+        void receiveFromUpstream(String topic, String payload) {
+            ReflectionTestUtils.invokeMethod(ownership, "fanOut", new SendMessageToFrontendEvent(upstream, topic, payload));
+        }
+    }
+
+    InMemoryClusterStore store = new InMemoryClusterStore();
+    List<Node> nodes = new ArrayList<>();
+
+    @Mock
+    TaskScheduler scheduler;
+
+    @BeforeEach
+    void setUp() {
+        for (int port = 8443; port < 8446; port++) {
+            nodes.add(new Node("localhost-" + port));
+        }
+        heartbeatAll();
+    }
+
+    void heartbeatAll() {
+        nodes.forEach(node -> node.membership.heartbeat());
+    }
+
+    static String topic(int i) {
+        return "/topic/prices.condor.portfolio." + i;
+    }
+
+    void requestAllTopics() {
+        for (int i = 0; i < TOPICS; i++) {
+            // Browsers land on whichever node the load balancer picks
+            Node node = nodes.get(i % nodes.size());
+            node.ownership.topicRequested(new PortfolioTopicRequestedEvent(node, topic(i)));
+        }
+    }
+
+    void assertOneOwnerPerTopic() {
+        for (int i = 0; i < TOPICS; i++) {
+            String topic = topic(i);
+            List<String> subscribed = nodes.stream().filter(node -> node.upstream.topics.contains(topic)).map(node -> node.membership.getNodeId()).toList();
+            assertEquals(1, subscribed.size(), topic + " is subscribed upstream by " + subscribed);
+            assertEquals(nodes.get(0).membership.ownerOf(topic), subscribed.get(0));
+        }
+    }
+
+    @Test
+    void eachTopicIsSubscribedUpstreamOnceAndSpreadOverNodes() {
+        requestAllTopics();
+        requestAllTopics();
+
+        assertOneOwnerPerTopic();
+        nodes.forEach(node -> assertTrue(!node.upstream.topics.isEmpty(), node.membership.getNodeId() + " owns nothing"));
+        assertEquals(TOPICS, store.topics.size());
+    }
+
+    @Test
+    void ownerFansOutToTheOtherNodes() {
+        requestAllTopics();
+        Node owner = nodes.stream().filter(node -> node.upstream.topics.contains(topic(7))).findFirst().orElseThrow();
+
+        owner.receiveFromUpstream(topic(7), "{\"mid\":1.25}");
+
+        for (Node node : nodes) {
+            if (node != owner) {
+                assertEquals(1, node.toFrontend.size());
+                assertEquals(topic(7), node.toFrontend.get(0).getDestination());
+                assertEquals("{\"mid\":1.25}", node.toFrontend.get(0).getPayload());
+            }
+        }
+        // The owner's own browsers got it straight from upstream, not back off the fanout
+        assertTrue(owner.toFrontend.isEmpty());
+    }
+
+    @Test
+    void ownerPublishesOnceOffTheRoutingThread() {
+        assertEquals(nodes.size(), store.listeners.get(PortfolioTopicOwnership.FANOUT_CHANNEL).size());
+        requestAllTopics();
+        Node owner = nodes.stream().filter(node -> node.upstream.topics.contains(topic(7))).findFirst().orElseThrow();
+        List<Runnable> queued = new ArrayList<>();
+        ReflectionTestUtils.setField(owner.ownership, "fanoutExecutor", (Executor) queued::add);
+
+        owner.receiveFromUpstream(topic(7), "{\"mid\":1.25}");
+
+        // Nothing published on the thread that got it from upstream
+        assertEquals(1, queued.size());
+        nodes.forEach(node -> assertTrue(node.toFrontend.isEmpty()));
+
+        queued.forEach(Runnable::run);
+        nodes.stream().filter(node -> node != owner).forEach(node -> assertEquals(1, node.toFrontend.size()));
+        assertTrue(owner.toFrontend.isEmpty());
+    }
+
+    @Test
+    void leavingNodesTopicsAreTakenOver() {
+        requestAllTopics();
+        Node leaving = nodes.remove(2);
+        leaving.membership.leave();
+
+        heartbeatAll();
+
+        assertOneOwnerPerTopic();
+    }
+
+    @Test
+    void crashedNodeTimesOutAndNewNodeTakesItsShare() {
+        requestAllTopics();
+        Node crashed = nodes.remove(0);
+        store.members.put(crashed.membership.getNodeId(), 0L);
+        heartbeatAll();
+        assertOneOwnerPerTopic();
+
+        Node joined = new Node("localhost-8446");
+        nodes.add(joined);
+        heartbeatAll();
+
+        assertOneOwnerPerTopic();
+        assertTrue(!joined.upstream.topics.isEmpty());
+    }
+}
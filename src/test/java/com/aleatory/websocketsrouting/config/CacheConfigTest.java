@@ -0,0 +1,63 @@
+package com.aleatory.websocketsrouting.config;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.time.Duration;
+
+import org.apache.commons.pool2.impl.GenericObjectPoolConfig;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.connection.jedis.JedisConnectionFactory;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import org.springframework.test.util.ReflectionTestUtils;
+
+class CacheConfigTest {
+    CacheConfig cut;
+
+    @BeforeEach
+    void setUp() {
+        cut = new CacheConfig();
+        ReflectionTestUtils.setField(cut, "REDIS_HOSTNAME", "localhost");
+        ReflectionTestUtils.setField(cut, "REDIS_PORT", 6379);
+        ReflectionTestUtils.setField(cut, "connectTimeoutMillis", 2000L);
+        // Stream reads block exactly as long as a command may take
+        ReflectionTestUtils.setField(cut, "commandTimeoutMillis", 1000L);
+        ReflectionTestUtils.setField(cut, "streamBlockMillis", 1000L);
+    }
+
+    @Test
+    void testLettuceListenerOutwaitsABlockingRead() {
+        ReflectionTestUtils.setField(cut, "clientMode", "lettuce");
+
+        Duration listener = ((LettuceConnectionFactory) cut.redisListenerConnectionFactory()).getClientConfiguration().getCommandTimeout();
+        Duration primary = ((LettuceConnectionFactory) cut.redisConnectionFactory()).getClientConfiguration().getCommandTimeout();
+
+        assertTrue(listener.toMillis() > 1000, "Listener command timeout " + listener + " would cancel a 1000 ms BLOCK");
+        assertEquals(Duration.ofMillis(3000), listener);
+        assertEquals(Duration.ofMillis(1000), primary);
+    }
+
+    @Test
+    void testJedisListenerOutwaitsABlockingRead() {
+        ReflectionTestUtils.setField(cut, "clientMode", "jedis");
+
+        Duration listener = ((JedisConnectionFactory) cut.redisListenerConnectionFactory()).getClientConfiguration().getReadTimeout();
+
+        assertEquals(Duration.ofMillis(3000), listener);
+    }
+
+    @Test
+    void testJedisPoolIsSizedFromProperties() {
+        ReflectionTestUtils.setField(cut, "clientMode", "jedis");
+        ReflectionTestUtils.setField(cut, "poolMaxTotal", 16);
+        ReflectionTestUtils.setField(cut, "poolMaxIdle", 4);
+        ReflectionTestUtils.setField(cut, "poolMinIdle", 2);
+
+        GenericObjectPoolConfig<?> pool = ((JedisConnectionFactory) cut.redisConnectionFactory()).getClientConfiguration().getPoolConfig().orElseThrow();
+
+        assertEquals(16, pool.getMaxTotal());
+        assertEquals(4, pool.getMaxIdle());
+        assertEquals(2, pool.getMinIdle());
+    }
+}
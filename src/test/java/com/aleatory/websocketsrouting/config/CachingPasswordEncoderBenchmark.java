@@ -0,0 +1,76 @@
+package com.aleatory.websocketsrouting.config;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.jupiter.api.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.authentication.dao.DaoAuthenticationProvider;
+import org.springframework.security.core.userdetails.User;
+import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
+import org.springframework.security.crypto.password.PasswordEncoder;
+import org.springframework.security.provisioning.InMemoryUserDetailsManager;
+
+/**
+ * Basic-auth checks as a reconnect storm makes them: many threads
+ * authenticating the same user at once, through the provider the filter
+ * chain uses, with plain BCrypt(8) and with the credential cache in front.
+ * Not part of the normal test run; run it with
+ * <code>mvn test -Dtest=CachingPasswordEncoderBenchmark</code>.
+ */
+class CachingPasswordEncoderBenchmark {
+    private static final Logger logger = LoggerFactory.getLogger(CachingPasswordEncoderBenchmark.class);
+
+    private static final int THREADS = 16, HANDSHAKES_PER_THREAD = 100;
+
+    @Test
+    void concurrentHandshakes() throws Exception {
+        PasswordEncoder bcrypt = new BCryptPasswordEncoder(8);
+        run("bcrypt", bcrypt);
+        run("cached", new CachingPasswordEncoder(bcrypt, Duration.ofMinutes(5), 1024));
+    }
+
+    private void run(String name, PasswordEncoder encoder) throws Exception {
+        DaoAuthenticationProvider provider = new DaoAuthenticationProvider();
+        provider.setPasswordEncoder(encoder);
+        provider.setUserDetailsService(new InMemoryUserDetailsManager(User.withUsername("condors").password(encoder.encode("secret")).roles("USER_ROLE").build()));
+
+        ExecutorService pool = Executors.newFixedThreadPool(THREADS);
+        try {
+            List<Callable<long[]>> clients = new ArrayList<>();
+            for (int t = 0; t < THREADS; t++) {
+                clients.add(() -> {
+                    long[] nanos = new long[HANDSHAKES_PER_THREAD];
+                    for (int i = 0; i < nanos.length; i++) {
+                        long start = System.nanoTime();
+                        provider.authenticate(UsernamePasswordAuthenticationToken.unauthenticated("condors", "secret"));
+                        nanos[i] = System.nanoTime() - start;
+                    }
+                    return nanos;
+                });
+            }
+            long start = System.nanoTime();
+            long[] all = new long[THREADS * HANDSHAKES_PER_THREAD];
+            int n = 0;
+            for (Future<long[]> result : pool.invokeAll(clients)) {
+                for (long nanos : result.get()) {
+                    all[n++] = nanos;
+                }
+            }
+            long elapsed = System.nanoTime() - start;
+            Arrays.sort(all);
+            logger.info("{}: {} handshakes on {} threads in {} ms ({}/s); median {} us, p99 {} us", name, all.length, THREADS, elapsed / 1_000_000,
+                    all.length * 1_000_000_000L / elapsed, all[all.length / 2] / 1000, all[(int) (all.length * 0.99)] / 1000);
+        } finally {
+            pool.shutdown();
+        }
+    }
+}
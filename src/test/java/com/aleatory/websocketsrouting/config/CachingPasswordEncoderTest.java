@@ -0,0 +1,89 @@
+package com.aleatory.websocketsrouting.config;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.atMost;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
+import org.springframework.security.crypto.password.PasswordEncoder;
+
+class CachingPasswordEncoderTest {
+    private final PasswordEncoder bcrypt = spy(new BCryptPasswordEncoder(4));
+    private final String stored = bcrypt.encode("secret");
+
+    @Test
+    void checksAMatchOnceThenRemembersIt() {
+        CachingPasswordEncoder encoder = new CachingPasswordEncoder(bcrypt, Duration.ofMinutes(5), 16);
+
+        for (int i = 0; i < 5; i++) {
+            assertTrue(encoder.matches("secret", stored));
+        }
+
+        verify(bcrypt, times(1)).matches("secret", stored);
+    }
+
+    @Test
+    void neverRemembersAMismatch() {
+        CachingPasswordEncoder encoder = new CachingPasswordEncoder(bcrypt, Duration.ofMinutes(5), 16);
+
+        for (int i = 0; i < 3; i++) {
+            assertFalse(encoder.matches("guess", stored));
+        }
+
+        verify(bcrypt, times(3)).matches("guess", stored);
+        assertEquals(0, encoder.size());
+    }
+
+    @Test
+    void checksAgainOnceExpiredOrWhenTheStoredHashChanges() throws Exception {
+        CachingPasswordEncoder encoder = new CachingPasswordEncoder(bcrypt, Duration.ofMillis(20), 16);
+        assertTrue(encoder.matches("secret", stored));
+        Thread.sleep(40);
+        assertTrue(encoder.matches("secret", stored));
+        verify(bcrypt, times(2)).matches("secret", stored);
+
+        String changed = bcrypt.encode("changed");
+        assertFalse(encoder.matches("secret", changed));
+    }
+
+    @Test
+    void keepsAtMostMaxEntries() {
+        CachingPasswordEncoder encoder = new CachingPasswordEncoder(bcrypt, Duration.ofMinutes(5), 2);
+        for (String password : new String[] { "a", "b", "c" }) {
+            assertTrue(encoder.matches(password, bcrypt.encode(password)));
+        }
+        assertEquals(2, encoder.size());
+    }
+
+    @Test
+    void concurrentChecksOfTheSameCredentialsShareOne() throws Exception {
+        PasswordEncoder slow = spy(new BCryptPasswordEncoder(10));
+        String slowStored = slow.encode("secret");
+        CachingPasswordEncoder encoder = new CachingPasswordEncoder(slow, Duration.ofMinutes(5), 16);
+        ExecutorService pool = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<Boolean>> results = new ArrayList<>();
+            for (int i = 0; i < 8; i++) {
+                results.add(pool.submit(() -> encoder.matches("secret", slowStored)));
+            }
+            for (Future<Boolean> result : results) {
+                assertTrue(result.get());
+            }
+        } finally {
+            pool.shutdown();
+        }
+        verify(slow, atMost(2)).matches("secret", slowStored);
+    }
+}
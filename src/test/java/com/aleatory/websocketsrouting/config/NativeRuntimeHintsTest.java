@@ -0,0 +1,30 @@
+package com.aleatory.websocketsrouting.config;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.aot.hint.RuntimeHints;
+import org.springframework.aot.hint.TypeReference;
+import org.springframework.aot.hint.predicate.RuntimeHintsPredicates;
+
+import com.aleatory.common.domain.CondorPosition;
+import com.aleatory.websocketsrouting.domain.ClosePrice;
+
+class NativeRuntimeHintsTest {
+
+    @Test
+    void domainClassesAreBoundForDefaultTyping() {
+        RuntimeHints hints = new RuntimeHints();
+        new NativeRuntimeHints().registerHints(hints, getClass().getClassLoader());
+
+        assertTrue(RuntimeHintsPredicates.reflection().onType(CondorPosition.class).test(hints));
+        assertTrue(RuntimeHintsPredicates.reflection().onType(ClosePrice.class).test(hints));
+        assertTrue(RuntimeHintsPredicates.reflection().onType(TypeReference.of("java.util.ArrayList")).test(hints));
+        assertTrue(RuntimeHintsPredicates.reflection().onType(TypeReference.of("org.jsoup.helper.RequestAuthHandler")).test(hints));
+    }
+
+    @Test
+    void scansEveryDomainPackage() {
+        assertTrue(NativeRuntimeHints.domainClasses(getClass().getClassLoader()).size() > 5);
+    }
+}
@@ -0,0 +1,103 @@
+package com.aleatory.websocketsrouting.config;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.Stream;
+import java.util.zip.GZIPInputStream;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.cache.concurrent.ConcurrentMapCache;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.mock.web.MockServletContext;
+import org.springframework.web.servlet.HandlerMapping;
+import org.springframework.web.servlet.resource.CachingResourceResolver;
+import org.springframework.web.servlet.resource.EncodedResourceResolver;
+import org.springframework.web.servlet.resource.PathResourceResolver;
+import org.springframework.web.servlet.resource.ResourceHttpRequestHandler;
+
+class StaticAssetsConfigTest {
+    private static final String MAIN_JS = "js/main.34c106b8.js";
+
+    private ResourceHttpRequestHandler handler;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        // The chain the registry builds for resourceChain(true) plus ours
+        handler = new ResourceHttpRequestHandler();
+        handler.setLocations(List.of(new ClassPathResource("static/static/")));
+        handler.setResourceResolvers(List.of(new CachingResourceResolver(new ConcurrentMapCache("assets")), new InMemoryResourceResolver(1024 * 1024),
+                new EncodedResourceResolver(), new PathResourceResolver()));
+        handler.setCacheControl(StaticAssetsConfig.immutable());
+        handler.setServletContext(new MockServletContext());
+        handler.afterPropertiesSet();
+    }
+
+    private MockHttpServletResponse get(String path, String acceptEncoding) throws Exception {
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/static/" + path);
+        request.setAttribute(HandlerMapping.PATH_WITHIN_HANDLER_MAPPING_ATTRIBUTE, path);
+        if (acceptEncoding != null) {
+            request.addHeader("Accept-Encoding", acceptEncoding);
+        }
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        handler.handleRequest(request, response);
+        return response;
+    }
+
+    @Test
+    void servesTheGzippedVariantImmutableWhenAccepted() throws Exception {
+        MockHttpServletResponse response = get(MAIN_JS, "gzip, deflate, br");
+
+        assertEquals(200, response.getStatus());
+        assertEquals("gzip", response.getHeader("Content-Encoding"));
+        assertTrue(response.getHeaders("Vary").contains("Accept-Encoding"));
+        assertEquals("max-age=31536000, private, immutable", response.getHeader("Cache-Control"));
+        assertArrayEquals(read("static/static/" + MAIN_JS + ".gz"), response.getContentAsByteArray());
+
+        // Second time round it's out of the cache, still gzipped
+        assertEquals("gzip", get(MAIN_JS, "gzip").getHeader("Content-Encoding"));
+    }
+
+    @Test
+    void servesPlainBytesOtherwise() throws Exception {
+        get(MAIN_JS, "gzip");
+        MockHttpServletResponse response = get(MAIN_JS, null);
+
+        assertNull(response.getHeader("Content-Encoding"));
+        assertArrayEquals(read("static/static/" + MAIN_JS), response.getContentAsByteArray());
+    }
+
+    // The build gzips them into target/classes (gzip-static-assets in the pom)
+    @Test
+    void everyHashedAssetHasAMatchingGzip() throws IOException {
+        Path root = new ClassPathResource("static/static").getFile().toPath();
+        try (Stream<Path> files = Files.walk(root)) {
+            List<Path> assets = files.filter(file -> file.toString().endsWith(".js") || file.toString().endsWith(".css")).toList();
+            assertFalse(assets.isEmpty());
+            for (Path asset : assets) {
+                Path gzip = Path.of(asset + ".gz");
+                assertTrue(Files.exists(gzip), "No " + gzip);
+                try (InputStream in = new GZIPInputStream(Files.newInputStream(gzip))) {
+                    assertArrayEquals(Files.readAllBytes(asset), in.readAllBytes(), gzip + " is stale");
+                }
+            }
+        }
+    }
+
+    private static byte[] read(String path) throws IOException {
+        try (InputStream in = new ClassPathResource(path).getInputStream()) {
+            return in.readAllBytes();
+        }
+    }
+}
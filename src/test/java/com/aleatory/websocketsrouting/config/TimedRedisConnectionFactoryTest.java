@@ -0,0 +1,106 @@
+package com.aleatory.websocketsrouting.config;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.lenient;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.Map;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.dao.QueryTimeoutException;
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.connection.RedisConnectionFactory;
+import org.springframework.data.redis.connection.RedisHashCommands;
+import org.springframework.data.redis.connection.RedisKeyCommands;
+import org.springframework.data.redis.core.StringRedisTemplate;
+
+@ExtendWith(MockitoExtension.class)
+class TimedRedisConnectionFactoryTest {
+    static final byte[] KEY = "CONDORS:LAST.MESSAGES".getBytes();
+
+    @Mock
+    RedisConnectionFactory delegate;
+
+    @Mock
+    RedisConnection connection;
+
+    @Mock
+    RedisHashCommands hashCommands;
+
+    @Mock
+    RedisKeyCommands keyCommands;
+
+    RedisMetrics metrics = new RedisMetrics();
+
+    TimedRedisConnectionFactory cut;
+
+    @BeforeEach
+    void setUp() {
+        when(delegate.getConnection()).thenReturn(connection);
+        cut = new TimedRedisConnectionFactory(delegate, metrics);
+    }
+
+    @Test
+    void testCommandsAreTimedByName() {
+        when(connection.hSet(KEY, "a".getBytes(), "1".getBytes())).thenReturn(true);
+        RedisConnection timed = cut.getConnection();
+        assertTrue(timed.hSet(KEY, "a".getBytes(), "1".getBytes()));
+        timed.hGet(KEY, "a".getBytes());
+        timed.hGet(KEY, "b".getBytes());
+        timed.openPipeline();
+        timed.closePipeline();
+        timed.close();
+        verify(connection).close();
+
+        Map<String, RedisMetrics.Stats> stats = metrics.snapshot();
+        assertEquals(1, stats.get("connection").count());
+        assertEquals(1, stats.get("hSet").count());
+        assertEquals(2, stats.get("hGet").count());
+        assertEquals(1, stats.get("pipeline").count());
+        assertFalse(stats.containsKey("openPipeline"));
+        assertFalse(stats.containsKey("close"));
+    }
+
+    @Test
+    void testCommandsReachedThroughTheirInterfacesAreTimed() {
+        when(connection.hashCommands()).thenReturn(hashCommands);
+        when(connection.keyCommands()).thenReturn(keyCommands);
+        RedisConnection timed = cut.getConnection();
+        timed.hashCommands().hSet(KEY, "a".getBytes(), "1".getBytes());
+        timed.keyCommands().del(KEY);
+
+        verify(hashCommands).hSet(KEY, "a".getBytes(), "1".getBytes());
+        Map<String, RedisMetrics.Stats> stats = metrics.snapshot();
+        assertEquals(1, stats.get("hSet").count());
+        assertEquals(1, stats.get("del").count());
+        assertFalse(stats.containsKey("hashCommands"));
+    }
+
+    @Test
+    void testTemplateOperationsAreTimed() {
+        lenient().when(connection.hashCommands()).thenReturn(hashCommands);
+        StringRedisTemplate template = new StringRedisTemplate();
+        template.setConnectionFactory(cut);
+        template.afterPropertiesSet();
+
+        template.opsForHash().put("CONDORS:LAST.MESSAGES", "/topic/prices.spx", "{}");
+
+        assertEquals(1, metrics.snapshot().get("hSet").count());
+    }
+
+    @Test
+    void testFailuresAreTimedAndRethrown() {
+        when(connection.hGet(KEY, "a".getBytes())).thenThrow(new QueryTimeoutException("Redis command timed out"));
+        RedisConnection timed = cut.getConnection();
+        assertThrows(QueryTimeoutException.class, () -> timed.hGet(KEY, "a".getBytes()));
+        assertEquals(1, metrics.snapshot().get("hGet").count());
+    }
+}
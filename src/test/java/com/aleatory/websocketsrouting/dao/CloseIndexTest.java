@@ -0,0 +1,127 @@
+package com.aleatory.websocketsrouting.dao;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.time.LocalDate;
+import java.util.BitSet;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.aleatory.websocketsrouting.domain.CloseHistory;
+import com.aleatory.websocketsrouting.domain.ClosePrice;
+
+class CloseIndexTest {
+    static final LocalDate MON = LocalDate.of(2024, 10, 14);
+    static final LocalDate TUE = MON.plusDays(1);
+    static final LocalDate WED = MON.plusDays(2);
+    static final LocalDate THU = MON.plusDays(3);
+    static final LocalDate FRI = MON.plusDays(4);
+
+    CloseIndex cut;
+
+    @BeforeEach
+    void setUp() {
+        cut = new CloseIndex();
+        CloseIndex.Loader loader = cut.loader();
+        loader.add(MON, 100.0, true);
+        loader.add(WED, 110.0, true);
+        loader.add(THU, 99.0, false);
+        assertEquals(3, loader.finish());
+    }
+
+    @Test
+    void testGet() {
+        ClosePrice closePrice = cut.get(WED);
+        assertEquals(110.0, closePrice.getPrice());
+        assertTrue(closePrice.isFinalPrice());
+        assertFalse(cut.get(THU).isFinalPrice());
+        assertNull(cut.get(TUE));
+    }
+
+    @Test
+    void testLastBefore() {
+        assertEquals(THU, cut.lastBefore(FRI).getCloseDate());
+        assertEquals(WED, cut.lastBefore(THU).getCloseDate());
+        assertEquals(MON, cut.lastBefore(WED).getCloseDate());
+        assertNull(cut.lastBefore(MON));
+    }
+
+    @Test
+    void testPutAppendsInsertsAndReplaces() {
+        cut.put(FRI, 101.0, false);
+        cut.put(TUE, 105.0, true);
+        cut.put(THU, 98.0, true);
+        assertEquals(5, cut.size());
+        assertEquals(105.0, cut.get(TUE).getPrice());
+        assertTrue(cut.get(TUE).isFinalPrice());
+        // Flags after the inserted date moved along with it
+        assertTrue(cut.get(WED).isFinalPrice());
+        assertTrue(cut.get(THU).isFinalPrice());
+        assertEquals(98.0, cut.get(THU).getPrice());
+        assertFalse(cut.get(FRI).isFinalPrice());
+    }
+
+    @Test
+    void testRange() {
+        CloseHistory history = cut.range(TUE, FRI);
+        assertArrayEquals(new LocalDate[] { WED, THU }, history.getDates());
+        assertArrayEquals(new double[] { 110.0, 99.0 }, history.getCloses());
+        // No Tuesday close (a holiday, as far as we know), so Wednesday moves from Monday
+        assertEquals(10.0, history.getPercentChanges()[0], 1e-9);
+        assertEquals(-10.0, history.getPercentChanges()[1], 1e-9);
+        assertArrayEquals(new boolean[] { true, false }, history.getFinalPrices());
+    }
+
+    @Test
+    void testRangeMondayMovesFromFriday() {
+        cut.put(FRI, 99.0, true);
+        cut.put(MON.plusWeeks(1), 103.95, true);
+        cut.put(WED.plusWeeks(1), 110.0, true);
+        CloseHistory history = cut.range(FRI, WED.plusWeeks(1));
+        assertEquals(0, history.getPercentChanges()[0], 1e-9);
+        assertEquals(5.0, history.getPercentChanges()[1], 1e-9);
+        assertEquals((110.0 - 103.95) / 103.95 * 100.0, history.getPercentChanges()[2], 1e-9);
+    }
+
+    @Test
+    void testRangeTuesdayAfterAHolidayMovesFromFriday() {
+        cut.put(FRI, 99.0, true);
+        // Monday's a holiday
+        cut.put(TUE.plusWeeks(1), 103.95, true);
+        CloseHistory history = cut.range(TUE.plusWeeks(1), TUE.plusWeeks(1));
+        assertEquals(5.0, history.getPercentChanges()[0], 1e-9);
+    }
+
+    @Test
+    void testRangeNoMoveAcrossALongerGap() {
+        // Thursday to the next Wednesday: closes missing, not just a holiday
+        cut.put(WED.plusWeeks(1), 110.0, true);
+        CloseHistory history = cut.range(WED.plusWeeks(1), WED.plusWeeks(1));
+        assertNull(history.getPercentChanges()[0]);
+    }
+
+    @Test
+    void testRangeFirstDayHasNoMove() {
+        CloseHistory history = cut.range(MON, MON);
+        assertEquals(1, history.getDates().length);
+        assertNull(history.getPercentChanges()[0]);
+    }
+
+    @Test
+    void testEmptyRange() {
+        assertEquals(0, cut.range(FRI, FRI.plusDays(3)).getDates().length);
+        assertEquals(0, cut.range(TUE, TUE).getDates().length);
+    }
+
+    @Test
+    void testLoadRejectsUnsortedDates() {
+        assertThrows(IllegalArgumentException.class,
+                () -> cut.load(new int[] { (int) WED.toEpochDay(), (int) MON.toEpochDay() }, new double[] { 1.0, 2.0 }, new BitSet()));
+    }
+}
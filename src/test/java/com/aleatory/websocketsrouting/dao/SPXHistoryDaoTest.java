@@ -0,0 +1,109 @@
+package com.aleatory.websocketsrouting.dao;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.jdbc.core.namedparam.SqlParameterSource;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.aleatory.websocketsrouting.domain.ClosePrice;
+import com.aleatory.websocketsrouting.events.SPXCloseReceivedEvent;
+
+@ExtendWith(MockitoExtension.class)
+class SPXHistoryDaoTest {
+    static final LocalDate THU = LocalDate.of(2024, 10, 17);
+    static final LocalDate FRI = LocalDate.of(2024, 10, 18);
+
+    SPXHistoryDao cut;
+
+    @Mock
+    NamedParameterJdbcTemplate template;
+
+    @BeforeEach
+    void setUp() {
+        cut = new SPXHistoryDao();
+        ReflectionTestUtils.setField(cut, "template", template);
+        ReflectionTestUtils.setField(cut, "exchangeZone", ZoneId.of("America/Chicago"));
+    }
+
+    @Test
+    void testWritesAreCoalescedPerDate() {
+        cut.storeSPXClose(new SPXCloseReceivedEvent(this, 5860.00, FRI, false, true));
+        cut.storeSPXClose(new SPXCloseReceivedEvent(this, 5864.67, FRI, false));
+        cut.storeSPXClose(new SPXCloseReceivedEvent(this, 5847.25, THU, true));
+        verify(template, never()).query(anyString(), any(SqlParameterSource.class), any(RowCallbackHandler.class));
+
+        cut.flushPendingWrites();
+
+        ArgumentCaptor<String> sql = ArgumentCaptor.forClass(String.class);
+        ArgumentCaptor<MapSqlParameterSource> params = ArgumentCaptor.forClass(MapSqlParameterSource.class);
+        verify(template).query(sql.capture(), params.capture(), any(RowCallbackHandler.class));
+        assertTrue(sql.getValue().contains("(:forDate0, :price0, :finalPrice0), (:forDate1, :price1, :finalPrice1)"));
+        assertFalse(sql.getValue().contains(":forDate2"));
+        int fri = FRI.equals(params.getValue().getValue("forDate0")) ? 0 : 1;
+        assertEquals(5864.67, params.getValue().getValue("price" + fri));
+        assertEquals(false, params.getValue().getValue("finalPrice" + fri));
+
+        // Nothing left to write
+        cut.flushPendingWrites();
+        verify(template, times(1)).query(anyString(), any(SqlParameterSource.class), any(RowCallbackHandler.class));
+    }
+
+    @Test
+    void testWritesAreCoalescedPerSymbol() {
+        cut.storeSPXClose(new SPXCloseReceivedEvent(this, 5864.67, FRI, false));
+        cut.storeSPXClose(new SPXCloseReceivedEvent(this, "NDX", 20324.35, FRI, false, false));
+
+        cut.flushPendingWrites();
+
+        ArgumentCaptor<String> sql = ArgumentCaptor.forClass(String.class);
+        ArgumentCaptor<MapSqlParameterSource> params = ArgumentCaptor.forClass(MapSqlParameterSource.class);
+        verify(template, times(2)).query(sql.capture(), params.capture(), any(RowCallbackHandler.class));
+        int ndx = sql.getAllValues().get(0).contains("close_history") ? 0 : 1;
+        assertTrue(sql.getAllValues().get(ndx).contains("(:symbol, :forDate0, :price0, :finalPrice0)"));
+        assertEquals("NDX", params.getAllValues().get(ndx).getValue("symbol"));
+        assertEquals(20324.35, params.getAllValues().get(ndx).getValue("price0"));
+        assertTrue(sql.getAllValues().get(1 - ndx).contains("spx_history"));
+    }
+
+    @Test
+    void testFailedFlushIsRetried() {
+        cut.storeSPXClose(new SPXCloseReceivedEvent(this, 5864.67, FRI, false));
+        doThrow(new DataAccessResourceFailureException("down")).when(template).query(anyString(), any(SqlParameterSource.class), any(RowCallbackHandler.class));
+        cut.flushPendingWrites();
+        cut.flushPendingWrites();
+        verify(template, times(2)).query(anyString(), any(SqlParameterSource.class), any(RowCallbackHandler.class));
+    }
+
+    @Test
+    void testLargeBatchesAreChunked() {
+        List<ClosePrice> closePrices = new ArrayList<>();
+        for (int i = 0; i < 2500; i++) {
+            closePrices.add(new ClosePrice(FRI.minusDays(i), 1.0));
+        }
+        cut.storeCloses("SPX", closePrices);
+        verify(template, times(3)).query(anyString(), any(SqlParameterSource.class), any(RowCallbackHandler.class));
+    }
+}
@@ -0,0 +1,323 @@
+package com.aleatory.websocketsrouting.delta;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyMap;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
+import static org.mockito.Mockito.when;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageHandler;
+import org.springframework.messaging.core.MessageSendingOperations;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessageType;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.messaging.simp.broker.SimpleBrokerMessageHandler;
+import org.springframework.messaging.simp.stomp.StompCommand;
+import org.springframework.messaging.simp.stomp.StompHeaderAccessor;
+import org.springframework.messaging.support.ExecutorSubscribableChannel;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.web.socket.handler.AbstractWebSocketHandler;
+
+import com.aleatory.websocketsrouting.BrokerMessageConverters;
+import com.aleatory.websocketsrouting.events.SendMessageToFrontendEvent;
+import com.aleatory.websocketsrouting.replay.TopicReplay;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+@ExtendWith(MockitoExtension.class)
+class DeltaEncoderTest {
+    static final String CONDOR = "/topic/prices.current.condor";
+    static final ObjectMapper mapper = new ObjectMapper();
+
+    record Condor(String symbol, LocalDate expiry, LocalDateTime time, double mid) {
+    }
+
+    DeltaEncoder cut;
+
+    // What went out on the delta destination: [delta header, seq, body]
+    List<String[]> sent = new ArrayList<>();
+
+    @Mock
+    MessageSendingOperations<String> messagingTemplate;
+
+    @Mock
+    TopicReplay topicReplay;
+
+    @BeforeEach
+    void setUp() {
+        cut = new DeltaEncoder();
+        ReflectionTestUtils.setField(cut, "messagingTemplate", messagingTemplate);
+        ReflectionTestUtils.setField(cut, "topicReplay", topicReplay);
+        ReflectionTestUtils.setField(cut, "messageConverter", BrokerMessageConverters.create());
+        ReflectionTestUtils.setField(cut, "destinations", Set.of(CONDOR));
+        ReflectionTestUtils.setField(cut, "keyframeEvery", 3);
+    }
+
+    @SuppressWarnings("unchecked")
+    void capture() {
+        when(topicReplay.getEpoch()).thenReturn("e1");
+        doAnswer(invocation -> {
+            Map<String, Object> headers = invocation.getArgument(2);
+            sent.add(new String[] { (String) headers.get(DeltaEncoder.DELTA_HEADER), (String) headers.get(TopicReplay.SEQ_HEADER), invocation.getArgument(1) });
+            return null;
+        }).when(messagingTemplate).convertAndSend(eq(CONDOR + DeltaEncoder.DELTA_SUFFIX), any(Object.class), anyMap());
+    }
+
+    void subscribeToDeltas() {
+        cut.preSend(subscribe(CONDOR, DeltaEncoder.MERGE_PATCH), null);
+    }
+
+    void send(String json) {
+        cut.encode(new SendMessageToFrontendEvent(this, CONDOR, json));
+    }
+
+    static String condor(double put, double call) {
+        return "{\"symbol\":\"SPX\",\"expiry\":\"2026-10-19\",\"legs\":{\"shortPut\":{\"strike\":5700,\"price\":" + put
+                + "},\"shortCall\":{\"strike\":5900,\"price\":" + call + "}},\"underlying\":5800.25}";
+    }
+
+    @Test
+    void sendsAKeyframeThenPatchesThenAKeyframeAgain() throws Exception {
+        capture();
+        subscribeToDeltas();
+
+        send(condor(1.10, 0.95));
+        send(condor(1.15, 0.95));
+        send(condor(1.15, 0.95));
+        send(condor(1.20, 0.90));
+        send(condor(1.25, 0.90));
+
+        assertEquals(4, sent.size());
+        assertEquals(List.of("full:1", "patch:2", "patch:3", "full:4"), sent.stream().map(message -> message[0] + ":" + message[1]).toList());
+        assertEquals("{\"legs\":{\"shortPut\":{\"price\":1.15}}}", sent.get(1)[2]);
+
+        // Applied in order, the patches give back each value
+        JsonNode value = mapper.readTree(sent.get(0)[2]);
+        value = JsonMergePatch.apply(value, mapper.readTree(sent.get(1)[2]));
+        value = JsonMergePatch.apply(value, mapper.readTree(sent.get(2)[2]));
+        assertEquals(mapper.readTree(condor(1.20, 0.90)), value);
+
+        Map<String, Long> stats = cut.getStats();
+        assertEquals(2, stats.get("keyframes"));
+        assertEquals(2, stats.get("patches"));
+        assertEquals(1, stats.get("unchanged"));
+        assertTrue(stats.get("sentChars") < stats.get("fullChars"));
+    }
+
+    @Test
+    void writesObjectsTheWayTheBrokerDoes() throws Exception {
+        capture();
+        subscribeToDeltas();
+        Condor first = new Condor("SPX", LocalDate.of(2024, 10, 18), LocalDateTime.of(2024, 10, 18, 14, 31, 7), 1.10);
+        Condor second = new Condor("SPX", LocalDate.of(2024, 10, 18), LocalDateTime.of(2024, 10, 18, 14, 31, 8), 1.15);
+
+        cut.encode(new SendMessageToFrontendEvent(this, CONDOR, first));
+        cut.encode(new SendMessageToFrontendEvent(this, CONDOR, second));
+
+        // The keyframe is byte for byte what a full subscriber gets
+        String full = new String((byte[]) BrokerMessageConverters.create().toMessage(first, null).getPayload());
+        assertEquals(full, sent.get(0)[2]);
+        assertEquals("{\"symbol\":\"SPX\",\"expiry\":\"2024-10-18\",\"time\":\"2024-10-18T14:31:07\",\"mid\":1.1}", full);
+        assertEquals("{\"time\":\"2024-10-18T14:31:08\",\"mid\":1.15}", sent.get(1)[2]);
+    }
+
+    @Test
+    void aNewSubscriberGetsTheLatestAsAKeyframe() {
+        capture();
+        subscribeToDeltas();
+        send(condor(1.10, 0.95));
+        send(condor(1.15, 0.95));
+
+        assertTrue(cut.sendKeyframe("session-1", "sub-0", CONDOR));
+
+        verify(topicReplay).sendTo("session-1", "sub-0", CONDOR + DeltaEncoder.DELTA_SUFFIX, condor(1.15, 0.95),
+                Map.of(DeltaEncoder.DELTA_HEADER, DeltaEncoder.FULL, TopicReplay.SEQ_HEADER, "2", TopicReplay.SEQ_EPOCH_HEADER, "e1"));
+    }
+
+    @Test
+    void keepsOnlyTheLatestWhileNobodySubscribesToDeltas() {
+        when(topicReplay.getEpoch()).thenReturn("e1");
+        send(condor(1.10, 0.95));
+        send(condor(1.15, 0.95));
+
+        verifyNoInteractions(messagingTemplate);
+        assertEquals(2, cut.getStats().get("idle"));
+
+        // The first subscriber's keyframe is the latest value all the same
+        subscribeToDeltas();
+        assertTrue(cut.sendKeyframe("session-1", "sub-0", CONDOR));
+        verify(topicReplay).sendTo("session-1", "sub-0", CONDOR + DeltaEncoder.DELTA_SUFFIX, condor(1.15, 0.95),
+                Map.of(DeltaEncoder.DELTA_HEADER, DeltaEncoder.FULL, TopicReplay.SEQ_HEADER, "0", TopicReplay.SEQ_EPOCH_HEADER, "e1"));
+    }
+
+    @Test
+    void patchesFromTheValueKeptWhileIdle() {
+        capture();
+        send(condor(1.10, 0.95));
+        subscribeToDeltas();
+        send(condor(1.15, 0.95));
+
+        assertEquals(List.of("patch:1"), sent.stream().map(message -> message[0] + ":" + message[1]).toList());
+        assertEquals("{\"legs\":{\"shortPut\":{\"price\":1.15}}}", sent.get(0)[2]);
+    }
+
+    @Test
+    void stopsEncodingOnceTheLastDeltaSubscriptionGoes() {
+        subscribeToDeltas();
+        cut.preSend(frame(StompCommand.UNSUBSCRIBE), null);
+        send(condor(1.10, 0.95));
+
+        subscribeToDeltas();
+        cut.preSend(frame(StompCommand.DISCONNECT), null);
+        send(condor(1.15, 0.95));
+
+        verifyNoInteractions(messagingTemplate);
+        assertEquals(0, cut.getStats().get("subscriptions"));
+        assertEquals(2, cut.getStats().get("idle"));
+    }
+
+    /**
+     * Stands in for the sub-protocol handler, and is slow to write a keyframe
+     * out, so one left to the outbound pool would land after patches sent later.
+     */
+    static class SlowKeyframeHandler extends AbstractWebSocketHandler implements MessageHandler {
+        final List<String> written = Collections.synchronizedList(new ArrayList<>());
+
+        @Override
+        public void handleMessage(Message<?> message) {
+            SimpMessageHeaderAccessor headers = SimpMessageHeaderAccessor.wrap(message);
+            if (!(CONDOR + DeltaEncoder.DELTA_SUFFIX).equals(headers.getDestination())) {
+                return;
+            }
+            if (DeltaEncoder.FULL.equals(headers.getFirstNativeHeader(DeltaEncoder.DELTA_HEADER))) {
+                try {
+                    Thread.sleep(50);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            written.add(headers.getFirstNativeHeader(DeltaEncoder.DELTA_HEADER) + ":" + headers.getFirstNativeHeader(TopicReplay.SEQ_HEADER));
+        }
+    }
+
+    static Message<byte[]> frame(SimpMessageType type, String destination) {
+        SimpMessageHeaderAccessor headers = SimpMessageHeaderAccessor.create(type);
+        headers.setSessionId("session-1");
+        headers.setSubscriptionId("sub-0");
+        headers.setDestination(destination);
+        return MessageBuilder.createMessage(new byte[0], headers.getMessageHeaders());
+    }
+
+    @Test
+    void theKeyframeAndPatchesReachTheSessionInOrderOverAPooledOutboundChannel() throws InterruptedException {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(8);
+        executor.initialize();
+        ExecutorSubscribableChannel inbound = new ExecutorSubscribableChannel(), outbound = new ExecutorSubscribableChannel(executor),
+                brokerChannel = new ExecutorSubscribableChannel();
+        SlowKeyframeHandler handler = new SlowKeyframeHandler();
+        outbound.subscribe(handler);
+        SimpleBrokerMessageHandler broker = new SimpleBrokerMessageHandler(inbound, outbound, brokerChannel, List.of("/topic"));
+        broker.setPreservePublishOrder(true);
+        broker.start();
+
+        TopicReplay replay = new TopicReplay();
+        ReflectionTestUtils.setField(replay, "clientOutboundChannel", outbound);
+        ReflectionTestUtils.setField(replay, "webSocketHandler", handler);
+        ReflectionTestUtils.setField(replay, "messageConverter", BrokerMessageConverters.create());
+        ReflectionTestUtils.invokeMethod(replay, "createSessionTemplate");
+        SimpMessagingTemplate brokerTemplate = new SimpMessagingTemplate(brokerChannel);
+        brokerTemplate.setMessageConverter(BrokerMessageConverters.create());
+        ReflectionTestUtils.setField(cut, "messagingTemplate", brokerTemplate);
+        ReflectionTestUtils.setField(cut, "topicReplay", replay);
+        ReflectionTestUtils.setField(cut, "keyframeEvery", 1000);
+        try {
+            send(condor(1.00, 0.95));
+            subscribeToDeltas();
+            inbound.send(frame(SimpMessageType.CONNECT, null));
+            inbound.send(frame(SimpMessageType.SUBSCRIBE, CONDOR + DeltaEncoder.DELTA_SUFFIX));
+
+            assertTrue(cut.sendKeyframe("session-1", "sub-0", CONDOR));
+            List<String> expected = new ArrayList<>(List.of("full:0"));
+            for (int i = 1; i <= 50; i++) {
+                send(condor(1.00 + i, 0.95));
+                expected.add("patch:" + i);
+            }
+
+            for (int i = 0; i < 500 && handler.written.size() < expected.size(); i++) {
+                Thread.sleep(10);
+            }
+            assertEquals(expected, List.copyOf(handler.written));
+        } finally {
+            broker.stop();
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    void onlyMovesDeltaSubscriptionsToWhatWeDelta() {
+        Message<?> plain = subscribe(CONDOR, null);
+        Message<?> delta = subscribe(CONDOR, DeltaEncoder.MERGE_PATCH);
+        Message<?> other = subscribe("/topic/prices.spx", DeltaEncoder.MERGE_PATCH);
+
+        assertSame(plain, cut.preSend(plain, null));
+        assertSame(other, cut.preSend(other, null));
+        StompHeaderAccessor moved = StompHeaderAccessor.wrap(cut.preSend(delta, null));
+        assertEquals(CONDOR + DeltaEncoder.DELTA_SUFFIX, moved.getDestination());
+        assertEquals("sub-0", moved.getSubscriptionId());
+        assertFalse(cut.sendKeyframe("session-1", "sub-0", CONDOR));
+        assertEquals(1, cut.getStats().get("subscriptions"));
+    }
+
+    @Test
+    void patchesOnlyWhatAMergePatchCanSay() throws Exception {
+        JsonNode from = mapper.readTree("{\"a\":1,\"b\":{\"c\":2,\"d\":3},\"e\":[1,2]}");
+
+        assertEquals(mapper.readTree("{\"a\":null,\"b\":{\"d\":4},\"e\":[1,3]}"), JsonMergePatch.diff(from, mapper.readTree("{\"b\":{\"c\":2,\"d\":4},\"e\":[1,3]}")));
+        assertTrue(JsonMergePatch.diff(from, from).isEmpty());
+        // A null would read as a removal, and a non-object can't be patched
+        assertNull(JsonMergePatch.diff(from, mapper.readTree("{\"a\":null,\"b\":{\"c\":2,\"d\":3},\"e\":[1,2]}")));
+        assertNull(JsonMergePatch.diff(from, mapper.readTree("[1]")));
+    }
+
+    static Message<?> subscribe(String destination, String delta) {
+        StompHeaderAccessor headers = StompHeaderAccessor.create(StompCommand.SUBSCRIBE);
+        headers.setSessionId("session-1");
+        headers.setSubscriptionId("sub-0");
+        headers.setDestination(destination);
+        if (delta != null) {
+            headers.setNativeHeader(DeltaEncoder.DELTA_HEADER, delta);
+        }
+        return MessageBuilder.createMessage(new byte[0], headers.getMessageHeaders());
+    }
+
+    static Message<?> frame(StompCommand command) {
+        StompHeaderAccessor headers = StompHeaderAccessor.create(command);
+        headers.setSessionId("session-1");
+        headers.setSubscriptionId("sub-0");
+        return MessageBuilder.createMessage(new byte[0], headers.getMessageHeaders());
+    }
+}
@@ -0,0 +1,105 @@
+package com.aleatory.websocketsrouting.drain;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.beans.factory.support.StaticListableBeanFactory;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.server.ServletServerHttpRequest;
+import org.springframework.http.server.ServletServerHttpResponse;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessageType;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.WebSocketHandler;
+import org.springframework.web.socket.WebSocketSession;
+
+import com.aleatory.websocketsrouting.broker.ShardedBroker;
+
+class SessionDrainTest {
+    private final ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+    private SessionDrain drain;
+
+    @BeforeEach
+    void setUp() {
+        executor.initialize();
+        drain = new SessionDrain();
+        ReflectionTestUtils.setField(drain, "outboundExecutor", executor);
+        ReflectionTestUtils.setField(drain, "shardedBroker", new StaticListableBeanFactory().getBeanProvider(ShardedBroker.class));
+        ReflectionTestUtils.setField(drain, "reconnectAfterMillis", 5000L);
+        ReflectionTestUtils.setField(drain, "windowSeconds", 30);
+        ReflectionTestUtils.setField(drain, "flushMillis", 1000L);
+    }
+
+    @AfterEach
+    void tearDown() {
+        executor.shutdown();
+    }
+
+    private static WebSocketSession session(String id) {
+        WebSocketSession session = mock(WebSocketSession.class);
+        when(session.getId()).thenReturn(id);
+        return session;
+    }
+
+    private static Message<byte[]> frame(SimpMessageType type) {
+        SimpMessageHeaderAccessor headers = SimpMessageHeaderAccessor.create(type);
+        headers.setSessionId("s");
+        return MessageBuilder.createMessage(new byte[0], headers.getMessageHeaders());
+    }
+
+    @Test
+    void closesEverySessionWithASpreadOutReconnectHint() throws Exception {
+        WebSocketHandler handler = drain.decorate(mock(WebSocketHandler.class));
+        WebSocketSession first = session("1"), second = session("2"), gone = session("3");
+        handler.afterConnectionEstablished(first);
+        handler.afterConnectionEstablished(second);
+        handler.afterConnectionEstablished(gone);
+        handler.afterConnectionClosed(gone, CloseStatus.NORMAL);
+        assertEquals(2, drain.getSessionCount());
+
+        drain.drain();
+
+        for (WebSocketSession session : new WebSocketSession[] { first, second }) {
+            ArgumentCaptor<CloseStatus> status = ArgumentCaptor.forClass(CloseStatus.class);
+            verify(session).close(status.capture());
+            assertEquals(CloseStatus.SERVICE_RESTARTED.getCode(), status.getValue().getCode());
+            long delay = Long.parseLong(status.getValue().getReason().substring(SessionDrain.RECONNECT_AFTER.length()));
+            assertTrue(delay >= 5000 && delay <= 35000, "delay " + delay);
+        }
+    }
+
+    @Test
+    void turnsAwayNewSessionsAndSubscriptionsWhileDraining() throws Exception {
+        assertNotNull(drain.preSend(frame(SimpMessageType.SUBSCRIBE), null));
+
+        drain.drain();
+
+        assertTrue(drain.isDraining());
+        assertNull(drain.preSend(frame(SimpMessageType.SUBSCRIBE), null));
+        assertNull(drain.preSend(frame(SimpMessageType.CONNECT), null));
+        assertNotNull(drain.preSend(frame(SimpMessageType.UNSUBSCRIBE), null));
+
+        MockHttpServletResponse servletResponse = new MockHttpServletResponse();
+        ServletServerHttpResponse response = new ServletServerHttpResponse(servletResponse);
+        assertFalse(drain.beforeHandshake(new ServletServerHttpRequest(new MockHttpServletRequest()), response, null, null));
+        response.flush();
+        assertEquals(HttpStatus.SERVICE_UNAVAILABLE.value(), servletResponse.getStatus());
+        assertEquals("35", servletResponse.getHeader("Retry-After"));
+    }
+}
@@ -0,0 +1,121 @@
+package com.aleatory.websocketsrouting.journal;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.clearInvocations;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.aleatory.websocketsrouting.BrokerMessageConverters;
+import com.aleatory.websocketsrouting.events.SendMessageToFrontendEvent;
+
+@ExtendWith(MockitoExtension.class)
+class JournalReplayerTest {
+    static final long MILLIS = 1_000_000L;
+
+    record Close(String symbol, LocalDate date, LocalDateTime capturedAt, double price) {
+    }
+
+    @TempDir
+    Path directory;
+
+    @Mock
+    ApplicationEventPublisher applicationEventPublisher;
+
+    @InjectMocks
+    JournalReplayer replayer;
+
+    long start;
+
+    @BeforeEach
+    void recordSession() throws IOException {
+        ReflectionTestUtils.setField(replayer, "directory", directory);
+        try (JournalWriter writer = new JournalWriter(directory, JournalWriter.RECORDS_OFFSET * 2, 10 * MILLIS)) {
+            start = writer.now();
+            writer.append("/topic/prices.spx", "{\"price\":5864.67}".getBytes(StandardCharsets.UTF_8), JournalWriter.JSON, start);
+            writer.append("/topic/prices.spx", "plain text", start + 100 * MILLIS);
+            writer.append("/topic/portfolio.1", "{\"pnl\":12.5}".getBytes(StandardCharsets.UTF_8), JournalWriter.JSON, start + 200 * MILLIS);
+        }
+    }
+
+    List<SendMessageToFrontendEvent> published(int count) {
+        ArgumentCaptor<SendMessageToFrontendEvent> events = ArgumentCaptor.forClass(SendMessageToFrontendEvent.class);
+        verify(applicationEventPublisher, times(count)).publishEvent(events.capture());
+        return events.getAllValues();
+    }
+
+    @Test
+    void testReplaysPayloadsAsTheyWereSent() throws IOException {
+        assertEquals(3, replayer.replay(start, start + 300 * MILLIS, 0, Set.of()));
+
+        List<SendMessageToFrontendEvent> events = published(3);
+        assertEquals("/topic/prices.spx", events.get(0).getDestination());
+        assertEquals("{\"price\":5864.67}", events.get(0).getPayload());
+        assertEquals("plain text", events.get(1).getPayload());
+        assertEquals("{\"pnl\":12.5}", events.get(2).getPayload());
+        assertTrue(events.stream().allMatch(event -> event.getSource() == replayer));
+    }
+
+    @Test
+    void testKeepsTheRecordedPaceAtTheGivenSpeed() throws IOException {
+        // Get the reading and JSON parsing warmed up first
+        replayer.replay(start, start + 300 * MILLIS, 0, Set.of());
+        clearInvocations(applicationEventPublisher);
+
+        long started = System.nanoTime();
+        replayer.replay(start, start + 300 * MILLIS, 10, Set.of("/topic/prices.spx", "/topic/portfolio.1"));
+        long elapsed = System.nanoTime() - started;
+
+        // 200ms of traffic at 10x
+        assertTrue(elapsed >= 20 * MILLIS, elapsed + "ns");
+        assertTrue(elapsed < 150 * MILLIS, elapsed + "ns");
+        published(3);
+    }
+
+    @Test
+    void testReplaysOnlyTheDestinationsAsked() throws IOException {
+        assertEquals(1, replayer.replay(start, start + 300 * MILLIS, 0, Set.of("/topic/portfolio.1")));
+        assertEquals("/topic/portfolio.1", published(1).get(0).getDestination());
+    }
+
+    @Test
+    void testObjectsAreJournaledAsTheBrokerSentThem(@TempDir Path journalDirectory) throws IOException {
+        Journal journal = new Journal();
+        ReflectionTestUtils.setField(journal, "directory", journalDirectory);
+        ReflectionTestUtils.setField(journal, "segmentMb", 1);
+        ReflectionTestUtils.setField(journal, "indexIntervalMillis", 10L);
+        ReflectionTestUtils.setField(journal, "messageConverter", BrokerMessageConverters.create());
+        journal.open();
+        Close close = new Close("SPX", LocalDate.of(2024, 10, 18), LocalDateTime.of(2024, 10, 18, 15, 0, 2), 5864.67);
+        journal.record(new SendMessageToFrontendEvent(this, "/topic/prices.spx.close", close));
+        journal.close();
+
+        List<JournalReader.Entry> entries = new ArrayList<>();
+        new JournalReader(journalDirectory).read(0, Long.MAX_VALUE, Set.of(), entries::add);
+        assertEquals(1, entries.size());
+        assertEquals(JournalWriter.JSON, entries.get(0).format());
+        assertEquals("{\"symbol\":\"SPX\",\"date\":\"2024-10-18\",\"capturedAt\":\"2024-10-18T15:00:02\",\"price\":5864.67}", entries.get(0).toPayload());
+        assertEquals(close, entries.get(0).readValue(Jackson2ObjectMapperBuilder.json().build(), Close.class));
+    }
+}
@@ -0,0 +1,168 @@
+package com.aleatory.websocketsrouting.journal;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class JournalWriterTest {
+    static final int SEGMENT_BYTES = JournalWriter.RECORDS_OFFSET * 2;
+    static final long MILLIS = 1_000_000L;
+
+    @TempDir
+    Path directory;
+
+    List<JournalReader.Entry> read(long from, long to, Set<String> destinations) throws IOException {
+        List<JournalReader.Entry> entries = new ArrayList<>();
+        new JournalReader(directory).read(from, to, destinations, entries::add);
+        return entries;
+    }
+
+    @Test
+    void testMessagesAreReadBackInOrderAcrossSegments() throws IOException {
+        try (JournalWriter writer = new JournalWriter(directory, SEGMENT_BYTES, 10 * MILLIS)) {
+            long start = writer.now();
+            for (int i = 0; i < 5000; i++) {
+                writer.append(i % 2 == 0 ? "/topic/prices.spx" : "/topic/prices.impvol", "{\"price\":" + i + "}", start + i * MILLIS);
+            }
+            assertTrue(JournalWriter.segments(directory).size() > 2);
+
+            List<JournalReader.Entry> entries = read(0, Long.MAX_VALUE, Set.of());
+            assertEquals(5000, entries.size());
+            for (int i = 0; i < 5000; i++) {
+                assertEquals(start + i * MILLIS, entries.get(i).epochNanos());
+                assertEquals(i % 2 == 0 ? "/topic/prices.spx" : "/topic/prices.impvol", entries.get(i).destination());
+                assertEquals("{\"price\":" + i + "}", entries.get(i).payloadAsString());
+                assertEquals(JournalWriter.TEXT, entries.get(i).format());
+            }
+        }
+    }
+
+    @Test
+    void testReadsOnlyTheWindowAndDestinations() throws IOException {
+        try (JournalWriter writer = new JournalWriter(directory, SEGMENT_BYTES, 10 * MILLIS)) {
+            long start = writer.now();
+            for (int i = 0; i < 5000; i++) {
+                writer.append(i < 4000 ? "/topic/prices.spx" : "/topic/portfolio.1", "{\"i\":" + i + "}", start + i * MILLIS);
+            }
+            writer.roll(start + 5000 * MILLIS);
+
+            List<JournalReader.Entry> window = read(start + 2500 * MILLIS, start + 2600 * MILLIS, Set.of());
+            assertEquals(100, window.size());
+            assertEquals("{\"i\":2500}", window.get(0).payloadAsString());
+            assertEquals("{\"i\":2599}", window.get(99).payloadAsString());
+
+            List<JournalReader.Entry> portfolio = read(start, Long.MAX_VALUE, Set.of("/topic/portfolio.1"));
+            assertEquals(1000, portfolio.size());
+            assertEquals("{\"i\":4000}", portfolio.get(0).payloadAsString());
+            assertTrue(read(start, Long.MAX_VALUE, Set.of("/topic/nothing")).isEmpty());
+        }
+    }
+
+    @Test
+    void testVisitorCanStop() throws IOException {
+        try (JournalWriter writer = new JournalWriter(directory, SEGMENT_BYTES, 10 * MILLIS)) {
+            for (int i = 0; i < 10; i++) {
+                writer.append("/topic/prices.spx", "tick " + i);
+            }
+            List<JournalReader.Entry> entries = new ArrayList<>();
+            long visited = new JournalReader(directory).read(0, Long.MAX_VALUE, Set.of(), entry -> entries.add(entry) && entries.size() < 3);
+            assertEquals(3, visited);
+            assertEquals(3, entries.size());
+        }
+    }
+
+    @Test
+    void testPayloadsAreEncodedLikeStringGetBytes() throws IOException {
+        String text = "{\"note\":\"été à 5 €\",\"mood\":\"📈\"}";
+        byte[] json = "{\"price\":5864.67}".getBytes(StandardCharsets.UTF_8);
+        try (JournalWriter writer = new JournalWriter(directory, SEGMENT_BYTES, 10 * MILLIS)) {
+            writer.append("/topic/prices.été", text);
+            writer.append("/topic/prices.spx", json, true);
+            writer.append("/topic/prices.spx", "half a pair \uD83D");
+        }
+        List<JournalReader.Entry> entries = read(0, Long.MAX_VALUE, Set.of());
+        assertEquals(text, entries.get(0).payloadAsString());
+        assertEquals("/topic/prices.été", entries.get(0).destination());
+        assertEquals(JournalWriter.JSON, entries.get(1).format());
+        assertEquals("{\"price\":5864.67}", entries.get(1).payloadAsString());
+        assertEquals("half a pair ?", entries.get(2).payloadAsString());
+    }
+
+    @Test
+    void testFinishedSegmentsHaveADestinationIndex() throws IOException {
+        try (JournalWriter writer = new JournalWriter(directory, SEGMENT_BYTES, 10 * MILLIS)) {
+            writer.append("/topic/prices.spx", "a", 1_000);
+            writer.append("/topic/prices.spx", "b", 2_000);
+            writer.append("/topic/prices.impvol", "c", 3_000);
+        }
+        Path segment = JournalWriter.segments(directory).get(0);
+        assertEquals(List.of("2\t1000\t2000\t/topic/prices.spx", "1\t3000\t3000\t/topic/prices.impvol"),
+                Files.readAllLines(JournalWriter.sidecar(segment, JournalWriter.DESTINATIONS_SUFFIX)));
+    }
+
+    @Test
+    void testTooBigMessagesAreDropped() throws IOException {
+        try (JournalWriter writer = new JournalWriter(directory, SEGMENT_BYTES, 10 * MILLIS)) {
+            assertFalse(writer.append("/topic/prices.spx", "x".repeat(SEGMENT_BYTES)));
+            assertEquals(1, writer.getDropped());
+            assertTrue(writer.append("/topic/prices.spx", "x"));
+        }
+    }
+
+    @Test
+    void testRecordsAreSizedByTheirEncodedLength() throws IOException {
+        String half = "x".repeat((SEGMENT_BYTES - JournalWriter.RECORDS_OFFSET) / 2 - 64);
+        try (JournalWriter writer = new JournalWriter(directory, SEGMENT_BYTES, 10 * MILLIS)) {
+            assertTrue(writer.append("/topic/prices.spx", half));
+            assertTrue(writer.append("/topic/prices.spx", half));
+            assertEquals(0, writer.getDropped());
+        }
+        assertEquals(1, JournalWriter.segments(directory).size());
+        assertEquals("été à 5 € 📈 \uD83D".getBytes(StandardCharsets.UTF_8).length, JournalWriter.utf8Length("été à 5 € 📈 \uD83D"));
+    }
+
+    @Test
+    void testOldSegmentsAreDeleted() throws IOException {
+        try (JournalWriter writer = new JournalWriter(directory, SEGMENT_BYTES, 10 * MILLIS)) {
+            long start = writer.now();
+            writer.append("/topic/prices.spx", "old", start);
+            writer.roll(start + 1000 * MILLIS);
+            writer.append("/topic/prices.spx", "new", start + 1000 * MILLIS);
+
+            assertEquals(1, writer.deleteSegmentsBefore(start + 500 * MILLIS));
+            assertEquals(1, JournalWriter.segments(directory).size());
+            assertEquals("new", read(0, Long.MAX_VALUE, Set.of()).get(0).payloadAsString());
+        }
+    }
+
+    @Test
+    void testAppendingDoesNotAllocate() throws IOException {
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long thread = Thread.currentThread().getId();
+        String payload = "{\"symbol\":\"SPX\",\"price\":5864.67,\"time\":\"15:59:59\"}";
+        try (JournalWriter writer = new JournalWriter(directory, 64 * 1024 * 1024, 10 * MILLIS)) {
+            for (int i = 0; i < 20_000; i++) {
+                writer.append("/topic/prices.spx", payload);
+            }
+            long before = threads.getThreadAllocatedBytes(thread);
+            for (int i = 0; i < 100_000; i++) {
+                writer.append("/topic/prices.spx", payload);
+            }
+            long allocated = threads.getThreadAllocatedBytes(thread) - before;
+            // A handful of bytes for the measuring itself, nowhere near one object per append
+            assertTrue(allocated < 1024, allocated + " bytes allocated over 100,000 appends");
+        }
+    }
+}
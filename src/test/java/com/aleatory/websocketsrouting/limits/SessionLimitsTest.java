@@ -0,0 +1,113 @@
+package com.aleatory.websocketsrouting.limits;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.server.ServletServerHttpRequest;
+import org.springframework.http.server.ServletServerHttpResponse;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageDeliveryException;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessageType;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketHandler;
+import org.springframework.web.socket.WebSocketSession;
+
+class SessionLimitsTest {
+    private final WebSocketHandler inner = mock(WebSocketHandler.class);
+    private SessionLimits limits;
+    private WebSocketHandler handler;
+
+    @BeforeEach
+    void setUp() {
+        limits = new SessionLimits();
+        ReflectionTestUtils.setField(limits, "maxSessions", 2);
+        ReflectionTestUtils.setField(limits, "maxSubscriptions", 2);
+        ReflectionTestUtils.setField(limits, "idleSeconds", 1);
+        handler = limits.decorate(inner);
+    }
+
+    private static WebSocketSession session(String id) {
+        WebSocketSession session = mock(WebSocketSession.class);
+        when(session.getId()).thenReturn(id);
+        return session;
+    }
+
+    private static Message<byte[]> frame(SimpMessageType type, String sessionId, String subscriptionId) {
+        SimpMessageHeaderAccessor headers = SimpMessageHeaderAccessor.create(type);
+        headers.setSessionId(sessionId);
+        headers.setSubscriptionId(subscriptionId);
+        return MessageBuilder.createMessage(new byte[0], headers.getMessageHeaders());
+    }
+
+    @Test
+    void turnsAwaySessionsPastTheCap() throws Exception {
+        handler.afterConnectionEstablished(session("1"));
+        handler.afterConnectionEstablished(session("2"));
+
+        MockHttpServletResponse servletResponse = new MockHttpServletResponse();
+        ServletServerHttpResponse response = new ServletServerHttpResponse(servletResponse);
+        assertFalse(limits.beforeHandshake(new ServletServerHttpRequest(new MockHttpServletRequest()), response, null, null));
+        response.flush();
+        assertEquals(HttpStatus.SERVICE_UNAVAILABLE.value(), servletResponse.getStatus());
+
+        // One that got past the handshake anyway
+        WebSocketSession third = session("3");
+        handler.afterConnectionEstablished(third);
+        verify(third).close(CloseStatus.SERVICE_OVERLOAD);
+        verify(inner, never()).afterConnectionEstablished(third);
+        handler.afterConnectionClosed(third, CloseStatus.SERVICE_OVERLOAD);
+        verify(inner, never()).afterConnectionClosed(any(), any());
+        assertEquals(2L, limits.getStats().get("rejectedSessions"));
+    }
+
+    @Test
+    void capsSubscriptionsPerSession() throws Exception {
+        handler.afterConnectionEstablished(session("1"));
+        assertNotNull(limits.preSend(frame(SimpMessageType.SUBSCRIBE, "1", "a"), null));
+        assertNotNull(limits.preSend(frame(SimpMessageType.SUBSCRIBE, "1", "b"), null));
+        // The same one again doesn't count twice
+        assertNotNull(limits.preSend(frame(SimpMessageType.SUBSCRIBE, "1", "b"), null));
+
+        assertThrows(MessageDeliveryException.class, () -> limits.preSend(frame(SimpMessageType.SUBSCRIBE, "1", "c"), null));
+
+        limits.preSend(frame(SimpMessageType.UNSUBSCRIBE, "1", "a"), null);
+        assertNotNull(limits.preSend(frame(SimpMessageType.SUBSCRIBE, "1", "c"), null));
+        assertEquals(2L, limits.getStats().get("subscriptions"));
+        assertEquals(1L, limits.getStats().get("rejectedSubscriptions"));
+    }
+
+    @Test
+    void reapsSessionsThatHaveGoneQuiet() throws Exception {
+        WebSocketSession quiet = session("quiet"), chatty = session("chatty");
+        handler.afterConnectionEstablished(quiet);
+        handler.afterConnectionEstablished(chatty);
+        Thread.sleep(1100);
+        // A heartbeat
+        handler.handleMessage(chatty, new TextMessage("\n"));
+
+        limits.reapIdle();
+
+        verify(quiet).close(SessionLimits.IDLE);
+        verify(chatty, never()).close(any());
+        handler.afterConnectionClosed(quiet, SessionLimits.IDLE);
+        verify(inner).afterConnectionClosed(quiet, SessionLimits.IDLE);
+        assertEquals(1L, limits.getStats().get("sessions"));
+        assertEquals(1L, limits.getStats().get("reapedIdle"));
+    }
+}
@@ -0,0 +1,73 @@
+package com.aleatory.websocketsrouting.offheap;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+class OffHeapStoreTest {
+    OffHeapStore store;
+    Map<String, List<Long>> handles = new HashMap<>();
+    List<String> evicted = new ArrayList<>();
+
+    @BeforeEach
+    void setUp() {
+        store = new OffHeapStore();
+        ReflectionTestUtils.setField(store, "maxMb", 1L);
+        ReflectionTestUtils.setField(store, "slabKb", 64);
+        ReflectionTestUtils.setField(store, "evictPercent", 25);
+        store.init();
+        store.addEvictor(topic -> {
+            evicted.add(topic);
+            handles.remove(topic).forEach(handle -> store.free(topic, handle));
+        });
+    }
+
+    void fill(String topic, int values) {
+        for (int i = 0; i < values; i++) {
+            long handle = store.store(topic, new byte[1020]);
+            if (handle >= 0) {
+                handles.computeIfAbsent(topic, t -> new ArrayList<>()).add(handle);
+            }
+        }
+    }
+
+    @Test
+    void evictsLeastRecentlyUsedTopicsUntilThereIsRoom() {
+        // 1024 blocks of 1 KB in all; a quarter each
+        fill("/topic/portfolio.1", 256);
+        fill("/topic/portfolio.2", 256);
+        fill("/topic/portfolio.3", 256);
+        fill("/topic/portfolio.4", 256);
+        store.load("/topic/portfolio.1", handles.get("/topic/portfolio.1").get(0));
+        fill("/topic/portfolio.5", 1);
+        assertEquals(1, store.getStats().rejected());
+
+        store.evictLeastRecentlyUsed();
+
+        assertEquals(List.of("/topic/portfolio.2"), evicted);
+        assertEquals(768 * 1024, store.getStats().allocatedBytes());
+        assertEquals(768 * 1020, store.getStats().usedBytes());
+        assertEquals(3, store.getStats().topics());
+        assertEquals(Map.of(1024, 768L), store.getStats().valuesByBlockSize());
+    }
+
+    @Test
+    void evictsEverythingForTheNewDay() {
+        fill("/topic/portfolio.1", 3);
+        fill("/topic/prices.spx", 2);
+
+        store.evictAll();
+
+        assertEquals(List.of("/topic/portfolio.1", "/topic/prices.spx"), evicted);
+        assertEquals(0, store.getStats().values());
+        assertEquals(0, store.getStats().topics());
+        assertEquals(2, store.getStats().evictedTopics());
+    }
+}
@@ -0,0 +1,83 @@
+package com.aleatory.websocketsrouting.offheap;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+class SlabArenaTest {
+    static final int SLAB = 4096;
+
+    static byte[] bytes(int length) {
+        byte[] bytes = new byte[length];
+        for (int i = 0; i < length; i++) {
+            bytes[i] = (byte) i;
+        }
+        return bytes;
+    }
+
+    @Test
+    void valuesRoundTripInTheirSizeClass() {
+        SlabArena arena = new SlabArena(SLAB, 4 * SLAB);
+        long small = arena.allocate("{\"price\":5864.67}".getBytes(StandardCharsets.UTF_8));
+        long large = arena.allocate(bytes(1000));
+
+        assertEquals("{\"price\":5864.67}", new String(arena.read(small), StandardCharsets.UTF_8));
+        assertArrayEquals(bytes(1000), arena.read(large));
+        assertEquals(1000, arena.length(large));
+        assertEquals(64, arena.blockSize(60));
+        assertEquals(128, arena.blockSize(61));
+        assertEquals(SLAB, arena.blockSize(SLAB - 4));
+        assertEquals(0, arena.blockSize(SLAB - 3));
+    }
+
+    @Test
+    void accountsForEveryByte() {
+        SlabArena arena = new SlabArena(SLAB, 4 * SLAB);
+        long a = arena.allocate(bytes(17));
+        long b = arena.allocate(bytes(100));
+        arena.allocate(bytes(100));
+
+        SlabArena.Stats stats = arena.getStats();
+        assertEquals(2 * SLAB, stats.reservedBytes());
+        assertEquals(64 + 128 + 128, stats.allocatedBytes());
+        assertEquals(217, stats.usedBytes());
+        assertEquals(3, stats.values());
+
+        arena.free(a);
+        arena.free(b);
+        stats = arena.getStats();
+        assertEquals(128, stats.allocatedBytes());
+        assertEquals(100, stats.usedBytes());
+        assertEquals(1, stats.emptySlabs());
+    }
+
+    @Test
+    void saysNoWhenFullAndReusesFreedSlabsForAnyClass() {
+        SlabArena arena = new SlabArena(SLAB, 2 * SLAB);
+        List<Long> handles = new ArrayList<>();
+        long handle;
+        while ((handle = arena.allocate(bytes(60))) >= 0) {
+            handles.add(handle);
+        }
+        assertEquals(2 * SLAB / 64, handles.size());
+        assertEquals(-1, arena.allocate(bytes(2000)));
+
+        // Emptying one slab lets a different size class have it
+        handles.subList(0, SLAB / 64).forEach(arena::free);
+        long big = arena.allocate(bytes(2000));
+        assertNotEquals(-1, big);
+        assertArrayEquals(bytes(2000), arena.read(big));
+        assertArrayEquals(bytes(60), arena.read(handles.get(handles.size() - 1)));
+    }
+
+    @Test
+    void tooBigNeverFits() {
+        assertEquals(-1, new SlabArena(SLAB, 4 * SLAB).allocate(bytes(SLAB)));
+    }
+}
@@ -1,11 +1,31 @@
 package com.aleatory.websocketsrouting.provider;
 
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
 
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.stream.Collectors;
+
+import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
 import org.slf4j.Logger;
@@ -13,7 +33,10 @@ import org.slf4j.LoggerFactory;
 import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.test.util.ReflectionTestUtils;
 
+import com.aleatory.websocketsrouting.dao.SPXHistoryDao;
+import com.aleatory.websocketsrouting.domain.ClosePrice;
 import com.aleatory.websocketsrouting.events.SPXCloseReceivedEvent;
+import com.aleatory.websocketsrouting.events.SPXClosesReconciledEvent;
 
 @ExtendWith(MockitoExtension.class)
 class HistoricalSPXPriceProviderTest {
@@ -25,18 +48,183 @@ class HistoricalSPXPriceProviderTest {
     @Mock
     ApplicationEventPublisher applicationEventPublisher;
 
+    @Mock
+    SPXHistoryDao dao;
+
+    ExecutorService executor = Executors.newCachedThreadPool();
+
+    List<ClosePriceSource> sources = new ArrayList<>();
+
     @BeforeEach
     void setUp() throws Exception {
         cut = new HistoricalSPXPriceProvider();
         ReflectionTestUtils.setField(cut, "applicationEventPublisher", applicationEventPublisher);
+        ReflectionTestUtils.setField(cut, "closeSourceExecutor", executor);
+        ReflectionTestUtils.setField(cut, "sources", sources);
+        ReflectionTestUtils.setField(cut, "sourceNames", List.of("file", "file2", "broken", "slow"));
+        ReflectionTestUtils.setField(cut, "symbols", List.of("SPX"));
+        ReflectionTestUtils.setField(cut, "quorum", 1);
+        ReflectionTestUtils.setField(cut, "sourceTimeoutSeconds", 10);
+    }
+
+    @AfterEach
+    void tearDown() {
+        executor.shutdownNow();
+    }
+
+    static FileClosePriceSource fixtureSource(String fixture, String name) {
+        return new FileClosePriceSource("classpath:" + fixture, name);
     }
 
     @Test
     void testCheckClosePriceAtClose() {
-        cut.checkClosePriceAtClose();
+        sources.add(fixtureSource(YahooHistoryPageParserTest.FULL_PAGE, "file"));
+        ClosePrice closePrice = cut.fetchTodaysClose("SPX");
         verify(applicationEventPublisher).publishEvent(any(SPXCloseReceivedEvent.class));
+        assertEquals(LocalDate.of(2024, 10, 18), closePrice.getCloseDate());
+        assertEquals(5864.67, closePrice.getPrice());
     }
     
+    @Test
+    void testCheckClosePriceAtCloseLayoutChanged() {
+        sources.add(fixtureSource(YahooHistoryPageParserTest.LAYOUT_CHANGED_PAGE, "file"));
+        assertNull(cut.fetchTodaysClose("SPX"));
+        verify(applicationEventPublisher, never()).publishEvent(any(SPXCloseReceivedEvent.class));
+    }
+
+    @Test
+    void testOneBrokenSourceDoesNotStopClose() {
+        sources.add(fixtureSource(YahooHistoryPageParserTest.LAYOUT_CHANGED_PAGE, "broken"));
+        sources.add(fixtureSource(YahooHistoryPageParserTest.FULL_PAGE, "file"));
+        assertEquals(5864.67, cut.fetchTodaysClose("SPX").getPrice());
+        verify(applicationEventPublisher).publishEvent(any(SPXCloseReceivedEvent.class));
+    }
+
+    @Test
+    void testQuorumOfTwoAgrees() {
+        ReflectionTestUtils.setField(cut, "quorum", 2);
+        sources.add(fixtureSource(YahooHistoryPageParserTest.FULL_PAGE, "file"));
+        sources.add(fixtureSource(YahooHistoryPageParserTest.BAD_ROWS_PAGE, "file2"));
+        assertEquals(LocalDate.of(2024, 10, 18), cut.fetchTodaysClose("SPX").getCloseDate());
+    }
+
+    @Test
+    void testQuorumNotReached() {
+        ReflectionTestUtils.setField(cut, "quorum", 2);
+        sources.add(fixtureSource(YahooHistoryPageParserTest.FULL_PAGE, "file"));
+        sources.add(fixedSource("file2", new ClosePrice(LocalDate.of(2024, 10, 18), 5864.50)));
+        assertNull(cut.fetchTodaysClose("SPX"));
+        verify(applicationEventPublisher, never()).publishEvent(any(SPXCloseReceivedEvent.class));
+    }
 
+    @Test
+    void testUnconfiguredSourceIgnored() {
+        ReflectionTestUtils.setField(cut, "sourceNames", List.of("file"));
+        sources.add(fixedSource("other", new ClosePrice(LocalDate.of(2024, 10, 18), 1.0)));
+        assertNull(cut.fetchTodaysClose("SPX"));
+    }
+
+    @Test
+    void testQuorumDoesNotWaitForSlowSource() {
+        CountDownLatch blocked = new CountDownLatch(1);
+        sources.add(new ClosePriceSource() {
+            @Override
+            public String getName() {
+                return "slow";
+            }
+
+            @Override
+            public List<ClosePrice> fetchCloses(String symbol, int numDays) {
+                try {
+                    blocked.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return null;
+            }
+        });
+        sources.add(fixtureSource(YahooHistoryPageParserTest.FULL_PAGE, "file"));
+        long start = System.nanoTime();
+        assertEquals(5864.67, cut.fetchTodaysClose("SPX").getPrice());
+        assertTrue(System.nanoTime() - start < 5_000_000_000L);
+    }
+
+    @Test
+    void testBatchedReconcile() {
+        ReflectionTestUtils.setField(cut, "dao", dao);
+        ReflectionTestUtils.setField(cut, "batchedReconcile", true);
+        sources.add(fixtureSource(YahooHistoryPageParserTest.FULL_PAGE, "file"));
+        ClosePrice finalClose = new ClosePrice(LocalDate.of(2024, 10, 17), 5847.25);
+        finalClose.setFinalPrice(true);
+        ClosePrice wrongClose = new ClosePrice(LocalDate.of(2024, 10, 16), 1.0);
+        // Same price as the page, but not final yet
+        ClosePrice notFinalClose = new ClosePrice(LocalDate.of(2024, 10, 15), 5892.89);
+        when(dao.findClose(eq("SPX"), any(LocalDate.class))).thenAnswer(invocation -> {
+            LocalDate date = invocation.getArgument(1);
+            if (date.equals(finalClose.getCloseDate())) {
+                return finalClose;
+            }
+            if (date.equals(wrongClose.getCloseDate())) {
+                return wrongClose;
+            }
+            if (date.equals(notFinalClose.getCloseDate())) {
+                return notFinalClose;
+            }
+            return null;
+        });
+
+        cut.checkAllPreviousCloses();
+
+        ArgumentCaptor<SPXClosesReconciledEvent> event = ArgumentCaptor.forClass(SPXClosesReconciledEvent.class);
+        verify(applicationEventPublisher).publishEvent(event.capture());
+        // 100 rows: one already final, one to finalize, the rest missing or wrong
+        assertEquals(98, event.getValue().getCorrections().size());
+        assertEquals(1, event.getValue().getFinalizations().size());
+        assertEquals(notFinalClose.getCloseDate(), event.getValue().getFinalizations().get(0).getCloseDate());
+        assertTrue(event.getValue().getCorrections().stream().allMatch(ClosePrice::isFinalPrice));
+        verify(dao, never()).storeSPXClose(any());
+    }
+
+    @Test
+    void testSymbolsFetchedTogether() {
+        sources.add(new ClosePriceSource() {
+            @Override
+            public String getName() {
+                return "file";
+            }
+
+            @Override
+            public List<ClosePrice> fetchCloses(String symbol, int numDays) {
+                return switch (symbol) {
+                case "SPX" -> List.of(new ClosePrice(LocalDate.of(2024, 10, 18), 5864.67));
+                case "NDX" -> List.of(new ClosePrice(LocalDate.of(2024, 10, 18), 20324.35));
+                default -> null;
+                };
+            }
+        });
+
+        Map<String, ClosePrice> closePrices = cut.checkClosePricesAtClose(List.of("SPX", "NDX", "RUT"));
+
+        assertEquals(5864.67, closePrices.get("SPX").getPrice());
+        assertEquals(20324.35, closePrices.get("NDX").getPrice());
+        assertFalse(closePrices.containsKey("RUT"));
+        ArgumentCaptor<SPXCloseReceivedEvent> events = ArgumentCaptor.forClass(SPXCloseReceivedEvent.class);
+        verify(applicationEventPublisher, times(2)).publishEvent(events.capture());
+        assertEquals(Set.of("SPX", "NDX"), events.getAllValues().stream().map(SPXCloseReceivedEvent::getSymbol).collect(Collectors.toSet()));
+    }
+
+    private static ClosePriceSource fixedSource(String name, ClosePrice... closePrices) {
+        return new ClosePriceSource() {
+            @Override
+            public String getName() {
+                return name;
+            }
+
+            @Override
+            public List<ClosePrice> fetchCloses(String symbol, int numDays) {
+                return List.of(closePrices);
+            }
+        };
+    }
 
 }
@@ -0,0 +1,82 @@
+package com.aleatory.websocketsrouting.provider;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.util.Map;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.aleatory.websocketsrouting.domain.ClosePrice;
+import com.aleatory.websocketsrouting.events.SPXCloseReceivedEvent;
+
+@ExtendWith(MockitoExtension.class)
+class ProvisionalSPXCloseProviderTest {
+    static final ZonedDateTime CLOSE = ZonedDateTime.of(LocalDate.of(2024, 10, 18), LocalTime.of(16, 0), ZoneId.of("America/New_York"));
+
+    ProvisionalSPXCloseProvider cut;
+
+    @Mock
+    ApplicationEventPublisher applicationEventPublisher;
+
+    @BeforeEach
+    void setUp() {
+        cut = new ProvisionalSPXCloseProvider();
+        ReflectionTestUtils.setField(cut, "applicationEventPublisher", applicationEventPublisher);
+        ReflectionTestUtils.setField(cut, "pricePointer", "/price");
+        ReflectionTestUtils.setField(cut, "windowSeconds", 60L);
+        ReflectionTestUtils.setField(cut, "graceMillis", 500L);
+        cut.openWindow(CLOSE);
+    }
+
+    @Test
+    void testLastTickBeforeBellIsProvisionalClose() {
+        cut.recordTick("{\"price\": 5860.10}", CLOSE.toInstant().minusSeconds(5));
+        cut.recordTick("{\"price\": 5864.67}", CLOSE.toInstant().minusMillis(200));
+        ClosePrice closePrice = cut.publishProvisionalClose(CLOSE);
+        assertEquals(5864.67, closePrice.getPrice());
+        assertEquals(LocalDate.of(2024, 10, 18), closePrice.getCloseDate());
+
+        ArgumentCaptor<SPXCloseReceivedEvent> event = ArgumentCaptor.forClass(SPXCloseReceivedEvent.class);
+        verify(applicationEventPublisher).publishEvent(event.capture());
+        assertTrue(event.getValue().isProvisional());
+        assertEquals(5864.67, event.getValue().getPrice());
+    }
+
+    @Test
+    void testObjectPayload() {
+        cut.recordTick(Map.of("symbol", "SPX", "price", 5864.67), CLOSE.toInstant().minusSeconds(1));
+        assertEquals(5864.67, cut.publishProvisionalClose(CLOSE).getPrice());
+    }
+
+    @Test
+    void testTicksOutsideWindowIgnored() {
+        cut.recordTick("{\"price\": 5860.10}", CLOSE.toInstant().minusSeconds(61));
+        cut.recordTick("{\"price\": 5870.00}", CLOSE.toInstant().plusSeconds(1));
+        assertNull(cut.publishProvisionalClose(CLOSE));
+        verify(applicationEventPublisher, never()).publishEvent(any(SPXCloseReceivedEvent.class));
+    }
+
+    @Test
+    void testUnreadableTickIgnored() {
+        cut.recordTick("{\"price\": 5864.67}", CLOSE.toInstant().minusSeconds(2));
+        cut.recordTick("not json", CLOSE.toInstant().minusSeconds(1));
+        cut.recordTick("{\"bid\": 5865.00}", CLOSE.toInstant().minusSeconds(1));
+        assertEquals(5864.67, cut.publishProvisionalClose(CLOSE).getPrice());
+    }
+}
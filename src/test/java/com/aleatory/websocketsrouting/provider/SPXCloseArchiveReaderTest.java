@@ -0,0 +1,54 @@
+package com.aleatory.websocketsrouting.provider;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.core.io.ClassPathResource;
+
+import com.aleatory.websocketsrouting.domain.ClosePrice;
+
+class SPXCloseArchiveReaderTest {
+    SPXCloseArchiveReader cut = new SPXCloseArchiveReader();
+
+    static Path fixture(String name) throws Exception {
+        return new ClassPathResource(name).getFile().toPath();
+    }
+
+    @Test
+    void testYahooDownloadCSV() throws Exception {
+        List<ClosePrice> closePrices = cut.read(fixture("fixtures/archives/spx-yahoo-download.csv"));
+        // The null row is skipped
+        assertEquals(5, closePrices.size());
+        assertEquals(LocalDate.of(2024, 10, 14), closePrices.get(0).getCloseDate());
+        assertEquals(5864.67, closePrices.get(4).getPrice());
+        assertTrue(closePrices.stream().allMatch(ClosePrice::isFinalPrice));
+    }
+
+    @Test
+    void testHeaderlessCSV() throws Exception {
+        List<ClosePrice> closePrices = cut.read(fixture("fixtures/archives/spx-closes-us-dates.csv"));
+        assertEquals(3, closePrices.size());
+        assertEquals(LocalDate.of(2024, 10, 11), closePrices.get(1).getCloseDate());
+        assertEquals(5815.03, closePrices.get(1).getPrice());
+    }
+
+    @Test
+    void testSavedHistoryPage() throws Exception {
+        List<ClosePrice> closePrices = cut.read(fixture("fixtures/yahoo/spx-history.html"));
+        assertEquals(101, closePrices.size());
+        assertTrue(closePrices.get(0).isFinalPrice());
+    }
+
+    @Test
+    void testIsArchive() {
+        assertTrue(SPXCloseArchiveReader.isArchive(Path.of("a/b/SPX.CSV")));
+        assertTrue(SPXCloseArchiveReader.isArchive(Path.of("history.htm")));
+        assertFalse(SPXCloseArchiveReader.isArchive(Path.of("notes.txt")));
+    }
+}
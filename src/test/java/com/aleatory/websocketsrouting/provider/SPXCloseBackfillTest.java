@@ -0,0 +1,70 @@
+package com.aleatory.websocketsrouting.provider;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.aleatory.websocketsrouting.dao.SPXHistoryDao;
+import com.aleatory.websocketsrouting.domain.BackfillResult;
+import com.aleatory.websocketsrouting.domain.ClosePrice;
+
+@ExtendWith(MockitoExtension.class)
+class SPXCloseBackfillTest {
+
+    @Mock
+    SPXHistoryDao dao;
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void testBackfillDedupesAndCopiesNewDates() throws Exception {
+        SPXCloseBackfill cut = new SPXCloseBackfill();
+        ReflectionTestUtils.setField(cut, "dao", dao);
+        LocalDate existing = LocalDate.of(2024, 10, 14);
+        when(dao.findClose(eq("SPX"), any(LocalDate.class))).thenAnswer(invocation -> existing.equals(invocation.getArgument(1)) ? new ClosePrice(existing, 5859.85) : null);
+        when(dao.copyCloses(eq("SPX"), anyList())).thenAnswer(invocation -> ((List<ClosePrice>) invocation.getArgument(1)).size());
+
+        BackfillResult result = cut.backfill("SPX", SPXCloseArchiveReaderTest.fixture("fixtures/archives"));
+
+        ArgumentCaptor<List<ClosePrice>> copied = ArgumentCaptor.forClass(List.class);
+        verify(dao).copyCloses(eq("SPX"), copied.capture());
+        // Both CSVs have the 14th, and we already had it
+        assertEquals(6, copied.getValue().size());
+        assertEquals(LocalDate.of(2024, 10, 10), copied.getValue().get(0).getCloseDate());
+        assertEquals(LocalDate.of(2024, 10, 18), copied.getValue().get(5).getCloseDate());
+        assertEquals(2, result.getFiles());
+        assertEquals(8, result.getRowsParsed());
+        assertEquals(6, result.getRowsInserted());
+    }
+
+    @Test
+    void testLocationsOutsideTheRootAreRefused(@TempDir Path dir) throws Exception {
+        Path root = Files.createDirectories(dir.resolve("archives"));
+        Files.createDirectories(root.resolve("2020"));
+        Files.createSymbolicLink(root.resolve("out"), dir);
+        SPXCloseBackfill cut = new SPXCloseBackfill();
+        ReflectionTestUtils.setField(cut, "root", root);
+
+        assertEquals(root.resolve("2020"), cut.resolve("2020"));
+        assertEquals(root.resolve("2020"), cut.resolve("2020/../2020"));
+        assertNull(cut.resolve("../secrets"));
+        assertNull(cut.resolve("/etc/passwd"));
+        assertNull(cut.resolve("out"));
+    }
+}
@@ -0,0 +1,90 @@
+package com.aleatory.websocketsrouting.provider;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+import org.jsoup.Jsoup;
+import org.jsoup.nodes.Document;
+import org.jsoup.nodes.Element;
+import org.jsoup.parser.Parser;
+import org.jsoup.parser.StreamParser;
+import org.jsoup.select.Elements;
+import org.junit.jupiter.api.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Compares the streaming history-page parser against the full-DOM parse we used
+ * to do, on the saved fixture page. Not part of the normal test run (surefire
+ * only picks up *Test classes); run it with
+ * <code>mvn test -Dtest=YahooHistoryPageParserBenchmark</code>.
+ */
+class YahooHistoryPageParserBenchmark {
+    private static final Logger logger = LoggerFactory.getLogger(YahooHistoryPageParserBenchmark.class);
+
+    private static final int WARMUP_ITERATIONS = 200;
+    private static final int ITERATIONS = 1000;
+
+    private final YahooHistoryPageParser parser = new YahooHistoryPageParser();
+
+    @Test
+    void benchmarkTopRow() throws IOException {
+        run(1);
+    }
+
+    @Test
+    void benchmarkAllRows() throws IOException {
+        run(100);
+    }
+
+    private void run(int numDays) throws IOException {
+        String page = readFixture();
+        long domNanos = time(() -> domParse(page, numDays));
+        long streamNanos = time(() -> parser.parse(new StreamParser(Parser.htmlParser()).parse(page, ""), numDays).size());
+        logger.info("numDays={}: DOM {} us/op, streaming {} us/op ({}x)", numDays, domNanos / 1000, streamNanos / 1000, String.format("%.1f", (double) domNanos / streamNanos));
+    }
+
+    /**
+     * What connectForClose used to do: parse the whole page, then run the row
+     * selector (once for the validity check and once for the rows).
+     */
+    private int domParse(String page, int numDays) {
+        Document doc = Jsoup.parse(page);
+        Elements validity = doc.select(YahooHistoryPageParser.CSS_PATH_FOR_HISTORY_ROWS);
+        if (validity.isEmpty()) {
+            return 0;
+        }
+        Elements rows = doc.select(YahooHistoryPageParser.CSS_PATH_FOR_HISTORY_ROWS);
+        int count = 0;
+        for (int i = 0; i < numDays && i < rows.size(); i++) {
+            Element row = rows.get(i);
+            count += parser.getClosePriceFromRow(row) != null ? 1 : 0;
+        }
+        return count;
+    }
+
+    private interface ParseRun {
+        int run() throws IOException;
+    }
+
+    private long time(ParseRun parseRun) throws IOException {
+        int sink = 0;
+        for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+            sink += parseRun.run();
+        }
+        long start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            sink += parseRun.run();
+        }
+        long elapsed = System.nanoTime() - start;
+        logger.debug("Sink: {}", sink);
+        return elapsed / ITERATIONS;
+    }
+
+    private String readFixture() throws IOException {
+        try (InputStream in = getClass().getResourceAsStream(YahooHistoryPageParserTest.FULL_PAGE)) {
+            return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        }
+    }
+}
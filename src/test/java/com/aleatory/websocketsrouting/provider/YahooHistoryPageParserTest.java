@@ -0,0 +1,105 @@
+package com.aleatory.websocketsrouting.provider;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.jsoup.parser.Parser;
+import org.jsoup.parser.StreamParser;
+import org.junit.jupiter.api.Test;
+
+import com.aleatory.websocketsrouting.domain.ClosePrice;
+
+class YahooHistoryPageParserTest {
+    static final String FULL_PAGE = "/fixtures/yahoo/spx-history.html";
+    static final String BAD_ROWS_PAGE = "/fixtures/yahoo/spx-history-bad-rows.html";
+    static final String LAYOUT_CHANGED_PAGE = "/fixtures/yahoo/spx-history-layout-changed.html";
+
+    YahooHistoryPageParser cut = new YahooHistoryPageParser();
+
+    static StreamParser openFixture(String fixture) {
+        InputStream in = YahooHistoryPageParserTest.class.getResourceAsStream(fixture);
+        return new StreamParser(Parser.htmlParser()).parse(new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8)), "https://finance.yahoo.com/");
+    }
+
+    @Test
+    void testParseTopRow() throws IOException {
+        List<ClosePrice> closePrices = cut.parse(openFixture(FULL_PAGE), 1);
+        assertEquals(1, closePrices.size());
+        assertEquals(LocalDate.of(2024, 10, 18), closePrices.get(0).getCloseDate());
+        assertEquals(5864.67, closePrices.get(0).getPrice());
+    }
+
+    @Test
+    void testParseStopsAtNumDays() throws IOException {
+        List<ClosePrice> closePrices = cut.parse(openFixture(FULL_PAGE), 100);
+        assertEquals(100, closePrices.size());
+        assertEquals(LocalDate.of(2024, 10, 17), closePrices.get(1).getCloseDate());
+        assertEquals(5847.25, closePrices.get(1).getPrice());
+        assertEquals(LocalDate.of(2024, 5, 29), closePrices.get(99).getCloseDate());
+    }
+
+    @Test
+    void testParseWholePage() throws IOException {
+        List<ClosePrice> closePrices = cut.parse(openFixture(FULL_PAGE), Integer.MAX_VALUE);
+        assertEquals(101, closePrices.size());
+        assertEquals(LocalDate.of(2024, 5, 28), closePrices.get(100).getCloseDate());
+    }
+
+    @Test
+    void testBadRowsSkipped() throws IOException {
+        List<ClosePrice> closePrices = cut.parse(openFixture(BAD_ROWS_PAGE), 100);
+        assertEquals(4, closePrices.size());
+        assertEquals(LocalDate.of(2024, 10, 18), closePrices.get(0).getCloseDate());
+        assertEquals(LocalDate.of(2024, 10, 16), closePrices.get(1).getCloseDate());
+    }
+
+    @Test
+    void testBadRowsCountAgainstNumDays() throws IOException {
+        List<ClosePrice> closePrices = cut.parse(openFixture(BAD_ROWS_PAGE), 3);
+        assertEquals(1, closePrices.size());
+    }
+
+    @Test
+    void testLayoutChanged() throws IOException {
+        assertTrue(cut.parse(openFixture(LAYOUT_CHANGED_PAGE), 100).isEmpty());
+    }
+
+    /**
+     * The scheduled checks and /todays-close can parse at the same time; the
+     * shared SimpleDateFormat we used to have would garble dates here.
+     */
+    @Test
+    void testConcurrentParses() throws Exception {
+        List<ClosePrice> expected = cut.parse(openFixture(FULL_PAGE), 100);
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Callable<List<ClosePrice>>> parses = new ArrayList<>();
+            for (int i = 0; i < 32; i++) {
+                parses.add(() -> cut.parse(openFixture(FULL_PAGE), 100));
+            }
+            for (Future<List<ClosePrice>> result : executor.invokeAll(parses)) {
+                List<ClosePrice> closePrices = result.get();
+                assertEquals(expected.size(), closePrices.size());
+                for (int i = 0; i < expected.size(); i++) {
+                    assertEquals(expected.get(i).getCloseDate(), closePrices.get(i).getCloseDate());
+                    assertEquals(expected.get(i).getPrice(), closePrices.get(i).getPrice());
+                }
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package com.aleatory.websocketsrouting.replay;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assertions.fail;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+class ReplayRingTest {
+
+    static List<String> since(ReplayRing ring, long seq) {
+        List<String> replayed = new ArrayList<>();
+        assertTrue(ring.since(seq, (payload, next) -> replayed.add(next + "=" + payload)));
+        return replayed;
+    }
+
+    @Test
+    void numbersFromOneAndRoundsCapacityUp() {
+        ReplayRing ring = new ReplayRing(5);
+
+        assertEquals(8, ring.getCapacity());
+        assertEquals(0, ring.getLastSeq());
+        assertEquals(1, ring.append("OPEN"));
+        assertEquals(2, ring.append("HALTED"));
+        assertEquals("HALTED", ring.get(2));
+    }
+
+    @Test
+    void replaysWhatCameAfter() {
+        ReplayRing ring = new ReplayRing(4);
+        for (String state : List.of("PRE_OPEN", "OPEN", "HALTED", "OPEN", "CLOSING", "CLOSED")) {
+            ring.append(state);
+        }
+
+        assertEquals(List.of("5=CLOSING", "6=CLOSED"), since(ring, 4));
+        assertEquals(List.of("3=HALTED", "4=OPEN", "5=CLOSING", "6=CLOSED"), since(ring, 2));
+        assertEquals(List.of(), since(ring, 6));
+        assertNull(ring.get(2));
+    }
+
+    @Test
+    void refusesWhatItNoLongerHasOrNeverSent() {
+        ReplayRing ring = new ReplayRing(4);
+        for (int i = 0; i < 6; i++) {
+            ring.append(i);
+        }
+        List<Object> replayed = new ArrayList<>();
+
+        assertFalse(ring.since(1, (payload, next) -> replayed.add(payload)));
+        assertFalse(ring.since(7, (payload, next) -> replayed.add(payload)));
+        assertTrue(replayed.isEmpty());
+        assertEquals(3, ring.getFirstSeq());
+    }
+
+    @Test
+    void clearingKeepsTheNumbering() {
+        ReplayRing ring = new ReplayRing(4);
+        ring.append("OPEN");
+        ring.append("HALTED");
+        ring.clear();
+
+        assertNull(ring.get(2));
+        assertFalse(ring.since(1, (payload, next) -> fail()));
+        assertEquals(List.of(), since(ring, 2));
+        assertEquals(3, ring.append("OPEN"));
+        assertEquals(List.of("3=OPEN"), since(ring, 2));
+    }
+}
@@ -0,0 +1,152 @@
+package com.aleatory.websocketsrouting.replay;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.converter.StringMessageConverter;
+import org.springframework.messaging.core.MessageSendingOperations;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.scheduling.TaskScheduler;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.aleatory.websocketsrouting.offheap.OffHeapStore;
+
+@ExtendWith(MockitoExtension.class)
+class TopicReplayTest {
+    static final String STATE = "/topic/trading.state";
+
+    TopicReplay cut;
+    List<Message<?>> toSession = new ArrayList<>();
+
+    @Mock
+    MessageSendingOperations<String> messagingTemplate;
+
+    @Mock
+    TaskScheduler scheduler;
+
+    @BeforeEach
+    void setUp() {
+        cut = new TopicReplay();
+        ReflectionTestUtils.setField(cut, "messagingTemplate", messagingTemplate);
+        ReflectionTestUtils.setField(cut, "clientOutboundChannel", (MessageChannel) (message, timeout) -> toSession.add(message));
+        ReflectionTestUtils.setField(cut, "messageConverter", new StringMessageConverter());
+        ReflectionTestUtils.setField(cut, "ringSize", 4);
+        cut.createSessionTemplate();
+    }
+
+    List<String> sent() {
+        return toSession.stream().map(message -> {
+            SimpMessageHeaderAccessor headers = SimpMessageHeaderAccessor.wrap(message);
+            assertEquals("session-1", headers.getSessionId());
+            assertEquals("sub-3", headers.getSubscriptionId());
+            assertEquals(STATE, headers.getDestination());
+            return headers.getFirstNativeHeader(TopicReplay.SEQ_HEADER) + "=" + new String((byte[]) message.getPayload());
+        }).toList();
+    }
+
+    @Test
+    void numbersEachDestinationsMessages() {
+        cut.publish(STATE, "OPEN");
+        cut.publish(STATE, "HALTED");
+        cut.publish("/topic/prices.spx", "5012.5");
+
+        verify(messagingTemplate).convertAndSend(STATE, "OPEN", Map.of(TopicReplay.SEQ_HEADER, "1", TopicReplay.SEQ_EPOCH_HEADER, cut.getEpoch()));
+        verify(messagingTemplate).convertAndSend(STATE, "HALTED", Map.of(TopicReplay.SEQ_HEADER, "2", TopicReplay.SEQ_EPOCH_HEADER, cut.getEpoch()));
+        verify(messagingTemplate).convertAndSend("/topic/prices.spx", "5012.5", Map.of(TopicReplay.SEQ_HEADER, "1", TopicReplay.SEQ_EPOCH_HEADER, cut.getEpoch()));
+    }
+
+    @Test
+    void replaysJustWhatWasMissedToTheOneSubscription() {
+        for (String state : List.of("PRE_OPEN", "OPEN", "HALTED", "OPEN")) {
+            cut.publish(STATE, state);
+        }
+
+        assertTrue(cut.replay("session-1", "sub-3", STATE, "2", cut.getEpoch()));
+
+        assertEquals(List.of("3=HALTED", "4=OPEN"), sent());
+        assertEquals(2L, cut.getStats().get("replayedMessages"));
+    }
+
+    @Test
+    void fallsBackToSnapshotWhenTooFarBehindOrFromAnotherEpoch() {
+        for (int i = 1; i <= 6; i++) {
+            cut.publish(STATE, "state-" + i);
+        }
+
+        assertFalse(cut.replay("session-1", "sub-3", STATE, "1", cut.getEpoch()));
+        assertFalse(cut.replay("session-1", "sub-3", STATE, "5", "some-other-router"));
+        assertFalse(cut.replay("session-1", "sub-3", "/topic/prices.impvol", "5", null));
+        assertTrue(toSession.isEmpty());
+        assertEquals(3L, cut.getStats().get("snapshots"));
+
+        assertTrue(cut.sendLatest("session-1", "sub-3", STATE));
+        assertEquals(List.of("6=state-6"), sent());
+    }
+
+    @Test
+    void forgetsTheLatestAtTheDailyExpiryButKeepsCounting() {
+        ArgumentCaptor<Runnable> expiry = ArgumentCaptor.forClass(Runnable.class);
+        ReflectionTestUtils.setField(cut, "scheduler", scheduler);
+        cut.scheduleExpiry();
+        verify(scheduler).schedule(expiry.capture(), any(Instant.class));
+        cut.publish(STATE, "CLOSED");
+
+        expiry.getValue().run();
+
+        // Nothing stale as the latest, nor to replay; the caller goes to the snapshot
+        assertFalse(cut.sendLatest("session-1", "sub-3", STATE));
+        assertFalse(cut.replay("session-1", "sub-3", STATE, "0", cut.getEpoch()));
+        assertTrue(toSession.isEmpty());
+        // And the next day is scheduled
+        verify(scheduler, times(2)).schedule(any(Runnable.class), any(Instant.class));
+
+        cut.publish(STATE, "PRE_OPEN");
+        verify(messagingTemplate).convertAndSend(STATE, "PRE_OPEN", Map.of(TopicReplay.SEQ_HEADER, "2", TopicReplay.SEQ_EPOCH_HEADER, cut.getEpoch()));
+        assertTrue(cut.sendLatest("session-1", "sub-3", STATE));
+        assertEquals(List.of("2=PRE_OPEN"), sent());
+    }
+
+    @Test
+    void keepsBodiesOffHeapWhenThereIsAStore() {
+        OffHeapStore store = new OffHeapStore();
+        ReflectionTestUtils.setField(store, "maxMb", 1L);
+        ReflectionTestUtils.setField(store, "slabKb", 64);
+        ReflectionTestUtils.invokeMethod(store, "init");
+        ReflectionTestUtils.setField(cut, "offHeapStore", store);
+        cut.createSessionTemplate();
+
+        for (String state : List.of("PRE_OPEN", "OPEN", "HALTED", "OPEN", "CLOSING", "CLOSED")) {
+            cut.publish(STATE, state);
+        }
+        verify(messagingTemplate, times(6)).send(eq(STATE), any());
+        // The two overwritten bodies were freed
+        assertEquals(4, store.getStats().values());
+        assertEquals("HALTEDOPENCLOSINGCLOSED".length(), store.getUsedBytes(STATE));
+
+        assertTrue(cut.replay("session-1", "sub-3", STATE, "4", cut.getEpoch()));
+        assertEquals(List.of("5=CLOSING", "6=CLOSED"), sent());
+
+        ReflectionTestUtils.invokeMethod(store, "evictAll");
+        assertEquals(0, store.getStats().values());
+        assertFalse(cut.replay("session-1", "sub-3", STATE, "4", cut.getEpoch()));
+        assertFalse(cut.sendLatest("session-1", "sub-3", STATE));
+    }
+}
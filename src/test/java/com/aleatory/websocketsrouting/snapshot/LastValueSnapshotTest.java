@@ -0,0 +1,163 @@
+package com.aleatory.websocketsrouting.snapshot;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageHeaders;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.util.MimeType;
+import org.springframework.util.MimeTypeUtils;
+
+import com.aleatory.websocketsrouting.BrokerMessageConverters;
+import com.aleatory.websocketsrouting.events.SendMessageToFrontendEvent;
+import com.aleatory.websocketsrouting.offheap.OffHeapStore;
+
+class LastValueSnapshotTest {
+    record Close(String symbol, LocalDate date, LocalDateTime capturedAt, double price) {
+    }
+
+    @TempDir
+    Path directory;
+
+    OffHeapStore offHeapStore;
+
+    LastValueSnapshot open(int fileMb) throws IOException {
+        LastValueSnapshot snapshot = new LastValueSnapshot();
+        ReflectionTestUtils.setField(snapshot, "messageConverter", BrokerMessageConverters.create());
+        ReflectionTestUtils.setField(snapshot, "offHeapStore", offHeapStore);
+        ReflectionTestUtils.setField(snapshot, "file", directory.resolve("last-values.snapshot"));
+        ReflectionTestUtils.setField(snapshot, "fileMb", fileMb);
+        ReflectionTestUtils.setField(snapshot, "expiresAtMillis", System.currentTimeMillis() + 60_000);
+        if (offHeapStore != null) {
+            offHeapStore.addEvictor(snapshot::evict);
+        }
+        snapshot.load();
+        return snapshot;
+    }
+
+    void send(LastValueSnapshot snapshot, String destination, Object payload) {
+        snapshot.update(new SendMessageToFrontendEvent(this, destination, payload));
+    }
+
+    static String body(Message<byte[]> message) {
+        return message == null ? null : new String(message.getPayload(), StandardCharsets.UTF_8);
+    }
+
+    @Test
+    void testLastValuesSurviveARestart() throws IOException {
+        LastValueSnapshot snapshot = open(1);
+        Map<String, Object> price = new HashMap<>();
+        price.put("price", 5864.67);
+        send(snapshot, "/topic/prices.spx", "{\"price\":5860.10}");
+        snapshot.checkpoint();
+        send(snapshot, "/topic/prices.spx", price);
+        send(snapshot, "/topic/trading.state", "OPEN");
+        send(snapshot, "/topic/raw", new byte[] { 1, 2, 3 });
+        snapshot.close();
+
+        LastValueSnapshot restarted = open(1);
+        assertEquals(3, restarted.size());
+        assertEquals("{\"price\":5864.67}", body(restarted.get("/topic/prices.spx")));
+        assertEquals("OPEN", body(restarted.get("/topic/trading.state")));
+        assertArrayEquals(new byte[] { 1, 2, 3 }, restarted.get("/topic/raw").getPayload());
+    }
+
+    @Test
+    void testDatesComeBackAsTheBrokerWroteThem() throws IOException {
+        LastValueSnapshot snapshot = open(1);
+        Close close = new Close("SPX", LocalDate.of(2024, 10, 18), LocalDateTime.of(2024, 10, 18, 15, 0, 2), 5864.67);
+        send(snapshot, "/topic/prices.spx.close", close);
+        String sent = body(snapshot.get("/topic/prices.spx.close"));
+        assertEquals("{\"symbol\":\"SPX\",\"date\":\"2024-10-18\",\"capturedAt\":\"2024-10-18T15:00:02\",\"price\":5864.67}", sent);
+        snapshot.close();
+
+        Message<byte[]> restored = open(1).get("/topic/prices.spx.close");
+        assertEquals(sent, body(restored));
+        MimeType contentType = (MimeType) restored.getHeaders().get(MessageHeaders.CONTENT_TYPE);
+        assertTrue(MimeTypeUtils.APPLICATION_JSON.isCompatibleWith(contentType));
+    }
+
+    @Test
+    void testFullFileIsCompacted() throws IOException {
+        LastValueSnapshot snapshot = open(1);
+        String payload = "x".repeat(10_000);
+        for (int i = 0; i < 500; i++) {
+            send(snapshot, "/topic/prices.spx", payload + i);
+            send(snapshot, "/topic/trading.state", "tick " + i);
+            snapshot.checkpoint();
+        }
+        snapshot.close();
+
+        LastValueSnapshot restarted = open(1);
+        assertEquals(payload + 499, body(restarted.get("/topic/prices.spx")));
+        assertEquals("tick 499", body(restarted.get("/topic/trading.state")));
+    }
+
+    @Test
+    void testExpiredValuesAreNotRestored() throws IOException {
+        LastValueSnapshot snapshot = open(1);
+        ReflectionTestUtils.setField(snapshot, "expiresAtMillis", System.currentTimeMillis() - 1);
+        send(snapshot, "/topic/trading.state", "CLOSED");
+        snapshot.close();
+
+        assertNull(open(1).get("/topic/trading.state"));
+    }
+
+    @Test
+    void testStartsEmptyOnSomethingElsesFile() throws IOException {
+        Files.writeString(directory.resolve("last-values.snapshot"), "not a snapshot");
+        LastValueSnapshot snapshot = open(1);
+        assertEquals(0, snapshot.size());
+
+        send(snapshot, "/topic/trading.state", "OPEN");
+        snapshot.close();
+        assertEquals("OPEN", body(open(1).get("/topic/trading.state")));
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    void testCheckpointedValuesMoveOffHeap() throws IOException {
+        offHeapStore = new OffHeapStore();
+        ReflectionTestUtils.setField(offHeapStore, "maxMb", 1L);
+        ReflectionTestUtils.setField(offHeapStore, "slabKb", 64);
+        ReflectionTestUtils.invokeMethod(offHeapStore, "init");
+        LastValueSnapshot snapshot = open(1);
+        Map<String, Object> price = new HashMap<>();
+        price.put("price", 5864.67);
+        send(snapshot, "/topic/prices.spx", price);
+        send(snapshot, "/topic/trading.state", "OPEN");
+        snapshot.checkpoint();
+
+        assertTrue(((Map<String, Object>) ReflectionTestUtils.getField(snapshot, "values")).isEmpty());
+        assertEquals(2, offHeapStore.getStats().values());
+        assertEquals("{\"price\":5864.67}", body(snapshot.get("/topic/prices.spx")));
+        assertEquals("OPEN", body(snapshot.get("/topic/trading.state")));
+
+        send(snapshot, "/topic/trading.state", "CLOSED");
+        assertEquals("CLOSED", body(snapshot.get("/topic/trading.state")));
+        snapshot.checkpoint();
+        assertEquals(2, offHeapStore.getStats().values());
+
+        snapshot.evict("/topic/prices.spx");
+        assertNull(snapshot.get("/topic/prices.spx"));
+        assertEquals(1, offHeapStore.getStats().values());
+        snapshot.close();
+
+        // Still on disk, so back after a restart
+        assertEquals("{\"price\":5864.67}", body(open(1).get("/topic/prices.spx")));
+    }
+}
@@ -0,0 +1,125 @@
+package com.aleatory.websocketsrouting.startup;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.context.ApplicationEvent;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.server.ServletServerHttpRequest;
+import org.springframework.http.server.ServletServerHttpResponse;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessageType;
+import org.springframework.messaging.support.ExecutorSubscribableChannel;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.aleatory.websocketsrouting.events.SendMessageToFrontendEvent;
+import com.aleatory.websocketsrouting.journal.JournalWriter;
+import com.aleatory.websocketsrouting.replay.TopicReplay;
+
+class JitWarmupTest {
+    @TempDir
+    Path journal;
+
+    private final ExecutorSubscribableChannel brokerChannel = new ExecutorSubscribableChannel();
+    private final TopicReplay topicReplay = mock(TopicReplay.class);
+    private final List<SendMessageToFrontendEvent> routed = new ArrayList<>();
+    private WarmupGate gate;
+    private JitWarmup warmup;
+
+    @BeforeEach
+    void setUp() {
+        gate = new WarmupGate();
+        ReflectionTestUtils.setField(gate, "warmupEnabled", true);
+        ReflectionTestUtils.setField(gate, "retryAfterSeconds", 5);
+        gate.init();
+
+        // Stands in for the routing listeners: the broker gets what's routed
+        ApplicationEventPublisher publisher = mock(ApplicationEventPublisher.class);
+        doAnswer(invocation -> {
+            SendMessageToFrontendEvent event = invocation.getArgument(0);
+            routed.add(event);
+            SimpMessageHeaderAccessor headers = SimpMessageHeaderAccessor.create(SimpMessageType.MESSAGE);
+            headers.setDestination(event.getDestination());
+            brokerChannel.send(MessageBuilder.createMessage(event.getPayload().toString().getBytes(StandardCharsets.UTF_8), headers.getMessageHeaders()));
+            return null;
+        }).when(publisher).publishEvent(any(ApplicationEvent.class));
+
+        warmup = new JitWarmup();
+        ReflectionTestUtils.setField(warmup, "gate", gate);
+        ReflectionTestUtils.setField(warmup, "applicationEventPublisher", publisher);
+        ReflectionTestUtils.setField(warmup, "topicReplay", topicReplay);
+        ReflectionTestUtils.setField(warmup, "brokerChannel", brokerChannel);
+        ReflectionTestUtils.setField(warmup, "journalDirectory", journal);
+        ReflectionTestUtils.setField(warmup, "roundMessages", 100);
+        ReflectionTestUtils.setField(warmup, "stableRounds", 2);
+        ReflectionTestUtils.setField(warmup, "stableCompileMillis", Long.MAX_VALUE);
+        ReflectionTestUtils.setField(warmup, "maxSeconds", 10);
+    }
+
+    @Test
+    void warmsUpOnWarmupTopicsThenOpensTheGate() {
+        assertFalse(gate.isOpen());
+
+        warmup.run();
+
+        JitWarmup.Report report = warmup.getReport();
+        assertEquals("synthetic", report.source());
+        assertEquals(2, report.rounds());
+        assertEquals(200, report.messages());
+        assertEquals(200, report.frames());
+        assertTrue(routed.stream().allMatch(SendMessageToFrontendEvent::isWarmup));
+        assertTrue(brokerChannel.getSubscribers().isEmpty());
+        verify(topicReplay).drop("/topic/warmup.prices.spx");
+        assertTrue(gate.isOpen());
+    }
+
+    @Test
+    void prefersTheNewestJournaledTraffic() throws Exception {
+        try (JournalWriter writer = new JournalWriter(journal, 1024 * 1024, 1_000_000_000L)) {
+            writer.append("/topic/prices.spx", "{\"price\":4500.25}");
+            writer.append("/topic/trading.state", "OPEN");
+        }
+        // What a restart leaves: a new, empty segment
+        Thread.sleep(2);
+        new JournalWriter(journal, 1024 * 1024, 1_000_000_000L).close();
+
+        warmup.run();
+
+        assertEquals("journal", warmup.getReport().source());
+        assertEquals("/topic/warmup.prices.spx", routed.get(0).getDestination());
+        assertEquals("OPEN", routed.get(1).getPayload());
+    }
+
+    @Test
+    void gateTurnsHandshakesAwayUntilOpen() throws Exception {
+        MockHttpServletResponse servletResponse = new MockHttpServletResponse();
+        ServletServerHttpResponse response = new ServletServerHttpResponse(servletResponse);
+        ServletServerHttpRequest request = new ServletServerHttpRequest(new MockHttpServletRequest());
+
+        assertFalse(gate.beforeHandshake(request, response, null, null));
+        response.flush();
+        assertEquals(HttpStatus.SERVICE_UNAVAILABLE.value(), servletResponse.getStatus());
+        assertEquals("5", servletResponse.getHeader("Retry-After"));
+
+        gate.open();
+        assertTrue(gate.beforeHandshake(request, response, null, null));
+        assertEquals(1, gate.getTurnedAway());
+    }
+}
@@ -0,0 +1,125 @@
+package com.aleatory.websocketsrouting.startup;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.jar.JarFile;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+import org.junit.jupiter.api.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Time from launching the JVM to the first routed message, started the way we
+ * are in production (a fresh JVM each run): plain, with the AppCDS archive
+ * (<code>mvn package -Pcds</code>) and with Spring AOT
+ * (<code>-Paot</code>), whichever of those have been built. Runs from
+ * target/cds when it's there, so the archive's classpath matches.
+ *
+ * The app needs what it always needs to start (Redis, the backends sending
+ * something), so this isn't part of the normal test run; run it with
+ * <code>mvn test -Dtest=StartupBenchmark -Dstartup.args="..."</code>, passing
+ * whatever the app needs (<code>--spring.data.redis.host=...</code>). Set
+ * <code>-Dstartup.until=ready</code> to time to ready instead, and
+ * <code>-Dstartup.runs</code> for runs per variant (default 5).
+ */
+class StartupBenchmark {
+    private static final Logger logger = LoggerFactory.getLogger(StartupBenchmark.class);
+
+    private static final String MAIN = "com.aleatory.websocketsrouting.WebsocketsRoutingApplication";
+    private static final String AOT_INITIALIZER = MAIN.replace('.', '/') + "__ApplicationContextInitializer.class";
+    private static final Pattern STARTUP = Pattern.compile("Startup: (\\d+) ms to (ready|first routed message)");
+    private static final Path CDS_DIR = Path.of("target", "cds");
+
+    private final String until = System.getProperty("startup.until", "first-message");
+    private final int runs = Integer.getInteger("startup.runs", 5);
+    private final List<String> appArgs = Arrays.stream(System.getProperty("startup.args", "").split("\\s+")).filter(arg -> !arg.isEmpty()).toList();
+
+    private record Variant(String name, List<String> jvmArgs) {
+    }
+
+    @Test
+    void timeToFirstRoutedMessage() throws Exception {
+        boolean fromCdsDir = Files.isDirectory(CDS_DIR.resolve("lib"));
+        String classpath = fromCdsDir ? "websockets-routing.jar" + File.pathSeparator + Files.readString(CDS_DIR.resolve("classpath.txt")).trim()
+                : testClasspathWithoutTests();
+        Path workDir = fromCdsDir ? CDS_DIR : Path.of(".");
+
+        List<Variant> variants = new ArrayList<>();
+        variants.add(new Variant("plain", List.of()));
+        if (Files.exists(CDS_DIR.resolve("websockets-routing.jsa"))) {
+            variants.add(new Variant("cds", List.of("-XX:SharedArchiveFile=websockets-routing.jsa")));
+        }
+        if (hasAotClasses(fromCdsDir)) {
+            variants.add(new Variant("aot", List.of("-Dspring.aot.enabled=true")));
+            if (variants.size() == 3) {
+                variants.add(new Variant("cds+aot", List.of("-XX:SharedArchiveFile=websockets-routing.jsa", "-Dspring.aot.enabled=true")));
+            }
+        }
+
+        for (Variant variant : variants) {
+            long[] millis = new long[runs];
+            for (int i = 0; i < runs; i++) {
+                millis[i] = run(workDir, classpath, variant);
+            }
+            Arrays.sort(millis);
+            logger.info("{}: median {} ms to {}, best {} ms, worst {} ms over {} runs", variant.name(), millis[runs / 2], until, millis[0], millis[runs - 1], runs);
+        }
+    }
+
+    /**
+     * @return ms from JVM start to <code>until</code>, as the app logged it, or
+     *         -1 if it never got there
+     */
+    private long run(Path workDir, String classpath, Variant variant) throws IOException, InterruptedException {
+        List<String> command = new ArrayList<>();
+        command.add(Path.of(System.getProperty("java.home"), "bin", "java").toString());
+        command.addAll(variant.jvmArgs());
+        command.addAll(List.of("-cp", classpath, MAIN, "--startup.exit.after=" + until));
+        command.addAll(appArgs);
+        Process process = new ProcessBuilder(command).directory(workDir.toFile()).redirectErrorStream(true).start();
+        String milestone = "ready".equals(until) ? "ready" : "first routed message";
+        long millis = -1;
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                Matcher matcher = STARTUP.matcher(line);
+                if (matcher.find() && matcher.group(2).equals(milestone)) {
+                    millis = Long.parseLong(matcher.group(1));
+                }
+            }
+        }
+        if (!process.waitFor(2, TimeUnit.MINUTES)) {
+            process.destroyForcibly();
+        }
+        if (millis < 0) {
+            logger.warn("{} run never got to {} (exit code {})", variant.name(), until, process.exitValue());
+        }
+        return millis;
+    }
+
+    private static String testClasspathWithoutTests() {
+        return Arrays.stream(System.getProperty("java.class.path").split(File.pathSeparator)).filter(entry -> !entry.endsWith("test-classes"))
+                .map(entry -> Path.of(entry).toAbsolutePath().toString()).collect(Collectors.joining(File.pathSeparator));
+    }
+
+    private static boolean hasAotClasses(boolean fromCdsDir) throws IOException {
+        if (!fromCdsDir) {
+            return Files.exists(Path.of("target", "classes").resolve(AOT_INITIALIZER));
+        }
+        try (JarFile jar = new JarFile(CDS_DIR.resolve("websockets-routing.jar").toFile())) {
+            return jar.getEntry(AOT_INITIALIZER) != null;
+        }
+    }
+}